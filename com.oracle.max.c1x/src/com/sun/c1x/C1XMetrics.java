@@ -53,6 +53,8 @@ public class C1XMetrics {
     public static int BlocksSkipped;
     public static int BlocksDeleted;
     public static int DeadCodeEliminated;
+    public static int AllocationsScalarReplaced;
+    public static int LocksEliminated;
     public static int ResolveCPEAttempts;
     public static int BytecodesCompiled;
     public static int CodeBytesEmitted;
@@ -46,6 +46,16 @@ public final class C1XOptions {
     public static int     MaximumDesiredSize                 = 8000;
     public static int     MaximumShortLoopSize               = 5;
 
+    // profile-guided settings
+    public static boolean UseTypeProfile                     = ____;
+    public static int     TypeProfileMinimumCount            = 100;
+    public static boolean UseBranchProfile                   = ____;
+    public static float   UnlikelyBranchProbability          = 0.05f;
+
+    // escape analysis settings
+    public static boolean OptEscapeAnalysis                  = ____;
+    public static int     MaximumEscapeAnalysisArrayLength   = 16;
+
     // intrinsification settings
     public static boolean OptIntrinsify                      = ____;
 
@@ -222,6 +232,8 @@ public final class C1XOptions {
         OptInlineSynchronized           = lll;
         UseStackMapTableLiveness        = lll;
         UseAssumptions                  = lll;
+        UseTypeProfile                  = lll;
+        UseBranchProfile                = lll;
         OptIterativeNCE                 = lll;
         OptFlowSensitiveNCE             = lll;
         OptDeadCodeElimination1         = lll;
@@ -230,5 +242,6 @@ public final class C1XOptions {
         OptDiamondElimination           = lll;
         OptCEElimination                = lll;
         OptBlockSkipping                = lll;
+        OptEscapeAnalysis               = lll;
     }
 }
@@ -2082,6 +2082,15 @@ public final class LinearScan {
     }
 
     CiValue toCiValue(int opId, Value value) {
+        if (value instanceof VirtualObject) {
+            VirtualObject virtualObject = (VirtualObject) value;
+            Value[] fieldValues = virtualObject.values();
+            CiValue[] values = new CiValue[fieldValues.length];
+            for (int i = 0; i < fieldValues.length; i++) {
+                values[i] = toCiValue(opId, fieldValues[i]);
+            }
+            return CiVirtualObject.get(virtualObject.type(), values, virtualObject.objectId());
+        }
         if (value != null && value.operand() != CiValue.IllegalValue) {
             CiValue operand = value.operand();
             Constant con = null;
@@ -2153,14 +2162,17 @@ public final class LinearScan {
         }
 
         for (int i = 0; i < state.locksSize(); i++) {
-            if (compilation.runtime.sizeOfBasicObjectLock() != 0) {
+            Value lock = state.lockAt(i);
+            if (lock instanceof VirtualObject) {
+                // the locking was eliminated and must be redone if the object is recreated
+                values[valueIndex++] = new CiMonitorValue(toCiValue(opId, lock), null, true);
+            } else if (compilation.runtime.sizeOfBasicObjectLock() != 0) {
                 CiStackSlot monitorAddress = frameMap.toMonitorBaseStackAddress(i);
                 values[valueIndex++] = monitorAddress;
                 assert frameRefMap != null;
                 CiStackSlot objectAddress = frameMap.toMonitorObjectStackAddress(i);
                 LIRDebugInfo.setBit(frameRefMap, objectAddress.index());
             } else {
-                Value lock = state.lockAt(i);
                 if (lock.isConstant()) {
                     // lock on class for synchronized static method
                     values[valueIndex++] = lock.asConstant();
@@ -430,12 +430,9 @@ public abstract class LIRGenerator extends ValueVisitor {
     public void visitGoto(Goto x) {
         setNoResult(x);
 
-        if (currentBlock.next() instanceof OsrEntry) {
-            // need to free up storage used for OSR entry point
-            CiValue osrBuffer = currentBlock.next().operand();
-            callRuntime(CiRuntimeCall.OSRMigrationEnd, null, osrBuffer);
-            emitXir(xir.genSafepointPoll(site(x)), x, stateFor(x, x.stateAfter()), null, false);
-        } else if (x.isSafepointPoll()) {
+        // The OSR buffer read by an OSR entry block is owned by the runtime, so
+        // leaving such a block does not require a call to free it.
+        if (x.isSafepointPoll()) {
             emitXir(xir.genSafepointPoll(site(x)), x, stateFor(x, x.stateAfter()), null, false);
         }
 
@@ -897,6 +894,11 @@ public abstract class LIRGenerator extends ValueVisitor {
         Util.shouldNotReachHere();
     }
 
+    @Override
+    public void visitVirtualObject(VirtualObject i) {
+        Util.shouldNotReachHere();
+    }
+
     @Override
     public void visitReturn(Return x) {
         if (x.kind.isVoid()) {
@@ -1825,6 +1827,14 @@ public abstract class LIRGenerator extends ValueVisitor {
     }
 
     protected void preGCWriteBarrier(CiValue addrOpr, boolean patch, LIRDebugInfo info) {
+        CiValue pointer = addrOpr instanceof CiAddress ? newVariable(compilation.target.wordKind) : addrOpr;
+        XirSnippet writeBarrier = xir.genPreWriteBarrier(toXirArgument(pointer));
+        if (writeBarrier != null) {
+            if (pointer != addrOpr) {
+                lir.lea((CiAddress) addrOpr, pointer);
+            }
+            emitXir(writeBarrier, null, info, null, false);
+        }
     }
 
     protected void setNoResult(Instruction x) {
@@ -1893,6 +1903,13 @@ public abstract class LIRGenerator extends ValueVisitor {
                     }
                 }
             }
+            for (int index = 0; index < s.locksSize(); index++) {
+                final Value lock = s.lockAt(index);
+                if (lock instanceof VirtualObject) {
+                    // the locking was eliminated, so the fields are needed to recreate the object
+                    walkStateValue(lock);
+                }
+            }
             bci = scope.callerBCI();
             s = s.callerState();
         }
@@ -1905,6 +1922,11 @@ public abstract class LIRGenerator extends ValueVisitor {
             if (value instanceof Phi && !value.isIllegal()) {
                 // phi's are special
                 operandForPhi((Phi) value);
+            } else if (value instanceof VirtualObject) {
+                // virtual objects have no operand, only their field values are needed
+                for (Value fieldValue : ((VirtualObject) value).values()) {
+                    walkStateValue(fieldValue);
+                }
             } else if (value.operand().isIllegal() && !(value instanceof UnsafeCast)) {
                 // instruction doesn't have an operand yet
                 CiValue operand = makeOperand(value);
@@ -2153,4 +2175,10 @@ public abstract class LIRGenerator extends ValueVisitor {
         lir.cmp(typeEqualityCheck.condition.negate(), leftValue, rightValue);
         emitGuard(typeEqualityCheck);
     }
+
+    @Override
+    public void visitTypeGuard(TypeGuard x) {
+        XirSnippet snippet = xir.genTypeCheck(site(x), toXirArgument(x.object()), toXirArgument(x.hub()), x.type());
+        emitXir(snippet, x, stateFor(x), null, false);
+    }
 }
@@ -83,6 +83,7 @@ public final class GraphBuilder {
     final LogStream log;
 
     boolean skipBlock;                     // skip processing of the rest of this block
+    BlockBegin inlineContinuation;         // block the next inlined method returns to, if not the block at the next bci
     private Value rootMethodSynchronizedObject;
 
     /**
@@ -120,7 +121,13 @@ public final class GraphBuilder {
         // 2. compute the block map and get the entrypoint(s)
         BlockMap blockMap = compilation.getBlockMap(scope.method, compilation.osrBCI);
         BlockBegin stdEntry = blockMap.get(0);
-        BlockBegin osrEntry = compilation.osrBCI < 0 ? null : blockMap.get(compilation.osrBCI);
+        BlockBegin osrEntry = null;
+        if (compilation.osrBCI >= 0) {
+            // the OSR entry block is filled in once the loop header it jumps to has been parsed
+            osrEntry = new BlockBegin(compilation.osrBCI, ir.nextBlockNumber());
+            osrEntry.setOsrEntry(true);
+            ir.osrEntryBlock = osrEntry;
+        }
         pushRootScope(scope, blockMap, startBlock);
         MutableFrameState initialState = stateAtEntry(rootMethod);
         startBlock.mergeOrClone(initialState);
@@ -204,13 +211,62 @@ public final class GraphBuilder {
 
         if (compilation.osrBCI >= 0) {
             BlockBegin osrBlock = blockMap.get(compilation.osrBCI);
-            assert osrBlock.wasVisited();
+            if (!osrBlock.wasVisited()) {
+                throw new CiBailout("OSR entry is not reachable");
+            }
             if (!osrBlock.stateBefore().stackEmpty()) {
                 throw new CiBailout("cannot OSR with non-empty stack");
             }
+            setupOsrEntryBlock(osrEntry, osrBlock);
         }
     }
 
+    /**
+     * Fills in the block through which an OSR compilation is entered. The block loads the values of
+     * the locals live at the loop header {@code target} from the OSR buffer and then jumps to the loop header.
+     * The OSR buffer holds one word per local variable slot, with the value of local {@code i} at offset
+     * {@code i * wordSize} from the start of the buffer.
+     *
+     * @param osrEntry the OSR entry block
+     * @param target the loop header at the OSR bytecode index
+     */
+    private void setupOsrEntryBlock(BlockBegin osrEntry, BlockBegin target) {
+        FrameState targetState = target.stateBefore();
+        if (!target.isParserLoopHeader()) {
+            // only loop headers have phis for all their locals
+            throw new CiBailout("OSR entry is not a loop header");
+        }
+        if (targetState.locksSize() > 0) {
+            throw new CiBailout("cannot OSR with locked monitors");
+        }
+
+        int osrBCI = compilation.osrBCI;
+        osrEntry.mergeOrClone(targetState);
+        osrEntry.setWasVisited(true);
+        killMemoryMap();
+        curBlock = osrEntry;
+        curState = targetState.copy();
+        lastInstr = osrEntry;
+        osrEntry.setNext(null, -1);
+
+        Value buffer = appendWithoutOptimization(new OsrEntry(), osrBCI);
+        int wordSize = compilation.target.wordSize;
+        for (int i = 0; i < curState.localsSize(); i++) {
+            Value local = curState.localAt(i);
+            if (local != null) {
+                Value offset = appendWithoutOptimization(new Constant(CiConstant.forInt(i * wordSize)), osrBCI);
+                Value value = appendWithoutOptimization(new UnsafeGetRaw(local.kind, buffer, offset, 0, false), osrBCI);
+                curState.storeLocal(i, value);
+            }
+        }
+
+        Goto end = new Goto(target, null, false);
+        appendWithoutOptimization(end, osrBCI);
+        end.setStateAfter(curState.immutableCopy(osrBCI));
+        osrEntry.setEnd(end);
+        target.mergeOrClone(end.stateAfter());
+    }
+
     private void closeAccessorScope(RiType accessor) {
         if (accessor != null) {
             boundAccessor.set(null);
@@ -696,7 +752,11 @@ public final class GraphBuilder {
         BlockBegin fsucc = blockAt(stream().nextBCI());
         int bci = stream().currentBCI();
         boolean isSafepointPoll = !scopeData.noSafepointPolls() && tsucc.bci() <= bci || fsucc.bci() <= bci;
-        append(new If(x, cond, false, y, tsucc, fsucc, isSafepointPoll ? stateBefore : null, isSafepointPoll));
+        If ifNode = new If(x, cond, false, y, tsucc, fsucc, isSafepointPoll ? stateBefore : null, isSafepointPoll);
+        if (C1XOptions.UseBranchProfile) {
+            ifNode.setTrueSuccessorProbability(method().branchProbability(bci));
+        }
+        append(ifNode);
     }
 
     void genIfZero(Condition cond) {
@@ -1056,6 +1116,35 @@ public final class GraphBuilder {
                 assert result : "Inlining must succeed";
                 return;
             }
+
+            // 4. check if the profile of this call site saw only one receiver type
+            exact = getProfiledReceiverType(resolvedTarget, receiver);
+            if (exact != null) {
+                RiResolvedMethod targetMethod = exact.resolveMethodImpl(resolvedTarget);
+                if (targetMethod != null && !isAbstract(targetMethod.accessFlags())) {
+                    if (C1XOptions.PrintAssumptions) {
+                        TTY.println("Guarded invoke direct because of monomorphic type profile to " + targetMethod);
+                    }
+                    // the guard deoptimizes to the invoke with its arguments still on the stack
+                    for (Value arg : args) {
+                        curState.xpush(arg);
+                    }
+                    FrameState stateBefore = curState.immutableCopy(bci());
+                    curState.popArguments(args.length);
+                    if (!receiver.isNonNull()) {
+                        args[0] = append(new NullCheck(receiver, null));
+                    }
+                    Value hub = appendConstant(exact.getEncoding(RiType.Representation.ObjectHub));
+                    append(new TypeGuard(args[0], hub, exact, stateBefore));
+                    invokeDirect(targetMethod, args, exact, cpi, constantPool);
+                    return;
+                }
+            }
+
+            // 5. check if the profile of this call site saw exactly two receiver types
+            if (tryBimorphicInvoke(opcode, resolvedTarget, args, cpi, constantPool)) {
+                return;
+            }
         }
 
         // devirtualization failed, produce an actual invokevirtual
@@ -1115,6 +1204,142 @@ public final class GraphBuilder {
         return assumed;
     }
 
+    /**
+     * Gets the only receiver type recorded by the type profile of the current call site, provided the
+     * profile is mature enough to be trusted. A call devirtualized on the basis of this type must be
+     * guarded by a {@link TypeGuard}.
+     *
+     * @return {@code null} if the profile is missing, immature, saw more than one receiver type or a guard
+     *         on it already failed
+     */
+    private RiResolvedType getProfiledReceiverType(RiResolvedMethod target, Value receiver) {
+        if (method().typeProfileFailed(bci())) {
+            return null;
+        }
+        RiResolvedType[] types = getProfiledReceiverTypes(target, receiver, 1);
+        return types == null ? null : types[0];
+    }
+
+    /**
+     * Gets the receiver types recorded by the type profile of the current call site, provided the profile is
+     * mature enough to be trusted and saw exactly {@code morphism} concrete receiver types.
+     *
+     * @return the receiver types, most frequent first, or {@code null}
+     */
+    private RiResolvedType[] getProfiledReceiverTypes(RiResolvedMethod target, Value receiver, int morphism) {
+        if (!C1XOptions.UseTypeProfile || receiver.kind != CiKind.Object) {
+            return null;
+        }
+        RiTypeProfile profile = method().typeProfile(bci());
+        if (profile == null || profile.count < C1XOptions.TypeProfileMinimumCount || profile.morphism != morphism || profile.types.length != morphism) {
+            return null;
+        }
+        RiResolvedType[] types = profile.types.clone();
+        for (RiResolvedType type : types) {
+            if (type.isInterface() || isAbstract(type.accessFlags()) || !type.isSubtypeOf(target.holder())) {
+                return null;
+            }
+        }
+        if (morphism == 2 && profile.probabilities[1] > profile.probabilities[0]) {
+            RiResolvedType type = types[0];
+            types[0] = types[1];
+            types[1] = type;
+        }
+        return types;
+    }
+
+    /**
+     * Dispatches a call whose type profile saw exactly two receiver types. The receiver is tested against
+     * each type in turn and the call is bound, and inlined if possible, in the arm taken for that type. Any
+     * other receiver reaches an actual virtual call, so no deoptimization is needed. A type test only stands
+     * in for a comparison of hubs if the type has no subclasses, so both types must be leaf classes.
+     *
+     * @return {@code true} if the call was dispatched
+     */
+    private boolean tryBimorphicInvoke(int opcode, RiResolvedMethod target, Value[] args, int cpi, RiConstantPool constantPool) {
+        Value receiver = args[0];
+        RiResolvedType[] types = getProfiledReceiverTypes(target, receiver, 2);
+        if (types == null || scopeData.parsingJsr()) {
+            return false;
+        }
+        BlockBegin continuation = blockAtOrNull(nextBCI());
+        if (continuation != null && continuation.wasVisited()) {
+            // the arms could not be merged into an already parsed block
+            return false;
+        }
+        RiResolvedMethod[] targets = new RiResolvedMethod[types.length];
+        for (int i = 0; i < types.length; i++) {
+            targets[i] = types[i].resolveMethodImpl(target);
+            if (targets[i] == null || isAbstract(targets[i].accessFlags()) || types[i].isArrayClass()) {
+                return false;
+            }
+        }
+        for (RiResolvedType type : types) {
+            if (!assumeLeafClass(type)) {
+                return false;
+            }
+        }
+        if (C1XOptions.PrintAssumptions) {
+            TTY.println("Guarded invoke direct because of bimorphic type profile to " + targets[0] + " and " + targets[1]);
+        }
+
+        if (continuation == null) {
+            // there was not already a block starting at the next BCI
+            continuation = new BlockBegin(nextBCI(), ir.nextBlockNumber());
+            continuation.setDepthFirstNumber(0);
+        }
+        for (int i = 0; i < types.length; i++) {
+            BlockBegin typeCase = new BlockBegin(bci(), ir.nextBlockNumber());
+            BlockBegin otherCase = new BlockBegin(bci(), ir.nextBlockNumber());
+            Value hub = appendConstant(types[i].getEncoding(RiType.Representation.ObjectHub));
+            Value isType = append(new InstanceOf(types[i], hub, receiver, null));
+            If test = new If(isType, Condition.NE, false, appendConstant(CiConstant.INT_0), typeCase, otherCase, null, false);
+            endDispatchBlock(test);
+
+            startDispatchBlock(typeCase);
+            inlineContinuation = continuation;
+            boolean inlined = tryInline(targets[i], args.clone());
+            inlineContinuation = null;
+            if (!inlined) {
+                appendInvoke(INVOKESPECIAL, targets[i], args.clone(), false, cpi, constantPool);
+            }
+            // an inlined method that does not fall back into this block has already branched to the continuation
+            skipBlock = false;
+            if (!(lastInstr instanceof BlockEnd)) {
+                endDispatchBlock(new Goto(continuation, null, false));
+            }
+
+            startDispatchBlock(otherCase);
+        }
+        appendInvoke(opcode, target, args, false, cpi, constantPool);
+        endDispatchBlock(new Goto(continuation, null, false));
+
+        // resume parsing in the continuation, which now has all its predecessors
+        if (!continuation.wasVisited()) {
+            scopeData.addToWorkList(continuation);
+        }
+        skipBlock = true;
+        return true;
+    }
+
+    private void endDispatchBlock(BlockEnd end) {
+        appendWithoutOptimization(end, bci());
+        end.setStateAfter(curState.immutableCopy(bci()));
+        curBlock.setEnd(end);
+        for (BlockBegin succ : end.successors()) {
+            succ.mergeOrClone(end.stateAfter());
+        }
+    }
+
+    private void startDispatchBlock(BlockBegin block) {
+        block.setWasVisited(true);
+        killMemoryMap();
+        curBlock = block;
+        curState = block.stateBefore().copy();
+        lastInstr = block;
+        block.setNext(null, -1);
+    }
+
     private RiResolvedType getAssumedLeafType(RiResolvedType staticType, Value receiver) {
         RiResolvedType assumed = getAssumedLeafType(staticType);
         if (assumed != null) {
@@ -1872,7 +2097,8 @@ public final class GraphBuilder {
 
         // Introduce a new callee continuation point. All return instructions
         // in the callee will be transformed to Goto's to the continuation
-        BlockBegin continuationBlock = blockAtOrNull(nextBCI());
+        BlockBegin continuationBlock = inlineContinuation != null ? inlineContinuation : blockAtOrNull(nextBCI());
+        inlineContinuation = null;
         boolean continuationExisted = true;
         if (continuationBlock == null) {
             // there was not already a block starting at the next BCI
@@ -2050,10 +2276,6 @@ public final class GraphBuilder {
         BlockBegin b;
         while ((b = scopeData.removeFromWorkList()) != null) {
             if (!b.wasVisited()) {
-                if (b.isOsrEntry()) {
-                    // OSR not yet supported
-                    Util.shouldNotReachHere();
-                }
                 b.setWasVisited(true);
                 // now parse the block
                 killMemoryMap();
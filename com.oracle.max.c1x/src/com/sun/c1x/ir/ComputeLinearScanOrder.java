@@ -409,6 +409,12 @@ public final class ComputeLinearScanOrder {
         }
         curBit--;
 
+        // blocks only reached through a rarely taken branch are moved out of the hot path
+        if (!isUnlikelySuccessor(cur)) {
+            weight |= 1 << curBit;
+        }
+        curBit--;
+
         // exceptions should not be thrown in normal control flow, so these blocks
         // are added as late as possible
         if (!(cur.end() instanceof Throw) && (singleSux == null || !(singleSux.end() instanceof Throw))) {
@@ -435,6 +441,21 @@ public final class ComputeLinearScanOrder {
         return weight;
     }
 
+    /**
+     * Determines if a block is only entered through an edge that the branch profile says is rarely taken.
+     */
+    private static boolean isUnlikelySuccessor(BlockBegin cur) {
+        if (!C1XOptions.UseBranchProfile || cur.numberOfPreds() != 1) {
+            return false;
+        }
+        BlockEnd end = cur.predAt(0).end();
+        if (!(end instanceof If)) {
+            return false;
+        }
+        double probability = ((If) end).probability(cur);
+        return probability >= 0 && probability < C1XOptions.UnlikelyBranchProbability;
+    }
+
     boolean readyForProcessing(BlockBegin cur) {
         // Discount the edge just traveled.
         // When the number drops to zero, all forward branches were processed
@@ -36,6 +36,7 @@ public final class If extends BlockEnd {
     Value x;
     Value y;
     Condition condition;
+    double trueSuccessorProbability = -1;
 
     /**
      * Constructs a new If instruction.
@@ -125,6 +126,34 @@ public final class If extends BlockEnd {
         return successor(unorderedIsTrue());
     }
 
+    /**
+     * Gets the profiled probability that the true successor is taken.
+     * @return the probability, or {@code -1} if no profile is available
+     */
+    public double trueSuccessorProbability() {
+        return trueSuccessorProbability;
+    }
+
+    /**
+     * Sets the profiled probability that the true successor is taken.
+     * @param probability the probability, or {@code -1} if no profile is available
+     */
+    public void setTrueSuccessorProbability(double probability) {
+        trueSuccessorProbability = probability;
+    }
+
+    /**
+     * Gets the profiled probability that a given successor is taken.
+     * @param sux a successor of this instruction
+     * @return the probability, or {@code -1} if no profile is available
+     */
+    public double probability(BlockBegin sux) {
+        if (trueSuccessorProbability < 0 || trueSuccessor() == falseSuccessor()) {
+            return -1;
+        }
+        return sux == trueSuccessor() ? trueSuccessorProbability : 1 - trueSuccessorProbability;
+    }
+
     /**
      * Swaps the operands to this if and reverses the condition (e.g. > goes to <=).
      * @see Condition#mirror()
@@ -147,6 +176,9 @@ public final class If extends BlockEnd {
         BlockBegin f = successors.get(1);
         successors.set(0, f);
         successors.set(1, t);
+        if (trueSuccessorProbability >= 0) {
+            trueSuccessorProbability = 1 - trueSuccessorProbability;
+        }
     }
 
     @Override
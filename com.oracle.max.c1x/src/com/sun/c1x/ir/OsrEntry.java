@@ -26,7 +26,8 @@ import com.oracle.max.criutils.*;
 import com.sun.cri.ci.*;
 
 /**
- * The {@code OsrEntry} instruction represents the buffer for an OSR.
+ * The {@code OsrEntry} instruction represents the buffer for an OSR. Its value is the address of the buffer
+ * from which the OSR entry block loads the values of the locals.
  */
 public final class OsrEntry extends Instruction {
 
@@ -34,8 +35,8 @@ public final class OsrEntry extends Instruction {
      * Constructs a new OsrEntry instruction.
      */
     public OsrEntry() {
-        // TODO: this should be a CiKind.Word
-        super(CiKind.Jsr);
+        // the address of the buffer is a word, which is modeled as a long
+        super(CiKind.Long);
     }
 
     @Override
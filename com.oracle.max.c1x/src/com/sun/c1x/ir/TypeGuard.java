@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2010, 2011, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.c1x.ir;
+
+import static com.sun.c1x.util.Util.*;
+
+import com.oracle.max.criutils.*;
+import com.sun.c1x.value.*;
+import com.sun.cri.ri.*;
+
+/**
+ * Checks that the exact type of a non-null object is a given type and deoptimizes otherwise.
+ * This is used to speculate on the receiver type recorded by a type profile.
+ */
+public final class TypeGuard extends Guard {
+
+    Value object;
+    Value hub;
+    final RiResolvedType type;
+
+    /**
+     * Constructs a new TypeGuard instruction.
+     *
+     * @param object the instruction producing the object to check, which must not be null
+     * @param hub the constant {@linkplain RiType.Representation#ObjectHub hub} of {@code type}
+     * @param type the type that {@code object} is expected to have
+     * @param stateBefore the state to deoptimize to if the check fails
+     */
+    public TypeGuard(Value object, Value hub, RiResolvedType type, FrameState stateBefore) {
+        super(Condition.EQ, stateBefore);
+        this.object = object;
+        this.hub = hub;
+        this.type = type;
+        assert object.isNonNull();
+        assert hub.isConstant();
+    }
+
+    public Value object() {
+        return object;
+    }
+
+    public Value hub() {
+        return hub;
+    }
+
+    public RiResolvedType type() {
+        return type;
+    }
+
+    @Override
+    public void inputValuesDo(ValueClosure closure) {
+        object = closure.apply(object);
+        hub = closure.apply(hub);
+    }
+
+    @Override
+    public void accept(ValueVisitor v) {
+        v.visitTypeGuard(this);
+    }
+
+    @Override
+    public void print(LogStream out) {
+        out.print("typeGuard ").print(valueString(object)).print(" ").print(type.name());
+    }
+}
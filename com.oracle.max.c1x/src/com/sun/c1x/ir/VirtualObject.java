@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.c1x.ir;
+
+import com.oracle.max.criutils.*;
+import com.sun.c1x.util.*;
+import com.sun.cri.ci.*;
+import com.sun.cri.ri.*;
+
+/**
+ * The {@code VirtualObject} value stands for an allocation that was removed by
+ * {@linkplain com.sun.c1x.opt.EscapeAnalyzer escape analysis}. It only appears in frame states,
+ * where it records the field values the object would have at that point so that deoptimization
+ * can recreate it. No code is generated for it.
+ * <p>
+ * For an instance class, there is one value per instance field, ordered like the
+ * {@linkplain RiResolvedType#declaredFields() declared fields} of each class in the hierarchy,
+ * starting with the top-most super class. For an array, there is one value per element.
+ */
+public final class VirtualObject extends Value {
+
+    private final RiResolvedType type;
+    private final Value[] values;
+    private final int objectId;
+
+    /**
+     * Creates a new VirtualObject.
+     *
+     * @param type the type of the removed allocation
+     * @param values the field or element values of the object
+     * @param objectId identifies the removed allocation within the compiled method; all virtual objects
+     *            standing for the same allocation have the same id
+     */
+    public VirtualObject(RiResolvedType type, Value[] values, int objectId) {
+        super(CiKind.Object);
+        this.type = type;
+        this.values = values;
+        this.objectId = objectId;
+        setFlag(Flag.NonNull);
+    }
+
+    @Override
+    public BlockBegin block() {
+        return null;
+    }
+
+    public RiResolvedType type() {
+        return type;
+    }
+
+    public Value[] values() {
+        return values;
+    }
+
+    public int objectId() {
+        return objectId;
+    }
+
+    @Override
+    public RiResolvedType exactType() {
+        return type;
+    }
+
+    @Override
+    public RiResolvedType declaredType() {
+        return type;
+    }
+
+    @Override
+    public void inputValuesDo(ValueClosure closure) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = closure.apply(values[i]);
+        }
+    }
+
+    @Override
+    public void accept(ValueVisitor v) {
+        v.visitVirtualObject(this);
+    }
+
+    @Override
+    public void print(LogStream out) {
+        out.print("virtual ").print(CiUtil.toJavaName(type)).print(" #").print(objectId).print(" {");
+        for (int i = 0; i < values.length; i++) {
+            if (i != 0) {
+                out.print(", ");
+            }
+            out.print(Util.valueString(values[i]));
+        }
+        out.print('}');
+    }
+}
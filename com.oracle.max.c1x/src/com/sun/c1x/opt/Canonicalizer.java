@@ -1251,6 +1251,7 @@ public class Canonicalizer extends DefaultValueVisitor {
             }
             // TODO: the state after is incorrect here: should it be preserved from the original if?
             If canon = new If(cmp.x(), cond, nanSucc == tsux, cmp.y(), tsux, fsux, cmp.stateBefore(), i.isSafepointPoll());
+            canon.setTrueSuccessorProbability(i.probability(tsux));
             if (cmp.x() == cmp.y()) {
                 // re-canonicalize the new if
                 visitIf(canon);
@@ -1275,6 +1276,7 @@ public class Canonicalizer extends DefaultValueVisitor {
         }
 
         If canon = new If(cmp.x(), ifcond, false, cmp.y(), i.successor(true), i.successor(false), cmp.stateBefore(), i.isSafepointPoll());
+        canon.setTrueSuccessorProbability(i.trueSuccessorProbability());
         if (cmp.x() == cmp.y()) {
             // re-canonicalize the new if
             visitIf(canon);
@@ -1516,6 +1518,13 @@ public class Canonicalizer extends DefaultValueVisitor {
         }
     }
 
+    @Override
+    public void visitTypeGuard(TypeGuard i) {
+        if (i.object().exactType() == i.type()) {
+            setCanonical(null);
+        }
+    }
+
     @Override
     public void visitBoundsCheck(BoundsCheck b) {
         Value index = b.index();
@@ -0,0 +1,455 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.c1x.opt;
+
+import java.util.*;
+
+import com.sun.c1x.*;
+import com.sun.c1x.graph.*;
+import com.sun.c1x.ir.*;
+import com.sun.c1x.value.*;
+import com.sun.cri.bytecode.*;
+import com.sun.cri.ci.*;
+import com.sun.cri.ri.*;
+
+/**
+ * Replaces allocations that do not escape the compiled method (after inlining) by their fields.
+ * Loads from such an object are replaced by the value last stored to the field and locking on
+ * the object is removed. Frame states refer to a {@link VirtualObject} instead of the allocation,
+ * so that deoptimization can recreate the object (and re-acquire the eliminated locks).
+ * <p>
+ * The analysis is deliberately simple: an object escapes if it is used by anything other than
+ * a field or element access, an array length or a monitor operation, if it flows into a phi or if
+ * it is stored anywhere. Stores to the object must be in the block of the allocation and must
+ * not follow an instruction that can throw to an exception handler in that block.
+ */
+public final class EscapeAnalyzer {
+
+    final IR ir;
+    final InstructionSubstituter subst;
+    final List<BlockBegin> blocks = new ArrayList<BlockBegin>();
+    final List<Candidate> candidateList = new ArrayList<Candidate>();
+    final IdentityHashMap<Value, Candidate> candidates = new IdentityHashMap<Value, Candidate>();
+    int nextObjectId;
+
+    /**
+     * Creates a new EscapeAnalyzer and performs scalar replacement on the IR.
+     *
+     * @param ir the IR on which to perform escape analysis
+     */
+    public EscapeAnalyzer(IR ir) {
+        this.ir = ir;
+        this.subst = new InstructionSubstituter(ir);
+        ir.startBlock.iteratePreOrder(new BlockClosure() {
+            public void apply(BlockBegin block) {
+                blocks.add(block);
+            }
+        });
+        findCandidates();
+        if (candidates.isEmpty()) {
+            return;
+        }
+        removeNullChecks();
+        findEscapes();
+        for (Candidate c : candidateList) {
+            if (!c.escapes) {
+                c.checkStates();
+            }
+        }
+        for (Candidate c : candidateList) {
+            if (!c.escapes) {
+                c.replace();
+            }
+        }
+        subst.finish();
+    }
+
+    private void findCandidates() {
+        for (BlockBegin block : blocks) {
+            for (Instruction i = block.next(); i != null; i = i.next()) {
+                if (i instanceof NewInstance) {
+                    RiResolvedType type = ((NewInstance) i).exactType();
+                    if (type != null && type.isInstanceClass() && type.isInitialized() && !type.hasFinalizer()) {
+                        RiResolvedField[] fields = fieldsOf(type);
+                        if (fields != null) {
+                            addCandidate(new Candidate(i, block, type, fields, fields.length));
+                        }
+                    }
+                } else if (i instanceof NewTypeArray) {
+                    NewTypeArray newArray = (NewTypeArray) i;
+                    RiResolvedType elementType = newArray.exactType().componentType();
+                    Value length = newArray.length();
+                    if (length.isConstant() && elementType.kind(false) == elementType.kind(true) && elementType.kind(true).isPrimitive()) {
+                        int len = length.asConstant().asInt();
+                        if (len >= 0 && len <= C1XOptions.MaximumEscapeAnalysisArrayLength) {
+                            addCandidate(new Candidate(i, block, newArray.exactType(), null, len));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void addCandidate(Candidate c) {
+        candidateList.add(c);
+        candidates.put(c.allocation, c);
+    }
+
+    /**
+     * Gets the instance fields of a given class, starting with those of the top-most super class.
+     *
+     * @return {@code null} if the class has a field that cannot be represented in a frame state
+     */
+    private static RiResolvedField[] fieldsOf(RiResolvedType type) {
+        ArrayList<RiResolvedField[]> declared = new ArrayList<RiResolvedField[]>();
+        int count = 0;
+        for (RiResolvedType t = type; t != null; t = t.superType()) {
+            RiResolvedField[] fields = t.declaredFields();
+            for (RiResolvedField field : fields) {
+                if (field.kind(false) != field.kind(true)) {
+                    return null;
+                }
+            }
+            declared.add(fields);
+            count += fields.length;
+        }
+        RiResolvedField[] result = new RiResolvedField[count];
+        int index = 0;
+        for (int i = declared.size() - 1; i >= 0; i--) {
+            for (RiResolvedField field : declared.get(i)) {
+                result[index++] = field;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes null checks on candidates, so that they do not count as uses.
+     */
+    private void removeNullChecks() {
+        InstructionSubstituter nullCheckSubst = new InstructionSubstituter(ir);
+        for (BlockBegin block : blocks) {
+            for (Instruction i = block.next(); i != null; i = i.next()) {
+                if (i instanceof NullCheck && candidates.containsKey(((NullCheck) i).object())) {
+                    nullCheckSubst.setSubst(i, ((NullCheck) i).object());
+                }
+            }
+        }
+        nullCheckSubst.finish();
+    }
+
+    private void findEscapes() {
+        for (final BlockBegin block : blocks) {
+            block.stateBefore().forEachPhi(block, new FrameState.PhiProcedure() {
+                public boolean doPhi(Phi phi) {
+                    for (int j = 0; j < phi.inputCount(); j++) {
+                        Candidate c = candidates.get(phi.inputAt(j));
+                        if (c != null) {
+                            c.escapes = true;
+                        }
+                    }
+                    return true;
+                }
+            });
+            for (Instruction i = block.next(); i != null; i = i.next()) {
+                final Instruction use = i;
+                i.inputValuesDo(new ValueClosure() {
+                    public Value apply(Value v) {
+                        Candidate c = candidates.get(v);
+                        if (c != null && !c.isAllowedUse(use, block)) {
+                            c.escapes = true;
+                        }
+                        return v;
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Narrows a value stored to a field or array element of a given kind, as the store itself would.
+     *
+     * @return the narrowed value, which is either a constant or an instruction that still needs to be appended
+     */
+    private static Value narrow(CiKind kind, Value value) {
+        if (value.isConstant() && kind.stackKind() == CiKind.Int) {
+            int v = value.asConstant().asInt();
+            switch (kind) {
+                case Boolean: return Constant.forInt(v & 0xFF);
+                case Byte:    return Constant.forInt((byte) v);
+                case Char:    return Constant.forInt((char) v);
+                case Short:   return Constant.forInt((short) v);
+                default:      return value;
+            }
+        }
+        switch (kind) {
+            case Boolean: return new LogicOp(Bytecodes.IAND, value, Constant.forInt(0xFF));
+            case Byte:    return new Convert(Convert.Op.I2B, value, CiKind.Int);
+            case Char:    return new Convert(Convert.Op.I2C, value, CiKind.Int);
+            case Short:   return new Convert(Convert.Op.I2S, value, CiKind.Int);
+            default:      return value;
+        }
+    }
+
+    private static boolean containsDirectly(FrameState state, Value value) {
+        for (int i = 0; i < state.valuesSize(); i++) {
+            if (state.valueAt(i) == value) {
+                return true;
+            }
+        }
+        for (int i = 0; i < state.locksSize(); i++) {
+            if (state.lockAt(i) == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    final class Candidate {
+        final Instruction allocation;
+        final BlockBegin block;
+        final RiResolvedType type;
+        final RiResolvedField[] fields;
+        final CiKind elementKind;
+        final int length;
+
+        boolean escapes;
+        int stores;
+
+        /**
+         * Maps each frame state that refers to the allocation to the number of stores
+         * to the object that precede it.
+         */
+        final IdentityHashMap<FrameState, Integer> states = new IdentityHashMap<FrameState, Integer>();
+
+        Candidate(Instruction allocation, BlockBegin block, RiResolvedType type, RiResolvedField[] fields, int length) {
+            this.allocation = allocation;
+            this.block = block;
+            this.type = type;
+            this.fields = fields;
+            this.elementKind = fields == null ? ((NewTypeArray) allocation).elementKind() : null;
+            this.length = length;
+        }
+
+        int fieldIndex(AccessField access) {
+            if (fields != null && access.isLoaded() && !access.isStatic()) {
+                for (int i = 0; i < fields.length; i++) {
+                    if (fields[i].equals(access.field())) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        int elementIndex(AccessIndexed access) {
+            Value index = access.index();
+            if (fields == null && index.isConstant()) {
+                int i = index.asConstant().asInt();
+                if (i >= 0 && i < length) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        boolean isAllowedUse(Instruction use, BlockBegin useBlock) {
+            if (use instanceof LoadField) {
+                return ((LoadField) use).object() == allocation && fieldIndex((LoadField) use) >= 0;
+            } else if (use instanceof StoreField) {
+                StoreField store = (StoreField) use;
+                return store.object() == allocation && store.value() != allocation && useBlock == block && fieldIndex(store) >= 0;
+            } else if (use instanceof LoadIndexed) {
+                LoadIndexed load = (LoadIndexed) use;
+                return load.array() == allocation && load.index() != allocation && elementIndex(load) >= 0;
+            } else if (use instanceof StoreIndexed) {
+                StoreIndexed store = (StoreIndexed) use;
+                return store.array() == allocation && store.index() != allocation && store.value() != allocation && useBlock == block && elementIndex(store) >= 0;
+            } else if (use instanceof ArrayLength) {
+                return fields == null;
+            } else if (use instanceof AccessMonitor) {
+                return ((AccessMonitor) use).object() == allocation;
+            }
+            return false;
+        }
+
+        /**
+         * Determines if an instruction is removed when the allocation is replaced.
+         * Only valid once the allocation is known not to escape.
+         */
+        boolean isRemoved(Instruction i) {
+            if (i == allocation) {
+                return true;
+            } else if (i instanceof AccessField) {
+                return ((AccessField) i).object() == allocation;
+            } else if (i instanceof AccessArray) {
+                return ((AccessArray) i).array() == allocation;
+            } else if (i instanceof AccessMonitor) {
+                return ((AccessMonitor) i).object() == allocation;
+            }
+            return false;
+        }
+
+        boolean isStore(Instruction i) {
+            return (i instanceof StoreField && ((StoreField) i).object() == allocation) || (i instanceof StoreIndexed && ((StoreIndexed) i).array() == allocation);
+        }
+
+        /**
+         * Checks that each frame state referring to the allocation can be given a single snapshot of its fields.
+         */
+        void checkStates() {
+            for (Instruction i = block.next(); i != null; i = i.next()) {
+                if (isStore(i)) {
+                    stores++;
+                }
+            }
+            for (BlockBegin b : blocks) {
+                int count = b == block ? 0 : stores;
+                boolean afterAllocation = false;
+                boolean canThrow = false;
+                if (b.exceptionHandlerStates() != null) {
+                    for (FrameState s : b.exceptionHandlerStates()) {
+                        recordState(s, stores);
+                    }
+                }
+                recordState(b.stateBefore(), count);
+                for (Instruction i = b.next(); i != null; i = i.next()) {
+                    if (isRemoved(i)) {
+                        if (i == allocation) {
+                            afterAllocation = true;
+                        } else if (isStore(i)) {
+                            if (canThrow) {
+                                // an exception handler in this block would not see the store
+                                escapes = true;
+                            }
+                            count++;
+                        }
+                        continue;
+                    }
+                    if (afterAllocation && !i.exceptionHandlers().isEmpty()) {
+                        canThrow = true;
+                    }
+                    recordState(i.stateBefore(), count);
+                    recordState(i.stateAfter(), count);
+                }
+            }
+        }
+
+        private void recordState(FrameState state, int count) {
+            for (FrameState s = state; s != null; s = s.callerState()) {
+                if (containsDirectly(s, allocation)) {
+                    Integer previous = states.put(s, count);
+                    if (previous != null && previous != count) {
+                        escapes = true;
+                    }
+                }
+            }
+        }
+
+        CiKind kindAt(int index) {
+            return fields == null ? elementKind : fields[index].kind(false);
+        }
+
+        /**
+         * Replaces the allocation by its fields.
+         */
+        void replace() {
+            Value[] values = new Value[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = new Constant(CiConstant.defaultValue(kindAt(i)));
+            }
+            final ArrayList<VirtualObject> snapshots = new ArrayList<VirtualObject>(stores + 1);
+            final int objectId = nextObjectId++;
+            snapshots.add(new VirtualObject(type, values.clone(), objectId));
+
+            // visit the allocating block first, so that the other blocks see the final field values
+            List<BlockBegin> order = new ArrayList<BlockBegin>(blocks);
+            order.remove(block);
+            order.add(0, block);
+            for (BlockBegin b : order) {
+                Instruction prev = b;
+                for (Instruction i = b.next(); i != null; i = i.next()) {
+                    if (!isRemoved(i)) {
+                        prev = i;
+                        continue;
+                    }
+                    if (i instanceof LoadField || i instanceof LoadIndexed || i instanceof ArrayLength) {
+                        // unlinked by the substituter
+                        if (i instanceof LoadField) {
+                            subst.setSubst(i, values[fieldIndex((LoadField) i)]);
+                        } else if (i instanceof LoadIndexed) {
+                            subst.setSubst(i, values[elementIndex((LoadIndexed) i)]);
+                        } else {
+                            subst.setSubst(i, Constant.forInt(length));
+                        }
+                        prev = i;
+                        continue;
+                    }
+                    if (isStore(i)) {
+                        int index;
+                        CiKind kind;
+                        Value value;
+                        if (i instanceof StoreField) {
+                            StoreField store = (StoreField) i;
+                            index = fieldIndex(store);
+                            kind = store.field().kind(false);
+                            value = store.value();
+                        } else {
+                            StoreIndexed store = (StoreIndexed) i;
+                            index = elementIndex(store);
+                            kind = store.elementKind();
+                            value = store.value();
+                        }
+                        value = subst.getSubst(value);
+                        Value narrowed = narrow(kind, value);
+                        if (narrowed != value && !narrowed.isConstant()) {
+                            Instruction narrowing = (Instruction) narrowed;
+                            prev.setNext(narrowing, i.bci());
+                            narrowing.setNext(i, i.bci());
+                            prev = narrowing;
+                        }
+                        values[index] = narrowed;
+                        snapshots.add(new VirtualObject(type, values.clone(), objectId));
+                    } else if (i instanceof AccessMonitor) {
+                        if (i instanceof MonitorEnter) {
+                            C1XMetrics.LocksEliminated++;
+                        }
+                    } else {
+                        assert i == allocation;
+                        C1XMetrics.AllocationsScalarReplaced++;
+                    }
+                    prev.resetNext(i.next());
+                }
+            }
+
+            for (Map.Entry<FrameState, Integer> entry : states.entrySet()) {
+                final VirtualObject snapshot = snapshots.get(entry.getValue());
+                entry.getKey().valuesDo(new ValueClosure() {
+                    public Value apply(Value v) {
+                        return v == allocation ? snapshot : v;
+                    }
+                });
+            }
+        }
+    }
+}
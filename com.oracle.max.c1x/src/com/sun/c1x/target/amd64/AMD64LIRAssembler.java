@@ -76,7 +76,9 @@ public final class AMD64LIRAssembler extends LIRAssembler {
 
     @Override
     protected void emitOsrEntry() {
-        throw Util.unimplemented();
+        // The runtime builds the frame before entering here, so there is no code to emit. Just record
+        // where the OSR entry block starts so that the runtime can find it.
+        tasm.targetMethod.setOsrEntryOffset(masm.codeBuffer.position());
     }
 
     @Override
@@ -680,7 +680,8 @@ public class AMD64LIRGenerator extends LIRGenerator {
 
     @Override
     protected CiValue osrBufferPointer() {
-        return Util.nonFatalUnimplemented(null);
+        // the runtime enters an OSR compilation with the address of the OSR buffer in the return register
+        return compilation.registerConfig.getReturnRegister(CiKind.Long).asValue(CiKind.Long);
     }
 
     @Override
@@ -517,6 +517,7 @@ public abstract class FrameState {
 
     /**
      * Iterates over all the values of a given frame state and its callers, including the stack, locals, and locks.
+     * The closure is also applied to the field values of any {@link VirtualObject} in the state.
      * @param closure the closure to apply to each value
      */
     public static void valuesDo(FrameState state, ValueClosure closure) {
@@ -526,13 +527,20 @@ public abstract class FrameState {
                 if (state.values[i] != null) {
                     Value newValue = closure.apply(state.values[i]);
                     state.values[i] = newValue;
+                    if (newValue instanceof VirtualObject) {
+                        newValue.inputValuesDo(closure);
+                    }
                 }
             }
             if (state.locks != null) {
                 for (int i = 0; i < state.locks.size(); i++) {
                     Value instr = state.locks.get(i);
                     if (instr != null) {
-                        state.locks.set(i, closure.apply(instr));
+                        Value newValue = closure.apply(instr);
+                        state.locks.set(i, newValue);
+                        if (newValue instanceof VirtualObject) {
+                            newValue.inputValuesDo(closure);
+                        }
                     }
                 }
             }
@@ -549,6 +557,7 @@ public abstract class FrameState {
 
     /**
      * Traverses all {@linkplain Value#isLive() live values} of this frame state and it's callers.
+     * A {@link VirtualObject} is not passed to {@code proc} itself, its field values are traversed instead.
      *
      * @param proc the call back called to process each live value traversed
      */
@@ -559,7 +568,7 @@ public abstract class FrameState {
             for (int i = 0; i < max; i++) {
                 Value value = state.values[i];
                 if (value != null && value.isLive()) {
-                    proc.doValue(value);
+                    doLiveStateValue(value, proc);
                 }
             }
             if (state.locks != null) {
@@ -567,7 +576,7 @@ public abstract class FrameState {
                     Value instr = state.locks.get(i);
                     if (instr != null) {
                         assert instr.isLive();
-                        proc.doValue(instr);
+                        doLiveStateValue(instr, proc);
                     }
                 }
             }
@@ -575,6 +584,17 @@ public abstract class FrameState {
         }
     }
 
+    private static void doLiveStateValue(Value value, ValueProcedure proc) {
+        if (value instanceof VirtualObject) {
+            for (Value fieldValue : ((VirtualObject) value).values()) {
+                assert fieldValue.isLive();
+                proc.doValue(fieldValue);
+            }
+        } else {
+            proc.doValue(value);
+        }
+    }
+
     public static String toString(FrameState fs) {
         StringBuilder sb = new StringBuilder();
         String nl = CiUtil.NEW_LINE;
@@ -345,6 +345,7 @@ public class CiTargetMethod implements Serializable {
     private int frameSize = -1;
     private int customStackAreaOffset = -1;
     private int registerRestoreEpilogueOffset = -1;
+    private int osrEntryOffset = -1;
     private int deoptReturnAddressOffset;
 
     /**
@@ -514,6 +515,26 @@ public class CiTargetMethod implements Serializable {
         customStackAreaOffset = offset;
     }
 
+    /**
+     * Gets the offset of the on-stack replacement entry in the machine code. Execution enters the method
+     * at this offset with its frame already allocated and the address of the OSR buffer in the
+     * {@linkplain CiRegisterConfig#getReturnRegister(CiKind) return register}.
+     *
+     * @return the offset of the OSR entry or -1 if this is not an OSR compilation
+     */
+    public int osrEntryOffset() {
+        return osrEntryOffset;
+    }
+
+    /**
+     * @see #osrEntryOffset()
+     * @param offset
+     */
+    public void setOsrEntryOffset(int offset) {
+        assert this.osrEntryOffset == -1;
+        osrEntryOffset = offset;
+    }
+
     /**
      * @return the machine code generated for this method
      */
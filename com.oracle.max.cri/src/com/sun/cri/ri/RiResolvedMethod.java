@@ -175,6 +175,13 @@ public interface RiResolvedMethod extends RiMethod {
      */
     RiTypeProfile typeProfile(int bci);
 
+    /**
+     * Determines if optimized code that speculated on the type profile of the call at the given byte code index
+     * has already seen another receiver type.
+     * @return {@code true} if the type profile at {@code bci} must not be speculated on again
+     */
+    boolean typeProfileFailed(int bci);
+
     /**
      * Returns an estimate of how often the branch at the given byte code was taken.
      * @return The estimated probability, with 0.0 meaning never and 1.0 meaning always, or -1 if this information isn't available.
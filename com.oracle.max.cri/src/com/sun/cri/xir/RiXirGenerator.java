@@ -93,6 +93,15 @@ public interface RiXirGenerator {
 
     XirSnippet genWriteBarrier(XirArgument object);
 
+    /**
+     * Generates the barrier that must precede a reference store through a raw address, as done by unsafe stores
+     * and compare-and-swap operations.
+     *
+     * @param address the address of the reference about to be overwritten
+     * @return {@code null} if the runtime requires no such barrier
+     */
+    XirSnippet genPreWriteBarrier(XirArgument address);
+
     XirSnippet genArrayCopy(XirSite site, XirArgument src, XirArgument srcPos, XirArgument dest, XirArgument destPos, XirArgument length, RiType elementType, boolean inputsSame, boolean inputsDifferent);
 
     XirSnippet genCurrentThread(XirSite site);
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package jtt.optimize;
+
+/*
+ * Tests escape analysis of an object that does not escape: its fields are scalar replaced.
+ * @Harness: java
+ * @Runs: 0=0; 1=1; 2=6; 3=9
+ */
+public class EA_01 {
+
+    int x;
+    long y;
+    double z;
+    Object o;
+
+    public static int test(int arg) {
+        EA_01 p = new EA_01();
+        p.x = arg;
+        p.y = arg * 2L;
+        if (arg > 1) {
+            // expected loads from the scalar replaced fields in another block
+            return p.x + (int) p.y;
+        }
+        // fields that are never stored must read as their default values
+        return p.o == null ? (int) p.z + p.x : -1;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package jtt.optimize;
+
+/*
+ * Tests deoptimization of a frame holding a scalar replaced object whose lock was elided.
+ * Loading {@code Sub} while the lock is held invalidates the inlining of {@link Base#get()},
+ * so the object must be rebuilt and locked again before the monitor is exited.
+ * @Harness: java
+ * @Runs: 0=11; 1=24; 2=27
+ */
+public class EA_04 {
+
+    static class Base {
+        int get() {
+            return 10;
+        }
+    }
+
+    static class Sub extends Base {
+        @Override
+        int get() {
+            return 20;
+        }
+    }
+
+    static Base helper = new Base();
+
+    int x;
+    int y;
+
+    public static int test(int arg) throws Exception {
+        EA_04 o = new EA_04();
+        o.x = arg;
+        o.y = arg + 1;
+        int r;
+        synchronized (o) {
+            r = trigger(arg) + o.x + o.y + helper.get();
+        }
+        return r;
+    }
+
+    private static int trigger(int arg) throws Exception {
+        if (arg == 1 && helper.getClass() == Base.class) {
+            // loaded by name so that Sub is first loaded here
+            helper = (Base) Class.forName(EA_04.class.getName() + "$Sub").newInstance();
+        }
+        return arg;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package jtt.optimize;
+
+/*
+ * Tests an invokeinterface call site that only ever sees one receiver type.
+ * @Harness: java
+ * @Runs: 0=0; 1=11; 2=22; 3=33
+ */
+public class InterfaceCall_Mono01 {
+
+    interface I {
+        int get(int x);
+    }
+
+    static class A implements I {
+        public int get(int x) {
+            return x * 11;
+        }
+    }
+
+    static final I a = new A();
+
+    public static int test(int arg) {
+        int r = 0;
+        for (int i = 0; i < 10; i++) {
+            r = call(a, arg);
+        }
+        return r;
+    }
+
+    static int call(I i, int x) {
+        return i.get(x);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package jtt.optimize;
+
+/*
+ * Tests an invokeinterface call site that sees a few receiver types, including one that inherits its implementation.
+ * @Harness: java
+ * @Runs: 0=1; 1=2; 2=3; 3=1; 4=7
+ */
+public class InterfaceCall_Poly01 {
+
+    interface I {
+        int get();
+    }
+
+    static class A implements I {
+        public int get() {
+            return 1;
+        }
+    }
+
+    static class B implements I {
+        public int get() {
+            return 2;
+        }
+    }
+
+    static class C implements I {
+        public int get() {
+            return 3;
+        }
+    }
+
+    static class D extends A {
+    }
+
+    static final I[] receivers = {new A(), new B(), new C(), new D()};
+
+    public static int test(int arg) {
+        if (arg < receivers.length) {
+            return call(receivers[arg]);
+        }
+        int r = 0;
+        for (I i : receivers) {
+            r += call(i);
+        }
+        return r;
+    }
+
+    static int call(I i) {
+        return i.get();
+    }
+}
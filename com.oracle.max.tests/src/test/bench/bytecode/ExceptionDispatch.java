@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+/*
+ * @Harness: java
+ * @Runs: 1 = true; 5 = true; 20 = true
+ */
+package test.bench.bytecode;
+
+import test.bench.util.*;
+
+/**
+ * Throws an exception that is caught the given number of frames up the stack.
+ * This measures the cost of dispatching an exception to its handler, which is dominated by
+ * the search for the handler in each frame that is unwound.
+ */
+public class ExceptionDispatch extends RunBench {
+
+    protected ExceptionDispatch(int depth) {
+        super(new Bench(depth));
+    }
+
+    public static boolean test(int depth) {
+        return new ExceptionDispatch(depth).runBench();
+    }
+
+    static class Bench extends MicroBenchmark {
+        /**
+         * Preallocated so that only the dispatch is measured, not the filling in of the stack trace.
+         */
+        private static final Exception EXCEPTION = new Exception();
+
+        private final int depth;
+
+        Bench(int depth) {
+            this.depth = depth;
+        }
+
+        @Override
+        public long run() {
+            try {
+                throwAt(depth);
+            } catch (Exception e) {
+                return defaultResult;
+            }
+            return 0;
+        }
+
+        private static void throwAt(int depth) throws Exception {
+            if (depth <= 1) {
+                throw EXCEPTION;
+            }
+            throwAt(depth - 1);
+        }
+    }
+
+    public static void main(String[] args) {
+        test(1);
+        test(5);
+        test(20);
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test.bench.threads;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
+
+/**
+ * Startup benchmark for boot class loading. It enumerates the classes in the boot class path
+ * archive (by default {@code $java.home/lib/rt.jar}) and loads them with the bootstrap loader
+ * from a number of threads, each thread taking the next unloaded class from a shared index.
+ * Classes are loaded but not initialized. It should be run in a fresh VM as it only measures
+ * anything the first time a class is loaded.
+ *
+ * Arguments:
+ * <pre>
+ *     t n     number of loading threads (default 4)
+ *     c n     maximum number of classes to load (default all)
+ *     p name  only load classes whose name starts with {@code name} (default "java.")
+ *     j path  archive to take the class names from
+ * </pre>
+ */
+public class ParallelClassLoading implements Runnable {
+
+    private static int threadCount = 4;
+    private static int maxClasses = Integer.MAX_VALUE;
+    private static String prefix = "java.";
+    private static String jar = System.getProperty("java.home") + File.separator + "lib" + File.separator + "rt.jar";
+
+    private static String[] classNames;
+    private static final AtomicInteger next = new AtomicInteger();
+    private static final AtomicInteger loaded = new AtomicInteger();
+    private static final AtomicInteger failed = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        // Checkstyle: stop modified control variable check
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (arg.equals("t")) {
+                threadCount = Integer.parseInt(args[++i]);
+            } else if (arg.equals("c")) {
+                maxClasses = Integer.parseInt(args[++i]);
+            } else if (arg.equals("p")) {
+                prefix = args[++i];
+            } else if (arg.equals("j")) {
+                jar = args[++i];
+            }
+        }
+        // Checkstyle: resume modified control variable check
+        classNames = classNames(jar);
+
+        final Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(new ParallelClassLoading(), "ClassLoader-" + i);
+        }
+        final long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final long elapsed = System.nanoTime() - start;
+        System.out.println("Threads: " + threadCount + ", classes loaded: " + loaded.get() + ", failed: " + failed.get() +
+                        ", time: " + (elapsed / 1000000) + " ms, " + (elapsed / 1000 / Math.max(1, loaded.get())) + " us/class");
+    }
+
+    private static String[] classNames(String path) throws IOException {
+        final ArrayList<String> result = new ArrayList<String>();
+        final ZipFile zipFile = new ZipFile(path);
+        try {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements() && result.size() < maxClasses) {
+                final String entryName = entries.nextElement().getName();
+                if (entryName.endsWith(".class")) {
+                    final String className = entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.');
+                    if (className.startsWith(prefix)) {
+                        result.add(className);
+                    }
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    public void run() {
+        int i;
+        while ((i = next.getAndIncrement()) < classNames.length) {
+            try {
+                Class.forName(classNames[i], false, null);
+                loaded.incrementAndGet();
+            } catch (Throwable t) {
+                failed.incrementAndGet();
+            }
+        }
+    }
+}
@@ -57,7 +57,7 @@ import com.sun.max.vm.thread.*;
 /**
  * Integration of the C1X compiler into Maxine's compilation framework.
  */
-public class C1X extends RuntimeCompiler.DefaultNameAdapter implements RuntimeCompiler {
+public class C1X extends RuntimeCompiler.DefaultNameAdapter implements RuntimeCompiler, RuntimeCompiler.OsrCompiler {
 
     /**
      * The Maxine specific implementation of the {@linkplain RiRuntime runtime interface} needed by C1X.
@@ -124,6 +124,21 @@ public class C1X extends RuntimeCompiler.DefaultNameAdapter implements RuntimeCo
 
             map.put("UseStackMapTableLiveness", "Use liveness information derived from StackMapTable class file attribute.");
 
+            map.put("UseTypeProfile", "Devirtualize and inline virtual and interface calls whose baseline type profile " +
+                            "saw a single receiver type, deoptimizing and recompiling if another type shows up. " +
+                            "Calls that saw two leaf receiver types test for each and fall back to a virtual call.");
+
+            map.put("TypeProfileMinimumCount", "Number of receivers a call site must have profiled before its type profile is trusted.");
+
+            map.put("UseBranchProfile", "Lay out blocks reached only through rarely taken branches after the hot path.");
+
+            map.put("UnlikelyBranchProbability", "Profiled probability below which a branch edge is considered rarely taken.");
+
+            map.put("OptEscapeAnalysis", "Replace allocations that do not escape the compiled method with their fields " +
+                            "and remove locking on them, recreating the objects on deoptimization.");
+
+            map.put("MaximumEscapeAnalysisArrayLength", "Maximum length of a primitive array that escape analysis replaces with scalars.");
+
             for (String name : map.keySet()) {
                 try {
                     C1XOptions.class.getField(name);
@@ -176,6 +191,8 @@ public class C1X extends RuntimeCompiler.DefaultNameAdapter implements RuntimeCo
         if (phase == Phase.STARTING) {
             // Speculative opts are ok provided the compilation broker can handle deopt
             C1XOptions.UseAssumptions = vm().compilationBroker.isDeoptSupported() && Deoptimization.UseDeopt;
+            // Type profile guards deoptimize when they fail
+            C1XOptions.UseTypeProfile = C1XOptions.UseTypeProfile && C1XOptions.UseAssumptions;
         } else if (phase == Phase.TERMINATING) {
             if (C1XOptions.PrintMetrics) {
                 C1XMetrics.print();
@@ -251,10 +268,23 @@ public class C1X extends RuntimeCompiler.DefaultNameAdapter implements RuntimeCo
     }
 
     public TargetMethod compile(final ClassMethodActor method, boolean isDeopt, boolean install, CiStatistics stats) {
+        return compile(method, -1, install, stats);
+    }
+
+    public TargetMethod compileForOsr(ClassMethodActor method, int osrBCI) {
+        try {
+            return compile(method, osrBCI, true, null);
+        } catch (CiBailout bailout) {
+            // not all loops can be entered by OSR (e.g. those with locked monitors)
+            return null;
+        }
+    }
+
+    private TargetMethod compile(ClassMethodActor method, int osrBCI, boolean install, CiStatistics stats) {
         CiTargetMethod compiledMethod;
         do {
             DebugInfoLevel debugInfoLevel = method.isTemplate() ? DebugInfoLevel.REF_MAPS : DebugInfoLevel.FULL;
-            compiledMethod = compiler().compileMethod(method, -1, stats, debugInfoLevel).targetMethod();
+            compiledMethod = compiler().compileMethod(method, osrBCI, stats, debugInfoLevel).targetMethod();
 
             Dependencies deps = Dependencies.validateDependencies(compiledMethod.assumptions());
             if (deps != Dependencies.INVALID) {
@@ -49,7 +49,10 @@ public class MaxUnsafeAccessLowerings {
     public static void registerLowerings(Map<Class< ? extends Node>, LoweringProvider> lowerings) {
         UnsafeLoadLowering unsafeLoadLowering = new UnsafeLoadLowering();
         lowerings.put(UnsafeLoadNode.class, unsafeLoadLowering);
-        UnsafeStoreLowering unsafeStoreLowering = new UnsafeStoreLowering();
+        // Reference stores are lowered by the snippet registered by FieldSnippets, which applies the write barriers.
+        @SuppressWarnings("unchecked")
+        LoweringProvider<UnsafeStoreNode> objectStoreLowering = lowerings.get(UnsafeStoreNode.class);
+        UnsafeStoreLowering unsafeStoreLowering = new UnsafeStoreLowering(objectStoreLowering);
         lowerings.put(UnsafeStoreNode.class, unsafeStoreLowering);
         LoadHubNodeLowering loadHubNodeLowering = new LoadHubNodeLowering();
         lowerings.put(LoadHubNode.class, loadHubNodeLowering);
@@ -78,8 +81,18 @@ public class MaxUnsafeAccessLowerings {
 
     private static class UnsafeStoreLowering implements LoweringProvider<UnsafeStoreNode> {
 
+        private final LoweringProvider<UnsafeStoreNode> objectStoreLowering;
+
+        UnsafeStoreLowering(LoweringProvider<UnsafeStoreNode> objectStoreLowering) {
+            this.objectStoreLowering = objectStoreLowering;
+        }
+
         @Override
         public void lower(UnsafeStoreNode node, LoweringTool tool) {
+            if (node.accessKind() == Kind.Object && objectStoreLowering != null) {
+                objectStoreLowering.lower(node, tool);
+                return;
+            }
             StructuredGraph graph = node.graph();
             lower(graph, node, node.stamp(), node.object(), node.offset(), node.value(), node.displacement(), node.accessKind(), node.stateAfter());
         }
@@ -43,6 +43,7 @@ import com.oracle.max.vm.ext.graal.nodes.*;
 import com.sun.cri.ci.*;
 import com.sun.cri.ri.*;
 import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
 import com.sun.max.vm.actor.member.*;
 import com.sun.max.vm.classfile.constant.*;
 import com.sun.max.vm.compiler.*;
@@ -108,6 +109,8 @@ public class FieldSnippets extends SnippetLowerings {
         lowerings.put(ResolveFieldNode.class, new ResolveFieldLowering());
         lowerings.put(UnresolvedLoadFieldNode.class, unresolvedLoadFieldLowering);
         lowerings.put(UnresolvedStoreFieldNode.class, unresolvedStoreFieldLowering);
+        // Only handles reference stores; MaxUnsafeAccessLowerings delegates those to it.
+        lowerings.put(UnsafeStoreNode.class, new UnsafeStoreObjectLowering());
     }
 
     protected abstract class FieldLowering extends Lowering {
@@ -295,6 +298,34 @@ public class FieldSnippets extends SnippetLowerings {
         return fieldActor;
     }
 
+    /**
+     * Lowers an unsafe store of a reference (e.g. an intrinsified {@code Unsafe.putObject}) through the reference scheme,
+     * so that it gets the write barriers of the {@link HeapScheme} like any other reference store.
+     */
+    protected class UnsafeStoreObjectLowering extends Lowering implements LoweringProvider<UnsafeStoreNode> {
+
+        @HOSTED_ONLY
+        protected UnsafeStoreObjectLowering() {
+            super(FieldSnippets.this, "putUnsafeObjectSnippet");
+        }
+
+        @Override
+        public void lower(UnsafeStoreNode node, LoweringTool tool) {
+            assert node.accessKind() == Kind.Object;
+            Arguments args = new Arguments(snippet);
+            args.add("object", node.object());
+            args.add("offset", node.offset());
+            args.addConst("displacement", node.displacement());
+            args.add("value", node.value());
+            instantiate(node, args, tool);
+        }
+    }
+
+    @Snippet(inlining = MaxSnippetInliningPolicy.class)
+    private static void putUnsafeObjectSnippet(Object object, long offset, @ConstantParameter int displacement, Object value) {
+        TupleAccess.writeObject(object, Offset.fromLong(offset + displacement), value);
+    }
+
 // START GENERATED CODE
     @INLINE
     private static boolean getFieldBoolean(Object object, boolean nullCheck, int offset, boolean isVolatile) {
@@ -40,6 +40,7 @@ import com.sun.max.unsafe.*;
 import com.sun.max.vm.actor.holder.*;
 import com.sun.max.vm.actor.member.*;
 import com.sun.max.vm.compiler.*;
+import com.sun.max.vm.compiler.deopt.*;
 import com.sun.max.vm.compiler.target.TargetMethod.*;
 import com.sun.max.vm.reference.*;
 import com.sun.max.vm.runtime.*;
@@ -383,7 +384,8 @@ public final class DebugInfo {
         int fpt = (tm.totalRefMapSize()) * tm.safepoints().size();
         CiBitMap regRefMap = regRefMapAt(index);
         CiBitMap frameRefMap = frameRefMapAt(index);
-        CiFrame frame = decodeFrame(in, fpt, index, fa, regRefMap, frameRefMap, stackSlotAsAddress);
+        Map<Integer, Object> virtualObjects = fa == null ? null : new HashMap<Integer, Object>();
+        CiFrame frame = decodeFrame(in, fpt, index, fa, virtualObjects, regRefMap, frameRefMap, stackSlotAsAddress);
         return new CiDebugInfo(frame, regRefMap, frameRefMap);
     }
 
@@ -416,10 +418,12 @@ public final class DebugInfo {
      * Decodes a frame denoted by a given frame index.
      * @param fpt the position of the FPT in {@link #data}
      * @param frameIndex the index of an entry in the FPT
+     * @param virtualObjects the objects recreated so far for the {@linkplain CiVirtualObject virtual objects} in the
+     *            decoded frames, indexed by their id (only used if {@code fa != null})
      * @param stackSlotAsAddress translate stack slots to stack addresses
      * @return the decoded frame
      */
-    CiFrame decodeFrame(DecodingStream in, int fpt, int frameIndex, FrameAccess fa, CiBitMap regRefMap, CiBitMap frameRefMap, boolean stackSlotAsAddress) {
+    CiFrame decodeFrame(DecodingStream in, int fpt, int frameIndex, FrameAccess fa, Map<Integer, Object> virtualObjects, CiBitMap regRefMap, CiBitMap frameRefMap, boolean stackSlotAsAddress) {
         int framePos = framePos(fpt, frameIndex);
         if (framePos == 0) {
             return null;
@@ -453,7 +457,7 @@ public final class DebugInfo {
         for (int i = 0; i < n; i++) {
             CiValue value = readValue(in, regRefMap, frameRefMap);
             if (fa != null) {
-                value = toLiveSlot(fa, value);
+                value = toLiveSlot(fa, virtualObjects, value);
             } else {
                 if (stackSlotAsAddress && value != null && value.isStackSlot()) {
                     CiStackSlot ss = (CiStackSlot) value;
@@ -483,13 +487,30 @@ public final class DebugInfo {
         if (encCallerIndex != NO_FRAME) {
             int callerIndex = encCallerIndex - FIRST_FRAME;
             assert frameIndex != callerIndex;
-            caller = decodeFrame(in, fpt, callerIndex, fa, regRefMap, frameRefMap, stackSlotAsAddress);
+            caller = decodeFrame(in, fpt, callerIndex, fa, virtualObjects, regRefMap, frameRefMap, stackSlotAsAddress);
         }
         return new CiFrame(caller, method, bci, rethrowException, values, numLocals, numStack, numLocks);
     }
 
-    private static CiValue toLiveSlot(FrameAccess fa, CiValue value) {
-        if (value.isRegister()) {
+    private static CiValue toLiveSlot(FrameAccess fa, Map<Integer, Object> virtualObjects, CiValue value) {
+        if (value instanceof CiVirtualObject) {
+            // recreate the object whose allocation was removed by escape analysis
+            CiVirtualObject virtualObject = (CiVirtualObject) value;
+            Object object = virtualObjects.get(virtualObject.id());
+            if (object == null) {
+                CiValue[] values = virtualObject.values();
+                CiConstant[] liveValues = new CiConstant[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    liveValues[i] = (CiConstant) toLiveSlot(fa, virtualObjects, values[i]);
+                }
+                object = Deoptimization.materializeVirtualObject((ClassActor) virtualObject.type(), liveValues);
+                virtualObjects.put(virtualObject.id(), object);
+            }
+            value = CiConstant.forObject(object);
+        } else if (value.isMonitor()) {
+            CiMonitorValue monitor = (CiMonitorValue) value;
+            value = new CiMonitorValue(toLiveSlot(fa, virtualObjects, monitor.owner), null, monitor.eliminated);
+        } else if (value.isRegister()) {
             CiRegister reg = value.asRegister();
             CiCalleeSaveLayout csl = fa.csl;
             assert csl != null : "cannot recover value for " + reg;
@@ -105,6 +105,11 @@ public class MaxTargetMethod extends TargetMethod implements Cloneable {
 
     private final CodeAnnotation[] annotations;
 
+    /**
+     * The position of the {@linkplain #osrEntryPos() OSR entry}, or -1 if this is not an OSR compilation.
+     */
+    private int osrEntryPos = -1;
+
     @HOSTED_ONLY
     private CiTargetMethod bootstrappingCiTargetMethod;
 
@@ -139,6 +144,7 @@ public class MaxTargetMethod extends TargetMethod implements Cloneable {
         }
 
         initCodeBuffer(ciTargetMethod, install);
+        osrEntryPos = ciTargetMethod.osrEntryOffset();
         initFrameLayout(ciTargetMethod);
         CiDebugInfo[] debugInfos = initSafepoints(ciTargetMethod);
         initExceptionTable(ciTargetMethod);
@@ -213,6 +219,11 @@ public class MaxTargetMethod extends TargetMethod implements Cloneable {
         return debugInfo;
     }
 
+    @Override
+    public int osrEntryPos() {
+        return osrEntryPos;
+    }
+
     private static int totalHandlersSize;
 
     private void initExceptionTable(CiTargetMethod ciTargetMethod) {
@@ -287,7 +298,14 @@ public class MaxTargetMethod extends TargetMethod implements Cloneable {
 
     @Override
     public CodePointer throwAddressToCatchAddress(CodePointer throwAddress, Throwable exception) {
-        return throwAddressToCatchAddress(throwAddress, exception, null);
+        final int throwPos = posFor(throwAddress);
+        int catchPos = ExceptionHandlerCache.lookup(this, throwPos, exception);
+        if (catchPos == ExceptionHandlerCache.MISS) {
+            CodePointer catchAddress = throwAddressToCatchAddress(throwAddress, exception, null);
+            ExceptionHandlerCache.record(this, throwPos, exception, catchAddress.isZero() ? ExceptionHandlerCache.NO_HANDLER : posFor(catchAddress));
+            return catchAddress;
+        }
+        return catchPos == ExceptionHandlerCache.NO_HANDLER ? CodePointer.zero() : codeAt(catchPos);
     }
 
     @Override
@@ -798,8 +816,11 @@ public class MaxTargetMethod extends TargetMethod implements Cloneable {
     }
 
     @Override
-    public int forEachCodePos(CodePosClosure cpc, CodePointer ip) {
-        int index = findSafepointIndex(ip);
+    public int forEachCodePos(CodePosClosure cpc, int pos) {
+        if (safepoints() == null) {
+            return 0;
+        }
+        int index = findSafepointIndex(pos);
         if (index < 0) {
             return 0;
         }
@@ -113,6 +113,23 @@ public class MaxXirGenerator implements RiXirGenerator {
     }
 
     private final HashMap<String, XirTemplate> runtimeCallStubs = new HashMap<String, XirTemplate>();
+
+    /**
+     * Calls to the runtime emitted by write barriers. Unlike the calls emitted by this generator, these can target methods of any class.
+     */
+    private final XirWriteBarrierSpecification.XirRuntimeCallGenerator runtimeCallGenerator = new XirWriteBarrierSpecification.XirRuntimeCallGenerator() {
+        public void genRuntimeCall(CiXirAssembler asm, Class<?> holder, String method, XirOperand result, XirOperand... args) {
+            XirTemplate stub = runtimeCallStubs.get(method);
+            if (stub == null) {
+                stub = addCallRuntimeThroughStub(stubs, holder, runtimeCallStubs, asm, method, result, args);
+            }
+            if (stub == null) {
+                throw ProgramError.unexpected("could not find runtime call: " + holder.getName() + "." + method);
+            }
+            asm.callStub(stub, result, args);
+        }
+    };
+
     private final HashMap<String, RiMethod> runtimeMethods = new HashMap<String, RiMethod>();
 
     private XirTemplate epilogueTemplate;
@@ -123,6 +140,7 @@ public class MaxXirGenerator implements RiXirGenerator {
 
     private XirPair invokeVirtualTemplates;
     private XirPair invokeInterfaceTemplates;
+    private XirTemplate invokeItableIndexCacheTemplate;
     private InvokeSpecialTemplates invokeSpecialTemplates;
     private XirPair invokeStaticTemplates;
     private XirPair[] newArrayTemplates;
@@ -139,6 +157,7 @@ public class MaxXirGenerator implements RiXirGenerator {
     private XirPair[] multiNewArrayTemplate;
 
     private XirTemplate safepointTemplate;
+    private XirTemplate preWriteBarrierTemplate;
     private XirTemplate arraylengthTemplate;
     private XirTemplate monitorEnterTemplate;
     private XirTemplate monitorExitTemplate;
@@ -184,6 +203,21 @@ public class MaxXirGenerator implements RiXirGenerator {
         return FieldActor.findInstance(ClassActor.fromJava(Hub.class), "mTableLength").offset();
     }
 
+    @HOSTED_ONLY
+    int offsetOfItableCacheHub(int slot) {
+        return FieldActor.findInstance(ClassActor.fromJava(ItableIndexCache.class), "hub" + slot).offset();
+    }
+
+    @HOSTED_ONLY
+    int offsetOfItableCacheIndex(int slot) {
+        return FieldActor.findInstance(ClassActor.fromJava(ItableIndexCache.class), "index" + slot).offset();
+    }
+
+    @FOLD
+    int offsetOfItableCacheMegamorphic() {
+        return FieldActor.findInstance(ClassActor.fromJava(ItableIndexCache.class), "megamorphic").offset();
+    }
+
     @FOLD
     int offsetOfTupleSize() {
         return FieldActor.findInstance(ClassActor.fromJava(Hub.class), "tupleSize").offset();
@@ -267,6 +301,7 @@ public class MaxXirGenerator implements RiXirGenerator {
 
         invokeVirtualTemplates = buildInvokeVirtual();
         invokeInterfaceTemplates = buildInvokeInterface();
+        invokeItableIndexCacheTemplate = buildInvokeItableIndexCache();
         invokeSpecialTemplates = buildInvokeSpecial();
         invokeStaticTemplates = buildInvokeStatic();
 
@@ -282,6 +317,7 @@ public class MaxXirGenerator implements RiXirGenerator {
         }
 
         safepointTemplate = buildSafepoint();
+        preWriteBarrierTemplate = buildPreWriteBarrier();
         arraylengthTemplate = buildArrayLength();
         monitorEnterTemplate = buildMonitorEnter();
         monitorExitTemplate = buildMonitorExit();
@@ -379,6 +415,10 @@ public class MaxXirGenerator implements RiXirGenerator {
             InterfaceMethodActor methodActor = (InterfaceMethodActor) method;
             XirArgument interfaceID = XirArgument.forInt(methodActor.holder().id);
             XirArgument methodIndex = XirArgument.forInt(methodActor.iIndexInInterface());
+            if (ItableIndexCache.UseItableIndexCaches) {
+                XirArgument cache = XirArgument.forObject(new ItableIndexCache(methodActor));
+                return new XirSnippet(invokeItableIndexCacheTemplate, receiver, cache, interfaceID, methodIndex);
+            }
             return new XirSnippet(pair.resolved, receiver, interfaceID, methodIndex);
         }
         XirArgument guard = XirArgument.forObject(guardFor(method));
@@ -732,6 +772,22 @@ public class MaxXirGenerator implements RiXirGenerator {
         return finishTemplate(asm, "safepoint");
     }
 
+    /**
+     * Builds the pre-write barrier for stores through a raw address, or returns {@code null} if the heap scheme has none.
+     * The address is passed to the heap scheme's tuple barrier as a cell with a zero offset.
+     */
+    @HOSTED_ONLY
+    private XirTemplate buildPreWriteBarrier() {
+        XirWriteBarrierSpecification.XirWriteBarrierGenerator barrierGenerator = writeBarrierSpecification().barrierGenerator(WriteBarrierSpecification.TUPLE_PRE_BARRIER);
+        if (barrierGenerator == XirWriteBarrierSpecification.NULL_WRITE_BARRIER_GEN) {
+            return null;
+        }
+        asm.restart(CiKind.Void);
+        XirParameter address = asm.createInputParameter("address", WordUtil.archKind());
+        barrierGenerator.genWriteBarrier(asm, runtimeCallGenerator, address, asm.i(0));
+        return finishTemplate(asm, "prewritebarrier");
+    }
+
     @HOSTED_ONLY
     private XirTemplate buildArrayLength() {
         XirOperand result = asm.restart(CiKind.Int);
@@ -773,11 +829,11 @@ public class MaxXirGenerator implements RiXirGenerator {
         asm.bindInline(store);
         int elemSize = target().sizeInBytes(kind);
         if (genWriteBarrier) {
-            writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.ARRAY_PRE_BARRIER).genWriteBarrier(asm, array, index);
+            writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.ARRAY_PRE_BARRIER).genWriteBarrier(asm, runtimeCallGenerator, array, index);
         }
         asm.pstore(kind, array, index, value, offsetOfFirstArrayElement(), Scale.fromInt(elemSize), !genBoundsCheck && !genStoreCheck);
         if (genWriteBarrier) {
-            writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.ARRAY_POST_BARRIER).genWriteBarrier(asm, array, index);
+            writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.ARRAY_POST_BARRIER).genWriteBarrier(asm, runtimeCallGenerator, array, index);
         }
         if (genBoundsCheck) {
             asm.bindOutOfLine(failBoundsCheck);
@@ -916,6 +972,66 @@ public class MaxXirGenerator implements RiXirGenerator {
         return new XirPair(resolved, unresolved);
     }
 
+    /**
+     * Builds the template for a resolved invokeinterface that goes through an {@link ItableIndexCache}.
+     * The first slot of the cache is tested inline, the others, the megamorphic table lookup and the
+     * call to fill a slot are out of line.
+     */
+    @HOSTED_ONLY
+    private XirTemplate buildInvokeItableIndexCache() {
+        asm.restart();
+        XirParameter receiver = asm.createInputParameter("receiver", CiKind.Object);
+        XirParameter cache = asm.createInputParameter("cache", CiKind.Object);
+        XirParameter interfaceID = asm.createConstantInputParameter("interfaceID", CiKind.Int);
+        XirParameter methodIndex = asm.createConstantInputParameter("methodIndex", CiKind.Int);
+        XirOperand hub = asm.createTemp("hub", CiKind.Object);
+        XirOperand cachedHub = asm.createTemp("cachedHub", CiKind.Object);
+        XirOperand a = asm.createTemp("a", CiKind.Int);
+        XirOperand result = asm.createTemp("result", WordUtil.archKind());
+        XirLabel select = asm.createInlineLabel("select");
+        XirLabel polymorphic = asm.createOutOfLineLabel("polymorphic");
+
+        // monomorphic check
+        asm.pload(CiKind.Object, hub, receiver, asm.i(hubOffset()), true);
+        asm.pload(CiKind.Object, cachedHub, cache, asm.i(offsetOfItableCacheHub(0)), false);
+        asm.jneq(polymorphic, hub, cachedHub);
+        asm.pload(CiKind.Int, a, cache, asm.i(offsetOfItableCacheIndex(0)), false);
+        asm.bindInline(select);
+        asm.pload(WordUtil.archKind(), result, hub, a, offsetOfFirstArrayElement(), Scale.fromInt(Word.size()), false);
+
+        // -- out of line -------------------------------------------------------
+        asm.bindOutOfLine(polymorphic);
+        for (int slot = 1; slot < ItableIndexCache.SIZE; slot++) {
+            XirLabel next = asm.createOutOfLineLabel("slot" + (slot + 1));
+            asm.pload(CiKind.Object, cachedHub, cache, asm.i(offsetOfItableCacheHub(slot)), false);
+            asm.jneq(next, hub, cachedHub);
+            asm.pload(CiKind.Int, a, cache, asm.i(offsetOfItableCacheIndex(slot)), false);
+            asm.jmp(select);
+            asm.bindOutOfLine(next);
+        }
+        XirLabel miss = asm.createOutOfLineLabel("miss");
+        asm.pload(CiKind.Int, a, cache, asm.i(offsetOfItableCacheMegamorphic()), false);
+        asm.jeq(miss, a, asm.i(0));
+
+        // megamorphic: the same table lookup as an uncached invokeinterface
+        XirOperand mtableLengthOrStartIndex = asm.createTemp("mtableLength/StartIndex", CiKind.Int);
+        asm.pload(CiKind.Int, mtableLengthOrStartIndex, hub, asm.i(offsetOfMTableLength()), false);
+        asm.mod(a, interfaceID, mtableLengthOrStartIndex);
+        asm.pload(CiKind.Int, mtableLengthOrStartIndex, hub, asm.i(offsetOfMTableStartIndex()), false);
+        asm.add(a, a, mtableLengthOrStartIndex);
+        asm.pload(CiKind.Int, a, hub, a, offsetOfFirstArrayElement(), Scale.Times4, false);
+        asm.add(a, a, methodIndex);
+        asm.jmp(select);
+
+        asm.bindOutOfLine(miss);
+        callRuntimeThroughStub(asm, "itableIndexCacheMiss", a, cache, receiver);
+        // the call may have moved the hub
+        asm.pload(CiKind.Object, hub, receiver, asm.i(hubOffset()), false);
+        asm.jmp(select);
+
+        return finishTemplate(asm, result, "invokeinterface-itablecache");
+    }
+
     @HOSTED_ONLY
     private XirPair buildInvokeVirtual() {
         XirTemplate resolved;
@@ -1384,11 +1500,11 @@ public class MaxXirGenerator implements RiXirGenerator {
             XirParameter value = asm.createInputParameter("value", kind);
             XirParameter fieldOffset = asm.createConstantInputParameter("fieldOffset", CiKind.Int);
             if (genWriteBarrier) {
-                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_PRE_BARRIER).genWriteBarrier(asm, object);
+                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_PRE_BARRIER).genWriteBarrier(asm, runtimeCallGenerator, object, fieldOffset);
             }
             asm.pstore(kind, object, fieldOffset, value, true);
             if (genWriteBarrier) {
-                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_POST_BARRIER).genWriteBarrier(asm, object);
+                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_POST_BARRIER).genWriteBarrier(asm, runtimeCallGenerator, object, fieldOffset);
             }
             xirTemplate = finishTemplate(asm, "putfield<" + kind + ", " + genWriteBarrier + ">");
         } else {
@@ -1403,9 +1519,12 @@ public class MaxXirGenerator implements RiXirGenerator {
             } else {
                 callRuntimeThroughStub(asm, "resolvePutField", fieldOffset, guard);
             }
+            if (genWriteBarrier) {
+                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_PRE_BARRIER).genWriteBarrier(asm, runtimeCallGenerator, object, fieldOffset);
+            }
             asm.pstore(kind, object, fieldOffset, value, true);
             if (genWriteBarrier) {
-                writeBarrier(asm, object, null, value);
+                writeBarrierSpecification.barrierGenerator(WriteBarrierSpecification.TUPLE_POST_BARRIER).genWriteBarrier(asm, runtimeCallGenerator, object, fieldOffset);
             }
             xirTemplate = finishTemplate(asm, "putfield<" + kind + ", " + genWriteBarrier + ">-unresolved");
         }
@@ -1775,10 +1894,6 @@ public class MaxXirGenerator implements RiXirGenerator {
         return template;
     }
 
-    private void writeBarrier(CiXirAssembler asm, XirOperand object, XirOperand fieldOffset, XirOperand value) {
-        // XXX: add write barrier mechanism
-    }
-
     @HOSTED_ONLY
     private void callRuntimeThroughStub(CiXirAssembler asm, String method, XirOperand result, XirOperand... args) {
         XirTemplate stub = runtimeCallStubs.get(method);
@@ -1871,6 +1986,14 @@ public class MaxXirGenerator implements RiXirGenerator {
         return null;
     }
 
+    @Override
+    public XirSnippet genPreWriteBarrier(XirArgument address) {
+        if (preWriteBarrierTemplate == null) {
+            return null;
+        }
+        return new XirSnippet(preWriteBarrierTemplate, address);
+    }
+
     @Override
     public XirSnippet genArrayCopy(XirSite site, XirArgument src, XirArgument srcPos, XirArgument dest, XirArgument destPos, XirArgument length, RiType elementType, boolean inputsDifferent, boolean inputsSame) {
         return null;
@@ -1963,6 +2086,10 @@ public class MaxXirGenerator implements RiXirGenerator {
             return Snippets.resolveInterfaceMethod(guard).holder().id;
         }
 
+        public static int itableIndexCacheMiss(ItableIndexCache cache, Object receiver) {
+            return cache.miss(receiver);
+        }
+
         public static Object allocatePrimitiveArray(DynamicHub hub, int length) {
             if (length < 0) {
                 throw new NegativeArraySizeException(String.valueOf(length));
@@ -2025,11 +2025,16 @@ public abstract class T1XCompilation {
         emitEpilogue();
     }
 
-    protected void do_profileBackwardBranch() {
+    /**
+     * Profiles a backward branch to {@code targetBCI}, the header of the loop that is
+     * the candidate for {@linkplain com.sun.max.vm.compiler.deopt.OnStackReplacement on-stack replacement}.
+     */
+    protected void do_profileBackwardBranch(int targetBCI) {
         if (methodProfileBuilder != null) {
             // Profiling of backward branches.
             start(PROFILE_BACKWARD_BRANCH);
             assignObject(0, "mpo", methodProfileBuilder.methodProfileObject());
+            assignInt(1, "targetBCI", targetBCI);
             finish();
         }
     }
@@ -2109,7 +2114,7 @@ public abstract class T1XCompilation {
             finish();
 
             if (bci >= targetBCI) {
-                do_profileBackwardBranch();
+                do_profileBackwardBranch(targetBCI);
             }
         }
     }
@@ -524,8 +524,8 @@ public class T1XTargetMethod extends TargetMethod {
     }
 
     @Override
-    public int forEachCodePos(CodePosClosure cpc, CodePointer ip) {
-        int bci = bciFor(ip);
+    public int forEachCodePos(CodePosClosure cpc, int pos) {
+        int bci = bciForPos(pos);
         if (bci >= 0) {
             cpc.doCodePos(classMethodActor, bci);
             return 1;
@@ -645,7 +645,14 @@ public class T1XTargetMethod extends TargetMethod {
 
     @Override
     public CodePointer throwAddressToCatchAddress(CodePointer throwAddress, Throwable exception) {
-        return throwAddressToCatchAddress(throwAddress, exception, null);
+        final int throwPos = posFor(throwAddress);
+        int catchPos = ExceptionHandlerCache.lookup(this, throwPos, exception);
+        if (catchPos == ExceptionHandlerCache.MISS) {
+            CodePointer catchAddress = throwAddressToCatchAddress(throwAddress, exception, null);
+            ExceptionHandlerCache.record(this, throwPos, exception, catchAddress.isZero() ? ExceptionHandlerCache.NO_HANDLER : posFor(catchAddress));
+            return catchAddress;
+        }
+        return catchPos == ExceptionHandlerCache.NO_HANDLER ? CodePointer.zero() : codeAt(catchPos);
     }
 
     @Override
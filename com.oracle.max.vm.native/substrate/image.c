@@ -35,6 +35,12 @@
 #include "image.h"
 #include "log.h"
 #include "word.h"
+#include "maxine.h"
+
+#if os_SOLARIS || os_DARWIN || os_LINUX
+#include <sys/mman.h>
+#include "trap.h"
+#endif
 
 /* TODO: make this cpu-dependent: */
 #define MIN_CACHE_ALIGNMENT 8
@@ -43,7 +49,7 @@
 /*
  * Image format version checked against com.sun.max.vm.hosted.BootImage.BOOT_IMAGE_FORMAT_VERSION
  */
-#define IMAGE_FORMAT_VERSION                    2
+#define IMAGE_FORMAT_VERSION                    3
 #define DEFAULT_RELOCATION_SCHEME        0
 
 #if os_MAXVE
@@ -68,6 +74,23 @@ static Address          theHeap = 0;
 static Address          theCode = 0;
 static Address          theCodeEnd = 0;
 
+/*
+ * Load statistics, see com.sun.max.vm.MaxineVM.native_bootImage*().
+ */
+static jlong            theLoadTime = 0;
+static jlong            theRelocatedPages = 0;
+
+/*
+ * State for lazy relocation. A page is relocated by the first thread that faults on it.
+ */
+#define PAGE_UNRELOCATED 0
+#define PAGE_RELOCATING  1
+#define PAGE_RELOCATED   2
+
+static Byte             *lazyRelocationData = NULL;
+static Address          lazyRelocationDelta = 0;
+static volatile jbyte   *lazyPageStates = NULL;
+
 /*************************************************************************
  Functions for accessing image sections (once they are loaded).
  ************************************************************************/
@@ -236,6 +259,10 @@ static void checkImage(void) {
         log_exit(2, "image has wrong page size - expected: %d, found: %d", virtualMemory_getPageSize(), theHeader->pageSize);
     }
 
+    if (theHeader->preferredHeapAddressKB < 0) {
+        log_exit(2, "image has invalid preferred heap address: %dKB", theHeader->preferredHeapAddressKB);
+    }
+
     FOR_ALL_THREAD_LOCALS(CHECK_THREAD_LOCAL)
 }
 
@@ -295,6 +322,37 @@ static void checkTrailer(int fd) {
     }
 }
 
+/**
+ * Gets the address to which the pointers in the image have been relocated by the image generator.
+ */
+static Address preferredHeapAddress(void) {
+    if ((theHeader->bootImageFlags & PRERELOCATED) == 0) {
+        return 0;
+    }
+    /* Zero extended: checkImage() has rejected negative values */
+    return ((Address) (Unsigned4) theHeader->preferredHeapAddressKB) * 1024L;
+}
+
+#if !MEMORY_IMAGE && (os_SOLARIS || os_DARWIN || os_LINUX)
+/**
+ * Creates a mapping at exactly a given address without replacing any existing mapping.
+ *
+ * @return true if the mapping was created at 'address'
+ */
+static boolean mapAtPreferredAddress(Address address, size_t size, int flags, int fd, off_t offset) {
+    void *result = mmap((void *) address, size, PROT_EXEC | PROT_READ | PROT_WRITE, flags, fd, offset);
+    if (result == MAP_FAILED) {
+        return false;
+    }
+    if ((Address) result != address) {
+        /* the address was only taken as a hint */
+        munmap(result, size);
+        return false;
+    }
+    return true;
+}
+#endif
+
 static void mapHeapAndCode(int fd) {
     int heapOffsetInImage = virtualMemory_pageAlign(sizeof(struct image_Header) + theHeader->stringDataSize + theHeader->relocationDataSize);
     int heapAndCodeSize = theHeader->heapSize + theHeader->codeSize;
@@ -308,13 +366,23 @@ static void mapHeapAndCode(int fd) {
     Address reservedVirtualSpace = (Address) 0;
     size_t virtualSpaceSize = 1024L * theHeader->reservedVirtualSpaceSize;
     c_ASSERT(virtualMemory_pageAlign((Size) virtualSpaceSize) == (Size) virtualSpaceSize);
+    Address preferredHeap = preferredHeapAddress();
     if (virtualSpaceSize != 0) {
         // VM configuration asks for reserving an address space of size reservedVirtualSpaceSize.
         // The following will create a mapping in virtual space of the requested size.
         // The address returned might subsequently be used to memory map various regions, including the
         // boot heap region, automatically splitting this mapping.
         // In any case,  the VM (mostly the heap scheme) is responsible for releasing unused reserved space.
-        reservedVirtualSpace = virtualMemory_allocatePrivateAnon((Address) 0, virtualSpaceSize, JNI_FALSE, JNI_FALSE, HEAP_VM);
+        if (preferredHeap != 0 && theHeader->bootRegionMappingConstraint != 0) {
+            // Try to place the reserved space such that the boot heap region ends up at its preferred address
+            Address preferredSpace = theHeader->bootRegionMappingConstraint == 1 ? preferredHeap : preferredHeap + heapAndCodeSize - virtualSpaceSize;
+            if (mapAtPreferredAddress(preferredSpace, virtualSpaceSize, MAP_PRIVATE | MAP_ANON | MAP_NORESERVE, -1, 0)) {
+                reservedVirtualSpace = preferredSpace;
+            }
+        }
+        if (reservedVirtualSpace == 0) {
+            reservedVirtualSpace = virtualMemory_allocatePrivateAnon((Address) 0, virtualSpaceSize, JNI_FALSE, JNI_FALSE, HEAP_VM);
+        }
         if (reservedVirtualSpace == ALLOC_FAILED) {
             log_exit(4, "could not reserve requested virtual space");
         }
@@ -325,6 +393,9 @@ static void mapHeapAndCode(int fd) {
     } else if (theHeader->bootRegionMappingConstraint == 2) {
         // Map the boot heap region at the end of the reserved space. The start of the boot heap region is page-aligned.
         theHeap = reservedVirtualSpace + virtualSpaceSize - heapAndCodeSize;
+    } else if (preferredHeap != 0 && mapAtPreferredAddress(preferredHeap, heapAndCodeSize, MAP_PRIVATE, fd, heapOffsetInImage)) {
+        // Mapped the boot heap region at its preferred address.
+        theHeap = preferredHeap;
     } else {
         // Map the boot heap region anywhere outside of the reserved space.
         theHeap = virtualMemory_allocatePrivateAnon((Address) 0, heapAndCodeSize, JNI_FALSE, JNI_FALSE, HEAP_VM);
@@ -332,8 +403,10 @@ static void mapHeapAndCode(int fd) {
             log_exit(4, "could not reserve virtual space for boot image");
         }
     }
-    if (virtualMemory_mapFileAtFixedAddress(theHeap, heapAndCodeSize, fd, heapOffsetInImage) == ALLOC_FAILED) {
-        log_exit(4, "could not map boot image");
+    if (theHeap != preferredHeap || theHeader->bootRegionMappingConstraint != 0) {
+        if (virtualMemory_mapFileAtFixedAddress(theHeap, heapAndCodeSize, fd, heapOffsetInImage) == ALLOC_FAILED) {
+            log_exit(4, "could not map boot image");
+        }
     }
     if (reservedVirtualSpace) {
         Address *addr = image_offset_as_address(Address *, reservedVirtualSpaceFieldOffset);
@@ -357,12 +430,105 @@ static void mapHeapAndCode(int fd) {
     theCodeEnd = theCode + theHeader->codeSize;
 }
 
+/**
+ * Gets the number of bytes of relocation data describing one page of the heap and code.
+ */
+static int relocationBytesPerPage(void) {
+    return theHeader->pageSize / theHeader->wordSize / 8;
+}
+
+static int heapAndCodePages(void) {
+    return (theHeader->heapSize + theHeader->codeSize) / theHeader->pageSize;
+}
+
+boolean image_relocateOnFault(Address faultAddress) {
+#if !MEMORY_IMAGE && (os_SOLARIS || os_DARWIN || os_LINUX)
+    if (lazyPageStates == NULL || faultAddress < theHeap || faultAddress >= theCodeEnd) {
+        return false;
+    }
+    int page = (int) ((faultAddress - theHeap) / theHeader->pageSize);
+    if (lazyPageStates[page] == PAGE_RELOCATED) {
+        /* a fault on a relocated page is not caused by lazy relocation */
+        return false;
+    }
+    if (__sync_bool_compare_and_swap(&lazyPageStates[page], PAGE_UNRELOCATED, PAGE_RELOCATING)) {
+        Address pageAddress = theHeap + ((Address) page * theHeader->pageSize);
+        int bytesPerPage = relocationBytesPerPage();
+        int offset = page * bytesPerPage;
+        int size = theHeader->relocationDataSize - offset;
+        if (size > bytesPerPage) {
+            size = bytesPerPage;
+        }
+        if (mprotect((void *) pageAddress, theHeader->pageSize, PROT_READ | PROT_WRITE) != 0) {
+            log_exit(1, "could not unprotect boot image page %p for relocation", pageAddress);
+        }
+        if (size > 0) {
+            relocation_apply((void *) pageAddress, lazyRelocationDelta, lazyRelocationData + offset, size, word_BIG_ENDIAN, theHeader->wordSize);
+            __sync_fetch_and_add(&theRelocatedPages, 1);
+        }
+        if (mprotect((void *) pageAddress, theHeader->pageSize, PROT_EXEC | PROT_READ | PROT_WRITE) != 0) {
+            log_exit(1, "could not restore protection of boot image page %p", pageAddress);
+        }
+        __sync_synchronize();
+        lazyPageStates[page] = PAGE_RELOCATED;
+    } else {
+        /* another thread is relocating the page */
+        while (lazyPageStates[page] != PAGE_RELOCATED) {
+        }
+    }
+    return true;
+#else
+    return false;
+#endif
+}
+
+#if !MEMORY_IMAGE && (os_SOLARIS || os_DARWIN || os_LINUX)
+/**
+ * Handles the faults caused by lazy relocation until the VM installs its own signal handlers,
+ * which call 'image_relocateOnFault()' themselves.
+ */
+static void lazyRelocationSignalHandler(int signal, SigInfo *signalInfo, void *ucontext) {
+    if (!image_relocateOnFault((Address) signalInfo->si_addr)) {
+        log_exit(11, "fault at %p during VM startup", signalInfo->si_addr);
+    }
+}
+
+/**
+ * Protects all pages of the heap and code so that each is relocated on first access.
+ */
+static void relocateLazily(Byte *relocationData, Address delta) {
+    int pages = heapAndCodePages();
+    lazyRelocationData = relocationData;
+    lazyRelocationDelta = delta;
+    lazyPageStates = (volatile jbyte *) calloc(pages, sizeof(jbyte));
+    if (lazyPageStates == NULL) {
+        log_exit(1, "could not allocate lazy relocation state");
+    }
+    setSignalHandler(SIGSEGV, (SignalHandlerFunction) lazyRelocationSignalHandler);
+    setSignalHandler(SIGBUS, (SignalHandlerFunction) lazyRelocationSignalHandler);
+    if (mprotect((void *) theHeap, (size_t) pages * theHeader->pageSize, PROT_NONE) != 0) {
+        log_exit(1, "could not protect boot image for lazy relocation");
+    }
+    theHeader->bootImageFlags |= RELOCATED_LAZILY;
+}
+#endif
+
 static void relocate(int fd) {
     off_t wantedFileOffset;
     Byte *relocationData;
+    Address delta = theHeap - preferredHeapAddress();
 #if log_LOADER
     log_println("image.relocate");
 #endif
+    if (delta == 0 && preferredHeapAddress() != 0) {
+        // Mapped at the preferred address: the pointers in the image are already correct and
+        // the pages stay shared with every other process that maps the image.
+        theHeader->bootImageFlags |= MAPPED_AT_PREFERRED_ADDRESS;
+#if log_LOADER
+        log_println("image.relocate: mapped at preferred address %p, no relocation needed", theHeap);
+#endif
+        return;
+    }
 #if !MEMORY_IMAGE
     off_t actualFileOffset;
     int n;
@@ -391,7 +557,19 @@ static void relocate(int fd) {
     log_println("image.relocate [relocation map: %d bytes]", theHeader->relocationDataSize);
 #endif
 
-    relocation_apply((void *) theHeap, theHeap, relocationData, theHeader->relocationDataSize, word_BIG_ENDIAN, theHeader->wordSize);
+#if !MEMORY_IMAGE && (os_SOLARIS || os_DARWIN || os_LINUX)
+    if ((theHeader->bootImageFlags & LAZY_RELOCATION) != 0) {
+        // 'relocationData' is kept for the lifetime of the VM
+        relocateLazily(relocationData, delta);
+#if log_LOADER
+        log_println("image.relocate: relocating lazily by %p", delta);
+#endif
+        return;
+    }
+#endif
+
+    relocation_apply((void *) theHeap, delta, relocationData, theHeader->relocationDataSize, word_BIG_ENDIAN, theHeader->wordSize);
+    theRelocatedPages = heapAndCodePages();
 
 #if !MEMORY_IMAGE
     free(relocationData);
@@ -407,6 +585,7 @@ void image_load(char *imageFileName) {
         return;
     }
     int fd = -1;
+    jlong startTime = native_nanoTime();
 #if !MEMORY_IMAGE
 #if log_LOADER
     log_println("reading image from %s", imageFileName);
@@ -433,6 +612,23 @@ void image_load(char *imageFileName) {
     if (error != 0) {
         log_println("WARNING: could not close image file");
     }
+    theLoadTime = native_nanoTime() - startTime;
+}
+
+jint native_bootImageFlags(void) {
+    return image_header()->bootImageFlags;
+}
+
+jlong native_bootImageLoadTime(void) {
+    return theLoadTime;
+}
+
+jlong native_bootImageRelocatedPages(void) {
+    return theRelocatedPages;
+}
+
+jlong native_bootImagePages(void) {
+    return heapAndCodePages();
 }
 
 void image_printAddress(Address address) {
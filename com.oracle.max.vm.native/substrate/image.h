@@ -53,6 +53,8 @@
     f(reservedVirtualSpaceSize) /* Amount of contiguous virtual space to reserve at boot image load-time  */ \
     f(reservedVirtualSpaceFieldOffset) /* offset where to store the address of the reserved contiguous virtual space, if any*/ \
     f(bootRegionMappingConstraint) \
+    f(bootImageFlags) /* See the IMAGE_* flags below */ \
+    f(preferredHeapAddressKB) /* Address (in KB) to which the pointers in a pre-relocated image are relocated */ \
     f(tlaListHeadOffset) /* See the comment for the 'tlaListHead' field in the VmThreadMap class.  */ \
     f(exitCodeOffset) \
     f(tlaSize) /* The size of a TLA.  */ \
@@ -75,6 +77,15 @@
 
 #define DEFINE_IMAGE_HEADER_FIELD(name) jint name;
 
+/*
+ * Flags in the 'bootImageFlags' header field.
+ * ATTENTION: these must match the constants of the same name in 'com.sun.max.vm.hosted.BootImage'.
+ */
+#define PRERELOCATED                0x1   /* pointers are relocated to 'preferredHeapAddressKB' instead of 0 */
+#define LAZY_RELOCATION             0x2   /* relocate pages on first access if the preferred address is unavailable */
+#define MAPPED_AT_PREFERRED_ADDRESS 0x100 /* set by the loader: mapped at the preferred address, not relocated */
+#define RELOCATED_LAZILY            0x200 /* set by the loader: pages are relocated on first access */
+
 /**
  *  ATTENTION: this struct and the below items must match
  *             'com.sun.max.vm.hosted.BootImage.Header'.
@@ -133,6 +144,16 @@ typedef struct image_Trailer {
  */
 extern void image_load(char *imageFileName);
 
+/**
+ * Relocates the boot image page containing a given address if the image is being relocated lazily
+ * and the page has not yet been relocated. Must be called by signal handlers for SIGSEGV and SIGBUS
+ * before any other processing of the signal.
+ *
+ * @param faultAddress the address whose access caused the signal
+ * @return true if the page containing 'faultAddress' is now relocated and the faulting access can be retried
+ */
+extern boolean image_relocateOnFault(Address faultAddress);
+
 /**
  * Must only be called after calling 'load_image()'.
  *
@@ -355,6 +355,13 @@ static void vmSignalHandler(int signal, SigInfo *signalInfo, UContext *ucontext)
     Address ip = getInstructionPointer(ucontext);
     Address faultAddress = getFaultAddress(signalInfo, ucontext);
 
+#if os_SOLARIS || os_DARWIN || os_LINUX
+    if ((signal == SIGSEGV || signal == SIGBUS) && image_relocateOnFault(faultAddress)) {
+        /* first access to a lazily relocated boot image page: retry the faulting instruction */
+        return;
+    }
+#endif
+
 #if isa_ARM
     if (ucontext->uc_mcontext.arm_cpsr & 0x20) {
         ip = ip | 0x1;
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+/**
+ * Support for the memory-mapped VMLog sink (see VMLogNativeThreadMapped.java).
+ *
+ * Each thread appends binary records to a segment file mapped MAP_SHARED into the
+ * VM, so that the kernel writes the records back to the file without any system calls
+ * on the logging path. The functions here block on file system calls, so they are
+ * JNI functions called with a thread state transition, by the segment mapper thread
+ * that creates segments ahead of time and releases them, or by a terminating thread.
+ */
+#include <stdio.h>
+#include <string.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/types.h>
+#include <sys/mman.h>
+
+#include "os.h"
+#include "jni.h"
+#include "log.h"
+#include "word.h"
+
+#define VMLOG_PATH_LENGTH 4096
+
+/*
+ * Segment files are named by the serial number the VM gave the thread, not by its thread id:
+ * thread ids are reused, serial numbers are not.
+ */
+static void vmlog_segmentPath(char *path, const char *dir, jint serial, jint segment) {
+    snprintf(path, VMLOG_PATH_LENGTH, "%s/vmlog-%d-%d-%d.seg", dir, (int) getpid(), (int) serial, (int) segment);
+}
+
+/*
+ * Creates a new file of the given size and maps it shared into the address space.
+ * An existing file is never overwritten.
+ * Returns 0 if the file could not be created or mapped.
+ */
+static Address vmlog_mapFile(const char *path, jlong size) {
+    void *result;
+    int fd = open(path, O_RDWR | O_CREAT | O_EXCL, 0644);
+    if (fd < 0) {
+        log_println("VMLog: could not create %s: %s", path, strerror(errno));
+        return 0;
+    }
+    if (ftruncate(fd, (off_t) size) != 0) {
+        log_println("VMLog: could not extend %s to %ld bytes", path, (long) size);
+        close(fd);
+        unlink(path);
+        return 0;
+    }
+    result = mmap(0, (size_t) size, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+    // the mapping keeps the file open
+    close(fd);
+    if (result == MAP_FAILED) {
+        log_println("VMLog: could not map %s", path);
+        unlink(path);
+        return 0;
+    }
+    return (Address) result;
+}
+
+JNIEXPORT Address JNICALL
+Java_com_sun_max_vm_log_nat_thread_mapped_VMLogNativeThreadMapped_nativeVMLogMapSegment(JNIEnv *env, jclass c, const char *dir, jint serial, jint segment, jlong size) {
+    char path[VMLOG_PATH_LENGTH];
+    vmlog_segmentPath(path, dir, serial, segment);
+    return vmlog_mapFile(path, size);
+}
+
+JNIEXPORT Address JNICALL
+Java_com_sun_max_vm_log_nat_thread_mapped_VMLogNativeThreadMapped_nativeVMLogMapIndex(JNIEnv *env, jclass c, const char *dir, jlong size) {
+    char path[VMLOG_PATH_LENGTH];
+    snprintf(path, VMLOG_PATH_LENGTH, "%s/vmlog-%d.idx", dir, (int) getpid());
+    return vmlog_mapFile(path, size);
+}
+
+JNIEXPORT void JNICALL
+Java_com_sun_max_vm_log_nat_thread_mapped_VMLogNativeThreadMapped_nativeVMLogUnmap(JNIEnv *env, jclass c, Address base, jlong size) {
+    munmap((void *) base, (size_t) size);
+}
+
+JNIEXPORT void JNICALL
+Java_com_sun_max_vm_log_nat_thread_mapped_VMLogNativeThreadMapped_nativeVMLogRemoveSegment(JNIEnv *env, jclass c, const char *dir, jint serial, jint segment) {
+    char path[VMLOG_PATH_LENGTH];
+    vmlog_segmentPath(path, dir, serial, segment);
+    unlink(path);
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test.com.sun.max.vm.classfile;
+
+import java.io.*;
+import java.util.*;
+import java.util.jar.*;
+
+import com.sun.max.ide.*;
+import com.sun.max.vm.classfile.*;
+import com.sun.max.vm.classfile.ClassArchive.Classfile;
+
+/**
+ * Tests for {@link ClassArchive}.
+ */
+public class ClassArchiveTest extends MaxTestCase {
+
+    public ClassArchiveTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(ClassArchiveTest.class);
+    }
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("ClassArchiveTest", "");
+        assertTrue(directory.delete() && directory.mkdir());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    private static byte[] classfile(String name, int length) {
+        byte[] bytes = new byte[length];
+        new Random(name.hashCode()).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Creates a jar file holding the given class files.
+     */
+    private File jar(String name, Map<String, byte[]> classfiles) throws IOException {
+        File jar = new File(directory, name);
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            for (Map.Entry<String, byte[]> e : classfiles.entrySet()) {
+                out.putNextEntry(new JarEntry(e.getKey().replace('.', '/') + ".class"));
+                out.write(e.getValue());
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return jar;
+    }
+
+    private File archive(List<File> classPath, Map<String, byte[]> classfiles) throws IOException {
+        Map<String, Classfile> classes = new HashMap<String, Classfile>();
+        for (Map.Entry<String, byte[]> e : classfiles.entrySet()) {
+            classes.put(e.getKey(), new Classfile(e.getValue(), 0, e.getValue().length));
+        }
+        File archive = new File(directory, "classes.archive");
+        ClassArchive.write(archive, classPath, classes);
+        return archive;
+    }
+
+    private static Map<String, byte[]> classfiles(int count) {
+        Map<String, byte[]> classfiles = new TreeMap<String, byte[]>();
+        for (int i = 0; i < count; i++) {
+            String name = "p.C" + i;
+            classfiles.put(name, classfile(name, 100 + i % 50));
+        }
+        return classfiles;
+    }
+
+    public void test_roundTrip() throws IOException {
+        Map<String, byte[]> classfiles = classfiles(1000);
+        List<File> classPath = Arrays.asList(jar("a.jar", classfiles));
+        ClassArchive archive = ClassArchive.open(archive(classPath, classfiles), classPath);
+        for (Map.Entry<String, byte[]> e : classfiles.entrySet()) {
+            byte[] bytes = e.getValue();
+            assertTrue(archive.contains(e.getKey(), bytes, 0, bytes.length));
+
+            // the same bytes at an offset in a larger array
+            byte[] padded = new byte[bytes.length + 10];
+            System.arraycopy(bytes, 0, padded, 5, bytes.length);
+            assertTrue(archive.contains(e.getKey(), padded, 5, bytes.length));
+        }
+        byte[] bytes = classfiles.get("p.C1");
+        assertFalse(archive.contains("p.C1000", bytes, 0, bytes.length));
+        assertFalse(archive.contains("p.C2", bytes, 0, bytes.length));
+        assertFalse(archive.contains("p.C1", bytes, 0, bytes.length - 1));
+    }
+
+    public void test_emptyArchive() throws IOException {
+        Map<String, byte[]> classfiles = classfiles(0);
+        List<File> classPath = Arrays.asList(jar("a.jar", classfiles(1)));
+        ClassArchive archive = ClassArchive.open(archive(classPath, classfiles), classPath);
+        byte[] bytes = classfile("p.C0", 100);
+        assertFalse(archive.contains("p.C0", bytes, 0, bytes.length));
+    }
+
+    public void test_changedClassfile() throws IOException {
+        Map<String, byte[]> classfiles = classfiles(10);
+        List<File> classPath = Arrays.asList(jar("a.jar", classfiles));
+        ClassArchive archive = ClassArchive.open(archive(classPath, classfiles), classPath);
+        byte[] bytes = classfiles.get("p.C3").clone();
+        bytes[bytes.length / 2]++;
+        assertFalse(archive.contains("p.C3", bytes, 0, bytes.length));
+    }
+
+    public void test_changedJar() throws IOException {
+        Map<String, byte[]> classfiles = classfiles(10);
+        List<File> classPath = Arrays.asList(jar("a.jar", classfiles));
+        File archive = archive(classPath, classfiles);
+
+        // a jar that is only touched keeps the archive valid
+        File jar = classPath.get(0);
+        assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+        ClassArchive.open(archive, classPath);
+
+        // a jar with a changed class invalidates the archive
+        classfiles.put("p.C3", classfile("p.C3", 200));
+        jar("a.jar", classfiles);
+        assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+        try {
+            ClassArchive.open(archive, classPath);
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    public void test_changedClassPath() throws IOException {
+        Map<String, byte[]> classfiles = classfiles(10);
+        List<File> classPath = Arrays.asList(jar("a.jar", classfiles));
+        File archive = archive(classPath, classfiles);
+        try {
+            ClassArchive.open(archive, Arrays.asList(classPath.get(0), jar("b.jar", classfiles(1))));
+            fail();
+        } catch (IOException e) {
+        }
+        try {
+            ClassArchive.open(archive, Arrays.asList(jar("b.jar", classfiles)));
+            fail();
+        } catch (IOException e) {
+        }
+    }
+
+    public void test_corruptArchive() throws IOException {
+        Map<String, byte[]> classfiles = classfiles(10);
+        List<File> classPath = Arrays.asList(jar("a.jar", classfiles));
+        File archive = archive(classPath, classfiles);
+        RandomAccessFile file = new RandomAccessFile(archive, "rw");
+        try {
+            file.setLength(20);
+        } finally {
+            file.close();
+        }
+        try {
+            ClassArchive.open(archive, classPath);
+            fail();
+        } catch (IOException e) {
+        }
+    }
+}
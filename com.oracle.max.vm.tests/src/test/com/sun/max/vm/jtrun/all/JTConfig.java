@@ -571,6 +571,10 @@ public class JTConfig {
         jtt.optimize.Conditional01.class,
         jtt.optimize.DeadCode01.class,
         jtt.optimize.DeadCode02.class,
+        jtt.optimize.EA_01.class,
+        jtt.optimize.EA_02.class,
+        jtt.optimize.EA_03.class,
+        jtt.optimize.EA_04.class,
         jtt.optimize.Fold_Cast01.class,
         jtt.optimize.Fold_Convert01.class,
         jtt.optimize.Fold_Convert02.class,
@@ -589,6 +593,9 @@ public class JTConfig {
         jtt.optimize.Fold_Math01.class,
         jtt.optimize.Inline01.class,
         jtt.optimize.Inline02.class,
+        jtt.optimize.InterfaceCall_Mega01.class,
+        jtt.optimize.InterfaceCall_Mono01.class,
+        jtt.optimize.InterfaceCall_Poly01.class,
         jtt.optimize.LLE_01.class,
         jtt.optimize.List_reorder_bug.class,
         jtt.optimize.NCE_01.class,
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test.com.sun.max.vm.log;
+
+import static com.sun.max.vm.log.nat.thread.mapped.VMLogNativeThreadMapped.*;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+import com.sun.max.ide.*;
+import com.sun.max.vm.log.VMLog.Record;
+import com.sun.max.vm.log.hosted.*;
+
+/**
+ * Tests that {@link VMLogMappedDecoder} renders segment files laid out as {@link com.sun.max.vm.log.nat.thread.mapped.VMLogNativeThreadMapped}
+ * writes them, merging the records of all threads by timestamp.
+ */
+public class VMLogMappedDecoderTest extends MaxTestCase {
+
+    public VMLogMappedDecoderTest(String name) {
+        super(name);
+    }
+
+    public static void main(String[] args) {
+        junit.textui.TestRunner.run(VMLogMappedDecoderTest.class);
+    }
+
+    private static final String PID = "4242";
+    private static final int WORD_SIZE = 8;
+    private static final int RECORD_SIZE = MAPPED_ARGS_OFFSET + Record.MAX_ARGS * WORD_SIZE;
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("VMLogMappedDecoderTest", "");
+        assertTrue(directory.delete() && directory.mkdir());
+        PrintWriter index = new PrintWriter(new FileWriter(new File(directory, "vmlog-" + PID + ".idx")));
+        index.print("vmlog " + SEGMENT_VERSION + "\n");
+        index.print("logger 1 GC\n");
+        index.print("op 1 0 0 Begin\n");
+        index.print("op 1 1 2 Move\n");
+        index.print("logger 2 Compilation\n");
+        index.print("op 2 0 0 Compile\n");
+        index.close();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    /**
+     * A record to be written to a segment.
+     */
+    private static final class TestRecord {
+        final long timestamp;
+        final int uuid;
+        final int threadId;
+        final int loggerId;
+        final int op;
+        final long[] args;
+
+        TestRecord(long timestamp, int uuid, int threadId, int loggerId, int op, long... args) {
+            this.timestamp = timestamp;
+            this.uuid = uuid;
+            this.threadId = threadId;
+            this.loggerId = loggerId;
+            this.op = op;
+            this.args = args;
+        }
+    }
+
+    /**
+     * Writes a segment file with the given records, leaving room for as many unused records.
+     */
+    private void writeSegment(int serial, int segment, int threadId, TestRecord... records) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SEGMENT_HEADER_SIZE + 2 * records.length * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(SEGMENT_MAGIC_OFFSET, SEGMENT_MAGIC);
+        buffer.putInt(SEGMENT_VERSION_OFFSET, SEGMENT_VERSION);
+        buffer.putInt(SEGMENT_HEADER_SIZE_OFFSET, SEGMENT_HEADER_SIZE);
+        buffer.putInt(SEGMENT_RECORD_SIZE_OFFSET, RECORD_SIZE);
+        buffer.putInt(SEGMENT_ARGS_OFFSET_OFFSET, MAPPED_ARGS_OFFSET);
+        buffer.putInt(SEGMENT_WORD_SIZE_OFFSET, WORD_SIZE);
+        buffer.putInt(SEGMENT_THREAD_ID_OFFSET, threadId);
+        buffer.putInt(SEGMENT_NUMBER_OFFSET, segment);
+        buffer.putInt(SEGMENT_THREAD_SERIAL_OFFSET, serial);
+        int offset = SEGMENT_HEADER_SIZE;
+        for (TestRecord r : records) {
+            int header = (r.threadId << Record.THREAD_SHIFT) | (r.op << Record.OPERATION_SHIFT) | (r.loggerId << Record.LOGGER_ID_SHIFT) | r.args.length;
+            buffer.putInt(offset, header);
+            buffer.putInt(offset + ID_OFFSET, r.uuid);
+            buffer.putLong(offset + TIMESTAMP_OFFSET, r.timestamp);
+            for (int i = 0; i < r.args.length; i++) {
+                buffer.putLong(offset + MAPPED_ARGS_OFFSET + i * WORD_SIZE, r.args[i]);
+            }
+            offset += RECORD_SIZE;
+        }
+        FileOutputStream out = new FileOutputStream(new File(directory, "vmlog-" + PID + "-" + serial + "-" + segment + ".seg"));
+        try {
+            out.write(buffer.array());
+        } finally {
+            out.close();
+        }
+    }
+
+    private List<String> decode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+        VMLogMappedDecoder.decode(directory, PID, out);
+        out.close();
+        return Arrays.asList(bytes.toString().split("\n"));
+    }
+
+    public void test_roundTrip() throws IOException {
+        // thread 3 (serial 1) logs into two segments, thread 5 (serial 2) into one
+        writeSegment(1, 1, 3,
+            new TestRecord(100, 10, 3, 1, 0),
+            new TestRecord(300, 12, 3, 1, 1, 0x10, 0xCAFE0));
+        writeSegment(1, 2, 3,
+            new TestRecord(500, 14, 3, 2, 0, 7));
+        writeSegment(2, 1, 5,
+            new TestRecord(200, 11, 5, 2, 0, 1),
+            new TestRecord(400, 13, 5, 2, 0, 2));
+        assertEquals(Arrays.asList(
+            "100 10 Thread 3 GC.Begin",
+            "200 11 Thread 5 Compilation.Compile 0x1",
+            "300 12 Thread 3 GC.Move 0x10 @0xcafe0",
+            "400 13 Thread 5 Compilation.Compile 0x2",
+            "500 14 Thread 3 Compilation.Compile 0x7"), decode());
+    }
+
+    public void test_idWrapAround() throws IOException {
+        // ids wrap after 2^32 records, timestamps do not
+        writeSegment(1, 1, 3,
+            new TestRecord(1000L << 32, Integer.MAX_VALUE, 3, 1, 0),
+            new TestRecord((1000L << 32) + 2, Integer.MIN_VALUE + 1, 3, 1, 0));
+        writeSegment(2, 1, 5,
+            new TestRecord((1000L << 32) + 1, Integer.MIN_VALUE, 5, 1, 0),
+            new TestRecord((1000L << 32) + 2, Integer.MIN_VALUE + 2, 5, 1, 0));
+        List<String> lines = decode();
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0).endsWith(" " + Integer.MAX_VALUE + " Thread 3 GC.Begin"));
+        assertTrue(lines.get(1).endsWith(" " + Integer.MIN_VALUE + " Thread 5 GC.Begin"));
+        // records with the same timestamp are ordered by id
+        assertTrue(lines.get(2).endsWith(" " + (Integer.MIN_VALUE + 1) + " Thread 3 GC.Begin"));
+        assertTrue(lines.get(3).endsWith(" " + (Integer.MIN_VALUE + 2) + " Thread 5 GC.Begin"));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test.vm.output;
+
+import static com.sun.max.vm.MaxineVM.*;
+
+import java.util.*;
+
+import com.sun.cri.ci.*;
+import com.sun.max.lang.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.member.*;
+import com.sun.max.vm.compiler.*;
+import com.sun.max.vm.compiler.RuntimeCompiler.Nature;
+import com.sun.max.vm.compiler.target.*;
+
+/**
+ * Tests the bookkeeping of background compilations: the order in which queued compilations are performed,
+ * the restoration of a method's previous state when a background compilation fails, and the merging of a
+ * background result with a compilation of another nature that finished in the meantime.
+ */
+public class BackgroundCompilation implements MaxineOnly {
+
+    public static void main(String[] args) throws Throwable {
+        testOrdering();
+        testFailureRestoresPreviousState();
+        testMergeWithConcurrentCompilation();
+        System.out.println("done.");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            System.out.println("FAILED: " + message);
+            System.exit(1);
+        }
+    }
+
+    private static ClassMethodActor method(String name) {
+        return ClassMethodActor.fromJava(Classes.getDeclaredMethod(BackgroundCompilation.class, name, int.class));
+    }
+
+    /**
+     * Creates a background compilation of a given method and makes it the method's pending compilation,
+     * as {@link CompilationBroker#enqueue} does.
+     */
+    private static Compilation newBackgroundCompilation(ClassMethodActor cma, RuntimeCompiler compiler) {
+        synchronized (cma) {
+            final Compilation compilation = new Compilation(compiler, cma, (Compilations) cma.compiledState, Thread.currentThread(), Nature.OPT, false, true);
+            cma.compiledState = compilation;
+            return compilation;
+        }
+    }
+
+    private static void testOrdering() {
+        final ClassMethodActor cma = method("ordered");
+        final PriorityQueue<Compilation> queue = new PriorityQueue<Compilation>(8, CompilationBroker.HOTTEST_FIRST);
+        final int[] hotness = {3, 50, 7, 1000, 0, 50};
+        for (int h : hotness) {
+            final Compilation compilation = new Compilation(null, cma, Compilations.EMPTY, null, Nature.OPT, false, true);
+            compilation.hotness = h;
+            queue.add(compilation);
+        }
+        int last = Integer.MAX_VALUE;
+        while (!queue.isEmpty()) {
+            final int h = queue.poll().hotness;
+            check(h <= last, "compilation with hotness " + h + " dequeued after one with hotness " + last);
+            last = h;
+        }
+        System.out.println("ordering: ok");
+    }
+
+    private static void testFailureRestoresPreviousState() throws Throwable {
+        check(failing(1) == 2, "failing(1)");
+        final ClassMethodActor cma = method("failing");
+        final Object previous = cma.compiledState;
+        check(previous instanceof Compilations, "method is still being compiled");
+        final Compilation compilation = newBackgroundCompilation(cma, new FailingCompiler());
+        try {
+            compilation.compile();
+            check(false, "compilation should have failed");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        check(cma.compiledState == previous, "failed background compilation did not restore the previous state");
+        check(compilation.isDone() && compilation.get() == null, "failed background compilation is not done with a null result");
+        final TargetMethod tm = vm().compilationBroker.compile(cma, Nature.OPT, false, true);
+        check(tm != null && Compilations.currentTargetMethod(cma.compiledState, Nature.OPT) == tm, "method cannot be compiled again");
+        System.out.println("failure: ok");
+    }
+
+    private static void testMergeWithConcurrentCompilation() throws Throwable {
+        check(merged(1) == 3, "merged(1)");
+        final ClassMethodActor cma = method("merged");
+        final Compilation background = newBackgroundCompilation(cma, vm().compilationBroker.optimizingCompiler);
+        // a deoptimization requests a baseline compilation while the background compilation is still queued
+        final TargetMethod baseline = vm().compilationBroker.compile(cma, Nature.BASELINE, true, true);
+        final TargetMethod optimized = background.compile();
+        final Compilations state = (Compilations) cma.compiledState;
+        check(state.baseline == baseline, "background compilation discarded the baseline compiled in the meantime");
+        check(state.optimized == optimized, "background compilation result was not installed");
+        System.out.println("merge: ok");
+    }
+
+    public static int ordered(int i) {
+        return i;
+    }
+
+    public static int failing(int i) {
+        return i + 1;
+    }
+
+    public static int merged(int i) {
+        return i + 2;
+    }
+
+    /**
+     * A compiler that always fails.
+     */
+    static class FailingCompiler implements RuntimeCompiler {
+        public void initialize(MaxineVM.Phase phase) {
+        }
+
+        public void deoptimize(ClassMethodActor classMethodActor) {
+        }
+
+        public TargetMethod compile(ClassMethodActor classMethodActor, boolean isDeopt, boolean install, CiStatistics stats) {
+            throw new RuntimeException("failing compiler");
+        }
+
+        public Nature nature() {
+            return Nature.OPT;
+        }
+
+        public boolean matches(String compilerName) {
+            return false;
+        }
+
+        public String name(ClassMethodActor classMethodActor) {
+            return "failing";
+        }
+    }
+}
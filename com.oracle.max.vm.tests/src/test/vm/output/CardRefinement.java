@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test.vm.output;
+
+import static com.sun.max.vm.VMConfiguration.*;
+
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.gcx.gen.mse.*;
+import com.sun.max.vm.heap.gcx.rset.ctbl.*;
+
+/**
+ * Tests that the cards refined by {@link ConcurrentCardRefinement} are scanned by the next young collection.
+ * Old objects and a large old array are made to reference young objects, and the only way to these is through
+ * the old ones. Once the refinement thread has cleaned the cards holding these references, a collection must
+ * still find them in the refined card set and evacuate the young objects. The nursery is then filled with garbage
+ * so that a reference the collection missed dangles over overwritten memory.
+ * The test does nothing unless the VM runs the {@link GenMSEHeapScheme} with -XX:+ConcurrentRefinement.
+ */
+public class CardRefinement implements MaxineOnly {
+
+    static final class Payload {
+        final int value;
+        final Payload self;
+        final int[] data;
+
+        Payload(int value) {
+            this.value = value;
+            this.self = this;
+            this.data = new int[] {value, -value};
+        }
+    }
+
+    static final class Holder {
+        Payload payload;
+    }
+
+    private static final int COUNT = 1000;
+
+    /**
+     * Distance between two reference stores in {@link #slots}, so that each store dirties a different card.
+     */
+    private static final int STRIDE = 1 << (CardTableRSet.LOG2_CARD_SIZE - 3);
+
+    private static Holder[] holders;
+    private static Object[] slots;
+
+    public static void main(String[] args) throws InterruptedException {
+        final HeapScheme heapScheme = vmConfig().heapScheme();
+        if (!(heapScheme instanceof GenMSEHeapScheme) || ((GenMSEHeapScheme) heapScheme).cardRefinement() == null) {
+            System.out.println("done.");
+            return;
+        }
+        final ConcurrentCardRefinement refinement = ((GenMSEHeapScheme) heapScheme).cardRefinement();
+        holders = new Holder[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            holders[i] = new Holder();
+        }
+        slots = new Object[COUNT * STRIDE];
+        // promote the holders and the slots to the old generation
+        System.gc();
+        System.gc();
+
+        // all the references to young objects are refined before the collection
+        store(0, COUNT, 0);
+        waitForRefinement(refinement);
+        collect();
+        check(0, COUNT, 0);
+
+        // some of the cards are refined, the others are dirtied after refinement
+        store(0, COUNT, 1);
+        waitForRefinement(refinement);
+        store(0, COUNT / 2, 2);
+        collect();
+        check(0, COUNT / 2, 2);
+        check(COUNT / 2, COUNT, 1);
+
+        System.out.println("done.");
+    }
+
+    private static void fail(String message) {
+        System.out.println("FAILED: " + message);
+        System.exit(1);
+    }
+
+    private static int value(int round, int i) {
+        return round * COUNT + i + 1;
+    }
+
+    /**
+     * Stores young objects in the old holders and slots. Nothing else references them.
+     */
+    private static void store(int from, int to, int round) {
+        for (int i = from; i < to; i++) {
+            holders[i].payload = new Payload(value(round, i));
+            slots[i * STRIDE] = new Payload(-value(round, i));
+        }
+    }
+
+    /**
+     * Waits until the refinement thread has remembered at least as many cards as there are young objects referenced from {@link #slots}.
+     */
+    private static void waitForRefinement(ConcurrentCardRefinement refinement) throws InterruptedException {
+        final long expected = refinement.rememberedCardCount() + COUNT;
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (refinement.rememberedCardCount() < expected) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("cards holding young references were not refined");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Collects, then overwrites the evacuated nursery.
+     */
+    private static void collect() {
+        System.gc();
+        Object[] garbage = null;
+        for (int i = 0; i < 100000; i++) {
+            garbage = new Object[] {garbage, new int[8]};
+            if ((i & 0xff) == 0) {
+                garbage = null;
+            }
+        }
+        System.gc();
+    }
+
+    private static void check(Payload payload, int value) {
+        if (payload == null || payload.value != value || payload.self != payload || payload.data.length != 2 ||
+                        payload.data[0] != value || payload.data[1] != -value) {
+            fail("young object referenced from a refined card was not evacuated properly: " + value);
+        }
+    }
+
+    private static void check(int from, int to, int round) {
+        for (int i = from; i < to; i++) {
+            check(holders[i].payload, value(round, i));
+            check((Payload) slots[i * STRIDE], -value(round, i));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package test.vm.output;
+
+import com.sun.max.vm.monitor.modal.modehandlers.*;
+import com.sun.max.vm.monitor.modal.modehandlers.lightweight.thin.*;
+import com.sun.max.vm.monitor.modal.sync.*;
+import com.sun.max.vm.object.*;
+
+/**
+ * Tests adaptive spinning on contended thin locks: a thread contending for a thin lock that is released soon
+ * acquires it by spinning and grows the shared thin lock budget, while one contending for a thin lock that is
+ * held for long spins until the budget is exhausted, shrinks the budget and inflates the lock.
+ */
+public class ThinLockSpinning implements MaxineOnly {
+
+    private static volatile boolean holding;
+    private static volatile boolean release;
+
+    public static void main(String[] args) throws InterruptedException {
+        final Object probe = new Object();
+        synchronized (probe) {
+            if (!MonitorSpinning.isEnabled() || !ThinLockword64.isThinLockword(lockword(probe))) {
+                // the monitor scheme doesn't use thin locks or spinning is disabled
+                System.out.println("done.");
+                return;
+            }
+        }
+        check(MonitorSpinning.thinLockBudget() == MonitorSpinning.initialBudget(), "thin lock budget is not the initial budget");
+        if (Runtime.getRuntime().availableProcessors() > 1) {
+            testShortHold();
+        }
+        testLongHold();
+        System.out.println("done.");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            System.out.println("FAILED: " + message);
+            System.exit(1);
+        }
+    }
+
+    private static ModalLockword64 lockword(Object object) {
+        return ModalLockword64.from(ObjectAccess.readMisc(object));
+    }
+
+    /**
+     * Starts a thread that holds a lock until {@link #release} is set or for a given time, whichever comes first.
+     */
+    private static Thread hold(final Object lock, final long nanos) throws InterruptedException {
+        holding = false;
+        release = false;
+        final Thread holder = new Thread() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    holding = true;
+                    final long end = System.nanoTime() + nanos;
+                    while (!release && System.nanoTime() < end) {
+                        // stay runnable so that the contending thread keeps spinning
+                    }
+                }
+            }
+        };
+        holder.start();
+        while (!holding) {
+            Thread.yield();
+        }
+        return holder;
+    }
+
+    /**
+     * Contends for thin locks held for a few microseconds until a spin acquires one.
+     */
+    private static void testShortHold() throws InterruptedException {
+        for (int attempt = 0; attempt < 1000; attempt++) {
+            final Object lock = new Object();
+            final int budget = MonitorSpinning.thinLockBudget();
+            final Thread holder = hold(lock, 5000);
+            boolean inflated;
+            synchronized (lock) {
+                inflated = lockword(lock).isInflated();
+            }
+            holder.join();
+            if (!inflated && MonitorSpinning.thinLockBudget() > budget) {
+                check(MonitorSpinning.thinLockBudget() == MonitorSpinning.grow(budget), "budget did not grow as expected");
+                System.out.println("short hold: acquired by spinning");
+                return;
+            }
+        }
+        check(false, "no spin acquired a thin lock held for a few microseconds");
+    }
+
+    /**
+     * Contends for thin locks held until the contending thread has inflated them, shrinking the budget each time.
+     */
+    private static void testLongHold() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            final Object lock = new Object();
+            final int budget = MonitorSpinning.thinLockBudget();
+            final Thread holder = hold(lock, 10000000000L);
+            // the holder is released by another thread since this one is busy contending
+            final Thread releaser = new Thread() {
+                @Override
+                public void run() {
+                    while (!lockword(lock).isInflated()) {
+                        Thread.yield();
+                    }
+                    release = true;
+                }
+            };
+            releaser.start();
+            synchronized (lock) {
+                check(lockword(lock).isInflated(), "contended thin lock was not inflated");
+            }
+            holder.join();
+            releaser.join();
+            check(MonitorSpinning.thinLockBudget() == MonitorSpinning.shrink(budget), "budget did not shrink after spinning failed");
+        }
+        System.out.println("long hold: inflated after spinning");
+    }
+}
@@ -106,6 +106,34 @@ public final class MaxineVM {
         }
     }, MaxineVM.Phase.PRISTINE);
 
+    private static final VMBooleanOption PRINT_BOOT_IMAGE_LOADING = register(new VMBooleanOption("-XX:-PrintBootImageLoading",
+        "Report how the boot image was mapped and relocated at startup.") {
+        @Override
+        protected void beforeExit() {
+            if (getValue()) {
+                final int flags = native_bootImageFlags();
+                final int pageSize = platform().pageSize;
+                Log.print("Boot image ");
+                if ((flags & BootImage.MAPPED_AT_PREFERRED_ADDRESS) != 0) {
+                    Log.print("mapped at preferred address, not relocated");
+                } else if ((flags & BootImage.RELOCATED_LAZILY) != 0) {
+                    Log.print("relocated lazily");
+                } else {
+                    Log.print("relocated at load time");
+                }
+                Log.print(", load time = ");
+                Log.print(native_bootImageLoadTime() / 1000);
+                Log.print("us, relocated (private) pages = ");
+                Log.print(native_bootImageRelocatedPages());
+                Log.print(" of ");
+                Log.print(native_bootImagePages());
+                Log.print(" (");
+                Log.print(native_bootImageRelocatedPages() * pageSize / 1024);
+                Log.println("KB)");
+            }
+        }
+    }, MaxineVM.Phase.STARTING);
+
     /**
      * The current VM context.
      */
@@ -584,6 +612,31 @@ public final class MaxineVM {
     @C_FUNCTION
     public static native double native_parseDouble(Pointer pointer, double nan);
 
+    /**
+     * Gets the {@linkplain BootImage.Header#bootImageFlags flags} of the boot image, including those added by the loader.
+     */
+    @C_FUNCTION
+    public static native int native_bootImageFlags();
+
+    /**
+     * Gets the time in nanoseconds spent loading and (eagerly) relocating the boot image.
+     */
+    @C_FUNCTION
+    public static native long native_bootImageLoadTime();
+
+    /**
+     * Gets the number of boot image heap and code pages that have been written by the relocation.
+     * These pages are private to this process whereas the other ones are shared with other processes mapping the image.
+     */
+    @C_FUNCTION
+    public static native long native_bootImageRelocatedPages();
+
+    /**
+     * Gets the number of pages in the boot image heap and code.
+     */
+    @C_FUNCTION
+    public static native long native_bootImagePages();
+
     @C_FUNCTION
     public static native void native_exit(int code);
 
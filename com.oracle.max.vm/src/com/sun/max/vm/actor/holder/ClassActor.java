@@ -46,6 +46,7 @@ import com.sun.max.util.*;
 import com.sun.max.vm.*;
 import com.sun.max.vm.actor.*;
 import com.sun.max.vm.actor.member.*;
+import com.sun.max.vm.classfile.*;
 import com.sun.max.vm.classfile.constant.*;
 import com.sun.max.vm.compiler.*;
 import com.sun.max.vm.compiler.deps.*;
@@ -1522,6 +1523,7 @@ public abstract class ClassActor extends Actor implements RiResolvedType {
             // generated stubs do not necessarily pass the verifier, even if they work as intended
         } else {
             Verifier.verifierFor(this).verify();
+            ClassArchive.verified(this);
         }
     }
 
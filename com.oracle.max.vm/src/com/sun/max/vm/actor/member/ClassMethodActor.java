@@ -26,6 +26,7 @@ import static com.sun.max.vm.VMOptions.*;
 import static com.sun.max.vm.actor.member.LivenessAdapter.*;
 
 import java.lang.reflect.*;
+import java.util.*;
 
 import com.sun.cri.ci.*;
 import com.sun.cri.ri.*;
@@ -41,6 +42,7 @@ import com.sun.max.vm.compiler.RuntimeCompiler.*;
 import com.sun.max.vm.compiler.target.*;
 import com.sun.max.vm.jni.*;
 import com.sun.max.vm.object.ObjectAccess;
+import com.sun.max.vm.profile.*;
 import com.sun.max.vm.runtime.FatalError;
 import com.sun.max.vm.type.*;
 import com.sun.max.vm.verifier.*;
@@ -404,6 +406,109 @@ public abstract class ClassMethodActor extends MethodActor {
         return Compilations.currentTargetMethod(compiledState, null);
     }
 
+    /**
+     * Gets the profile collected by the current baseline version of this method.
+     *
+     * @return {@code null} if there is no baseline version or it was not instrumented
+     */
+    public final MethodProfile baselineProfile() {
+        TargetMethod tm = Compilations.currentTargetMethod(compiledState, Nature.BASELINE);
+        if (tm == null || tm.profile() == null || tm.profile().rawData() == null) {
+            return null;
+        }
+        return tm.profile();
+    }
+
+    @Override
+    public int invocationCount() {
+        MethodProfile profile = baselineProfile();
+        return profile == null ? -1 : profile.hotness();
+    }
+
+    @Override
+    public RiTypeProfile typeProfile(int bci) {
+        MethodProfile profile = baselineProfile();
+        if (profile == null) {
+            return null;
+        }
+        Integer[] pairs = profile.getTypeProfile(bci);
+        if (pairs == null) {
+            return null;
+        }
+        int count = 0;
+        int numberOfTypes = 0;
+        for (int i = 0; i < pairs.length; i += 2) {
+            count += pairs[i + 1];
+            if (pairs[i] != MethodProfile.UNDEFINED_TYPE_ID) {
+                numberOfTypes++;
+            }
+        }
+        if (count <= 0) {
+            return null;
+        }
+        RiTypeProfile result = new RiTypeProfile();
+        result.count = count;
+        // the anonymous remainder stands for at least one more receiver type
+        result.morphism = pairs.length / 2;
+        result.types = new RiResolvedType[numberOfTypes];
+        result.probabilities = new float[numberOfTypes];
+        int j = 0;
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (pairs[i] != MethodProfile.UNDEFINED_TYPE_ID) {
+                result.types[j] = ClassIDManager.toClassActor(pairs[i]);
+                result.probabilities[j] = pairs[i + 1] / (float) count;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public double branchProbability(int bci) {
+        MethodProfile profile = baselineProfile();
+        return profile == null ? -1 : profile.getBranchTakenProbability(bci);
+    }
+
+    @Override
+    public double[] switchProbability(int bci) {
+        MethodProfile profile = baselineProfile();
+        return profile == null ? null : profile.getSwitchProbabilities(bci);
+    }
+
+    /**
+     * The bytecode indexes of the call sites in this method at which a guard on the profiled receiver type
+     * failed in optimized code.
+     */
+    private volatile int[] failedTypeGuards;
+
+    /**
+     * Records that optimized code which devirtualized the call at {@code bci} on the strength of its type profile
+     * met another receiver type. The update is not atomic; a lost update only costs one more trap at the site.
+     */
+    public final void recordFailedTypeGuard(int bci) {
+        int[] failed = failedTypeGuards;
+        if (failed == null) {
+            failedTypeGuards = new int[] {bci};
+        } else if (!typeProfileFailed(bci)) {
+            int[] newFailed = Arrays.copyOf(failed, failed.length + 1);
+            newFailed[failed.length] = bci;
+            failedTypeGuards = newFailed;
+        }
+    }
+
+    @Override
+    public boolean typeProfileFailed(int bci) {
+        int[] failed = failedTypeGuards;
+        if (failed != null) {
+            for (int b : failed) {
+                if (b == bci) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Records if this object returned {@code true} for a call to {@link #canBePermanentlyLinked()} during
      * boot image building.
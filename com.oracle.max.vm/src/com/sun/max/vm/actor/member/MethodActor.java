@@ -594,6 +594,10 @@ public abstract class MethodActor extends MemberActor implements RiResolvedMetho
         return -1;
     }
 
+    public boolean typeProfileFailed(int bci) {
+        return false;
+    }
+
     public double[] switchProbability(int bci) {
         return null;
     }
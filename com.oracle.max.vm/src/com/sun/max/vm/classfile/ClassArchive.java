@@ -0,0 +1,573 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.classfile;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.*;
+
+import sun.misc.*;
+
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.verifier.*;
+
+/**
+ * A persistent archive of the application classes that passed bytecode verification in a training run.
+ * A later run with the same class path maps the archive and skips verifying a class whose class file
+ * bytes are identical (same length and SHA-256 digest) to those of an archived class with the same name.
+ * Only classes defined by the application class loader from a jar file on the class path are archived
+ * or trusted; classes from any other loader or source are always verified.
+ * <p>
+ * A training run with {@code -XX:+DumpClassDataArchive -XX:ClassDataArchive=<file>} writes the archive
+ * when the VM exits. A run with only {@code -XX:ClassDataArchive=<file>} uses it. The archive is only used if
+ * it was created for the same Java version and the same jar files on the class path. A jar file is
+ * considered unchanged if its length and modification time are those recorded in the archive or, failing
+ * that, if the CRC32 of its central directory (which holds the CRC32 of every entry) is. Class paths
+ * containing directories are not archived as they cannot be fingerprinted cheaply.
+ * <p>
+ * The per-class cost in a run using the archive is kept to a minimum: whether a protection domain denotes
+ * a jar on the class path is determined once per protection domain, and the class file bytes are only
+ * digested if the archive holds a class with the same name and class file length.
+ * <p>
+ * The archive is a hash table that is looked up in place in the mapped file:
+ * <pre>
+ *     int magic
+ *     int version
+ *     int javaVersion      // String.hashCode() of the java.version property
+ *     int jarCount
+ *     Jar[jarCount]        // the jar files on the class path, in class path order
+ *     int tableSize        // a power of 2
+ *     Slot[tableSize]      // open addressing with linear probing
+ *     Entry[]
+ *
+ *     Jar {
+ *         int pathLength
+ *         byte[pathLength] // canonical path in UTF-8
+ *         long length
+ *         long lastModified
+ *         long directoryChecksum
+ *     }
+ *
+ *     Slot {
+ *         int nameHash     // String.hashCode() of the class name, 0 if the slot is empty
+ *         int entryOffset  // offset of the entry in the file
+ *     }
+ *
+ *     Entry {
+ *         int length       // length of the class file
+ *         byte[32] digest  // SHA-256 of the class file
+ *         int nameLength
+ *         byte[nameLength] // class name in UTF-8
+ *     }
+ * </pre>
+ * A mapped archive is validated only as far as needed to never read outside of it: a corrupt archive
+ * at worst makes classes be verified again.
+ */
+public final class ClassArchive {
+
+    /**
+     * The archive file to use or, if {@link #DumpClassDataArchive} is {@code true}, to create.
+     */
+    public static String ClassDataArchive;
+
+    /**
+     * Specifies that this is a training run which creates the archive.
+     */
+    public static boolean DumpClassDataArchive;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "ClassDataArchive", ClassArchive.class,
+            "Archive of the application classes verified in a training run. Loading a class archived with the same bytes skips verification.");
+        VMOptions.addFieldOption("-XX:", "DumpClassDataArchive", ClassArchive.class,
+            "Write the classes verified in this run to the archive specified by -XX:ClassDataArchive at exit.");
+    }
+
+    private static final int MAGIC = 0xCAFEDA7A;
+    private static final int VERSION = 3;
+    private static final int SLOT_SIZE = 8;
+    private static final int DIGEST_SIZE = 32;
+    private static final int ENTRY_HEADER_SIZE = 4 + DIGEST_SIZE + 4;
+
+    /**
+     * The archive used by this run, {@code null} if no archive is used.
+     */
+    private static ClassArchive current;
+
+    /**
+     * The loader of the classes on the class path.
+     */
+    private static ClassLoader appClassLoader;
+
+    /**
+     * The canonical paths of the jar files on the class path.
+     */
+    private static Set<String> jars;
+
+    /**
+     * Whether the classes of a protection domain come from a jar file on the class path. The application class
+     * loader creates one protection domain per code source, so this is evaluated once per jar file.
+     */
+    private static final Map<ProtectionDomain, Boolean> fromClassPathJar = new IdentityHashMap<ProtectionDomain, Boolean>();
+
+    /**
+     * The classes defined in a training run that are to be archived once they have been verified,
+     * each mapped to the length and digest of its class file.
+     */
+    private static Map<ClassActor, Classfile> pending;
+
+    /**
+     * The classes verified in a training run, with the length and digest of their class files.
+     */
+    private static Map<String, Classfile> verified;
+
+    /**
+     * Statistics reported by {@code -verbose:class} at exit: the number of classes looked up in the archive,
+     * how many of them had to be digested, how many were trusted and the total time spent looking them up.
+     */
+    private static final AtomicInteger lookups = new AtomicInteger();
+    private static final AtomicInteger digests = new AtomicInteger();
+    private static final AtomicInteger trusted = new AtomicInteger();
+    private static final AtomicLong lookupNanos = new AtomicLong();
+
+    private static final ThreadLocal<MessageDigest> sha256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new InternalError(e.toString());
+            }
+        }
+    };
+
+    /**
+     * The length and SHA-256 digest of a class file.
+     */
+    public static final class Classfile {
+        final int length;
+        final byte[] digest;
+
+        public Classfile(byte[] bytes, int offset, int length) {
+            this.length = length;
+            this.digest = digest(bytes, offset, length);
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int tableOffset;
+    private final int tableSize;
+
+    private ClassArchive(ByteBuffer buffer, int tableOffset, int tableSize) {
+        this.buffer = buffer;
+        this.tableOffset = tableOffset;
+        this.tableSize = tableSize;
+    }
+
+    /**
+     * Maps the archive or prepares for creating one once the options have been parsed.
+     */
+    public static void initialize(MaxineVM.Phase phase) {
+        if (phase != MaxineVM.Phase.RUNNING || ClassDataArchive == null) {
+            return;
+        }
+        appClassLoader = Launcher.getLauncher().getClassLoader();
+        try {
+            List<File> classPath = classPathJars(System.getProperty("java.class.path"));
+            if (classPath == null) {
+                warning("class path contains directories");
+                return;
+            }
+            jars = new HashSet<String>();
+            for (File jar : classPath) {
+                jars.add(jar.getCanonicalPath());
+            }
+            if (DumpClassDataArchive) {
+                pending = new IdentityHashMap<ClassActor, Classfile>();
+                verified = new HashMap<String, Classfile>();
+                Runtime.getRuntime().addShutdownHook(new Thread("ClassDataArchiveWriter") {
+                    @Override
+                    public void run() {
+                        dump();
+                    }
+                });
+            } else {
+                current = open(new File(ClassDataArchive), classPath);
+                if (VMOptions.verboseOption.verboseClass) {
+                    Runtime.getRuntime().addShutdownHook(new Thread("ClassDataArchiveStatistics") {
+                        @Override
+                        public void run() {
+                            Log.println("[Class data archive " + ClassDataArchive + ": " + trusted.get() + " of " + lookups.get() + " classes trusted, " +
+                                digests.get() + " digested, " + (lookupNanos.get() / 1000) + " us in lookups]");
+                        }
+                    });
+                }
+            }
+        } catch (IOException e) {
+            warning(e.getMessage());
+        }
+    }
+
+    /**
+     * Notifies the archive that a class has been defined from the given class file bytes. If the class
+     * was verified with the same bytes in the training run, it is marked as verified.
+     */
+    static void defined(ClassActor classActor, byte[] bytes, int offset, int length) {
+        if (current == null && pending == null) {
+            return;
+        }
+        if (classActor.classLoader != appClassLoader || !ClassVerifier.shouldBeVerified(appClassLoader, classActor.isRemote()) ||
+            !isFromClassPathJar(classActor.protectionDomain())) {
+            return;
+        }
+        if (current != null) {
+            long start = System.nanoTime();
+            if (current.contains(classActor.name.toString(), bytes, offset, length)) {
+                classActor.doNotVerify();
+                trusted.incrementAndGet();
+            }
+            lookups.incrementAndGet();
+            lookupNanos.addAndGet(System.nanoTime() - start);
+        } else {
+            Classfile classfile = new Classfile(bytes, offset, length);
+            synchronized (ClassArchive.class) {
+                pending.put(classActor, classfile);
+            }
+        }
+    }
+
+    private static boolean isFromClassPathJar(ProtectionDomain protectionDomain) {
+        if (protectionDomain == null) {
+            return false;
+        }
+        synchronized (fromClassPathJar) {
+            Boolean result = fromClassPathJar.get(protectionDomain);
+            if (result == null) {
+                result = jars.contains(sourceJar(protectionDomain));
+                fromClassPathJar.put(protectionDomain, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Gets the canonical path of the jar file a class was loaded from.
+     *
+     * @return {@code null} if the class was not loaded from a local file
+     */
+    private static String sourceJar(ProtectionDomain protectionDomain) {
+        if (protectionDomain.getCodeSource() == null) {
+            return null;
+        }
+        URL location = protectionDomain.getCodeSource().getLocation();
+        if (location == null || !"file".equals(location.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(location.toURI()).getCanonicalPath();
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static byte[] digest(byte[] bytes, int offset, int length) {
+        MessageDigest md = sha256.get();
+        md.update(bytes, offset, length);
+        return md.digest();
+    }
+
+    /**
+     * Notifies the archive that a class passed verification.
+     */
+    public static void verified(ClassActor classActor) {
+        if (pending == null) {
+            return;
+        }
+        synchronized (ClassArchive.class) {
+            Classfile classfile = pending.remove(classActor);
+            if (classfile != null) {
+                verified.put(classActor.name.toString(), classfile);
+            }
+        }
+    }
+
+    /**
+     * Determines if this archive holds a class with a given name and class file. The class file bytes are
+     * only digested if the archive holds a class of that name whose class file has the same length.
+     */
+    public boolean contains(String name, byte[] bytes, int offset, int length) {
+        int hash = nameHash(name);
+        byte[] nameBytes = null;
+        byte[] digest = null;
+        int i = hash & (tableSize - 1);
+        for (int probes = 0; probes < tableSize; probes++, i = (i + 1) & (tableSize - 1)) {
+            int slot = tableOffset + i * SLOT_SIZE;
+            int slotHash = buffer.getInt(slot);
+            if (slotHash == 0) {
+                return false;
+            }
+            if (slotHash == hash) {
+                int entry = buffer.getInt(slot + 4);
+                if (entry < tableOffset || entry > buffer.limit() - ENTRY_HEADER_SIZE) {
+                    return false;
+                }
+                if (buffer.getInt(entry) == length) {
+                    if (nameBytes == null) {
+                        nameBytes = utf8(name);
+                    }
+                    if (nameEquals(entry + 4 + DIGEST_SIZE, nameBytes)) {
+                        if (digest == null) {
+                            digests.incrementAndGet();
+                            digest = digest(bytes, offset, length);
+                        }
+                        return bytesEqual(entry + 4, digest);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean nameEquals(int offset, byte[] nameBytes) {
+        if (buffer.getInt(offset) != nameBytes.length) {
+            return false;
+        }
+        return offset + 4 <= buffer.limit() - nameBytes.length && bytesEqual(offset + 4, nameBytes);
+    }
+
+    private boolean bytesEqual(int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int nameHash(String name) {
+        int hash = name.hashCode();
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new InternalError(e.toString());
+        }
+    }
+
+    /**
+     * Gets the jar files on a class path.
+     *
+     * @return {@code null} if the class path contains an entry that is neither a jar file nor non-existent
+     */
+    public static List<File> classPathJars(String classPath) {
+        List<File> result = new ArrayList<File>();
+        for (String path : classPath.split(File.pathSeparator)) {
+            File file = new File(path);
+            if (!file.isFile()) {
+                if (file.exists()) {
+                    return null;
+                }
+                // non-existent class path entries do not contribute classes
+                continue;
+            }
+            result.add(file);
+        }
+        return result;
+    }
+
+    /**
+     * Maps an archive and checks that it was created for the current Java version and a given class path.
+     *
+     * @param classPath the jar files on the class path
+     * @throws IOException if the archive cannot be read, is corrupt or was created for another class path
+     */
+    public static ClassArchive open(File file, List<File> classPath) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            // the mapping stays valid after the file is closed
+            raf.close();
+        }
+        try {
+            ByteBuffer header = buffer.duplicate();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("not a class data archive");
+            }
+            if (header.getInt() != System.getProperty("java.version").hashCode()) {
+                throw new IOException("archive was created for another Java version");
+            }
+            if (header.getInt() != classPath.size()) {
+                throw new IOException("class path has changed since the archive was created");
+            }
+            for (File jar : classPath) {
+                byte[] path = new byte[header.getInt()];
+                header.get(path);
+                long length = header.getLong();
+                long lastModified = header.getLong();
+                long directoryChecksum = header.getLong();
+                if (!Arrays.equals(path, utf8(jar.getCanonicalPath())) || jar.length() != length) {
+                    throw new IOException("class path has changed since the archive was created");
+                }
+                if (jar.lastModified() != lastModified && directoryChecksum(jar) != directoryChecksum) {
+                    throw new IOException(jar + " has changed since the archive was created");
+                }
+            }
+            int size = header.getInt();
+            int tableOffset = header.position();
+            if (size <= 0 || (size & (size - 1)) != 0 || tableOffset + (long) size * SLOT_SIZE > buffer.limit()) {
+                throw new IOException("corrupt class data archive");
+            }
+            return new ClassArchive(buffer, tableOffset, size);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("corrupt class data archive");
+        } catch (NegativeArraySizeException e) {
+            throw new IOException("corrupt class data archive");
+        }
+    }
+
+    private static void dump() {
+        try {
+            Map<String, Classfile> classes;
+            synchronized (ClassArchive.class) {
+                classes = new HashMap<String, Classfile>(verified);
+            }
+            List<File> classPath = classPathJars(System.getProperty("java.class.path"));
+            if (classPath == null) {
+                warning("class path contains directories");
+                return;
+            }
+            write(new File(ClassDataArchive), classPath, classes);
+            if (VMOptions.verboseOption.verboseClass) {
+                Log.println("[Wrote " + classes.size() + " verified classes to class data archive " + ClassDataArchive + "]");
+            }
+        } catch (IOException e) {
+            warning(e.getMessage());
+        }
+    }
+
+    /**
+     * Writes an archive of the given classes for the current Java version and a given class path.
+     *
+     * @param classPath the jar files on the class path
+     * @param classes the class files of the archived classes, keyed by class name
+     */
+    public static void write(File file, List<File> classPath, Map<String, Classfile> classes) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(MAGIC);
+        headerOut.writeInt(VERSION);
+        headerOut.writeInt(System.getProperty("java.version").hashCode());
+        headerOut.writeInt(classPath.size());
+        for (File jar : classPath) {
+            byte[] path = utf8(jar.getCanonicalPath());
+            headerOut.writeInt(path.length);
+            headerOut.write(path);
+            headerOut.writeLong(jar.length());
+            headerOut.writeLong(jar.lastModified());
+            headerOut.writeLong(directoryChecksum(jar));
+        }
+        int size = Integer.highestOneBit(Math.max(classes.size(), 1)) * 4;
+        headerOut.writeInt(size);
+
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream entriesOut = new DataOutputStream(entries);
+        int entriesOffset = headerOut.size() + size * SLOT_SIZE;
+        int[] slots = new int[size * 2];
+        for (Map.Entry<String, Classfile> e : classes.entrySet()) {
+            int hash = nameHash(e.getKey());
+            int i = hash & (size - 1);
+            while (slots[i * 2] != 0) {
+                i = (i + 1) & (size - 1);
+            }
+            slots[i * 2] = hash;
+            slots[i * 2 + 1] = entriesOffset + entriesOut.size();
+            byte[] nameBytes = utf8(e.getKey());
+            entriesOut.writeInt(e.getValue().length);
+            entriesOut.write(e.getValue().digest);
+            entriesOut.writeInt(nameBytes.length);
+            entriesOut.write(nameBytes);
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            header.writeTo(out);
+            for (int slot : slots) {
+                out.writeInt(slot);
+            }
+            entries.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Computes the CRC32 of the central directory of a jar file.
+     */
+    private static long directoryChecksum(File jar) throws IOException {
+        RandomAccessFile zip = new RandomAccessFile(jar, "r");
+        try {
+            long length = zip.length();
+            final int endRecordSize = 22;
+            int tailLength = (int) Math.min(length, 0xFFFF + endRecordSize);
+            byte[] tail = new byte[tailLength];
+            zip.seek(length - tailLength);
+            zip.readFully(tail);
+            for (int i = tailLength - endRecordSize; i >= 0; i--) {
+                if (tail[i] == 0x50 && tail[i + 1] == 0x4b && tail[i + 2] == 0x05 && tail[i + 3] == 0x06) {
+                    int size = littleEndianInt(tail, i + 12);
+                    long offset = littleEndianInt(tail, i + 16) & 0xFFFFFFFFL;
+                    byte[] directory = new byte[size];
+                    zip.seek(offset);
+                    zip.readFully(directory);
+                    CRC32 crc = new CRC32();
+                    crc.update(directory);
+                    return crc.getValue();
+                }
+            }
+            throw new IOException("no zip end of central directory record found in " + jar);
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static int littleEndianInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    private static void warning(String message) {
+        Log.println("Warning: ignoring class data archive " + ClassDataArchive + ": " + message);
+    }
+}
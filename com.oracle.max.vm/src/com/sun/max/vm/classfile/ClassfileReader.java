@@ -1624,6 +1624,9 @@ public final class ClassfileReader {
         classActor.setProtectionDomain(protectionDomain);
 
         final ClassActor definedClassActor = ClassRegistry.define(classActor);
+        if (definedClassActor == classActor) {
+            ClassArchive.defined(classActor, bytes, offset, length);
+        }
 
         if (!MaxineVM.isHosted()) {
             // Maxine is unable to usefully distinguish CLASS_LOAD and CLASS_PREPARE events which, for example, JVMTI distinguishes,
@@ -23,52 +23,80 @@
 package com.sun.max.vm.classfile.constant;
 
 import java.io.*;
+import java.lang.ref.*;
 
-import com.sun.max.collect.*;
-import com.sun.max.collect.ChainedHashMapping.Entry;
 import com.sun.max.vm.*;
 
 /**
  * Implementation of symbol and String interning, the latter of which is a Java language requirement.
- *
+ * <p>
+ * The table is a chained hash table whose entries double as the values. Lookups are lock-free. Updates
+ * of a bucket are serialized by one of {@link #STRIPES} locks which is determined by the low bits of
+ * the hash, so that independent updates proceed in parallel. The table grows by relinking the existing
+ * entries into a larger bucket array while holding all stripe locks. A lock-free lookup that misses
+ * while the table is being grown repeats the lookup under the stripe lock.
+ * <p>
+ * Symbols are held strongly. Strings that are {@linkplain #intern(String) interned} without being a symbol
+ * are held weakly so that they can be reclaimed by the GC. Entries for reclaimed strings are removed
+ * by the next update of the table.
  */
 public final class SymbolTable {
 
     private SymbolTable() {
     }
 
+    /**
+     * An entry in a bucket chain of the symbol table.
+     */
+    interface Entry {
+
+        /**
+         * Gets the {@linkplain SymbolTable#hashOf(String) hash} of this entry's string.
+         */
+        int hash();
+
+        /**
+         * Gets the string of this entry or {@code null} if this is a weak entry whose string has been reclaimed.
+         */
+        String string();
+
+        Entry next();
+
+        void setNext(Entry next);
+    }
+
     /**
      * The only concrete subclass of {@link Utf8Constant}.
-     * Using a subclass hides the details of storing Utf8Constants in a {@link ChainedHashMapping}.
+     * Using a subclass hides the details of storing Utf8Constants in the symbol table.
      */
-    static final class Utf8ConstantEntry extends Utf8Constant implements ChainedHashMapping.Entry<String, Utf8ConstantEntry> {
+    static final class Utf8ConstantEntry extends Utf8Constant implements Entry {
+
+        private final int hash;
+
+        private volatile Entry next;
 
-        Utf8ConstantEntry(String value) {
+        Utf8ConstantEntry(String value, Entry next) {
             super(value);
+            this.hash = hashOf(value);
+            this.next = next;
         }
 
-        public String key() {
-            return toString();
+        public int hash() {
+            return hash;
         }
 
-        private Entry<String, Utf8ConstantEntry> next;
+        public String string() {
+            return string;
+        }
 
-        public Entry<String, Utf8ConstantEntry> next() {
+        public Entry next() {
             return next;
         }
 
-        public void setNext(Entry<String, Utf8ConstantEntry> next) {
+        public void setNext(Entry next) {
             this.next = next;
         }
 
-        public void setValue(Utf8ConstantEntry value) {
-            assert value == this;
-        }
-
-        public Utf8ConstantEntry value() {
-            return this;
-        }
-
         @Override
         public void writeOn(DataOutputStream stream, ConstantPoolEditor editor, int index) throws IOException {
             super.writeOn(stream, editor, index);
@@ -77,38 +105,288 @@ public final class SymbolTable {
     }
 
     /**
-     * Searching and adding entries to this map is only performed by {@linkplain #makeSymbol(String) one method} which
-     * is synchronized.
+     * An entry for an interned string that is not (yet) a symbol.
      */
-    private static final ChainingValueChainedHashMapping<String, Utf8ConstantEntry> symbolTable = new ChainingValueChainedHashMapping<String, Utf8ConstantEntry>(40000);
+    static final class WeakStringEntry extends WeakReference<String> implements Entry {
+
+        private final int hash;
+
+        private volatile Entry next;
+
+        WeakStringEntry(String value, Entry next) {
+            super(value, staleEntries);
+            this.hash = hashOf(value);
+            this.next = next;
+        }
+
+        public int hash() {
+            return hash;
+        }
+
+        public String string() {
+            return get();
+        }
+
+        public Entry next() {
+            return next;
+        }
+
+        public void setNext(Entry next) {
+            this.next = next;
+        }
+    }
+
+    /**
+     * The number of locks guarding updates. Must be a power of 2 not greater than the length of {@link #table}.
+     */
+    private static final int STRIPES = 32;
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private static final Object[] stripeLocks = new Object[STRIPES];
+
+    /**
+     * Number of entries per stripe, each only updated while holding the stripe's lock.
+     */
+    private static final int[] stripeCounts = new int[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            stripeLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Weak entries whose strings have been reclaimed are enqueued here by the GC.
+     */
+    private static final ReferenceQueue<String> staleEntries = new ReferenceQueue<String>();
+
+    private static volatile Entry[] table = new Entry[INITIAL_CAPACITY];
+
+    /**
+     * Incremented before and after the table is grown. An odd value denotes a table being grown.
+     */
+    private static volatile int resizeStamp;
 
     public static final Utf8Constant INIT = makeSymbol("<init>");
     public static final Utf8Constant CLINIT = makeSymbol("<clinit>");
     public static final Utf8Constant FINALIZE = makeSymbol("finalize");
 
     public static int length() {
-        return symbolTable.length();
+        int length = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (stripeLocks[i]) {
+                length += stripeCounts[i];
+            }
+        }
+        return length;
     }
 
-    public static synchronized Utf8Constant lookupSymbol(String value) {
-        return symbolTable.get(value);
+    static int hashOf(String value) {
+        final int h = value.hashCode();
+        return h ^ (h >>> 16);
     }
 
-    public static synchronized Utf8Constant makeSymbol(String value) {
-        Utf8ConstantEntry utf8 = symbolTable.get(value);
-        if (utf8 == null) {
-            if (MaxineVM.isHosted()) {
-                // String interning is implemented with another data structure when running hosted
-                utf8 = new Utf8ConstantEntry(value.intern());
-            } else {
-                utf8 = new Utf8ConstantEntry(value);
+    /**
+     * Searches a table for a live entry whose string is equal to {@code value}.
+     */
+    private static Entry find(Entry[] tab, String value, int hash) {
+        for (Entry e = tab[hash & (tab.length - 1)]; e != null; e = e.next()) {
+            if (e.hash() == hash) {
+                final String string = e.string();
+                if (string != null && string.equals(value)) {
+                    return e;
+                }
             }
-            symbolTable.put(value, utf8);
+        }
+        return null;
+    }
+
+    /**
+     * Searches the table without locking. A {@code null} result is only definitive if the table was not
+     * being grown during the search.
+     */
+    private static Entry findLockFree(String value, int hash) {
+        final int stamp = resizeStamp;
+        final Entry e = find(table, value, hash);
+        if (e != null || ((stamp & 1) == 0 && stamp == resizeStamp)) {
+            return e;
+        }
+        synchronized (stripeLocks[hash & (STRIPES - 1)]) {
+            return find(table, value, hash);
+        }
+    }
+
+    public static Utf8Constant lookupSymbol(String value) {
+        final Entry e = findLockFree(value, hashOf(value));
+        if (e instanceof Utf8ConstantEntry) {
+            return (Utf8ConstantEntry) e;
+        }
+        return null;
+    }
+
+    public static Utf8Constant makeSymbol(String value) {
+        final int hash = hashOf(value);
+        Entry e = findLockFree(value, hash);
+        if (e instanceof Utf8ConstantEntry) {
+            return (Utf8ConstantEntry) e;
+        }
+        expungeStaleEntries();
+        final int stripe = hash & (STRIPES - 1);
+        final Utf8ConstantEntry utf8;
+        final boolean grow;
+        synchronized (stripeLocks[stripe]) {
+            final Entry[] tab = table;
+            e = find(tab, value, hash);
+            if (e instanceof Utf8ConstantEntry) {
+                return (Utf8ConstantEntry) e;
+            }
+            String canonical = null;
+            if (e != null) {
+                // Promote an interned string to a symbol: the symbol now holds the string strongly
+                canonical = e.string();
+                unlink(tab, e);
+                stripeCounts[stripe]--;
+            }
+            if (canonical == null) {
+                if (MaxineVM.isHosted()) {
+                    // String interning is implemented with another data structure when running hosted
+                    canonical = value.intern();
+                } else {
+                    canonical = value;
+                }
+            }
+            final int index = hash & (tab.length - 1);
+            utf8 = new Utf8ConstantEntry(canonical, tab[index]);
+            tab[index] = utf8;
+            grow = ++stripeCounts[stripe] > threshold(tab);
+        }
+        if (grow) {
+            grow();
         }
         return utf8;
     }
 
     public static String intern(String value) {
-        return makeSymbol(value).toString();
+        if (MaxineVM.isHosted()) {
+            return makeSymbol(value).toString();
+        }
+        final int hash = hashOf(value);
+        Entry e = findLockFree(value, hash);
+        if (e != null) {
+            final String string = e.string();
+            if (string != null) {
+                return string;
+            }
+        }
+        expungeStaleEntries();
+        final int stripe = hash & (STRIPES - 1);
+        final boolean grow;
+        synchronized (stripeLocks[stripe]) {
+            final Entry[] tab = table;
+            e = find(tab, value, hash);
+            if (e != null) {
+                final String string = e.string();
+                if (string != null) {
+                    return string;
+                }
+            }
+            final int index = hash & (tab.length - 1);
+            tab[index] = new WeakStringEntry(value, tab[index]);
+            grow = ++stripeCounts[stripe] > threshold(tab);
+        }
+        if (grow) {
+            grow();
+        }
+        return value;
+    }
+
+    /**
+     * Gets the number of entries per stripe above which the table is grown.
+     */
+    private static int threshold(Entry[] tab) {
+        return (tab.length / STRIPES) * 3 / 4;
+    }
+
+    /**
+     * Removes an entry from its bucket. The caller must hold the lock of the entry's stripe.
+     *
+     * @return {@code true} if {@code entry} was found and removed
+     */
+    private static boolean unlink(Entry[] tab, Entry entry) {
+        final int index = entry.hash() & (tab.length - 1);
+        Entry prev = null;
+        for (Entry e = tab[index]; e != null; e = e.next()) {
+            if (e == entry) {
+                if (prev == null) {
+                    tab[index] = e.next();
+                } else {
+                    prev.setNext(e.next());
+                }
+                return true;
+            }
+            prev = e;
+        }
+        return false;
+    }
+
+    /**
+     * Removes the entries for interned strings that have been reclaimed by the GC.
+     * Must not be called while holding a stripe lock.
+     */
+    private static void expungeStaleEntries() {
+        for (Reference<? extends String> ref = staleEntries.poll(); ref != null; ref = staleEntries.poll()) {
+            final WeakStringEntry entry = (WeakStringEntry) ref;
+            final int stripe = entry.hash() & (STRIPES - 1);
+            synchronized (stripeLocks[stripe]) {
+                if (unlink(table, entry)) {
+                    stripeCounts[stripe]--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Doubles the size of the table. Must not be called while holding a stripe lock.
+     */
+    private static void grow() {
+        lockStripesAndGrow(0, table);
+    }
+
+    private static void lockStripesAndGrow(int stripe, Entry[] oldTable) {
+        if (stripe == STRIPES) {
+            if (table == oldTable) {
+                rehash(oldTable);
+            }
+            return;
+        }
+        synchronized (stripeLocks[stripe]) {
+            lockStripesAndGrow(stripe + 1, oldTable);
+        }
+    }
+
+    /**
+     * Relinks all entries into a table twice the size of {@code oldTable}, dropping the entries of reclaimed strings.
+     * The caller must hold all stripe locks.
+     */
+    private static void rehash(Entry[] oldTable) {
+        final Entry[] newTable = new Entry[oldTable.length * 2];
+        resizeStamp++;
+        for (int i = 0; i < oldTable.length; i++) {
+            Entry e = oldTable[i];
+            while (e != null) {
+                final Entry next = e.next();
+                if (e.string() == null) {
+                    stripeCounts[e.hash() & (STRIPES - 1)]--;
+                } else {
+                    final int index = e.hash() & (newTable.length - 1);
+                    e.setNext(newTable[index]);
+                    newTable[index] = e;
+                }
+                e = next;
+            }
+        }
+        table = newTable;
+        resizeStamp++;
     }
 }
@@ -156,6 +156,17 @@ public final class CodeCacheMetricsPrinter {
             table.addRow(e.getKey(), pct(m.n, t.n), pct(m.bc, t.bc), pct(m.mc, t.mc));
         }
         out.println(CiUtil.tabulate(table.cells.toArray(), table.cols, 1, 1));
+
+        if (cr instanceof FreeListCodeRegion) {
+            final FreeListCodeRegion flcr = (FreeListCodeRegion) cr;
+            out.println();
+            out.println("========== Sweeping ==========");
+            table = new Table("Sweeps", "ReclaimedMethods", "ReclaimedBytes", "FreeChunks", "FreeBytes", "LargestFreeChunk");
+            table.addRow("------");
+            table.addRow(CodeSweeper.sweepCount(), CodeSweeper.totalReclaimed(), CodeSweeper.totalReclaimedBytes(),
+                flcr.numberOfFreeChunks(), flcr.freeChunksSize().toLong(), flcr.largestFreeChunkSize().toLong());
+            out.println(CiUtil.tabulate(table.cells.toArray(), table.cols, 1, 1));
+        }
     }
 
     private static String pct(int a, int b) {
@@ -516,6 +516,11 @@ public final class CodeEviction extends VmOperation {
         codeEviction.submit();
     }
 
+    @Override
+    protected boolean allowsBatching() {
+        return true;
+    }
+
     @Override
     protected void doIt() {
 
@@ -580,6 +585,7 @@ public final class CodeEviction extends VmOperation {
         }
 
         CodeManager.runtimeBaselineCodeRegion.resetFromSpace();
+        ExceptionHandlerCache.invalidate();
         if (logging()) {
             codeEvictionLogger.logMove_Progress("FINISHED walking threads");
         }
@@ -825,7 +831,7 @@ public final class CodeEviction extends VmOperation {
         }
     }
 
-    private int directCalleePosition(TargetMethod tm, int callPos) {
+    static int directCalleePosition(TargetMethod tm, int callPos) {
         final Safepoints safepoints = tm.safepoints();
         int dcIndex = 0;
         for (int i = 0; i < safepoints.size(); i++) {
@@ -125,9 +125,10 @@ public abstract class CodeManager {
 
     /**
      * The opt code region contains machine code generated by the optimising compiler as well as adapters and trampolines.
+     * The space of invalidated methods in it is reclaimed by the {@link CodeSweeper}.
      */
     @INSPECTED
-    protected static final CodeRegion runtimeOptCodeRegion = new CodeRegion("Code-Runtime-Opt");
+    protected static final FreeListCodeRegion runtimeOptCodeRegion = new FreeListCodeRegion("Code-Runtime-Opt");
 
     /**
      * Get the runtime baseline code region.
@@ -139,9 +140,9 @@ public abstract class CodeManager {
 
     /**
      * Get the runtime opt code region.
-     * @return the runtime baseline code region
+     * @return the runtime opt code region
      */
-    public CodeRegion getRuntimeOptCodeRegion() {
+    public FreeListCodeRegion getRuntimeOptCodeRegion() {
         return runtimeOptCodeRegion;
     }
 
@@ -154,7 +155,7 @@ public abstract class CodeManager {
     private static int BOOT_TO_BASELINE_INITIAL_SIZE = 10;
 
     /**
-     * Records all direct call links from the boot code region to the baseline code region.
+     * Records all direct call links from the boot code region to the baseline and opt code regions.
      */
     private static TargetMethod[] bootToBaseline = new TargetMethod[BOOT_TO_BASELINE_INITIAL_SIZE];
 
@@ -246,6 +247,12 @@ public abstract class CodeManager {
                     CodeEviction.codeEvictionLogger.logStats_Surviving(lastSurvivorSize, largestSurvivorSize);
                 }
             }
+
+            // Allocation in the opt code region may take another attempt after the space of invalidated methods has been reclaimed.
+            if (start.isZero() && currentCodeRegion == runtimeOptCodeRegion && CodeSweeper.OptCodeCacheSweeping) {
+                CodeSweeper.run();
+                start = currentCodeRegion.allocate(allocationSize, false);
+            }
         }
 
         traceChunkAllocation(allocationTraceDescription, allocationSize, start, inHeap);
@@ -446,6 +453,13 @@ public abstract class CodeManager {
         return runtimeOptCodeRegionSize.getValue();
     }
 
+    /**
+     * Determines if an address lies in the baseline or the opt code region.
+     */
+    public static boolean isRuntimeCode(Address address) {
+        return runtimeBaselineCodeRegion.contains(address) || runtimeOptCodeRegion.contains(address);
+    }
+
     /**
      * By definition, short-lived methods go to the baseline code region.
      */
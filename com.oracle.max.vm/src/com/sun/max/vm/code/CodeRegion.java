@@ -225,7 +225,10 @@ public class CodeRegion extends LinearAllocatorRegion {
             if (method == null) {
                 return null;
             }
-            assert validMethodStart(method, cp);
+            if (!validMethodStart(method, cp)) {
+                // cp lies in a free chunk of a region that reuses space (see FreeListCodeRegion)
+                return null;
+            }
             if (methodFound(method, cp)) {
                 return method;
             }
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.code;
+
+import static com.sun.max.platform.Platform.*;
+
+import com.sun.max.lang.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.compiler.deopt.*;
+import com.sun.max.vm.compiler.target.*;
+import com.sun.max.vm.compiler.target.amd64.*;
+import com.sun.max.vm.compiler.target.arm.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.stack.*;
+import com.sun.max.vm.thread.*;
+import com.sun.max.vm.ti.*;
+
+/**
+ * Reclaims the space of invalidated methods in the {@linkplain CodeManager#runtimeOptCodeRegion opt code region}.
+ * <p>
+ * A method {@linkplain TargetMethod#invalidated() invalidated} by {@linkplain Deoptimization deoptimization}, including
+ * deoptimization caused by a failed dependency, is no longer reachable from dispatch tables or method actors. It may
+ * however still be executing, and direct calls to it are only re-linked lazily. With all threads stopped, the sweeper
+ * marks the invalidated methods that are still on a stack, resets all direct calls to the others, wipes them and lets the
+ * region {@linkplain FreeListCodeRegion#sweep() reuse} their space. A sweep is run when an allocation in the opt code
+ * region fails.
+ */
+public final class CodeSweeper extends VmOperation {
+
+    static boolean OptCodeCacheSweeping = true;
+    static boolean TraceOptCodeCacheSweeping;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "OptCodeCacheSweeping", CodeSweeper.class,
+            "Reclaim the space of invalidated methods when the opt code cache is full.", MaxineVM.Phase.STARTING);
+        VMOptions.addFieldOption("-XX:", "TraceOptCodeCacheSweeping", CodeSweeper.class,
+            "Trace sweeps of the opt code cache.", MaxineVM.Phase.STARTING);
+    }
+
+    /**
+     * Marks the invalidated opt methods that are on a stack.
+     */
+    final class OnStackMarker extends RawStackFrameVisitor {
+        @Override
+        public boolean visitFrame(StackFrameCursor current, StackFrameCursor callee) {
+            final TargetMethod tm = current.targetMethod();
+            if (isCandidate(tm) && !tm.isMarked()) {
+                tm.mark();
+                nOnStack++;
+            }
+            return true;
+        }
+    }
+
+    final class CountCandidates implements TargetMethod.Closure {
+        @Override
+        public boolean doTargetMethod(TargetMethod targetMethod) {
+            if (isCandidate(targetMethod)) {
+                nCandidates++;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Resets the direct calls to methods about to be reclaimed so that they are re-linked through the static trampoline.
+     */
+    final class ResetDirectCalls implements TargetMethod.Closure {
+        @Override
+        public boolean doTargetMethod(TargetMethod targetMethod) {
+            if (targetMethod.isWiped() || isReclaimable(targetMethod)) {
+                return true;
+            }
+            final Safepoints safepoints = targetMethod.safepoints();
+            for (int spi = safepoints.nextDirectCall(0); spi >= 0; spi = safepoints.nextDirectCall(spi + 1)) {
+                final int callPos = safepoints.causePosAt(spi);
+                final CodePointer target;
+                if (platform().isa == ISA.AMD64) {
+                    target = AMD64TargetMethodUtil.readCall32Target(targetMethod, callPos);
+                } else if (platform().isa == ISA.ARM) {
+                    target = ARMTargetMethodUtil.readCall32Target(targetMethod, callPos);
+                } else {
+                    throw FatalError.unimplemented();
+                }
+                if (isReclaimable(target.toTargetMethod())) {
+                    targetMethod.resetDirectCall(spi, CodeEviction.directCalleePosition(targetMethod, callPos));
+                    nCallsReset++;
+                }
+            }
+            return true;
+        }
+    }
+
+    final class Reclaim implements TargetMethod.Closure {
+        @Override
+        public boolean doTargetMethod(TargetMethod targetMethod) {
+            if (targetMethod.isMarked()) {
+                targetMethod.unmark();
+            } else if (isReclaimable(targetMethod)) {
+                nReclaimed++;
+                nReclaimedBytes += targetMethod.size().toLong();
+                if (TraceOptCodeCacheSweeping) {
+                    final boolean lockDisabledSafepoints = Log.lock();
+                    Log.print("  reclaiming ");
+                    Log.print(targetMethod);
+                    Log.print(" [size ");
+                    Log.print(targetMethod.size().toInt());
+                    Log.println(']');
+                    Log.unlock(lockDisabledSafepoints);
+                }
+                VMTI.handler().methodUnloaded(targetMethod.classMethodActor, targetMethod.codeStart().toPointer());
+                assert CodeEviction.invalidateCode(targetMethod.code());
+                targetMethod.wipe();
+            }
+            return true;
+        }
+    }
+
+    private final VmStackFrameWalker walker = new VmStackFrameWalker(Pointer.zero());
+    private final OnStackMarker onStackMarker = new OnStackMarker();
+    private final CountCandidates countCandidates = new CountCandidates();
+    private final ResetDirectCalls resetDirectCalls = new ResetDirectCalls();
+    private final Reclaim reclaim = new Reclaim();
+
+    private int nCandidates;
+    private int nOnStack;
+    private int nCallsReset;
+    private int nReclaimed;
+    private long nReclaimedBytes;
+
+    private static int sweepCount;
+    private static long totalReclaimed;
+    private static long totalReclaimedBytes;
+
+    private static final CodeSweeper codeSweeper = new CodeSweeper();
+
+    private CodeSweeper() {
+        super("opt code cache sweeper", null, Mode.Safepoint);
+    }
+
+    /**
+     * Runs a sweep of the opt code region.
+     */
+    public static void run() {
+        codeSweeper.submit();
+    }
+
+    /**
+     * Gets the number of sweeps of the opt code region that have been run.
+     */
+    public static int sweepCount() {
+        return sweepCount;
+    }
+
+    /**
+     * Gets the number of methods whose space has been reclaimed by all sweeps.
+     */
+    public static long totalReclaimed() {
+        return totalReclaimed;
+    }
+
+    /**
+     * Gets the number of bytes reclaimed by all sweeps.
+     */
+    public static long totalReclaimedBytes() {
+        return totalReclaimedBytes;
+    }
+
+    /**
+     * Determines if a method is an invalidated method in the opt code region whose space has not yet been reclaimed.
+     */
+    private static boolean isCandidate(TargetMethod tm) {
+        return tm != null && tm.invalidated() != null && !tm.isWiped() && CodeManager.runtimeOptCodeRegion.contains(tm.start());
+    }
+
+    /**
+     * Determines if a method is a candidate that is not on any stack. Only valid after all stacks have been scanned.
+     */
+    private static boolean isReclaimable(TargetMethod tm) {
+        return isCandidate(tm) && !tm.isMarked();
+    }
+
+    @Override
+    protected boolean allowsBatching() {
+        return true;
+    }
+
+    @Override
+    protected void doIt() {
+        final FreeListCodeRegion cr = CodeManager.runtimeOptCodeRegion;
+        ++sweepCount;
+        nCandidates = 0;
+        nOnStack = 0;
+        nCallsReset = 0;
+        nReclaimed = 0;
+        nReclaimedBytes = 0;
+
+        cr.doAllTargetMethods(countCandidates);
+        if (nCandidates != 0) {
+            CodeManager.Inspect.notifyEvictionStarted(cr);
+
+            doAllThreads();
+
+            CodeManager.runtimeBaselineCodeRegion.doAllTargetMethods(resetDirectCalls);
+            cr.doAllTargetMethods(resetDirectCalls);
+            CodeManager.bootToBaselineDo(resetDirectCalls);
+
+            cr.doAllTargetMethods(reclaim);
+            cr.sweep();
+
+            CodeManager.Inspect.notifyEvictionCompleted(cr);
+        }
+
+        totalReclaimed += nReclaimed;
+        totalReclaimedBytes += nReclaimedBytes;
+        if (TraceOptCodeCacheSweeping) {
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("Opt code cache sweep ");
+            Log.print(sweepCount);
+            Log.print(": reclaimed ");
+            Log.print(nReclaimed);
+            Log.print(" of ");
+            Log.print(nCandidates);
+            Log.print(" invalidated methods (");
+            Log.print(nReclaimedBytes);
+            Log.print(" bytes), ");
+            Log.print(nOnStack);
+            Log.print(" on stack, reset ");
+            Log.print(nCallsReset);
+            Log.print(" direct calls; ");
+            Log.print(cr.freeChunksSize().toLong());
+            Log.print(" bytes free in ");
+            Log.print(cr.numberOfFreeChunks());
+            Log.println(" chunks");
+            Log.unlock(lockDisabledSafepoints);
+        }
+    }
+
+    @Override
+    protected void doThread(VmThread vmThread, Pointer ip, Pointer sp, Pointer fp) {
+        // bail out if the thread was stopped in native code before invoking any Java method
+        if (ip.isZero() && sp.isZero() && fp.isZero()) {
+            return;
+        }
+        walker.setTLA(vmThread.tla());
+        walker.inspect(ip, sp, fp, onStackMarker);
+    }
+}
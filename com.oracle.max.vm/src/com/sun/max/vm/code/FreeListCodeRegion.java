@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.code;
+
+import java.lang.management.*;
+import java.util.*;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.compiler.target.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.type.*;
+
+/**
+ * A code region whose space can be reused once the methods allocated in it are no longer needed.
+ * <p>
+ * Methods are never moved. Instead, the space of {@linkplain TargetMethod#wipe() wiped} methods is
+ * {@linkplain #sweep() swept} into a list of free chunks, which are then reused first-fit before memory
+ * is taken from the end of the region. Free space at the end of the region is returned by lowering the
+ * allocation mark. Each free chunk is formatted as a byte array so that the region can still be traversed as
+ * a sequence of well-formed, contiguous objects between {@link #gcstart()} and {@link #mark()}.
+ *
+ * @see CodeSweeper
+ */
+public final class FreeListCodeRegion extends CodeRegion {
+
+    /**
+     * Offsets from {@link #start()} of the free chunks in this region, sorted by address.
+     */
+    private int[] freeOffsets = new int[DEFAULT_CAPACITY];
+
+    /**
+     * Sizes of the free chunks in this region, in bytes.
+     */
+    private int[] freeSizes = new int[DEFAULT_CAPACITY];
+
+    private int numberOfFreeChunks;
+
+    /**
+     * The most recently allocated cell if it has not yet been {@linkplain #add(TargetMethod) added} as a target method.
+     * A sweep must not reclaim such a cell even though no target method covers it.
+     */
+    private Address unaddedCell = Address.zero();
+    private Size unaddedCellSize = Size.zero();
+
+    public FreeListCodeRegion(String description) {
+        super(description);
+    }
+
+    /**
+     * Allocates some memory from this region, reusing a free chunk if there is one that fits.
+     * See {@link LinearAllocatorRegion#allocate(Size, boolean)} for details.
+     */
+    @Override
+    public Pointer allocate(Size size, boolean adjustForDebugTag) {
+        Pointer cell = adjustForDebugTag ? Pointer.zero() : allocateFromFreeList(size);
+        if (cell.isZero()) {
+            cell = super.allocate(size, adjustForDebugTag);
+        }
+        unaddedCell = cell;
+        unaddedCellSize = size;
+        return cell;
+    }
+
+    private Pointer allocateFromFreeList(Size size) {
+        final int requested = size.toInt();
+        final int minimum = minimumChunkSize();
+        for (int i = 0; i < numberOfFreeChunks; i++) {
+            final int remainder = freeSizes[i] - requested;
+            if (remainder == 0 || remainder >= minimum) {
+                final Pointer cell = start().plus(freeOffsets[i]).asPointer();
+                if (remainder == 0) {
+                    numberOfFreeChunks--;
+                    System.arraycopy(freeOffsets, i + 1, freeOffsets, i, numberOfFreeChunks - i);
+                    System.arraycopy(freeSizes, i + 1, freeSizes, i, numberOfFreeChunks - i);
+                } else {
+                    freeOffsets[i] += requested;
+                    freeSizes[i] = remainder;
+                    formatFreeChunk(cell.plus(requested), remainder);
+                }
+                return cell;
+            }
+        }
+        return Pointer.zero();
+    }
+
+    /**
+     * Adds a target method to this region. A method allocated in a free chunk is inserted in the middle of
+     * the sorted list of methods, which shifts the position of all methods after it and so requires the
+     * {@link #findIndex} to be rebuilt.
+     */
+    @Override
+    public void add(TargetMethod targetMethod) {
+        if (targetMethod.start().equals(unaddedCell)) {
+            unaddedCell = Address.zero();
+        }
+        if (length == 0 || targetMethods[length - 1].end().lessEqual(targetMethod.start())) {
+            super.add(targetMethod);
+        } else {
+            // The pages covered by a free chunk refer to the method following the chunk
+            int startIdx = targetMethod.start().plus(FIND_INDEX_ALIGN - 1).minus(start()).unsignedShiftedRight(FIND_INDEX_ALIGN_SHIFT).toInt();
+            int endIdx = targetMethod.end().minus(1).minus(start()).unsignedShiftedRight(FIND_INDEX_ALIGN_SHIFT).toInt();
+            for (int i = startIdx; i <= endIdx && i < findIndex.length; i++) {
+                findIndex[i] = 0;
+            }
+            super.add(targetMethod);
+            findIndex = buildFindIndex();
+        }
+    }
+
+    /**
+     * Removes all {@linkplain TargetMethod#isWiped() wiped} methods from this region and turns the space between
+     * the remaining methods into free chunks. The allocation mark is lowered to the end of the last method.
+     * <p>
+     * This must only be called while all other threads are stopped at a safepoint.
+     */
+    public void sweep() {
+        int live = 0;
+        for (int i = 0; i < length; i++) {
+            final TargetMethod targetMethod = targetMethods[i];
+            if (!targetMethod.isWiped()) {
+                targetMethods[live++] = targetMethod;
+            }
+        }
+        Arrays.fill(targetMethods, live, length, null);
+        length = live;
+
+        numberOfFreeChunks = 0;
+        Address free = start();
+        boolean unadded = !unaddedCell.isZero();
+        int i = 0;
+        while (i < length || unadded) {
+            if (unadded && (i == length || unaddedCell.lessThan(targetMethods[i].start()))) {
+                free = addFreeChunk(free, unaddedCell);
+                free = unaddedCell.plus(unaddedCellSize);
+                unadded = false;
+            } else {
+                free = addFreeChunk(free, targetMethods[i].start());
+                free = targetMethods[i].end();
+                i++;
+            }
+        }
+        setMark(free);
+        findIndex = buildFindIndex();
+    }
+
+    private Address addFreeChunk(Address chunkStart, Address chunkEnd) {
+        if (chunkStart.lessThan(chunkEnd)) {
+            if (numberOfFreeChunks == freeOffsets.length) {
+                final int newCapacity = (freeOffsets.length * 3) / 2 + 1;
+                freeOffsets = Arrays.copyOf(freeOffsets, newCapacity);
+                freeSizes = Arrays.copyOf(freeSizes, newCapacity);
+            }
+            final int chunkSize = chunkEnd.minus(chunkStart).toInt();
+            freeOffsets[numberOfFreeChunks] = chunkStart.minus(start()).toInt();
+            freeSizes[numberOfFreeChunks] = chunkSize;
+            numberOfFreeChunks++;
+            formatFreeChunk(chunkStart.asPointer(), chunkSize);
+        }
+        return chunkEnd;
+    }
+
+    /**
+     * Formats a free chunk as a byte array so that the objects following it can be found by a heap walk.
+     */
+    private static void formatFreeChunk(Pointer cell, int size) {
+        assert size >= minimumChunkSize();
+        Cell.plantArray(cell, ClassRegistry.BYTE_ARRAY.dynamicHub(), size - minimumChunkSize());
+    }
+
+    private static int minimumChunkSize() {
+        return Layout.byteArrayLayout().headerSize();
+    }
+
+    /**
+     * Builds a {@link #findIndex} for the current list of methods. A page whose start lies in a free chunk
+     * refers to the first method after the chunk.
+     */
+    private int[] buildFindIndex() {
+        final int[] index = new int[findIndex.length];
+        int methodIdx = 0;
+        for (int pageIdx = 0; pageIdx < index.length; pageIdx++) {
+            final Address page = start().plus(pageIdx << FIND_INDEX_ALIGN_SHIFT);
+            while (methodIdx < length && targetMethods[methodIdx].end().lessEqual(page)) {
+                methodIdx++;
+            }
+            if (methodIdx == length) {
+                break;
+            }
+            index[pageIdx] = methodIdx;
+        }
+        return index;
+    }
+
+    /**
+     * Gets the number of free chunks in this region.
+     */
+    public int numberOfFreeChunks() {
+        return numberOfFreeChunks;
+    }
+
+    /**
+     * Gets the total size of the free chunks in this region. This does not include the space above the allocation mark.
+     */
+    public Size freeChunksSize() {
+        long total = 0;
+        for (int i = 0; i < numberOfFreeChunks; i++) {
+            total += freeSizes[i];
+        }
+        return Size.fromLong(total);
+    }
+
+    /**
+     * Gets the size of the largest free chunk in this region.
+     */
+    public Size largestFreeChunkSize() {
+        int largest = 0;
+        for (int i = 0; i < numberOfFreeChunks; i++) {
+            largest = Math.max(largest, freeSizes[i]);
+        }
+        return Size.fromInt(largest);
+    }
+
+    @Override
+    public MemoryUsage getUsage() {
+        final long sizeAsLong = size.toLong();
+        final long used = getAllocationMark().minus(start).minus(freeChunksSize()).toLong();
+        return new MemoryUsage(sizeAsLong, used, sizeAsLong, sizeAsLong);
+    }
+}
@@ -41,6 +41,7 @@ import com.sun.max.vm.actor.*;
 import com.sun.max.vm.actor.holder.*;
 import com.sun.max.vm.actor.member.*;
 import com.sun.max.vm.code.*;
+import com.sun.max.vm.compiler.deopt.*;
 import com.sun.max.vm.compiler.target.*;
 import com.sun.max.vm.compiler.target.amd64.*;
 import com.sun.max.vm.compiler.target.arm.*;
@@ -67,9 +68,18 @@ public class CompilationBroker {
     private static int RCT = 5000;
 
     /**
-     * A queue of pending compilations.
+     * Orders background compilations such that the one with the greatest {@linkplain Compilation#hotness hotness} comes first.
      */
-    protected final LinkedList<Compilation> pending = new LinkedList<Compilation>();
+    public static final Comparator<Compilation> HOTTEST_FIRST = new Comparator<Compilation>() {
+        public int compare(Compilation c1, Compilation c2) {
+            return c1.hotness > c2.hotness ? -1 : (c1.hotness < c2.hotness ? 1 : 0);
+        }
+    };
+
+    /**
+     * A queue of pending background compilations, ordered such that the hottest method is compiled first.
+     */
+    protected final PriorityQueue<Compilation> pending = new PriorityQueue<Compilation>(64, HOTTEST_FIRST);
 
     /**
      * The baseline compiler.
@@ -92,6 +102,9 @@ public class CompilationBroker {
     private static boolean VMExtOpt;
     static int PrintCodeCacheMetrics;
 
+    private static boolean BackgroundCompilation;
+    private static int CompilationThreads = 1;
+
     private static boolean offline = false;
     private static boolean simulateAdapter = false;
 
@@ -103,6 +116,8 @@ public class CompilationBroker {
         addFieldOption("-XX:", "PrintCodeCacheMetrics", CompilationBroker.class, "Print code cache metrics (0 = disabled, 1 = summary, 2 = verbose).");
         addFieldOption("-XX:", "VMExtOpt", CompilationBroker.class, "Compile VM extensions with optimizing compiler (default: false");
         addFieldOption("-XX:", "AddCompiler", CompilationBroker.class, "Add a compiler, Name:Class");
+        addFieldOption("-XX:", "BackgroundCompilation", CompilationBroker.class, "Perform recompilations triggered by counter overflows in background compilation threads.");
+        addFieldOption("-XX:", "CompilationThreads", CompilationBroker.class, "Number of background compilation threads (default: " + CompilationThreads + ").");
     }
 
     @RESET
@@ -161,8 +176,6 @@ public class CompilationBroker {
      */
     private RuntimeCompiler defaultCompiler;
 
-    private static final boolean BACKGROUND_COMPILATION = false;
-
     public boolean needsAdapters() {
         return baselineCompiler != null;
     }
@@ -326,12 +339,7 @@ public class CompilationBroker {
         }
 
         if (isHosted()) {
-            if (BACKGROUND_COMPILATION) {
-                // launch a compiler thread if background compilation is supported (currently no)
-                final CompilationThread compilationThread = new CompilationThread();
-                compilationThread.setDaemon(true);
-                compilationThread.start();
-            }
+            // no background compilation while building the boot image
         } else if (phase == MaxineVM.Phase.STARTING) {
             if (opt) {
                 defaultCompiler = optimizingCompiler;
@@ -340,14 +348,13 @@ public class CompilationBroker {
             if (RCT != 0 && baselineCompiler != null) {
                 MethodInstrumentation.enable(RCT);
             }
-
-            if (BACKGROUND_COMPILATION) {
-                // launch a compiler thread if background compilation is supported (currently no)
-                final CompilationThread compilationThread = new CompilationThread();
-                compilationThread.setDaemon(true);
-                compilationThread.start();
-            }
         } else if (phase == Phase.RUNNING) {
+            if (isBackgroundCompilationEnabled()) {
+                for (int i = 0; i < CompilationThreads; i++) {
+                    final CompilationThread compilationThread = new CompilationThread(i);
+                    compilationThread.start();
+                }
+            }
             if (PrintCodeCacheMetrics != 0) {
                 Runtime.getRuntime().addShutdownHook(new Thread("CodeCacheMetricsPrinter") {
                     @Override
@@ -449,6 +456,9 @@ public class CompilationBroker {
                         assert compilation.compilingThread == Thread.currentThread();
                         assert nature == null : "cannot retry if specific compilation nature is specified";
                         compilation.compiler = selectRetryCompiler(cma, nature, compilation.compiler);
+                    } else if (compilation.isBackground && !Compilation.isCompilationRunningInCurrentThread() && dequeue(compilation)) {
+                        // the method is queued for background compilation: compile it in this thread instead of waiting
+                        compilation.compilingThread = Thread.currentThread();
                     } else {
                         // the method is currently being compiled, just wait for the result
                         doCompile = false;
@@ -471,7 +481,12 @@ public class CompilationBroker {
                     return tm;
                 } else {
                     // return result from other thread (which will have send the VMTI event)
-                    return compilation.get();
+                    TargetMethod tm = compilation.get();
+                    if (tm != null) {
+                        return tm;
+                    }
+                    // a background compilation failed and restored the previous state: compile in this thread
+                    continue;
                 }
             } catch (Throwable t) {
                 if (VMOptions.verboseOption.verboseCompilation) {
@@ -616,6 +631,21 @@ public class CompilationBroker {
      * @param receiver the receiver object of the profiled method. This will be {@code null} if the profiled method is static.
      */
     public static void instrumentationCounterOverflow(MethodProfile mpo, Object receiver) {
+        instrumentationCounterOverflow(mpo, receiver, -1);
+    }
+
+    /**
+     * Handles an instrumentation counter overflow upon entry to a profiled method or on a backward branch in it.
+     * This method must be called on the thread that overflowed the counter. For a backward branch, the frame of the
+     * profiled method may be {@linkplain OnStackReplacement#migrate(MethodProfile, int) migrated} to optimized code,
+     * in which case this method does not return.
+     *
+     * @param mpo      profiling object (including the method itself)
+     * @param receiver the receiver object of the profiled method. This will be {@code null} if the profiled method is
+     *                 static or if the counter overflowed on a backward branch.
+     * @param osrBCI   the target of the backward branch that overflowed the counter or -1 if it overflowed upon entry
+     */
+    public static void instrumentationCounterOverflow(MethodProfile mpo, Object receiver, int osrBCI) {
         if (mpo.compilationDisabled) {
             mpo.entryBackedgeCount = Integer.MAX_VALUE;
             return;
@@ -633,6 +663,17 @@ public class CompilationBroker {
             return;
         }
 
+        recompileAndPatch(mpo, receiver);
+        if (osrBCI >= 0 && OnStackReplacement.UseOSR) {
+            OnStackReplacement.migrate(mpo, osrBCI);
+        }
+    }
+
+    /**
+     * Recompiles the method profiled by {@code mpo} (or requests its recompilation) and patches the dispatch tables
+     * and direct call sites that refer to the profiled method once the recompiled method is available.
+     */
+    private static void recompileAndPatch(MethodProfile mpo, Object receiver) {
         ClassMethodActor cma = mpo.method.classMethodActor;
         TargetMethod oldMethod = mpo.method;
         TargetMethod newMethod = Compilations.currentTargetMethod(cma.compiledState, null);
@@ -641,6 +682,13 @@ public class CompilationBroker {
             if (!(cma.compiledState instanceof Compilation)) {
                 // There is no newer compiled version available yet that we could just patch to, so recompile
                 logCounterOverflow(mpo, "");
+                if (vm().compilationBroker.isBackgroundCompilationEnabled()) {
+                    // Keep running 'oldMethod' until a compilation thread has produced 'newMethod'.
+                    // The next counter overflow after that patches the dispatch tables and call sites.
+                    vm().compilationBroker.enqueue(cma, mpo.hotness());
+                    mpo.entryBackedgeCount = BACKGROUND_COMPILATION_POLL_COUNT;
+                    return;
+                }
                 try {
                     newMethod = vm().compilationBroker.compile(cma, Nature.OPT);
                 } catch (InternalError e) {
@@ -697,6 +745,56 @@ public class CompilationBroker {
         }
     }
 
+    /**
+     * The value to which the counter of a method is reset once a background compilation has been
+     * requested for it. This determines how soon the requesting code checks for the compiled result.
+     */
+    private static final int BACKGROUND_COMPILATION_POLL_COUNT = 1000;
+
+    /**
+     * Determines if recompilations are performed by {@linkplain CompilationThread compilation threads}.
+     */
+    public boolean isBackgroundCompilationEnabled() {
+        return BackgroundCompilation && CompilationThreads > 0 && !isHosted();
+    }
+
+    /**
+     * Requests an optimizing compilation of a given method to be performed by a compilation thread. The request
+     * is ignored if the method is already being compiled or queued for compilation.
+     *
+     * @param cma the method to compile
+     * @param hotness the {@linkplain MethodProfile#hotness() hotness} of the method, used to prioritize the request
+     * @return {@code true} if a new compilation was queued
+     */
+    public boolean enqueue(ClassMethodActor cma, int hotness) {
+        Compilation compilation;
+        synchronized (cma) {
+            Object compiledState = cma.compiledState;
+            if (compiledState instanceof Compilation) {
+                return false;
+            }
+            compilation = new Compilation(selectCompiler(cma, Nature.OPT, false), cma, (Compilations) compiledState, null, Nature.OPT, false, true);
+            compilation.hotness = hotness;
+            cma.compiledState = compilation;
+        }
+        synchronized (pending) {
+            pending.add(compilation);
+            pending.notify();
+        }
+        return true;
+    }
+
+    /**
+     * Removes a background compilation from the queue of pending compilations.
+     *
+     * @return {@code true} if {@code compilation} was still queued, {@code false} if a compilation thread has taken it
+     */
+    private boolean dequeue(Compilation compilation) {
+        synchronized (pending) {
+            return pending.remove(compilation);
+        }
+    }
+
     public static void logCounterOverflow(MethodProfile mpo, String msg) {
         if (VMOptions.verboseOption.verboseCompilation) {
             boolean lockDisabledSafepoints = Log.lock();
@@ -776,8 +874,8 @@ public class CompilationBroker {
      */
     protected class CompilationThread extends Thread {
 
-        protected CompilationThread() {
-            super("compile");
+        protected CompilationThread(int id) {
+            super("compile-" + id);
             setDaemon(true);
         }
 
@@ -798,8 +896,11 @@ public class CompilationBroker {
                 } catch (InterruptedException e) {
                     // do nothing.
                 } catch (Throwable t) {
-                    Log.print("Exception during compilation of " + compilation.classMethodActor);
-                    t.printStackTrace();
+                    // the compilation has restored the previous state of the method, which keeps running its current code
+                    if (VMOptions.verboseOption.verboseCompilation) {
+                        Log.println("Exception during background compilation of " + compilation.classMethodActor);
+                        t.printStackTrace(Log.out);
+                    }
                 }
             }
         }
@@ -824,6 +925,7 @@ public class CompilationBroker {
                 System.gc();
             }
             compilation.compile();
+            VMTI.handler().methodCompiled(compilation.classMethodActor);
             compilation = null;
         }
     }
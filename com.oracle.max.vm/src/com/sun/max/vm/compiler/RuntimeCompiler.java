@@ -128,6 +128,22 @@ public interface RuntimeCompiler {
      */
     String name(ClassMethodActor classMethodActor);
 
+    /**
+     * Implemented by an optimizing compiler that can produce code for {@linkplain com.sun.max.vm.compiler.deopt.OnStackReplacement
+     * on-stack replacement} of a baseline frame executing a loop.
+     */
+    public interface OsrCompiler {
+        /**
+         * Compiles a method with an additional entry point at the header of the loop starting at {@code osrBCI}.
+         * The {@linkplain TargetMethod#osrEntryPos() OSR entry} expects its frame to already be allocated and
+         * the address of a buffer holding the values of the locals (one word per local slot) in the
+         * return register.
+         *
+         * @return the compiled method or {@code null} if the method could not be compiled for OSR at {@code osrBCI}
+         */
+        TargetMethod compileForOsr(ClassMethodActor classMethodActor, int osrBCI);
+    }
+
     public static abstract class DefaultNameAdapter implements RuntimeCompiler {
         public String name(ClassMethodActor classMethodActor) {
             return getClass().getSimpleName();
@@ -21,7 +21,9 @@
  */
 package com.sun.max.vm.compiler.deopt;
 
+import com.sun.cri.bytecode.*;
 import com.sun.cri.ci.*;
+import com.sun.cri.ri.*;
 import com.sun.max.Utils;
 import com.sun.max.annotate.*;
 import com.sun.max.lang.ISA;
@@ -37,12 +39,14 @@ import com.sun.max.vm.compiler.target.TargetMethod.FrameAccess;
 import com.sun.max.vm.compiler.target.amd64.AMD64TargetMethodUtil;
 import com.sun.max.vm.log.VMLog.Record;
 import com.sun.max.vm.log.hosted.*;
+import com.sun.max.vm.monitor.*;
 import com.sun.max.vm.object.*;
 import com.sun.max.vm.profile.MethodProfile;
 import com.sun.max.vm.reference.*;
 import com.sun.max.vm.runtime.*;
 import com.sun.max.vm.stack.*;
 import com.sun.max.vm.thread.VmThread;
+import com.sun.max.vm.type.*;
 
 import java.util.ArrayList;
 
@@ -162,6 +166,11 @@ public class Deoptimization extends VmOperation {
         submit();
     }
 
+    @Override
+    protected boolean allowsBatching() {
+        return true;
+    }
+
     @Override
     protected void doIt() {
         Stub staticTrampoline = vm().stubs.staticTrampoline();
@@ -194,6 +203,9 @@ public class Deoptimization extends VmOperation {
             }
         }
 
+        // Drop cached exception dispatch results that refer to the invalidated methods
+        ExceptionHandlerCache.invalidate();
+
         // Scan the stacks to patch return addresses
         doAllThreads();
     }
@@ -506,7 +518,8 @@ public class Deoptimization extends VmOperation {
             if (calleeTM != null && calleeTM.classMethodActor != null) {
                 lastCalleeMethod = calleeTM.classMethodActor;
             }
-            if (deopt) {
+            // a frame stopped at an uncommon trap is deoptimized in place and is never returned to
+            if (deopt && (calleeTM == null || calleeTM.stubType() != UncommonTrapStub)) {
                 patchReturnAddress(current, callee, lastCalleeMethod);
             }
             return true;
@@ -808,6 +821,7 @@ public class Deoptimization extends VmOperation {
                     }
                 }
             }
+            relockEliminatedMonitors(frame);
             cont = compiledMethod.createDeoptimizedFrame(info, frame, cont, pendingException, reexecute);
             // The exception (if any) must be handled in the top frame
             pendingException = null;
@@ -902,6 +916,96 @@ public class Deoptimization extends VmOperation {
         return frame;
     }
 
+    /**
+     * Re-acquires the locks that the optimizing compiler {@linkplain CiMonitorValue#eliminated eliminated}
+     * because the locked object did not escape. The object has been recreated when the frame was decoded.
+     * Each such lock is replaced by the locked object, which is what the deoptimized frame expects in a lock slot.
+     */
+    private static void relockEliminatedMonitors(CiFrame frame) {
+        for (int i = 0; i < frame.numLocks; i++) {
+            int index = frame.numLocals + frame.numStack + i;
+            if (frame.values[index].isMonitor()) {
+                CiMonitorValue monitor = (CiMonitorValue) frame.values[index];
+                assert monitor.eliminated : "only eliminated locks are described by a monitor value";
+                CiConstant owner = (CiConstant) monitor.owner;
+                Monitor.enter(owner.asObject());
+                frame.values[index] = owner;
+            }
+        }
+    }
+
+    /**
+     * Recreates an object whose allocation was removed by escape analysis in a method being deoptimized.
+     *
+     * @param classActor the class of the object
+     * @param values the values of the instance fields, ordered like the {@linkplain ClassActor#declaredFields() declared
+     *            fields} of each class in the hierarchy starting with the top-most super class, or the array elements
+     * @return the new object
+     */
+    public static Object materializeVirtualObject(ClassActor classActor, CiConstant[] values) {
+        if (classActor.isArrayClass()) {
+            Object array = Snippets.createArray(classActor, values.length);
+            Kind elementKind = classActor.componentClassActor().kind;
+            for (int i = 0; i < values.length; i++) {
+                CiConstant value = values[i];
+                // Checkstyle: stop
+                switch (elementKind.asEnum) {
+                    case BOOLEAN: ArrayAccess.setBoolean(array, i, bits(value) != 0); break;
+                    case BYTE:    ArrayAccess.setByte(array, i, (byte) bits(value)); break;
+                    case SHORT:   ArrayAccess.setShort(array, i, (short) bits(value)); break;
+                    case CHAR:    ArrayAccess.setChar(array, i, (char) bits(value)); break;
+                    case INT:     ArrayAccess.setInt(array, i, (int) bits(value)); break;
+                    case FLOAT:   ArrayAccess.setFloat(array, i, Float.intBitsToFloat((int) bits(value))); break;
+                    case LONG:    ArrayAccess.setLong(array, i, bits(value)); break;
+                    case DOUBLE:  ArrayAccess.setDouble(array, i, Double.longBitsToDouble(bits(value))); break;
+                    default:      throw FatalError.unexpected("unexpected element kind in virtual array: " + elementKind);
+                }
+                // Checkstyle: resume
+            }
+            return array;
+        }
+
+        Object tuple = Snippets.createTupleOrHybrid(classActor);
+        int index = values.length;
+        for (ClassActor holder = classActor; holder != null; holder = holder.superClassActor) {
+            RiResolvedField[] fields = holder.declaredFields();
+            index -= fields.length;
+            for (int i = 0; i < fields.length; i++) {
+                FieldActor fieldActor = (FieldActor) fields[i];
+                CiConstant value = values[index + i];
+                // Checkstyle: stop
+                switch (fieldActor.kind.asEnum) {
+                    case BOOLEAN:   fieldActor.setBoolean(tuple, bits(value) != 0); break;
+                    case BYTE:      fieldActor.setByte(tuple, (byte) bits(value)); break;
+                    case SHORT:     fieldActor.setShort(tuple, (short) bits(value)); break;
+                    case CHAR:      fieldActor.setChar(tuple, (char) bits(value)); break;
+                    case INT:       fieldActor.setInt(tuple, (int) bits(value)); break;
+                    case FLOAT:     fieldActor.setFloat(tuple, Float.intBitsToFloat((int) bits(value))); break;
+                    case LONG:      fieldActor.setLong(tuple, bits(value)); break;
+                    case DOUBLE:    fieldActor.setDouble(tuple, Double.longBitsToDouble(bits(value))); break;
+                    case REFERENCE: fieldActor.setObject(tuple, value.asObject()); break;
+                    default:        throw FatalError.unexpected("unexpected field kind in virtual object: " + fieldActor);
+                }
+                // Checkstyle: resume
+            }
+        }
+        assert index == 0 : "wrong number of field values for virtual " + classActor;
+        return tuple;
+    }
+
+    /**
+     * Gets the raw bits of a primitive value decoded from a deoptimized frame. A value read from a register
+     * or stack slot is a word, whereas a value known at compile time is a constant of the value's own kind.
+     */
+    private static long bits(CiConstant value) {
+        if (value.kind.isFloat()) {
+            return Float.floatToRawIntBits(value.asFloat());
+        } else if (value.kind.isDouble()) {
+            return Double.doubleToRawLongBits(value.asDouble());
+        }
+        return value.asLong();
+    }
+
     /**
      * Deoptimizes a method that was trapped at a safepoint poll.
      *
@@ -924,9 +1028,48 @@ public class Deoptimization extends VmOperation {
      */
     public static void uncommonTrap(Pointer csa, Pointer ip, Pointer sp, Pointer fp) {
         FatalError.check(!csa.isZero(), "callee save area expected for uncommon trap");
+        invalidateOnFailedTypeGuard(CodePointer.from(ip));
         deoptimize(CodePointer.from(ip), sp, fp, csa, vm().registerConfigs.uncommonTrapStub.getCalleeSaveLayout(), null);
     }
 
+    /**
+     * Handles an uncommon trap taken by a guard on a profiled receiver type. Such a guard is the only uncommon trap
+     * whose frame state is that of an {@code invokevirtual} or {@code invokeinterface}. Deoptimizing just the
+     * trapping frame would leave the speculative code installed to trap again on every call with the new receiver
+     * type. Instead, the failure is recorded against the call site so that the type profile is not speculated on
+     * again and the method containing the guard is invalidated, which leads to its recompilation.
+     *
+     * @param ip the address of the uncommon trap
+     */
+    private static void invalidateOnFailedTypeGuard(CodePointer ip) {
+        TargetMethod tm = ip.toTargetMethod();
+        if (tm == null || tm.invalidated() != null || tm.isInBootCodeRegion()) {
+            return;
+        }
+        int safepointIndex = tm.findSafepointIndex(ip);
+        if (safepointIndex < 0) {
+            return;
+        }
+        CiDebugInfo debugInfo = tm.debugInfoAt(safepointIndex, null);
+        CiFrame frame = debugInfo == null ? null : debugInfo.frame();
+        if (frame == null || frame.rethrowException) {
+            return;
+        }
+        ClassMethodActor method = (ClassMethodActor) frame.method;
+        byte[] code = method.code();
+        if (code == null || frame.bci < 0 || frame.bci >= code.length) {
+            return;
+        }
+        int opcode = code[frame.bci] & 0xff;
+        if (opcode != Bytecodes.INVOKEVIRTUAL && opcode != Bytecodes.INVOKEINTERFACE) {
+            return;
+        }
+        method.recordFailedTypeGuard(frame.bci);
+        ArrayList<TargetMethod> tms = new ArrayList<TargetMethod>(1);
+        tms.add(tm);
+        new Deoptimization(tms).go();
+    }
+
     @NEVER_INLINE // makes inspecting easier
     static void logPatchITable(ClassActor classActor, int iIndex) {
         if (deoptLogger.enabled()) {
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.compiler.deopt;
+
+import static com.sun.max.platform.Platform.*;
+import static com.sun.max.vm.MaxineVM.*;
+import static com.sun.max.vm.intrinsics.Infopoints.*;
+import static com.sun.max.vm.stack.VMFrameLayout.*;
+
+import java.util.*;
+
+import com.sun.cri.ci.*;
+import com.sun.max.lang.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.member.*;
+import com.sun.max.vm.compiler.*;
+import com.sun.max.vm.compiler.RuntimeCompiler.OsrCompiler;
+import com.sun.max.vm.compiler.deopt.Deoptimization.Info;
+import com.sun.max.vm.compiler.target.*;
+import com.sun.max.vm.compiler.target.TargetMethod.FrameAccess;
+import com.sun.max.vm.profile.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.stack.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * On-stack replacement (OSR) of a baseline frame executing a hot loop by a frame of an optimized
+ * version of the method that is entered at the header of the loop.
+ * <p>
+ * The baseline code decrements the {@linkplain MethodProfile#entryBackedgeCount counter} in its profile
+ * on every backward branch. When the counter overflows, {@link CompilationBroker#instrumentationCounterOverflow(MethodProfile, Object, int)}
+ * calls {@link #migrate(MethodProfile, int)} which:
+ * <ol>
+ * <li>compiles the method with an {@linkplain TargetMethod#osrEntryPos() OSR entry} at the loop header
+ * (or reuses an earlier such compilation),</li>
+ * <li>copies the locals of the baseline frame into the thread's {@linkplain VmThread#osrBuffer(int) OSR buffer}, one
+ * word per local slot,</li>
+ * <li>replaces the baseline frame with a frame for the OSR method that returns to the caller of the baseline frame and</li>
+ * <li>continues execution at the OSR entry with the address of the buffer in the return register.</li>
+ * </ol>
+ * An OSR method is only entered by migrated frames. Later invocations of the method go through the normal
+ * recompilation path triggered by the same counter overflow.
+ */
+public final class OnStackReplacement {
+
+    /**
+     * Option for enabling on-stack replacement.
+     */
+    public static boolean UseOSR;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "UseOSR", OnStackReplacement.class,
+                                 "Migrate baseline frames executing hot loops to optimized code (AMD64 only).");
+    }
+
+    /**
+     * The value to which the counter of a method is reset when a frame could not be migrated. A loop whose
+     * frame was not migrated would otherwise overflow the counter on every subsequent iteration.
+     */
+    private static final int OSR_RETRY_COUNT = 10000;
+
+    private OnStackReplacement() {
+    }
+
+    /**
+     * Migrates the frame of the baseline method profiled by {@code mpo} that overflowed its counter on a backward
+     * branch to the loop header at {@code osrBCI}. The frame must be the first frame of {@code mpo.method} on the
+     * current thread's stack.
+     * <p>
+     * This method only returns if the frame was not migrated.
+     *
+     * @param mpo the profile of the baseline method
+     * @param osrBCI the target of the backward branch
+     */
+    public static void migrate(MethodProfile mpo, int osrBCI) {
+        TargetMethod baselineMethod = mpo.method;
+        ClassMethodActor cma = baselineMethod.classMethodActor;
+        if (platform().isa != ISA.AMD64 || !baselineMethod.isBaseline() || cma.isSynchronized()) {
+            // the monitor of a synchronized method is held by the baseline frame
+            mpo.entryBackedgeCount = OSR_RETRY_COUNT;
+            return;
+        }
+
+        TargetMethod osrMethod = osrMethod(mpo, osrBCI);
+        if (osrMethod == null) {
+            mpo.entryBackedgeCount = OSR_RETRY_COUNT;
+            return;
+        }
+
+        // No safepoints from here on: the buffer holds references the GC does not know about
+        SafepointPoll.disable();
+        BaselineFrameFinder finder = new BaselineFrameFinder(baselineMethod);
+        new VmStackFrameWalker(VmThread.current().tla()).inspect(Pointer.fromLong(here()),
+                                                                 VMRegister.getCpuStackPointer(),
+                                                                 VMRegister.getCpuFramePointer(),
+                                                                 finder);
+        if (finder.ip.isZero()) {
+            SafepointPoll.enable();
+            mpo.entryBackedgeCount = OSR_RETRY_COUNT;
+            return;
+        }
+
+        Info info = new Info(VmThread.current(), finder.ip, finder.sp, finder.fp);
+        int safepointIndex = baselineMethod.findSafepointIndex(CodePointer.from(finder.ip));
+        assert safepointIndex >= 0 : "no safepoint index for " + baselineMethod + "+" + baselineMethod.posFor(CodePointer.from(finder.ip));
+        FrameAccess fa = new FrameAccess(null, Pointer.zero(), finder.sp, finder.fp, info.callerSP, info.callerFP);
+        CiFrame frame = baselineMethod.debugInfoAt(safepointIndex, fa).frame();
+
+        Pointer buffer = VmThread.current().osrBuffer(Math.max(frame.numLocals, 1) * Word.size());
+        for (int i = 0; i < frame.numLocals; i++) {
+            CiConstant value = (CiConstant) frame.getLocalValue(i);
+            if (value.kind.isObject()) {
+                buffer.writeWord(i * Word.size(), Reference.fromJava(value.asObject()).toOrigin());
+            } else {
+                buffer.writeWord(i * Word.size(), Address.fromLong(value.asLong()));
+            }
+        }
+
+        logMigration(mpo, osrBCI, osrMethod);
+
+        // The OSR frame takes the place of the baseline frame and returns to its caller. The return address
+        // is placed such that returning from the OSR frame pops the baseline frame's stack parameters,
+        // just as the baseline method would have done.
+        Pointer returnAddressSlot = info.callerSP.minus(STACK_SLOT_SIZE);
+        returnAddressSlot.writeWord(0, info.returnIP.asPointer());
+        Pointer sp = returnAddressSlot.minus(osrMethod.frameSize());
+        CodePointer osrEntry = osrMethod.codeAt(osrMethod.osrEntryPos());
+
+        // Re-enable safepoints
+        SafepointPoll.enable();
+        Stubs.unwindLong(osrEntry.toAddress(), sp, info.callerFP, buffer.toLong());
+        FatalError.unexpected("should not reach here: on-stack replacement");
+    }
+
+    /**
+     * Gets the method compiled for entering {@code mpo.method} at {@code osrBCI}, compiling it if necessary.
+     *
+     * @return {@code null} if the method could not be compiled for OSR at {@code osrBCI}
+     */
+    private static TargetMethod osrMethod(MethodProfile mpo, int osrBCI) {
+        synchronized (mpo) {
+            if (mpo.osrMethods == null) {
+                mpo.osrMethods = new HashMap<Integer, TargetMethod>();
+            } else if (mpo.osrMethods.containsKey(osrBCI)) {
+                TargetMethod osrMethod = mpo.osrMethods.get(osrBCI);
+                if (osrMethod == null || osrMethod.invalidated() == null) {
+                    return osrMethod;
+                }
+            }
+        }
+
+        TargetMethod osrMethod = null;
+        RuntimeCompiler compiler = vm().compilationBroker.optimizingCompiler;
+        if (compiler instanceof OsrCompiler) {
+            try {
+                osrMethod = ((OsrCompiler) compiler).compileForOsr(mpo.method.classMethodActor, osrBCI);
+            } catch (Throwable t) {
+                if (VMOptions.verboseOption.verboseCompilation) {
+                    t.printStackTrace(Log.out);
+                }
+            }
+        }
+        synchronized (mpo) {
+            mpo.osrMethods.put(osrBCI, osrMethod);
+        }
+        return osrMethod;
+    }
+
+    private static void logMigration(MethodProfile mpo, int osrBCI, TargetMethod osrMethod) {
+        if (VMOptions.verboseOption.verboseCompilation) {
+            boolean lockDisabledSafepoints = Log.lock();
+            Log.printCurrentThread(false);
+            Log.print(": On-stack replacement of ");
+            Log.printMethod(mpo.method, false);
+            Log.print(" at bci ");
+            Log.print(osrBCI);
+            Log.print(" with ");
+            Log.printMethod(osrMethod, false);
+            Log.println();
+            Log.unlock(lockDisabledSafepoints);
+        }
+    }
+
+    /**
+     * Finds the first frame of a given baseline method on the stack.
+     */
+    static final class BaselineFrameFinder extends RawStackFrameVisitor {
+
+        private final TargetMethod baselineMethod;
+
+        Pointer ip = Pointer.zero();
+        Pointer sp;
+        Pointer fp;
+
+        BaselineFrameFinder(TargetMethod baselineMethod) {
+            this.baselineMethod = baselineMethod;
+        }
+
+        @Override
+        public boolean visitFrame(StackFrameCursor current, StackFrameCursor callee) {
+            if (current.targetMethod() == baselineMethod) {
+                ip = current.ipAsPointer();
+                sp = current.sp();
+                fp = current.fp();
+                return false;
+            }
+            return true;
+        }
+    }
+}
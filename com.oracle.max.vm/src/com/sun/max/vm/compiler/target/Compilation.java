@@ -104,12 +104,29 @@ public class Compilation {
     public RuntimeCompiler compiler;
     public final ClassMethodActor classMethodActor;
     public final Compilation parent;
+    /**
+     * The target methods of the method that this compilation extends. If another compilation of a different nature
+     * finishes while this one is the method's {@linkplain ClassMethodActor#compiledState compiled state}, its result
+     * is merged in here so that this compilation does not discard it once it finishes. Guarded by the lock on
+     * {@link #classMethodActor}.
+     */
     @INSPECTED
-    public final Compilations prevCompilations;
+    public Compilations prevCompilations;
     public Thread compilingThread;
     public TargetMethod result;
     public final boolean isDeopt;
 
+    /**
+     * Specifies if this compilation is performed by a {@linkplain CompilationBroker.CompilationThread compilation thread}
+     * instead of the thread that requested it.
+     */
+    public final boolean isBackground;
+
+    /**
+     * The hotness of the method at the time this compilation was requested. Used to order background compilations.
+     */
+    public int hotness;
+
     /**
      * State of this compilation. If {@code true}, then this compilation has finished and the target
      * method is available.
@@ -123,8 +140,21 @@ public class Compilation {
                        Compilations prevCompilations,
                        Thread compilingThread, RuntimeCompiler.Nature nature,
                        boolean isDeopt) {
+        this(compiler, classMethodActor, prevCompilations, compilingThread, nature, isDeopt, false);
+    }
+
+    /**
+     * Creates a compilation. A background compilation is not nested in any compilation of the requesting thread and
+     * only becomes the current compilation of a thread once it is {@linkplain #compile() performed}.
+     */
+    public Compilation(RuntimeCompiler compiler,
+                       ClassMethodActor classMethodActor,
+                       Compilations prevCompilations,
+                       Thread compilingThread, RuntimeCompiler.Nature nature,
+                       boolean isDeopt, boolean isBackground) {
         assert prevCompilations != null;
-        this.parent = COMPILATION.get();
+        this.isBackground = isBackground;
+        this.parent = isBackground ? null : COMPILATION.get();
         this.compiler = compiler;
         this.classMethodActor = classMethodActor;
         this.prevCompilations = prevCompilations;
@@ -137,7 +167,9 @@ public class Compilation {
                 FatalError.unexpected("Recursive compilation of " + classMethodActor + " by " + compiler);
             }
         }
-        COMPILATION.set(this);
+        if (!isBackground) {
+            COMPILATION.set(this);
+        }
     }
 
     /**
@@ -174,7 +206,8 @@ public class Compilation {
     /**
      * Gets the result of this compilation, blocking if necessary.
      *
-     * @return the target method that resulted from this compilation
+     * @return the target method that resulted from this compilation or {@code null} if this is a
+     *         {@linkplain #isBackground background} compilation that failed
      */
     public TargetMethod get() {
         synchronized (classMethodActor) {
@@ -197,7 +230,7 @@ public class Compilation {
             if (interrupted) {
                 Thread.currentThread().interrupt();
             }
-            assert result != null;
+            assert result != null || isBackground;
             return result;
         }
     }
@@ -279,6 +312,9 @@ public class Compilation {
         Throwable error = null;
         String methodString = "";
 
+        if (isBackground) {
+            COMPILATION.set(this);
+        }
         try {
             InspectableCompilationInfo.notifyCompilationEvent(classMethodActor, null);
 
@@ -312,21 +348,38 @@ public class Compilation {
                 // update the compilation state of the class method actor
                 if (result != null) {
                     assert nature != Nature.BASELINE || result.isBaseline() : "a request for a baseline target method failed to produce one";
-                    // compilation succeeded and produced a target method
-                    TargetMethod baseline = prevCompilations.baseline;
-                    TargetMethod optimized = prevCompilations.optimized;
+                    // compilation succeeded and produced a target method. Merge it with the current state rather than
+                    // with prevCompilations: a compilation of another nature may have finished since this one started.
+                    final Object compiledState = classMethodActor.compiledState;
+                    final Compilation pending = compiledState instanceof Compilation && compiledState != this ? (Compilation) compiledState : null;
+                    final Compilations current = compiledState == this ? prevCompilations : pending != null ? pending.prevCompilations : (Compilations) compiledState;
+                    TargetMethod baseline = current.baseline;
+                    TargetMethod optimized = current.optimized;
                     if (result.isBaseline()) {
                         baseline = result;
                     } else {
                         optimized = result;
                     }
-                    classMethodActor.compiledState = new Compilations(baseline, optimized);
+                    if (pending != null) {
+                        // another compilation has replaced this one and installs this result along with its own
+                        pending.prevCompilations = new Compilations(baseline, optimized);
+                    } else {
+                        classMethodActor.compiledState = new Compilations(baseline, optimized);
+                    }
 
                     // compilation finished: this must come after the assignment to classMethodActor.compState
                     done = true;
 
                     // notify any waiters on this compilation
                     classMethodActor.notifyAll();
+                } else if (isBackground) {
+                    // nobody is waiting on the failure of a background compilation: restore the previous
+                    // state so that waiters (which see a null result) and later requests can compile again
+                    if (classMethodActor.compiledState == this) {
+                        classMethodActor.compiledState = prevCompilations;
+                    }
+                    done = true;
+                    classMethodActor.notifyAll();
                 }
             }
 
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.compiler.target;
+
+import java.util.*;
+
+import com.oracle.max.cri.intrinsics.*;
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.object.*;
+import com.sun.max.vm.reference.*;
+
+/**
+ * A global cache of exception dispatch results, mapping a throw site (a target method and a position in
+ * its code) and the {@link Hub} of the exception thrown there to the position of the handler in the same
+ * method or to {@link #NO_HANDLER} if the exception unwinds the frame. It saves
+ * {@link TargetMethod#throwAddressToCatchAddress(CodePointer, Throwable)} from repeating the search of the
+ * exception handler table and the subtype checks each time an exception is thrown through a frame.
+ * <p>
+ * The cache is a direct-mapped table held in preallocated parallel arrays, so that recording a result while
+ * an exception unwinds never allocates (the exception may well be an {@link OutOfMemoryError}). Lookups and
+ * updates do not lock. Each slot has a sequence word that is odd while the slot is being written. A writer
+ * claims the slot by incrementing an even sequence word with a compare and swap, and gives up if another
+ * writer holds it. A reader that sees an odd sequence word, or a different one after reading the slot, treats
+ * the lookup as a miss. A dispatch result only depends on the method and the exception class and so is stable for the life time of
+ * the method. The cache is nevertheless {@linkplain #invalidate() flushed} when baseline code is
+ * {@linkplain com.sun.max.vm.code.CodeEviction evicted} and when methods are
+ * {@linkplain com.sun.max.vm.compiler.deopt.Deoptimization deoptimized} so that it does not keep
+ * stale methods alive.
+ */
+public final class ExceptionHandlerCache {
+
+    /**
+     * Option for enabling the exception handler cache.
+     */
+    public static boolean UseExceptionHandlerCache = true;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "UseExceptionHandlerCache", ExceptionHandlerCache.class,
+                                 "Cache the handler found for an exception type at a throw site.");
+    }
+
+    /**
+     * Returned by {@link #lookup} if the exception is not caught in the method.
+     */
+    public static final int NO_HANDLER = -1;
+
+    /**
+     * Returned by {@link #lookup} if the cache holds no result for a throw site and exception type.
+     */
+    public static final int MISS = -2;
+
+    private static final int SIZE = 4096;
+
+    private static final int[] sequences = new int[SIZE];
+    private static final TargetMethod[] targetMethods = new TargetMethod[SIZE];
+    private static final Hub[] hubs = new Hub[SIZE];
+    private static final int[] throwPositions = new int[SIZE];
+    private static final int[] catchPositions = new int[SIZE];
+
+    private ExceptionHandlerCache() {
+    }
+
+    @INLINE
+    private static int index(TargetMethod targetMethod, Hub hub, int throwPos) {
+        int hash = System.identityHashCode(targetMethod) ^ System.identityHashCode(hub) * 31 ^ throwPos * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (SIZE - 1);
+    }
+
+    /**
+     * Looks up the result of dispatching an exception of a given type thrown at a given position.
+     *
+     * @return the position of the handler, {@link #NO_HANDLER} or {@link #MISS}
+     */
+    public static int lookup(TargetMethod targetMethod, int throwPos, Throwable exception) {
+        if (!UseExceptionHandlerCache || MaxineVM.isHosted()) {
+            return MISS;
+        }
+        Hub hub = ObjectAccess.readHub(exception);
+        int index = index(targetMethod, hub, throwPos);
+        int sequence = sequences[index];
+        if ((sequence & 1) != 0) {
+            return MISS;
+        }
+        MemoryBarriers.barrier(MemoryBarriers.LOAD_LOAD);
+        boolean hit = targetMethods[index] == targetMethod && hubs[index] == hub && throwPositions[index] == throwPos;
+        int catchPos = catchPositions[index];
+        MemoryBarriers.barrier(MemoryBarriers.LOAD_LOAD);
+        if (!hit || sequences[index] != sequence) {
+            return MISS;
+        }
+        return catchPos;
+    }
+
+    /**
+     * Records the result of dispatching an exception of a given type thrown at a given position.
+     *
+     * @param catchPos the position of the handler or {@link #NO_HANDLER}
+     */
+    public static void record(TargetMethod targetMethod, int throwPos, Throwable exception, int catchPos) {
+        if (!UseExceptionHandlerCache || MaxineVM.isHosted()) {
+            return;
+        }
+        Hub hub = ObjectAccess.readHub(exception);
+        int index = index(targetMethod, hub, throwPos);
+        int sequence = sequences[index];
+        if ((sequence & 1) != 0 || !claim(index, sequence)) {
+            // another thread is writing the slot
+            return;
+        }
+        MemoryBarriers.barrier(MemoryBarriers.STORE_STORE);
+        targetMethods[index] = targetMethod;
+        hubs[index] = hub;
+        throwPositions[index] = throwPos;
+        catchPositions[index] = catchPos;
+        MemoryBarriers.barrier(MemoryBarriers.STORE_STORE);
+        sequences[index] = sequence + 2;
+    }
+
+    @INLINE
+    private static boolean claim(int index, int sequence) {
+        Offset offset = Layout.intArrayLayout().getElementOffsetFromOrigin(index);
+        return Reference.fromJava(sequences).compareAndSwapInt(offset, sequence, sequence + 1) == sequence;
+    }
+
+    /**
+     * Removes all entries from the cache. Only called while mutator threads are stopped.
+     */
+    public static void invalidate() {
+        Arrays.fill(targetMethods, null);
+        Arrays.fill(hubs, null);
+    }
+}
@@ -350,8 +350,8 @@ public class Stubs {
 
         CodePointer adjustedEntryPoint = adjustEntryPointForCaller(vtableEntryPoint, caller);
 
-        // remember calls from boot code region to baseline code cache
-        if (Code.bootCodeRegion().contains(cpCallSite.toAddress()) && Code.getCodeManager().getRuntimeBaselineCodeRegion().contains(adjustedEntryPoint.toAddress())) {
+        // remember calls from boot code region to runtime code caches
+        if (Code.bootCodeRegion().contains(cpCallSite.toAddress()) && CodeManager.isRuntimeCode(adjustedEntryPoint.toAddress())) {
             CodeManager.recordBootToBaselineCaller(caller);
         }
         return adjustedEntryPoint.toAddress();
@@ -380,8 +380,8 @@ public class Stubs {
 
         CodePointer adjustedEntryPoint = adjustEntryPointForCaller(itableEntryPoint, caller);
 
-        // remember calls from boot code region to baseline code cache
-        if (Code.bootCodeRegion().contains(cpCallSite.toAddress()) && Code.getCodeManager().getRuntimeBaselineCodeRegion().contains(adjustedEntryPoint.toAddress())) {
+        // remember calls from boot code region to runtime code caches
+        if (Code.bootCodeRegion().contains(cpCallSite.toAddress()) && CodeManager.isRuntimeCode(adjustedEntryPoint.toAddress())) {
             CodeManager.recordBootToBaselineCaller(caller);
         }
         return adjustedEntryPoint.toAddress();
@@ -523,8 +523,8 @@ public class Stubs {
         final CodePointer calleeEntryPoint = callee.makeTargetMethod(caller).getEntryPoint(caller.callEntryPoint);
         ARMTargetMethodUtil.mtSafePatchCallDisplacement(caller, cpCallSite, calleeEntryPoint);
 
-        // remember calls from boot code region to baseline code cache
-        if (Code.bootCodeRegion().contains(cpCallSite.toAddress()) && Code.getCodeManager().getRuntimeBaselineCodeRegion().contains(calleeEntryPoint.toAddress())) {
+        // remember calls from boot code region to runtime code caches
+        if (Code.bootCodeRegion().contains(cpCallSite.toAddress()) && CodeManager.isRuntimeCode(calleeEntryPoint.toAddress())) {
             CodeManager.recordBootToBaselineCaller(caller);
         }
     }
@@ -538,8 +538,8 @@ public class Stubs {
 
         AMD64TargetMethodUtil.mtSafePatchCallDisplacement(caller, cpCallSite, calleeEntryPoint);
 
-        // remember calls from boot code region to baseline code cache
-        if (Code.bootCodeRegion().contains(cpCallSite.toAddress()) && Code.getCodeManager().getRuntimeBaselineCodeRegion().contains(calleeEntryPoint.toAddress())) {
+        // remember calls from boot code region to runtime code caches
+        if (Code.bootCodeRegion().contains(cpCallSite.toAddress()) && CodeManager.isRuntimeCode(calleeEntryPoint.toAddress())) {
             CodeManager.recordBootToBaselineCaller(caller);
         }
     }
@@ -272,6 +272,24 @@ public abstract class TargetMethod extends MemoryRegion {
      *         {@link CodePosClosure#doCodePos(ClassMethodActor, int)} was called
      */
     public int forEachCodePos(CodePosClosure cpc, CodePointer ip) {
+        final int pos = posFor(ip);
+        if (pos < 0) {
+            return 0;
+        }
+        return forEachCodePos(cpc, pos);
+    }
+
+    /**
+     * Iterates over the bytecode locations for the inlining chain rooted at a given target code position.
+     * Unlike {@link #forEachCodePos(CodePosClosure, CodePointer)}, this only uses the metadata of this method
+     * and so can still be used once its code has been {@linkplain #wipe() wiped}.
+     *
+     * @param cpc a closure called for each bytecode location in the inlining chain rooted at {@code pos} (inner most
+     *            callee first)
+     * @param pos a position in the code of this method
+     * @return the number of bytecode locations iterated over
+     */
+    public int forEachCodePos(CodePosClosure cpc, int pos) {
         return 0;
     }
 
@@ -922,6 +940,16 @@ public abstract class TargetMethod extends MemoryRegion {
         return callEntryPoint.in(this);
     }
 
+    /**
+     * Gets the position in this method's code at which it is entered when a baseline frame is migrated to it by
+     * {@linkplain com.sun.max.vm.compiler.deopt.OnStackReplacement on-stack replacement}.
+     *
+     * @return -1 if this method was not compiled for on-stack replacement
+     */
+    public int osrEntryPos() {
+        return -1;
+    }
+
     /**
      * Resets a direct call site, make it point to the static trampoline again.
      *
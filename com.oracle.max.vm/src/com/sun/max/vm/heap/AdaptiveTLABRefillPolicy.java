@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+
+/**
+ * A refill policy that adapts the size of the TLABs of its thread to the thread's allocation rate.
+ * The policy accounts for the space the thread allocated from its TLABs, and the space it wasted at refills, between two resets of
+ * its TLAB (i.e., between two GCs). At reset, the TLAB size is recomputed so that, were the thread to allocate as much as it
+ * did on average over the past intervals, it would refill its TLAB {@link #targetRefills()} times. Threads allocating heavily
+ * therefore get larger TLABs and take the allocation slow path less often, whereas idle threads get smaller TLABs and hold
+ * less of the heap unused.
+ * <p>
+ * The refill threshold is adapted too: when a thread wastes more than {@link #TLABWasteTargetPercent} of the space it allocated
+ * when retiring its TLABs, the threshold is lowered so that the thread allocates more of its large requests outside the TLAB instead.
+ */
+public class AdaptiveTLABRefillPolicy extends SimpleTLABRefillPolicy {
+    /**
+     * Smallest TLAB size the policy may choose.
+     */
+    static Size MinTLABSize = Size.K.times(8);
+
+    /**
+     * Largest TLAB size the policy may choose.
+     */
+    static Size MaxTLABSize = Size.M;
+
+    /**
+     * Percentage of the space allocated by a thread that may be wasted when retiring its TLABs.
+     */
+    static int TLABWasteTargetPercent = 1;
+
+    /**
+     * Weight, in percent, of the allocation of the last interval between two resets in the averaged allocation of a thread.
+     */
+    static int TLABAllocationWeight = 35;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "MinTLABSize", AdaptiveTLABRefillPolicy.class, "Minimum size of adaptively sized TLABs", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "MaxTLABSize", AdaptiveTLABRefillPolicy.class, "Maximum size of adaptively sized TLABs", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "TLABWasteTargetPercent", AdaptiveTLABRefillPolicy.class,
+            "Percentage of allocated space threads may waste when refilling their TLABs", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "TLABAllocationWeight", AdaptiveTLABRefillPolicy.class,
+            "Weight (in percent) of the most recent allocation when averaging the allocation of a thread", Phase.PRISTINE);
+    }
+
+    /**
+     * Largest refill ratio, i.e., smallest refill threshold, the policy may use.
+     */
+    static final int MAX_REFILL_RATIO = 64;
+
+    /*
+     * Statistics shared by all the policies, reported with the TLAB statistics. Only updated when TLABs are reset,
+     * i.e., by a single thread at a time.
+     */
+    private static long growCount;
+    private static long shrinkCount;
+    private static long leftoverAtReset;
+    private static long largestTlabSize;
+
+    /**
+     * Number of TLAB refills since the last reset.
+     */
+    private int refills;
+
+    /**
+     * Space allocated from TLABs since the last reset.
+     */
+    private long allocated;
+
+    /**
+     * Start of the current TLAB, zero if the thread has none.
+     */
+    private Pointer tlabStart = Pointer.zero();
+
+    /**
+     * Space wasted when refilling the TLAB since the last reset.
+     */
+    private long wasted;
+
+    /**
+     * Weighted average of the space allocated from TLABs between two resets.
+     */
+    private long averageAllocated;
+
+    /**
+     * Current refill ratio.
+     */
+    private int refillRatio;
+
+    public AdaptiveTLABRefillPolicy(Size initialTLABSize) {
+        super(initialTLABSize);
+        refillRatio = TLAB_REFILL_RATIO;
+        // Start as if the thread had been allocating at the rate the initial TLAB size is tuned for.
+        averageAllocated = initialTLABSize.toLong() * targetRefills();
+    }
+
+    /**
+     * Number of refills between two resets the TLAB size is computed for. Wasting on average half a TLAB at each reset
+     * then keeps the waste within {@link #TLABWasteTargetPercent}.
+     */
+    static int targetRefills() {
+        return Math.max(1, 100 / (2 * Math.max(1, TLABWasteTargetPercent)));
+    }
+
+    /**
+     * Space allocated from the current TLAB, given its leftover. The TLAB may be smaller than {@link #nextTlabSize()},
+     * e.g., when it is one of the free chunks a mark-sweep heap hands out.
+     */
+    private long allocatedFromTlab(Pointer tlabTop, long leftover) {
+        if (tlabStart.isZero()) {
+            return 0L;
+        }
+        return Math.max(0L, tlabTop.minus(tlabStart).toLong() - leftover);
+    }
+
+    @Override
+    public void notifyFill(Pointer tlab, Size size) {
+        tlabStart = tlab;
+    }
+
+    @Override
+    public void notifyRefill(Pointer allocationMark, Pointer tlabTop) {
+        final long leftover = tlabTop.greaterThan(allocationMark) ? tlabTop.minus(allocationMark).toLong() : 0L;
+        refills++;
+        wasted += leftover;
+        allocated += allocatedFromTlab(tlabTop, leftover);
+        tlabStart = Pointer.zero();
+    }
+
+    @Override
+    public void notifyReset(Pointer allocationMark, Pointer tlabTop) {
+        if (!allocationMark.isZero()) {
+            final long leftover = tlabTop.greaterThan(allocationMark) ? tlabTop.minus(allocationMark).toLong() : 0L;
+            leftoverAtReset += leftover;
+            allocated += allocatedFromTlab(tlabTop, leftover);
+        }
+        tlabStart = Pointer.zero();
+        averageAllocated = (TLABAllocationWeight * allocated + (100 - TLABAllocationWeight) * averageAllocated) / 100;
+
+        if (allocated > 0L) {
+            if (wasted * 100 > allocated * TLABWasteTargetPercent) {
+                refillRatio = Math.min(MAX_REFILL_RATIO, refillRatio << 1);
+            } else if (wasted * 200 < allocated * TLABWasteTargetPercent) {
+                refillRatio = Math.max(TLAB_REFILL_RATIO, refillRatio >> 1);
+            }
+        }
+
+        final long currentSize = nextTlabSize().toLong();
+        long newSize = averageAllocated / targetRefills();
+        newSize = Math.max(MinTLABSize.toLong(), Math.min(MaxTLABSize.toLong(), newSize));
+        newSize = Size.fromLong(newSize).alignUp(Size.K.toInt()).toLong();
+        if (newSize > currentSize) {
+            growCount++;
+        } else if (newSize < currentSize) {
+            shrinkCount++;
+        }
+        if (newSize > largestTlabSize) {
+            largestTlabSize = newSize;
+        }
+        setNextTlabSize(Size.fromLong(newSize), refillRatio);
+
+        refills = 0;
+        allocated = 0L;
+        wasted = 0L;
+    }
+
+    /**
+     * Number of TLAB refills since the last reset.
+     */
+    public int refillsSinceReset() {
+        return refills;
+    }
+
+    static void printStats() {
+        Log.print("   adaptive TLAB grow count          :");
+        Log.println(growCount);
+        Log.print("   adaptive TLAB shrink count        :");
+        Log.println(shrinkCount);
+        Log.print("   largest adaptive TLAB size        :");
+        Log.print(largestTlabSize);
+        Log.println(" bytes");
+        Log.print("   leftover at TLAB reset            :");
+        Log.print(leftoverAtReset);
+        Log.println(" bytes");
+    }
+}
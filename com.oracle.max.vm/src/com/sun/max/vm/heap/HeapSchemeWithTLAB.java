@@ -99,6 +99,15 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
         VMOptions.addFieldOption("-XX:", "UseTLAB", HeapSchemeWithTLAB.class, "Use thread-local object allocation", MaxineVM.Phase.PRISTINE);
     }
 
+    /**
+     * A VM option for adapting the size of the TLABs of each thread to its allocation rate (see {@link AdaptiveTLABRefillPolicy}).
+     * When disabled, all TLABs have the size specified with {@link #tlabSizeOption}.
+     */
+    public static boolean UseAdaptiveTLAB = true;
+    static {
+        VMOptions.addFieldOption("-XX:", "UseAdaptiveTLAB", HeapSchemeWithTLAB.class, "Adapt the size of each thread's TLABs to its allocation rate", MaxineVM.Phase.PRISTINE);
+    }
+
     /**
      * A VM option for specifying the size of a TLAB. Default is 64 K.
      */
@@ -161,16 +170,19 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
             if (logTLAB()) {
                 logger.logReset(UnsafeCast.asVmThread(VM_THREAD.loadRef(etla).toJava()), tlabTop, tlabMark);
             }
+            final TLABRefillPolicy refillPolicy = TLABRefillPolicy.getForCurrentThread(etla);
             if (tlabTop.equals(Address.zero())) {
                 // TLAB's top can be null in only two cases:
                 // (1) it has never been filled, in which case it's allocation mark is null too
                 if (tlabMark.equals(Address.zero()))  {
-                    // No TLABs, so nothing to reset.
+                    // No TLABs, so nothing to reset. The thread didn't allocate since the last reset though, which the policy may want to know.
+                    if (refillPolicy != null) {
+                        notifyReset(etla, refillPolicy, tlabMark, tlabTop);
+                    }
                     return;
                 }
                 // (2) allocation has been disabled for the thread.
                 FatalError.check(!ALLOCATION_DISABLED.load(currentTLA()).isZero(), "inconsistent TLAB state");
-                TLABRefillPolicy refillPolicy = TLABRefillPolicy.getForCurrentThread(etla);
                 if (refillPolicy != null) {
                     // Go fetch the actual TLAB top in case the heap scheme needs it for its doBeforeReset handler.
                     tlabTop = refillPolicy.getSavedTlabTop().asPointer();
@@ -178,10 +190,23 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
                     refillPolicy.saveTlabTop(Address.zero());
                 }
             }
+            if (refillPolicy != null) {
+                notifyReset(etla, refillPolicy, tlabMark, tlabTop);
+            }
             doBeforeReset(etla, tlabMark, tlabTop);
             TLAB_TOP.store(etla, Address.zero());
             TLAB_MARK.store(etla, Address.zero());
         }
+
+        private static void notifyReset(Pointer etla, TLABRefillPolicy refillPolicy, Pointer tlabMark, Pointer tlabTop) {
+            final Size oldSize = refillPolicy.nextTlabSize();
+            final int refills = refillPolicy instanceof AdaptiveTLABRefillPolicy ? ((AdaptiveTLABRefillPolicy) refillPolicy).refillsSinceReset() : 0;
+            refillPolicy.notifyReset(tlabMark, tlabTop);
+            final Size newSize = refillPolicy.nextTlabSize();
+            if (logTLAB() && !newSize.equals(oldSize)) {
+                logger.logResize(UnsafeCast.asVmThread(VM_THREAD.loadRef(etla).toJava()), oldSize.toInt(), newSize.toInt(), refills);
+            }
+        }
     }
 
     protected abstract void tlabReset(Pointer tla);
@@ -201,6 +226,49 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
         }
     };
 
+    /**
+     * Creates the refill policy of a thread that starts using TLABs.
+     * The policy is allocated from the thread's first TLAB, so it must be called once that TLAB is filled.
+     *
+     * @param tlabSize size of the first TLAB of the thread
+     */
+    protected TLABRefillPolicy newTLABRefillPolicy(Size tlabSize) {
+        if (UseAdaptiveTLAB) {
+            return new AdaptiveTLABRefillPolicy(tlabSize);
+        }
+        return new SimpleTLABRefillPolicy(tlabSize);
+    }
+
+    /**
+     * Creates the refill policy of a thread whose first TLAB was just filled and installs it for the thread.
+     * The policy is told the bounds of that TLAB, which were set before the policy existed.
+     *
+     * @param etla the thread whose TLAB was filled
+     * @param tlabSize size of the first TLAB of the thread
+     */
+    protected final void setInitialTLABRefillPolicy(Pointer etla, Size tlabSize) {
+        final Pointer tlab = TLAB_MARK.load(etla);
+        final Pointer tlabTop = TLAB_TOP.load(etla);
+        final TLABRefillPolicy refillPolicy = newTLABRefillPolicy(tlabSize);
+        refillPolicy.notifyFill(tlab, tlabTop.minus(tlab).asSize());
+        TLABRefillPolicy.setForCurrentThread(etla, refillPolicy);
+    }
+
+    /**
+     * Notifies the refill policy of a thread that its TLAB moves on to another chunk of space without being
+     * {@linkplain #refillTLAB(Pointer, Pointer, Size) refilled}, as happens to TLABs made of several free chunks.
+     *
+     * @param refillPolicy the refill policy of the thread
+     * @param allocationMark allocation mark of the retired chunk
+     * @param chunkTop top of the retired chunk
+     * @param chunk the next chunk, zero if the TLAB has no chunk left
+     * @param chunkSize size of the next chunk
+     */
+    protected static void notifyTLABChunkChange(TLABRefillPolicy refillPolicy, Pointer allocationMark, Pointer chunkTop, Pointer chunk, Size chunkSize) {
+        refillPolicy.notifyRefill(allocationMark, chunkTop);
+        refillPolicy.notifyFill(chunk, chunkSize);
+    }
+
     /**
      * Flags if TLABs are being used for allocation.
      */
@@ -257,6 +325,9 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
                 Log.print(leftover);
                 Log.println(" bytes");
             }
+            if (UseAdaptiveTLAB) {
+                AdaptiveTLABRefillPolicy.printStats();
+            }
         }
     }
 
@@ -376,9 +447,13 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
     public void refillTLAB(Pointer etla, Pointer tlab, Size size) {
         final Pointer tlabTop = tlab.plus(size); // top of the new TLAB
         final Pointer allocationMark = TLAB_MARK.load(etla);
+        final TLABRefillPolicy refillPolicy = TLABRefillPolicy.getForCurrentThread(etla);
         if (!allocationMark.isZero()) {
             final Pointer oldTop = TLAB_TOP.load(etla);
             globalTlabStats.leftover += oldTop.minus(allocationMark).toLong();
+            if (refillPolicy != null) {
+                refillPolicy.notifyRefill(allocationMark, oldTop);
+            }
             // It is a refill, not an initial fill. So invoke handler.
             doBeforeTLABRefill(allocationMark, oldTop);
         } else {
@@ -388,9 +463,12 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
 
         TLAB_TOP.store(etla, tlabTop);
         TLAB_MARK.store(etla, tlab);
+        if (refillPolicy != null) {
+            refillPolicy.notifyFill(tlab, size);
+        }
         if (logTLAB()) {
             VmThread vmThread = UnsafeCast.asVmThread(VM_THREAD.loadRef(etla).toJava());
-            logger.logRefill(vmThread, tlabTop, tlabTop, tlab.plus(initialTlabSize), initialTlabSize.toInt());
+            logger.logRefill(vmThread, tlab, tlabTop, tlab.plus(size), size.toInt());
         }
     }
 
@@ -614,7 +692,13 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
             @VMLogParam(name = "tlab") Pointer tlab,
             @VMLogParam(name = "tlabTop") Pointer tlabTop,
             @VMLogParam(name = "tlabEnd") Pointer tlabEnd,
-            @VMLogParam(name = "initialTlabSize") int initialTlabSize);
+            @VMLogParam(name = "tlabSize") int tlabSize);
+
+        void resize(
+            @VMLogParam(name = "vmThread") VmThread vmThread,
+            @VMLogParam(name = "oldSize") int oldSize,
+            @VMLogParam(name = "newSize") int newSize,
+            @VMLogParam(name = "refills") int refills);
 
         void pad(
             @VMLogParam(name = "vmThread") VmThread vmThread,
@@ -673,7 +757,7 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
         }
 
         @Override
-        protected void traceRefill(VmThread vmThread, Pointer tlab, Pointer tlabTop, Pointer tlabEnd, int initialTlabSize) {
+        protected void traceRefill(VmThread vmThread, Pointer tlab, Pointer tlabTop, Pointer tlabEnd, int tlabSize) {
             Log.printThread(vmThread, false);
             Log.print(": Refill TLAB with [MARK = ");
             Log.print(tlab);
@@ -682,7 +766,19 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
             Log.print(", end=");
             Log.print(tlabEnd);
             Log.print(", size=");
-            Log.print(initialTlabSize);
+            Log.print(tlabSize);
+            Log.println("]");
+        }
+
+        @Override
+        protected void traceResize(VmThread vmThread, int oldSize, int newSize, int refills) {
+            Log.printThread(vmThread, false);
+            Log.print(": Resized TLAB from ");
+            Log.print(oldSize);
+            Log.print(" to ");
+            Log.print(newSize);
+            Log.print(" bytes [refills=");
+            Log.print(refills);
             Log.println("]");
         }
     }
@@ -691,7 +787,7 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
     private static abstract class TLabLoggerAuto extends com.sun.max.vm.log.VMLogger {
         public enum Operation {
             Allocate, Pad, Refill,
-            Reset;
+            Reset, Resize;
 
             @SuppressWarnings("hiding")
             public static final Operation[] VALUES = values();
@@ -724,10 +820,10 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
         protected abstract void tracePad(VmThread vmThread, Pointer tlabMark, int padWords);
 
         @INLINE
-        public final void logRefill(VmThread vmThread, Pointer tlab, Pointer tlabTop, Pointer tlabEnd, int initialTlabSize) {
-            log(Operation.Refill.ordinal(), vmThreadArg(vmThread), tlab, tlabTop, tlabEnd, intArg(initialTlabSize));
+        public final void logRefill(VmThread vmThread, Pointer tlab, Pointer tlabTop, Pointer tlabEnd, int tlabSize) {
+            log(Operation.Refill.ordinal(), vmThreadArg(vmThread), tlab, tlabTop, tlabEnd, intArg(tlabSize));
         }
-        protected abstract void traceRefill(VmThread vmThread, Pointer tlab, Pointer tlabTop, Pointer tlabEnd, int initialTlabSize);
+        protected abstract void traceRefill(VmThread vmThread, Pointer tlab, Pointer tlabTop, Pointer tlabEnd, int tlabSize);
 
         @INLINE
         public final void logReset(VmThread vmThread, Pointer tlabTop, Pointer tlabMark) {
@@ -735,6 +831,12 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
         }
         protected abstract void traceReset(VmThread vmThread, Pointer tlabTop, Pointer tlabMark);
 
+        @INLINE
+        public final void logResize(VmThread vmThread, int oldSize, int newSize, int refills) {
+            log(Operation.Resize.ordinal(), vmThreadArg(vmThread), intArg(oldSize), intArg(newSize), intArg(refills));
+        }
+        protected abstract void traceResize(VmThread vmThread, int oldSize, int newSize, int refills);
+
         @Override
         protected void trace(Record r) {
             switch (r.getOperation()) {
@@ -754,6 +856,10 @@ public abstract class HeapSchemeWithTLAB extends HeapSchemeAdaptor {
                     traceReset(toVmThread(r, 1), toPointer(r, 2), toPointer(r, 3));
                     break;
                 }
+                case 4: { //Resize
+                    traceResize(toVmThread(r, 1), toInt(r, 2), toInt(r, 3), toInt(r, 4));
+                    break;
+                }
             }
         }
     }
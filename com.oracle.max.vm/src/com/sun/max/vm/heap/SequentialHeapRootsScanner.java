@@ -25,14 +25,15 @@ package com.sun.max.vm.heap;
 import static com.sun.max.vm.VMConfiguration.*;
 
 import com.sun.max.unsafe.*;
+import com.sun.max.vm.jni.*;
 import com.sun.max.vm.monitor.*;
 import com.sun.max.vm.thread.*;
 
 /**
  * Scans all GC roots in the VM sequentially. The GC roots scanned by the {@link #run()}
- * method of this object are the references on the stacks of all active mutator threads as well as
+ * method of this object are the references on the stacks of all active mutator threads,
  * any references {@linkplain MonitorScheme#scanReferences(PointerIndexVisitor) held}
- * by the monitor scheme in use.
+ * by the monitor scheme in use, and the references held by {@linkplain JniHandles JNI global handles}.
  */
 public class SequentialHeapRootsScanner {
 
@@ -57,6 +58,7 @@ public class SequentialHeapRootsScanner {
     public void run() {
         VmThreadMap.ACTIVE.forAllThreadLocals(null, tlaScanner);
         vmConfig().monitorScheme().scanReferences(pointerIndexVisitor);
+        JniHandles.visitGlobalReferences(pointerIndexVisitor);
     }
 
 }
@@ -98,8 +98,17 @@ public class SimpleTLABRefillPolicy extends TLABRefillPolicy {
 
     @Override
     public Size nextTlabSize() {
-        // Currently, nothing fancy. Just always returns the initial TLAB size value.
         return nextSize;
     }
 
+    /**
+     * Changes the size of the next TLABs, and the refill threshold accordingly.
+     * @param size the size the TLAB should have on next refill
+     * @param refillRatio ratio of the TLAB size below which a failed allocation request causes a refill
+     */
+    protected final void setNextTlabSize(Size size, int refillRatio) {
+        nextSize = size;
+        refillThreshold = size.dividedBy(refillRatio);
+    }
+
 }
@@ -339,6 +339,27 @@ public class SpecialReferenceManager {
         } while (true);
     }
 
+    /**
+     * Visit the special references on the pending list. The visitor may update the references held by the visited cells,
+     * e.g., the {@code next} link of a pending reference to a moved reference. Used by GCs that move objects referenced by
+     * the pending list after {@linkplain #processDiscoveredSpecialReferences(GC) processing} special references, without
+     * scanning the heap again.
+     *
+     * @param visitor visitor of the cells of the pending references
+     */
+    public static void visitPendingReferences(CellVisitor visitor) {
+        java.lang.ref.Reference ref = JLRRAlias.pending;
+        while (ref != null) {
+            visitor.visitCell(Layout.originToCell(Reference.fromJava(ref).toOrigin()));
+            final java.lang.ref.Reference next = asJLRRAlias(ref).next;
+            if (next == ref) {
+                // End of the list.
+                break;
+            }
+            ref = next;
+        }
+    }
+
     @ALIAS(declaringClassName = "java.lang.ref.Finalizer")
     private static native void register(Object finalizee);
 
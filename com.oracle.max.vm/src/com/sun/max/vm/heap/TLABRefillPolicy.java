@@ -65,6 +65,37 @@ public abstract class TLABRefillPolicy {
      */
     public abstract Size nextTlabSize();
 
+    /**
+     * Notifies the policy that the TLAB of its thread was filled with a new chunk of space. Called by the thread owning the TLAB.
+     * Default is nothing.
+     *
+     * @param tlab start of the new TLAB, zero if the thread is left without a TLAB
+     * @param size size of the new TLAB
+     */
+    public void notifyFill(Pointer tlab, Size size) {
+    }
+
+    /**
+     * Notifies the policy that the TLAB of its thread is being retired to be refilled. Called by the thread owning the TLAB.
+     * Default is nothing.
+     *
+     * @param allocationMark allocation mark of the retired TLAB
+     * @param tlabTop top of the retired TLAB
+     */
+    public void notifyRefill(Pointer allocationMark, Pointer tlabTop) {
+    }
+
+    /**
+     * Notifies the policy that the TLAB of its thread is being reset, typically at GC or when the thread detaches.
+     * Policies that adapt the TLAB size to the thread's behavior may take their decision here.
+     * Default is nothing.
+     *
+     * @param allocationMark allocation mark of the TLAB, zero if the thread has no TLAB
+     * @param tlabTop top of the TLAB
+     */
+    public void notifyReset(Pointer allocationMark, Pointer tlabTop) {
+    }
+
     @INTRINSIC(UNSAFE_CAST)
     private static native TLABRefillPolicy asTLABRefillPolicy(Object object);
 
@@ -37,6 +37,22 @@ import com.sun.max.util.*;
  */
 public interface XirWriteBarrierSpecification extends WriteBarrierSpecification {
 
+    /**
+     * Interface to the XIR generator for barriers that call into the runtime, typically on an out-of-line slow path.
+     */
+    public interface XirRuntimeCallGenerator {
+        /**
+         * Generate XIR assembly code calling a runtime method.
+         *
+         * @param asm
+         * @param holder the class declaring the runtime method. The method must be public and static.
+         * @param method name of the runtime method
+         * @param result operand receiving the result of the call, or {@code null} if the method is void
+         * @param args arguments of the call
+         */
+        void genRuntimeCall(CiXirAssembler asm, Class<?> holder, String method, XirOperand result, XirOperand... args);
+    }
+
     /**
      * A generic write barrier generator interface to XIR.
      */
@@ -44,16 +60,18 @@ public interface XirWriteBarrierSpecification extends WriteBarrierSpecification
         /**
          * Generate XIR assembly code for a write barrier according to precise specification.
          * Because different barrier implementation takes different arguments both in types and their numbers, the
-         * interface takes an arguments array.
+         * interface takes an arguments array. Tuple barriers are passed the tuple and the offset of the updated field;
+         * array barriers are passed the array and the index of the updated element.
          * @param asm
+         * @param runtime generator of calls to the runtime
          * @param operands
          */
-        void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands);
+        void genWriteBarrier(CiXirAssembler asm, XirRuntimeCallGenerator runtime, XirOperand ... operands);
     }
 
     XirWriteBarrierGenerator NULL_WRITE_BARRIER_GEN = new XirWriteBarrierGenerator() {
 
-        public void genWriteBarrier(CiXirAssembler asm, XirOperand... operands) {
+        public void genWriteBarrier(CiXirAssembler asm, XirRuntimeCallGenerator runtime, XirOperand... operands) {
         }
     };
 
@@ -36,6 +36,7 @@ import com.sun.max.vm.heap.debug.*;
 import com.sun.max.vm.heap.debug.DebugHeap.DetailLogger;
 import com.sun.max.vm.heap.debug.DebugHeap.ReferenceFinder;
 import com.sun.max.vm.heap.gcx.EvacuationTimers.TIMED_OPERATION;
+import com.sun.max.vm.jni.*;
 import com.sun.max.vm.layout.*;
 import com.sun.max.vm.log.VMLog.Record;
 import com.sun.max.vm.log.*;
@@ -75,6 +76,11 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
 
     private boolean refDiscoveryEnabled = true;
 
+    /**
+     * If true, updates of references to cells of the evacuated area are first offered to {@link #deferUpdate(Pointer)}.
+     */
+    private boolean deferringUpdates;
+
     private GCOperation currentGCOperation;
 
     private EvacuationTimers timers;
@@ -96,9 +102,18 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         return currentGCOperation;
     }
 
+    /**
+     * Discover a special reference found while scanning cells. Evacuators running in parallel must serialize discoveries.
+     *
+     * @param origin origin of the special reference
+     */
+    void discoverSpecialReference(Pointer origin) {
+        SpecialReferenceManager.discoverSpecialReference(origin);
+    }
+
     private void updateSpecialReference(Pointer origin) {
         if (refDiscoveryEnabled) {
-            SpecialReferenceManager.discoverSpecialReference(origin);
+            discoverSpecialReference(origin);
         } else {
             // Treat referent as strong reference.
             if (traceEvacVisitedCell()) {
@@ -120,6 +135,21 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         refDiscoveryEnabled = false;
     }
 
+    final void setDeferringUpdates(boolean deferringUpdates) {
+        this.deferringUpdates = deferringUpdates;
+    }
+
+    /**
+     * Offer to update later, possibly from another thread, a location holding a reference to a cell of the evacuated area.
+     * Only called when {@linkplain #setDeferringUpdates(boolean) deferring updates}. Default is to refuse.
+     *
+     * @param refLocation address of the location
+     * @return true if the location will be updated later, false if the caller must evacuate the referenced cell and update the location now
+     */
+    boolean deferUpdate(Pointer refLocation) {
+        return false;
+    }
+
     @INLINE
     private void updateReferenceArray(Pointer refArrayOrigin, final int firstIndex, final int length) {
         for (int index = firstIndex; index < length; index++) {
@@ -203,11 +233,12 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
 
     /**
      * Evacuate a cell of the evacuated area if not already done, and return the reference to the evacuated cell new location.
+     * Evacuators running in parallel override this to install the forward reference atomically.
      *
      * @param origin origin of the cell in the evacuated area
      * @return a reference to the evacuated cell's new location
      */
-    protected final Reference getForwardRef(Pointer origin) {
+    protected Reference getForwardRef(Pointer origin) {
         Reference forwardRef = Layout.readForwardRef(origin);
         if (forwardRef.isZero()) {
             final Pointer toOrigin = evacuate(origin);
@@ -241,9 +272,8 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
     protected final Reference getForwardRef(Pointer origin, Pointer at) {
         Reference forwardRef = Layout.readForwardRef(origin);
         if (forwardRef.isZero()) {
-            final Pointer toOrigin = evacuate(origin);
-            forwardRef = Reference.fromOrigin(toOrigin);
-            Layout.writeForwardRef(origin, forwardRef);
+            forwardRef = getForwardRef(origin);
+            final Pointer toOrigin = forwardRef.toOrigin();
             if (MaxineVM.isDebug()) {
                 Reference hubRef = Layout.readHubReference(forwardRef);
                 if (DarkMatter.isDarkMatterHub(hubRef.toOrigin())) {
@@ -269,6 +299,9 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         final Reference ref = refHolderOrigin.getReference(wordIndex);
         final Pointer origin = ref.toOrigin();
         if (inEvacuatedArea(origin)) {
+            if (deferringUpdates && deferUpdate(refHolderOrigin.plusWords(wordIndex))) {
+                return;
+            }
             final Reference forwardRef = MaxineVM.isDebug() ? getForwardRef(origin, refHolderOrigin.plusWords(wordIndex)) : getForwardRef(origin);
             refHolderOrigin.setReference(wordIndex, forwardRef);
             updateRSet(refHolderOrigin, wordIndex, forwardRef);
@@ -589,6 +622,7 @@ public abstract class Evacuator extends PointerIndexVisitor implements CellVisit
         disableSpecialRefDiscovery();
         SpecialReferenceManager.processDiscoveredSpecialReferences(this);
         evacuateReachables();
+        JniHandles.processWeakGlobalReferences(this);
         enableSpecialRefDiscovery();
         timers.stop(WEAK_REF);
         doAfterOperation(WEAK_REF);
@@ -166,6 +166,22 @@ public class EvacuatorToCardSpace extends Evacuator {
         this.logger = new EvacuationLogger(name);
     }
 
+    /**
+     * Create an evacuator sharing the spaces, the evacuation buffer provider, the remembered set and the logger of an
+     * {@linkplain #initialize(int, boolean, Size, boolean) initialized} evacuator. The new evacuator has the same refill policy,
+     * but always retires its evacuation buffer after evacuation. Used to create the workers of a parallel evacuation.
+     */
+    EvacuatorToCardSpace(EvacuatorToCardSpace evacuator) {
+        this.fromSpace = evacuator.fromSpace;
+        this.toSpace = evacuator.toSpace;
+        this.rset = evacuator.rset;
+        this.cfoTable = evacuator.cfoTable;
+        this.evacuationBufferProvider = evacuator.evacuationBufferProvider;
+        this.evacuatedAreaBounds = evacuator.evacuatedAreaBounds;
+        this.logger = evacuator.logger;
+        initialize(evacuator.survivorRanges.capacity(), evacuator.alwaysRefill, evacuator.minRefillThreshold, true);
+    }
+
     public void setEvacuationSpace(EvacuatingSpace fromSpace,  HeapSpace toSpace) {
         this.fromSpace = fromSpace;
         this.toSpace = toSpace;
@@ -195,6 +211,10 @@ public class EvacuatorToCardSpace extends Evacuator {
         return evacuatedBytes;
     }
 
+    final void addEvacuatedBytes(Size size) {
+        evacuatedBytes = evacuatedBytes.plus(size);
+    }
+
     /**
      * Retire promotion buffer before a GC on the promotion space is performed.
      */
@@ -210,6 +230,17 @@ public class EvacuatorToCardSpace extends Evacuator {
     @Override
     protected void doBeforeEvacuation() {
         fromSpace.doBeforeGC();
+        prepareEvacuationBuffer();
+        if (logger.enabled()) {
+            SpaceBounds toSpaceBounds = toSpace.bounds();
+            logger.logBeginEvacuation(evacuatedAreaBounds.lowestAddress(), evacuatedAreaBounds.highestAddress(), toSpaceBounds.lowestAddress(), toSpaceBounds.highestAddress());
+        }
+    }
+
+    /**
+     * Reset the evacuation statistics and the tracking of survivor ranges, and refill the promotion buffer if it was retired.
+     */
+    final void prepareEvacuationBuffer() {
         evacuatedBytes = Size.zero();
         lastOverflowAllocatedRangeStart = Pointer.zero();
         lastOverflowAllocatedRangeEnd = Pointer.zero();
@@ -224,20 +255,23 @@ public class EvacuatorToCardSpace extends Evacuator {
         }
         initialEvacuationMark = ptop;
         allocatedRangeStart = ptop;
-        if (logger.enabled()) {
-            SpaceBounds toSpaceBounds = toSpace.bounds();
-            logger.logBeginEvacuation(evacuatedAreaBounds.lowestAddress(), evacuatedAreaBounds.highestAddress(), toSpaceBounds.lowestAddress(), toSpaceBounds.highestAddress());
-        }
     }
 
     @Override
     protected void doAfterEvacuation() {
         survivorRanges.clear();
         fromSpace.doAfterGC();
-        Pointer limit = pend.plus(evacuationBufferHeadroom());
         if (logger.enabled()) {
-            logger.logEndEvacuation(limit);
+            logger.logEndEvacuation(pend.plus(evacuationBufferHeadroom()));
         }
+        releaseEvacuationBuffer();
+    }
+
+    /**
+     * Leave the space remaining in the promotion buffer in an iterable state, and retire the buffer if it is not kept across evacuations.
+     */
+    final void releaseEvacuationBuffer() {
+        Pointer limit = pend.plus(evacuationBufferHeadroom());
         Size spaceLeft = limit.minus(ptop).asSize();
         if ((alwaysRefill && spaceLeft.greaterThan(minObjectSize())) || spaceLeft.greaterEqual(minRefillThreshold)) {
             // Leave remaining space in an iterable format.
@@ -378,7 +412,7 @@ public class EvacuatorToCardSpace extends Evacuator {
      *
      * @param size
      */
-    private Pointer allocate(Size size) {
+    final Pointer allocate(Size size) {
         Pointer cell = ptop;
         Pointer newTop = ptop.plus(size);
         while (newTop.greaterThan(pend)) {
@@ -395,6 +429,22 @@ public class EvacuatorToCardSpace extends Evacuator {
         return cell;
     }
 
+    /**
+     * Give back the space of a cell just allocated with {@link #allocate(Size)}, e.g., because another evacuator won the race to evacuate the same cell.
+     * The space is reused if it is at the top of the promotion buffer, otherwise it is turned into dead space.
+     *
+     * @param cell the cell returned by the last allocation
+     * @param size the size of the cell
+     */
+    final void cancelAllocation(Pointer cell, Size size) {
+        if (cell.plus(size).equals(ptop)) {
+            ptop = cell;
+            return;
+        }
+        DarkMatter.format(cell, size);
+        rset.notifyRetireDeadSpace(cell, size);
+    }
+
     @Override
     final Pointer evacuate(Pointer fromOrigin) {
         if (MaxineVM.isDebug() && checkDarkMatterRefs) {
@@ -26,20 +26,27 @@ import static com.sun.max.vm.heap.gcx.HeapRegionConstants.*;
 import static com.sun.max.vm.heap.gcx.HeapRegionInfo.*;
 import static com.sun.max.vm.heap.gcx.HeapRegionState.*;
 
+import com.sun.max.annotate.*;
 import com.sun.max.memory.*;
 import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
 import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.actor.holder.*;
 import com.sun.max.vm.heap.*;
 import com.sun.max.vm.heap.HeapScheme.GCRequest;
 import com.sun.max.vm.heap.gcx.HeapRegionInfo.Flag;
 import com.sun.max.vm.heap.gcx.rset.*;
 import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
 import com.sun.max.vm.runtime.*;
 /**
  * A region-based, mark-sweep heap space, with bump pointer allocation only.
  * Each partially occupied region has a list of addressed ordered free chunks, used to allocate TLAB refills.
  * An overflow allocator avoids refilling too frequently.
+ * <p>
+ * Regions are swept after marking, either during the GC pause, possibly in parallel by the {@link GCWorkerGang}, or
+ * lazily, when allocators run out of swept regions (see {@link #LazySweep}). A lazy sweep is completed at the latest
+ * when the next GC starts.
  */
 public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends HeapRegionSweeper implements HeapSpace, RegionProvider {
     /* For simplicity at the moment. Should be able to allocate this in GC's own heap (i.e., the HeapRegionManager's allocator).
@@ -47,10 +54,25 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     private static final OutOfMemoryError outOfMemoryError = new OutOfMemoryError();
 
     public static boolean TraceLargeObjectAllocations = false;
+    /**
+     * Sweep regions on demand after GC. Lazy sweeping is only used by spaces that don't need dead references to be zapped,
+     * since dead objects stay untouched in unswept regions until these are swept.
+     */
+    static boolean LazySweep = false;
+    static boolean ParallelSweep = true;
     static {
         VMOptions.addFieldOption("-XX:", "TraceLargeObjectAllocations", FirstFitMarkSweepSpace.class, "Trace allocation of large multi-regions objects", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "LazySweep", FirstFitMarkSweepSpace.class,
+            "Sweep the regions of mark-sweep spaces when allocators need them instead of during GC", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ParallelSweep", FirstFitMarkSweepSpace.class,
+            "Sweep the regions of mark-sweep spaces with all GC worker threads (see -XX:ParallelGCThreads)", Phase.PRISTINE);
     }
 
+    /**
+     * Number of consecutive regions in a partition of the sweep list claimed by a worker during parallel sweeping.
+     */
+    static final int PARALLEL_SWEEP_PARTITION_REGIONS = 8;
+
     /**
      * Heap account regions from this space are allocated from.
      */
@@ -84,6 +106,60 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
      */
     private HeapRegionList sweepList;
 
+    /**
+     * List of the regions of {@link #compactionSet} withdrawn from allocation until they are evacuated by the next collection.
+     */
+    private HeapRegionList compactionRegions;
+
+    /**
+     * Regions selected for evacuation by the next collection, if any. See {@link #selectCompactionCandidates(RegionCompactionSet, int, int)}.
+     */
+    private RegionCompactionSet compactionSet;
+
+    /**
+     * Heap marker whose color map is used to sweep the regions left in {@link #sweepList} by a pending lazy sweep.
+     * Null if no lazy sweep is pending.
+     */
+    private TricolorHeapMarker lazySweepMarker;
+
+    /**
+     * Whether the pending lazy sweep is imprecise.
+     */
+    private boolean lazySweepImprecise;
+
+    /**
+     * Total size of the regions of a pending lazy sweep that were found without live objects when the sweep began.
+     * These regions are left in the {@link #sweepList} until they are swept but their space is accounted as free.
+     */
+    private Size pendingFreeSpace;
+
+    /**
+     * Whether this space sweeps lazily.
+     */
+    private boolean lazySweep;
+
+    /**
+     * Whether this space may be marked concurrently with the mutators. See {@link #enableConcurrentMarking()}.
+     */
+    private boolean concurrentMarking;
+
+    /**
+     * Whether allocations are being tracked for a concurrent marking cycle.
+     */
+    private boolean trackAllocations;
+
+    /**
+     * Table indexed by region identifiers recording the lowest address allocated in each region since the beginning of a
+     * concurrent marking cycle. A zero entry means nothing was allocated in the region during the cycle.
+     * Allocated off-heap when concurrent marking is enabled.
+     */
+    private Pointer allocationStarts = Pointer.zero();
+
+    /**
+     * Parallel sweeping support. Null if regions are swept by the GC thread only.
+     */
+    private ParallelRegionSweep parallelSweep;
+
     /**
      * Total number of regions currently allocated to this heap space.
      */
@@ -144,6 +220,7 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     private Pointer allocateSingleRegionLargeObject(HeapRegionInfo rinfo, Pointer allocated, Size requestedSize, Size totalChunkSize) {
         final int regionID = rinfo.toRegionID();
         allocationRegions.remove(regionID);
+        recordAllocationStart(regionID, allocated);
         Pointer leftover = allocated.plus(requestedSize);
         Size spaceLeft = totalChunkSize.minus(requestedSize);
         if (TraceLargeObjectAllocations) {
@@ -259,6 +336,7 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
                                     Pointer tailEnd = lastRegionInfo.regionStart().plus(regionSizeInBytes).asPointer();
                                     Pointer tail = tailEnd.minus(tailSize);
                                     Address largeObjectCell = firstRegionInfo.regionStart();
+                                    recordAllocationStart(firstRegion, largeObjectCell);
                                     deadSpaceListener.notifySplitLive(largeObjectCell, size, tailEnd);
 
                                     if (tailSize.lessThan(minReclaimableSpace)) {
@@ -294,7 +372,8 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
                 if (MaxineVM.isDebug()) {
                     checkForSuspisciousGC(gcCount++);
                 }
-            } while(Heap.collectGarbage()); // Always collect for at least one region.
+                // Empty regions may still be waiting for a pending lazy sweep. Sweep them all before resorting to GC.
+            } while(sweepPendingRegions() || Heap.collectGarbage()); // Always collect for at least one region.
             // Not enough freed memory.
             throw outOfMemoryError;
         }
@@ -380,6 +459,7 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         allocationRegions = HeapRegionList.RegionListUse.OWNERSHIP.createList();
         unavailableRegions = HeapRegionList.RegionListUse.OWNERSHIP.createList();
         sweepList = HeapRegionList.RegionListUse.OWNERSHIP.createList();
+        compactionRegions = HeapRegionList.RegionListUse.OWNERSHIP.createList();
 
         maxRegionsInSpace = numberOfRegions(maxSize);
         FatalError.check(maxRegionsInSpace <= heapAccount.reserve(), "under provisioned heap account");
@@ -392,6 +472,20 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
 
         numRegionsInSpace = initialNumberOfRegions;
         minReclaimableSpace = Size.fromInt(freeChunkMinSizeOption.getValue());
+        pendingFreeSpace = Size.zero();
+        lazySweep = LazySweep && !zapDeadReferences;
+        if (concurrentMarking) {
+            final Size allocationStartsSize = Size.fromInt(numberOfRegions(HeapRegionManager.theHeapRegionManager().bounds().size())).shiftedLeft(Word.widthValue().log2numberOfBytes);
+            allocationStarts = Memory.allocate(allocationStartsSize);
+            if (allocationStarts.isZero()) {
+                MaxineVM.reportPristineMemoryFailure("concurrent marking allocation table", "allocate", allocationStartsSize);
+            }
+            Memory.clearWords(allocationStarts, allocationStartsSize.unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt());
+        }
+        if (ParallelSweep && GCWorkerGang.ParallelGCThreads > 1) {
+            // Every partition but the last has at least PARALLEL_SWEEP_PARTITION_REGIONS regions.
+            parallelSweep = new ParallelRegionSweep(this, GCWorkerGang.ParallelGCThreads, maxRegionsInSpace / PARALLEL_SWEEP_PARTITION_REGIONS + 1);
+        }
         overflowAllocator.refillManager().setMinRefillSize(minOverflowRefillSize);
         // Set the iterable to the list of committed regions. This is the default. Any exception to this should
         // reset to the committed region list when done.
@@ -456,8 +550,12 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         return Size.fromInt(maxRegionsInSpace).shiftedLeft(log2RegionSizeInBytes);
     }
 
+    /**
+     * Free space of this space. While a lazy sweep is pending, this only includes the free space of the regions swept so far and
+     * of the unswept regions without any live objects.
+     */
     public Size freeSpace() {
-        return allocationRegionsFreeSpace.plus(tlabAllocator.refillManager.freeSpace().plus(tlabAllocator.freeSpace().plus(overflowAllocator.freeSpace())));
+        return allocationRegionsFreeSpace.plus(pendingFreeSpace).plus(tlabAllocator.refillManager.freeSpace().plus(tlabAllocator.freeSpace().plus(overflowAllocator.freeSpace())));
     }
 
     public Size usedSpace() {
@@ -465,6 +563,7 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     }
 
     public void doBeforeGC() {
+        finishSweep();
         overflowAllocator.doBeforeGC();
         tlabAllocator.doBeforeGC();
         FatalError.check(tlabAllocator.refillManager.allocatingRegion() == INVALID_REGION_ID, "TLAB allocating region must have been retired");
@@ -472,6 +571,7 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         sweepList.appendAndClear(unavailableRegions);
         sweepList.appendAndClear(allocationRegions);
         sweepList.appendAndClear(tlabAllocationRegions);
+        sweepList.appendAndClear(compactionRegions);
         FatalError.check(numRegionsInSpace == sweepList.size(), "incorrect account of regions in space");
         sweepList.sort();
     }
@@ -479,6 +579,61 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     public void doAfterGC() {
     }
 
+    /**
+     * Prepares this space for concurrent marking. Dead space is always formatted by the sweeper, so that the objects
+     * allocated during a concurrent marking cycle can be found by walking the regions they were allocated in, and sweeping
+     * is never lazy. Must be called before {@link #initialize(Size, Size)}.
+     */
+    public void enableConcurrentMarking() {
+        concurrentMarking = true;
+        zapDeadReferences = true;
+    }
+
+    /**
+     * Starts tracking allocations for a concurrent marking cycle. Must be called at the initial marking pause, before the
+     * heap marker takes its snapshot of the heap. Completes any pending sweep and retires the allocators so that
+     * every subsequent allocation is made from a region obtained while tracking.
+     * The space doesn't {@linkplain #increaseSize(Size) grow} until {@link #endConcurrentMarking(TricolorHeapMarker)}, so that the
+     * committed regions of the heap account stay those of the initial marking pause for the whole cycle.
+     */
+    public void beginConcurrentMarking() {
+        FatalError.check(concurrentMarking, "concurrent marking not enabled");
+        finishSweep();
+        overflowAllocator.doBeforeGC();
+        tlabAllocator.doBeforeGC();
+        trackAllocations = true;
+    }
+
+    /**
+     * Ends the tracking of allocations for the current concurrent marking cycle. Must be called at the remark pause,
+     * with all the allocators retired.
+     *
+     * @param heapMarker if non-null, the heap marker to keep alive with all the objects allocated during the cycle
+     */
+    public void endConcurrentMarking(TricolorHeapMarker heapMarker) {
+        final int numRegions = numberOfRegions(HeapRegionManager.theHeapRegionManager().bounds().size());
+        final RegionTable regionTable = RegionTable.theRegionTable();
+        for (int regionID = 0; regionID < numRegions; regionID++) {
+            final Address start = allocationStarts.getWord(regionID).asAddress();
+            if (!start.isZero()) {
+                if (heapMarker != null) {
+                    heapMarker.markAllocated(start, regionTable.regionAddress(regionID).plus(regionSizeInBytes));
+                }
+                allocationStarts.setWord(regionID, Address.zero());
+            }
+        }
+        trackAllocations = false;
+    }
+
+    private void recordAllocationStart(int regionID, Address start) {
+        if (trackAllocations) {
+            final Address recorded = allocationStarts.getWord(regionID).asAddress();
+            if (recorded.isZero() || start.lessThan(recorded)) {
+                allocationStarts.setWord(regionID, start);
+            }
+        }
+    }
+
     public void mark(TricolorHeapMarker heapMarker) {
         regionsRangeIterable.reset();
         heapMarker.markAll(regionsRangeIterable);
@@ -491,12 +646,125 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         }
         allocationRegionsFreeSpace = Size.zero();
         csrIsLiveMultiRegionObjectTail = false;
-        heapMarker.sweep(this, doImprecise);
+        if (lazySweep) {
+            beginLazySweep(heapMarker, doImprecise);
+        } else {
+            sweepAll(heapMarker, doImprecise);
+        }
+    }
+
+    /**
+     * Sweep all the regions left in the sweep list. Must be called during GC.
+     */
+    private void sweepAll(TricolorHeapMarker heapMarker, boolean doImprecise) {
+        if (parallelSweep != null) {
+            // The tail of a live multi-region object left by a lazy sweep must be swept with the state of the sweeper that swept its head.
+            if (!csrIsLiveMultiRegionObjectTail || heapMarker.sweepNextRegion(this, doImprecise)) {
+                parallelSweep.sweep(heapMarker, doImprecise);
+            }
+        } else {
+            heapMarker.sweep(this, doImprecise);
+        }
         FatalError.check(sweepList.isEmpty(), "Sweeping list must be empty");
     }
 
+    /**
+     * Set up a lazy sweep of the sweep list. Regions without any live objects are identified using the color map only, so that their
+     * space can be accounted as free right away. They are left in the sweep list, which must remain address-ordered, until they are swept.
+     */
+    private void beginLazySweep(TricolorHeapMarker heapMarker, boolean doImprecise) {
+        Size freeSpace = Size.zero();
+        int regionID = sweepList.head();
+        while (regionID != INVALID_REGION_ID) {
+            final HeapRegionInfo rinfo = fromRegionID(regionID);
+            if (!rinfo.isEmpty()) {
+                final Address regionStart = rinfo.regionStart();
+                if (rinfo.isLarge() || heapMarker.hasBlackMark(regionStart, regionStart.plus(regionSizeInBytes))) {
+                    regionID = sweepList.next(regionID);
+                    continue;
+                }
+                EMPTY_REGION.setState(rinfo);
+                rinfo.resetOccupancy();
+            }
+            freeSpace = freeSpace.plus(regionSizeInBytes);
+            regionID = sweepList.next(regionID);
+        }
+        pendingFreeSpace = freeSpace;
+        lazySweepImprecise = doImprecise;
+        lazySweepMarker = heapMarker;
+    }
+
+    /**
+     * Sweep the next region of a pending lazy sweep. Must be called either during GC, or by a mutator holding the {@link #refillLock()}.
+     *
+     * @return false if there is no pending lazy sweep, true otherwise
+     */
+    private boolean lazySweepNextRegion() {
+        // A region is swept with safepoints disabled so that a GC never finds it partially swept.
+        final boolean wasDisabled = SafepointPoll.disable();
+        final TricolorHeapMarker heapMarker = lazySweepMarker;
+        if (heapMarker != null) {
+            heapMarker.sweepNextRegion(this, lazySweepImprecise);
+        }
+        if (!wasDisabled) {
+            SafepointPoll.enable();
+        }
+        return heapMarker != null;
+    }
+
+    /**
+     * Sweep all the regions left by a pending lazy sweep. Must be called by a mutator holding the {@link #refillLock()}.
+     *
+     * @return true if a lazy sweep was pending
+     */
+    private boolean sweepPendingRegions() {
+        if (lazySweepMarker == null) {
+            return false;
+        }
+        while (lazySweepNextRegion()) {
+        }
+        return true;
+    }
+
+    /**
+     * Complete a pending lazy sweep from a mutator thread, e.g., to obtain exact statistics on the regions of this space.
+     */
+    public void completeSweep() {
+        synchronized (refillLock()) {
+            sweepPendingRegions();
+        }
+    }
+
+    /**
+     * Complete a pending lazy sweep during GC.
+     *
+     * @return true if a lazy sweep was pending
+     */
+    public boolean finishSweep() {
+        if (lazySweepMarker == null) {
+            return false;
+        }
+        sweepAll(lazySweepMarker, lazySweepImprecise);
+        return true;
+    }
+
     private HeapRegionInfo nextRegionToSweep() {
-        return RegionTable.theRegionTable().regionInfo(sweepList.removeHead());
+        final HeapRegionInfo rinfo = RegionTable.theRegionTable().regionInfo(sweepList.removeHead());
+        if (rinfo.isEmpty() && pendingFreeSpace.isNotZero()) {
+            // Found free when the lazy sweep began. It will be accounted as allocation region free space once swept.
+            pendingFreeSpace = pendingFreeSpace.minus(regionSizeInBytes);
+        }
+        return rinfo;
+    }
+
+    /**
+     * Next region a sweeper must sweep after its current sweeping region.
+     *
+     * @param sweeper a region sweeper
+     * @param parallel true if the sweeper is one of the parallel sweepers, which leave the sweep list unchanged.
+     */
+    private HeapRegionInfo nextRegionToSweep(HeapRegionSweeper sweeper, boolean parallel) {
+        return parallel ? fromRegionID(sweepList.next(sweeper.csrInfo.toRegionID())) : nextRegionToSweep();
     }
 
     @Override
@@ -509,19 +777,20 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         resetSweepingRegion(nextRegionToSweep());
     }
 
-    private void traceSweptRegion() {
+    private void traceSweptRegion(HeapRegionSweeper sweeper) {
+        final HeapRegionInfo csrInfo = sweeper.csrInfo;
         Log.print("#");
         Log.print(csrInfo.toRegionID());
         if (csrInfo.hasFreeChunks()) {
             Log.print(csrInfo.isTailOfLargeObject() ? " T" : " ");
-            if (csrFreeChunks > 1 || minOverflowRefillSize.greaterThan(csrFreeBytes)) {
+            if (sweeper.csrFreeChunks > 1 || minOverflowRefillSize.greaterThan(sweeper.csrFreeBytes)) {
                 Log.print("A,  nc: ");
-                Log.print(csrFreeChunks);
+                Log.print(sweeper.csrFreeChunks);
                 Log.print(", nb: ");
             } else {
                 Log.print("A,  nc: 1, nb: ");
             }
-            Log.println(csrFreeBytes);
+            Log.println(sweeper.csrFreeBytes);
         } else if (csrInfo.isEmpty()) {
             Log.println("  E");
         } else if (csrInfo.isLarge()) {
@@ -541,95 +810,137 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         }
     }
 
+    /**
+     * Add a swept region to the list of regions matching its state.
+     */
+    private void distributeSweptRegion(HeapRegionInfo rinfo) {
+        final int regionID = rinfo.toRegionID();
+        if (compactionSet != null && compactionSet.isCandidate(regionID)) {
+            if (!rinfo.isEmpty()) {
+                // Keep the region away from allocators until it is evacuated.
+                compactionRegions.append(regionID);
+                return;
+            }
+            // Nothing left to evacuate.
+            compactionSet.remove(regionID);
+        }
+        if (rinfo.hasFreeChunks()) {
+            final int freeBytes = rinfo.freeBytesInChunks();
+            allocationRegionsFreeSpace =  allocationRegionsFreeSpace.plus(freeBytes);
+            if (rinfo.numFreeChunks() == 1 && minOverflowRefillSize.lessEqual(freeBytes)) {
+                allocationRegions.append(regionID);
+            } else {
+                tlabAllocationRegions.append(regionID);
+            }
+        } else if (rinfo.isEmpty()) {
+            allocationRegionsFreeSpace =  allocationRegionsFreeSpace.plus(regionSizeInBytes);
+            allocationRegions.append(regionID);
+        } else {
+            unavailableRegions.append(regionID);
+        }
+    }
+
     @Override
     public void endSweep() {
-        if (csrIsMultiRegionObjectHead) {
+        endSweep(this, false);
+    }
+
+    /**
+     * Set the state of the region just swept by a sweeper according to the free space the sweeper recorded.
+     * When the region is the head of a multi-region object, this also takes care of the regions spanned by the object up to its tail.
+     *
+     * @param sweeper the sweeper of the region
+     * @param parallel true if the sweeper is one of the parallel sweepers. Regions swept in parallel are left in the sweep list,
+     * and are distributed to the region lists of the space once the parallel sweep completes.
+     */
+    private void endSweep(HeapRegionSweeper sweeper, boolean parallel) {
+        if (sweeper.csrIsMultiRegionObjectHead) {
             // Large object regions are at least 2 regions long.
-            if (csrFreeBytes == 0) {
+            if (sweeper.csrFreeBytes == 0) {
                 // Large object is live.
-                Size largeObjectSize = Layout.size(Layout.cellToOrigin(csrLastLiveAddress.asPointer()));
-                csrLastLiveAddress =  csrLastLiveAddress.plus(largeObjectSize);
-                csrIsLiveMultiRegionObjectTail = true;
+                Size largeObjectSize = Layout.size(Layout.cellToOrigin(sweeper.csrLastLiveAddress.asPointer()));
+                sweeper.csrLastLiveAddress =  sweeper.csrLastLiveAddress.plus(largeObjectSize);
+                sweeper.csrIsLiveMultiRegionObjectTail = true;
                 // Reset the flag
-                LARGE_HEAD.setState(csrInfo);
-                unavailableRegions.append(csrInfo.toRegionID());
+                LARGE_HEAD.setState(sweeper.csrInfo);
+                if (!parallel) {
+                    distributeSweptRegion(sweeper.csrInfo);
+                }
                 // Skip all intermediate regions. They are full.
                 if (TraceSweep) {
-                    traceSweptRegion();
+                    traceSweptRegion(sweeper);
                 }
-                while (!csrInfo.next().isTailOfLargeObject()) {
-                    csrInfo =  nextRegionToSweep();
-                    unavailableRegions.append(csrInfo.toRegionID());
+                while (!sweeper.csrInfo.next().isTailOfLargeObject()) {
+                    sweeper.csrInfo =  nextRegionToSweep(sweeper, parallel);
+                    if (!parallel) {
+                        distributeSweptRegion(sweeper.csrInfo);
+                    }
                     if (TraceSweep) {
-                        traceSweptRegion();
+                        traceSweptRegion(sweeper);
                     }
                 }
             } else {
-                Size largeObjectSize = Layout.size(Layout.cellToOrigin(csrInfo.regionStart().asPointer()));
+                Size largeObjectSize = Layout.size(Layout.cellToOrigin(sweeper.csrInfo.regionStart().asPointer()));
                 // Free all intermediate regions. The tail needs to be swept
                 // in case it was used for allocating small objects, so we
                 // don't free it. It'll be set as the next sweeping region by the next call to beginSweep, so
                 // be careful not to consume it from the iterable.
                 do {
-                    EMPTY_REGION.setState(csrInfo);
-                    HeapFreeChunk.format(csrInfo.regionStart(), regionSizeInBytes);
-                    allocationRegions.append(csrInfo.toRegionID());
-                    allocationRegionsFreeSpace =  allocationRegionsFreeSpace.plus(regionSizeInBytes);
+                    EMPTY_REGION.setState(sweeper.csrInfo);
+                    HeapFreeChunk.format(sweeper.csrInfo.regionStart(), regionSizeInBytes);
+                    if (!parallel) {
+                        distributeSweptRegion(sweeper.csrInfo);
+                    }
                     if (TraceSweep) {
-                        traceSweptRegion();
+                        traceSweptRegion(sweeper);
                     }
-                    if (csrInfo.next().isTailOfLargeObject()) {
+                    if (sweeper.csrInfo.next().isTailOfLargeObject()) {
                         break;
                     }
-                    csrInfo = nextRegionToSweep();
+                    sweeper.csrInfo = nextRegionToSweep(sweeper, parallel);
                 } while (true);
-                csrLastLiveAddress = csrInfo.regionStart().plus(regionSizeInBytes);
+                sweeper.csrLastLiveAddress = sweeper.csrInfo.regionStart().plus(regionSizeInBytes);
                 // If the large object is dead and its tail isn't large enough to be reclaimable, we must fill it with a dead object to maintain heap parsability.
                 Size tailSize = largeObjectSize.and(regionAlignmentMask);
                 if (tailSize.lessThan(minReclaimableSpace)) {
                     if (!tailSize.isZero()) {
-                        final Pointer tailStart = csrLastLiveAddress.asPointer();
+                        final Pointer tailStart = sweeper.csrLastLiveAddress.asPointer();
                         DarkMatter.format(tailStart, tailSize);
                     }
                 }
             }
-            csrIsMultiRegionObjectHead = false;
+            sweeper.csrIsMultiRegionObjectHead = false;
         } else {
+            final HeapRegionInfo csrInfo = sweeper.csrInfo;
+            final int csrFreeBytes = sweeper.csrFreeBytes;
             if (csrFreeBytes == 0) {
-                if (csrIsLiveMultiRegionObjectTail) {
+                if (sweeper.csrIsLiveMultiRegionObjectTail) {
                     // FIXME: is this true if the large object was already dead ?
                     LARGE_FULL_TAIL.setState(csrInfo);
-                    csrIsLiveMultiRegionObjectTail = false;
+                    sweeper.csrIsLiveMultiRegionObjectTail = false;
                 }  else {
                     FULL_REGION.setState(csrInfo);
                 }
-                unavailableRegions.append(csrInfo.toRegionID());
             } else {
                 if (csrFreeBytes == regionSizeInBytes) {
                     EMPTY_REGION.setState(csrInfo);
                     HeapFreeChunk.format(csrInfo.regionStart(), regionSizeInBytes);
-                    allocationRegions.append(csrInfo.toRegionID());
-                    allocationRegionsFreeSpace =  allocationRegionsFreeSpace.plus(regionSizeInBytes);
                 } else {
-                    if (csrIsLiveMultiRegionObjectTail) {
+                    if (sweeper.csrIsLiveMultiRegionObjectTail) {
                         LARGE_TAIL.setState(csrInfo);
-                        csrIsLiveMultiRegionObjectTail = false;
+                        sweeper.csrIsLiveMultiRegionObjectTail = false;
                     } else {
                         FREE_CHUNKS_REGION.setState(csrInfo);
                     }
-                    allocationRegionsFreeSpace =  allocationRegionsFreeSpace.plus(csrFreeBytes);
-                    if (csrFreeChunks == 1 && minOverflowRefillSize.lessEqual(csrFreeBytes)) {
-                        csrInfo.setFreeChunks(HeapFreeChunk.fromHeapFreeChunk(csrHead), csrFreeBytes,  csrFreeChunks);
-                        allocationRegions.append(csrInfo.toRegionID());
-                    } else {
-                        FatalError.check(csrFreeBytes > 0 && (csrFreeChunks > 1 || minOverflowRefillSize.greaterThan(csrFreeBytes)) && csrHead != null, "unknown state for a swept region");
-                        csrInfo.setFreeChunks(HeapFreeChunk.fromHeapFreeChunk(csrHead),  csrFreeBytes, csrFreeChunks);
-                        tlabAllocationRegions.append(csrInfo.toRegionID());
-                    }
+                    FatalError.check(csrFreeBytes > 0 && sweeper.csrHead != null, "unknown state for a swept region");
+                    csrInfo.setFreeChunks(HeapFreeChunk.fromHeapFreeChunk(sweeper.csrHead),  csrFreeBytes, sweeper.csrFreeChunks);
                 }
             }
+            if (!parallel) {
+                distributeSweptRegion(csrInfo);
+            }
             if (TraceSweep) {
-                traceSweptRegion();
+                traceSweptRegion(sweeper);
             }
         }
     }
@@ -641,14 +952,293 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
             EMPTY_REGION.setState(rinfo);
             HeapFreeChunk.format(rinfo.regionStart(), regionSizeInBytes);
             rinfo.resetOccupancy();
-            allocationRegionsFreeSpace =  allocationRegionsFreeSpace.plus(regionSizeInBytes);
-            allocationRegions.append(rinfo.toRegionID());
+            distributeSweptRegion(rinfo);
         }
+        sweepCompleted();
+    }
+
+    private void sweepCompleted() {
         // Done with sweeping now. Clean state of the sweeper, especially those holding address of free
         // heap chunks (as they may be taken for valid live objects by the next GC!
         // FIXME(ld) should we have some system wide GC epilogue for these type of cleanup ?
         csrHead = null;
         csrTail = null;
+        lazySweepMarker = null;
+        pendingFreeSpace = Size.zero();
+    }
+
+    /**
+     * Select the sparsest regions of the space for evacuation by the next collection, using the amount of live data in each region
+     * recorded by the sweep that just completed. The selected regions are added to a compaction set, and withdrawn from allocation
+     * until the next collection, which must mark the space {@linkplain TricolorHeapMarker#setCompactionSet(RegionCompactionSet)
+     * recording the referrers} of the set, sweep it, then either evacuate the set and {@linkplain #freeCompactedRegions() free} its
+     * regions, or {@linkplain #releaseCompactionCandidates() release} them.
+     * Must be called during GC, once the space is swept.
+     *
+     * @param compactionSet an empty compaction set
+     * @param maxRegions maximum number of regions to select
+     * @param maxLivePercent maximum percentage of a region occupied by live data for the region to be selected
+     * @return the number of regions selected
+     */
+    public int selectCompactionCandidates(RegionCompactionSet compactionSet, int maxRegions, int maxLivePercent) {
+        FatalError.check(compactionSet.isEmpty() && compactionRegions.isEmpty(), "compaction candidates already selected");
+        FatalError.check(lazySweepMarker == null, "space must be swept");
+        this.compactionSet = compactionSet;
+        final int maxLiveBytes = (regionSizeInBytes / 100) * maxLivePercent;
+        Size liveBytesToEvacuate = Size.zero();
+        while (compactionSet.size() < maxRegions) {
+            HeapRegionList regionList = tlabAllocationRegions;
+            int regionID = sparsestRegion(tlabAllocationRegions, maxLiveBytes);
+            final int other = sparsestRegion(allocationRegions, maxLiveBytes);
+            if (regionID == INVALID_REGION_ID || (other != INVALID_REGION_ID && fromRegionID(other).freeBytesInChunks() > fromRegionID(regionID).freeBytesInChunks())) {
+                regionList = allocationRegions;
+                regionID = other;
+            }
+            if (regionID == INVALID_REGION_ID) {
+                break;
+            }
+            final HeapRegionInfo rinfo = fromRegionID(regionID);
+            final Size freeBytes = Size.fromInt(rinfo.freeBytesInChunks());
+            final Size liveBytes = Size.fromInt(regionSizeInBytes).minus(freeBytes);
+            // Keep enough free space in the other regions to evacuate the selected ones.
+            if (allocationRegionsFreeSpace.minus(freeBytes).lessThan(liveBytesToEvacuate.plus(liveBytes).times(2))) {
+                break;
+            }
+            regionList.remove(regionID);
+            allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(freeBytes);
+            liveBytesToEvacuate = liveBytesToEvacuate.plus(liveBytes);
+            compactionSet.add(regionID);
+            compactionRegions.append(regionID);
+        }
+        if (compactionSet.isEmpty()) {
+            this.compactionSet = null;
+        }
+        return compactionSet.size();
+    }
+
+    /**
+     * Find the region of a list with the least live data, below a bound. Only regions with free chunks and no part of a large
+     * object are considered.
+     *
+     * @return the identifier of a region of the list, or {@link HeapRegionConstants#INVALID_REGION_ID} if none qualifies
+     */
+    private int sparsestRegion(HeapRegionList regionList, int maxLiveBytes) {
+        int sparsest = INVALID_REGION_ID;
+        int minFreeBytes = regionSizeInBytes - maxLiveBytes;
+        int regionID = regionList.head();
+        while (regionID != INVALID_REGION_ID) {
+            final HeapRegionInfo rinfo = fromRegionID(regionID);
+            if (FREE_CHUNKS_REGION.isInState(rinfo) && rinfo.freeBytesInChunks() >= minFreeBytes) {
+                sparsest = regionID;
+                minFreeBytes = rinfo.freeBytesInChunks() + 1;
+            }
+            regionID = regionList.next(regionID);
+        }
+        return sparsest;
+    }
+
+    /**
+     * Amount of live data in the regions selected for compaction, as recorded by the last sweep.
+     */
+    public Size compactionCandidatesLiveBytes() {
+        Size liveBytes = Size.zero();
+        int regionID = compactionRegions.head();
+        while (regionID != INVALID_REGION_ID) {
+            liveBytes = liveBytes.plus(regionSizeInBytes - fromRegionID(regionID).freeBytesInChunks());
+            regionID = compactionRegions.next(regionID);
+        }
+        return liveBytes;
+    }
+
+    /**
+     * Free the regions of the compaction set once their live cells are evacuated. Must be called during GC.
+     *
+     * @return the number of regions freed
+     */
+    public int freeCompactedRegions() {
+        final int numRegions = compactionRegions.size();
+        while (!compactionRegions.isEmpty()) {
+            final int regionID = compactionRegions.removeHead();
+            final HeapRegionInfo rinfo = fromRegionID(regionID);
+            compactionSet.remove(regionID);
+            EMPTY_REGION.setState(rinfo);
+            HeapFreeChunk.format(rinfo.regionStart(), regionSizeInBytes);
+            rinfo.resetOccupancy();
+            distributeSweptRegion(rinfo);
+        }
+        endCompaction();
+        return numRegions;
+    }
+
+    /**
+     * Return the regions of the compaction set to allocation without evacuating them, e.g., because the remembered set of the
+     * compaction set overflowed. Must be called during GC, once the space is swept.
+     */
+    public void releaseCompactionCandidates() {
+        while (!compactionRegions.isEmpty()) {
+            final int regionID = compactionRegions.removeHead();
+            compactionSet.remove(regionID);
+            distributeSweptRegion(fromRegionID(regionID));
+        }
+        endCompaction();
+    }
+
+    private void endCompaction() {
+        FatalError.check(compactionSet == null || compactionSet.isEmpty(), "regions left in compaction set");
+        compactionSet = null;
+        // Keep allocation regions address-ordered.
+        allocationRegions.sort();
+        tlabAllocationRegions.sort();
+    }
+
+    /**
+     * Sweepers used by the workers of a parallel sweep. A sweeper sweeps a partition of the sweep list, from its first region
+     * up to, but excluding, the first region of the next partition.
+     */
+    static final class PartitionSweeper extends HeapRegionSweeper {
+        final FirstFitMarkSweepSpace<?> space;
+        private int nextRegion;
+        private int endRegion;
+
+        PartitionSweeper(FirstFitMarkSweepSpace<?> space) {
+            super(space);
+            this.space = space;
+        }
+
+        void sweep(TricolorHeapMarker heapMarker, boolean doImprecise, int firstRegion, int endRegion) {
+            this.nextRegion = firstRegion;
+            this.endRegion = endRegion;
+            csrIsLiveMultiRegionObjectTail = false;
+            while (hasNextSweepingRegion()) {
+                beginSweep();
+                heapMarker.sweepRegion(this, doImprecise);
+                endSweep();
+            }
+            csrHead = null;
+            csrTail = null;
+        }
+
+        @Override
+        public boolean hasNextSweepingRegion() {
+            return nextRegion != endRegion;
+        }
+
+        @Override
+        public void beginSweep() {
+            resetSweepingRegion(fromRegionID(nextRegion));
+        }
+
+        @Override
+        public void endSweep() {
+            space.endSweep(this, true);
+            nextRegion = space.sweepList.next(csrInfo.toRegionID());
+        }
+
+        @Override
+        public void reachedRightmostLiveRegion() {
+            FatalError.unexpected("Parallel sweepers sweep all the regions of their partition");
+        }
+
+        @Override
+        public Size freeSpaceAfterSweep() {
+            return space.freeSpaceAfterSweep();
+        }
+
+        @Override
+        public void verify(AfterMarkSweepVerifier verifier) {
+            space.verify(verifier);
+        }
+    }
+
+    /**
+     * Parallel sweeping of the sweep list by the {@link GCWorkerGang}. The sweep list is split into partitions of consecutive regions
+     * claimed by the workers. Partitions never begin with a region spanned by a multi-region object, so that the head of the object
+     * and all its regions are swept by the same worker. Workers only update the state of the regions they sweep, and leave them
+     * in the sweep list. The GC thread then distributes them to the region lists of the space, in address order.
+     */
+    static final class ParallelRegionSweep implements GCWorkerGang.Task {
+        final FirstFitMarkSweepSpace<?> space;
+        final PartitionSweeper[] sweepers;
+
+        /**
+         * First region of each partition of the sweep list.
+         */
+        final int[] partitions;
+        private int numPartitions;
+
+        /**
+         * Index of the next partition to be claimed by a worker.
+         */
+        private volatile int nextPartition;
+
+        private TricolorHeapMarker heapMarker;
+        private boolean doImprecise;
+
+        @FOLD
+        private static int nextPartitionOffset() {
+            return ClassActor.fromJava(ParallelRegionSweep.class).findLocalInstanceFieldActor("nextPartition").offset();
+        }
+
+        ParallelRegionSweep(FirstFitMarkSweepSpace<?> space, int numWorkers, int maxPartitions) {
+            this.space = space;
+            sweepers = new PartitionSweeper[numWorkers];
+            for (int i = 0; i < numWorkers; i++) {
+                sweepers[i] = new PartitionSweeper(space);
+            }
+            partitions = new int[maxPartitions];
+        }
+
+        private void partition() {
+            final HeapRegionList sweepList = space.sweepList;
+            numPartitions = 0;
+            int partitionSize = 0;
+            int regionID = sweepList.head();
+            while (regionID != INVALID_REGION_ID) {
+                if (partitionSize == 0) {
+                    partitions[numPartitions++] = regionID;
+                }
+                partitionSize++;
+                regionID = sweepList.next(regionID);
+                if (partitionSize >= PARALLEL_SWEEP_PARTITION_REGIONS && regionID != INVALID_REGION_ID) {
+                    final HeapRegionInfo rinfo = fromRegionID(regionID);
+                    if (!rinfo.isLarge() || rinfo.isHeadOfLargeObject()) {
+                        partitionSize = 0;
+                    }
+                }
+            }
+        }
+
+        private int claimPartition() {
+            final Reference self = Reference.fromJava(this);
+            int partition;
+            do {
+                partition = nextPartition;
+            } while (self.compareAndSwapInt(nextPartitionOffset(), partition, partition + 1) != partition);
+            return partition;
+        }
+
+        public void run(int workerIndex, int numWorkers) {
+            final PartitionSweeper sweeper = sweepers[workerIndex];
+            int partition = claimPartition();
+            while (partition < numPartitions) {
+                final int endRegion = partition + 1 < numPartitions ? partitions[partition + 1] : INVALID_REGION_ID;
+                sweeper.sweep(heapMarker, doImprecise, partitions[partition], endRegion);
+                partition = claimPartition();
+            }
+        }
+
+        void sweep(TricolorHeapMarker heapMarker, boolean doImprecise) {
+            partition();
+            this.heapMarker = heapMarker;
+            this.doImprecise = doImprecise;
+            nextPartition = 0;
+            GCWorkerGang.gang().run(this);
+            this.heapMarker = null;
+            while (space.hasNextSweepingRegion()) {
+                space.distributeSweptRegion(space.nextRegionToSweep());
+            }
+            space.sweepCompleted();
+        }
     }
 
     @Override
@@ -659,6 +1249,11 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
 
     @Override
     public Size increaseSize(Size delta) {
+        if (trackAllocations) {
+            // A concurrent marking cycle traces the committed regions of the heap account, which must not change until the cycle ends.
+            // The collection that ends the cycle remarks before it resizes, so growth is only ever deferred to after the remark.
+            return Size.zero();
+        }
         int numRegions = delta.roundedUpBy(regionSizeInBytes).unsignedShiftedRight(log2RegionSizeInBytes).toInt();
         if (numRegions == 0) {
             numRegions = 1;
@@ -692,6 +1287,8 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
 
     @Override
     public void visit(CellRangeVisitor visitor) {
+        // Unswept regions may hold dead objects referencing reclaimed space.
+        finishSweep();
         // Make allocating regions iterable first.
         tlabAllocator.unsafeMakeParsable();
         overflowAllocator.unsafeMakeParsable();
@@ -710,11 +1307,13 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         balance += tlabAllocationRegions.size();
         balance += allocationRegions.size();
         balance += unavailableRegions.size();
+        balance += compactionRegions.size();
         FatalError.check(balance == numRegionsInSpace, "incorrect balance of regions in space");
     }
 
     @Override
     public void verify(AfterMarkSweepVerifier verifier) {
+        finishSweep();
         verifyHeapRegionsBalance();
         tlabAllocationRegions.checkIsAddressOrdered();
         allocationRegions.checkIsAddressOrdered();
@@ -734,11 +1333,15 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
     }
 
     public int getAllocatingRegion() {
-        final int regionID = tlabAllocationRegionList().removeHead();
+        int regionID = tlabAllocationRegionList().removeHead();
+        while (regionID == INVALID_REGION_ID && lazySweepNextRegion()) {
+            regionID = tlabAllocationRegionList().removeHead();
+        }
         if (regionID != INVALID_REGION_ID) {
             final HeapRegionInfo regionInfo = fromRegionID(regionID);
             final int numFreeBytes = regionInfo.isEmpty() ?  regionSizeInBytes : regionInfo.freeBytesInChunks();
             allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(numFreeBytes);
+            recordAllocationStart(regionID, regionInfo.isEmpty() ? regionInfo.regionStart() : regionInfo.firstFreeBytes());
         }
         return regionID;
     }
@@ -748,20 +1351,35 @@ public final class FirstFitMarkSweepSpace<T extends HeapAccountOwner> extends He
         regionInfoIterable.initialize(allocationRegions);
         regionInfoIterable.reset();
         for (HeapRegionInfo regionInfo : regionInfoIterable) {
-            if (regionInfo.isEmpty()) {
-                allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(regionSizeInBytes);
-            } else if (regionInfo.freeBytesInChunks() >= minFreeSpace && regionInfo.numFreeChunks() == maxFreeChunks) {
-                allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(regionInfo.freeBytesInChunks());
-            } else {
-                continue;
+            if (takeAllocatingRegion(regionInfo, minFreeSpace, maxFreeChunks)) {
+                // Found a refill.
+                regionInfoIterable.remove();
+                return  regionInfo.toRegionID();
+            }
+        }
+        while (lazySweepNextRegion()) {
+            // Swept regions with enough free space for the request are appended to the allocation regions list.
+            final int regionID = allocationRegions.tail();
+            if (regionID != INVALID_REGION_ID && takeAllocatingRegion(fromRegionID(regionID), minFreeSpace, maxFreeChunks)) {
+                allocationRegions.remove(regionID);
+                return regionID;
             }
-            // Found a refill.
-            regionInfoIterable.remove();
-            return  regionInfo.toRegionID();
         }
         return INVALID_REGION_ID;
     }
 
+    private boolean takeAllocatingRegion(HeapRegionInfo regionInfo, int minFreeSpace, int maxFreeChunks) {
+        if (regionInfo.isEmpty()) {
+            allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(regionSizeInBytes);
+        } else if (regionInfo.freeBytesInChunks() >= minFreeSpace && regionInfo.numFreeChunks() == maxFreeChunks) {
+            allocationRegionsFreeSpace = allocationRegionsFreeSpace.minus(regionInfo.freeBytesInChunks());
+        } else {
+            return false;
+        }
+        recordAllocationStart(regionInfo.toRegionID(), regionInfo.isEmpty() ? regionInfo.regionStart() : regionInfo.firstFreeBytes());
+        return true;
+    }
+
 
     public Size minRetiredFreeChunkSize() {
         return minReclaimableSpace;
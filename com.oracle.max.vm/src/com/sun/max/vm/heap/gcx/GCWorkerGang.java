@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * A gang of GC worker threads executing a {@link Task} in parallel on behalf of the thread running the GC (i.e., the
+ * {@link VmOperationThread}). The GC thread takes part in every task as worker 0, so a gang of {@code n} workers only
+ * starts {@code n - 1} threads. With a single worker (the default), tasks simply run on the GC thread.
+ * <p>
+ * Worker threads are {@linkplain VmThread#isGCWorkerThread() GC worker threads}: VM operations never freeze them and
+ * root scanning ignores their stacks. This is only safe because worker threads never allocate once started, and their
+ * frames only refer to objects that never move: the worker threads are allocated in the immortal heap, and tasks must
+ * be either boot image or immortal objects.
+ */
+public final class GCWorkerGang {
+
+    /**
+     * Number of GC workers, including the GC thread itself.
+     */
+    static int ParallelGCThreads = 1;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "ParallelGCThreads", GCWorkerGang.class,
+            "Number of threads used by parallel GC phases, including the thread initiating the GC", Phase.PRISTINE);
+    }
+
+    /**
+     * A unit of parallel GC work.
+     */
+    public interface Task {
+        /**
+         * Runs this task on a worker of the gang.
+         *
+         * @param workerIndex index of the worker running the task, in [0, numWorkers[. Worker 0 is the GC thread.
+         * @param numWorkers number of workers running the task
+         */
+        void run(int workerIndex, int numWorkers);
+    }
+
+    final class WorkerThread extends Thread {
+        final int workerIndex;
+
+        WorkerThread(int workerIndex) {
+            super(VmThread.systemThreadGroup, "GC worker " + workerIndex);
+            this.workerIndex = workerIndex;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int lastGeneration = 0;
+            while (true) {
+                OSMonitor.nativeMutexLock(mutex);
+                while (generation == lastGeneration) {
+                    OSMonitor.nativeConditionWait(mutex, condition, 0);
+                }
+                lastGeneration = generation;
+                final Task t = task;
+                OSMonitor.nativeMutexUnlock(mutex);
+
+                t.run(workerIndex, numWorkers);
+
+                OSMonitor.nativeMutexLock(mutex);
+                if (--running == 0) {
+                    OSMonitor.nativeConditionNotify(condition, true);
+                }
+                OSMonitor.nativeMutexUnlock(mutex);
+            }
+        }
+    }
+
+    private static final GCWorkerGang theGang = new GCWorkerGang();
+
+    /**
+     * The gang of GC workers of the VM.
+     */
+    public static GCWorkerGang gang() {
+        return theGang;
+    }
+
+    private Word mutex;
+    private Word condition;
+    private WorkerThread[] workerThreads;
+
+    /**
+     * Number of workers in the gang. Only the GC thread until the worker threads are started.
+     */
+    private int numWorkers = 1;
+
+    /**
+     * Task currently executed by the gang.
+     */
+    private Task task;
+
+    /**
+     * Incremented each time the gang starts a new task. Worker threads compare it against the last generation they ran
+     * to detect that a new task is available.
+     */
+    private int generation;
+
+    /**
+     * Number of worker threads (i.e., excluding the GC thread) still running the current task.
+     */
+    private int running;
+
+    private GCWorkerGang() {
+    }
+
+    /**
+     * Starts the worker threads once the VM is running. GCs performed before that are single-threaded.
+     */
+    static void initialize(MaxineVM.Phase phase) {
+        if (phase == MaxineVM.Phase.RUNNING && ParallelGCThreads > 1) {
+            theGang.startWorkerThreads(ParallelGCThreads - 1);
+        }
+    }
+
+    private void startWorkerThreads(int numThreads) {
+        mutex = OSMonitor.newMutex();
+        condition = OSMonitor.newCondition();
+        try {
+            Heap.enableImmortalMemoryAllocation();
+            workerThreads = new WorkerThread[numThreads];
+            for (int i = 0; i < numThreads; i++) {
+                workerThreads[i] = new WorkerThread(i + 1);
+            }
+        } finally {
+            Heap.disableImmortalMemoryAllocation();
+        }
+        for (WorkerThread workerThread : workerThreads) {
+            // Like the other VM system threads, bypass Thread.start() so that the thread is flagged as a GC worker before it runs.
+            final VmThread vmThread = VmThreadFactory.create(workerThread);
+            vmThread.setAsGCWorkerThread();
+            vmThread.startVmSystemThread();
+        }
+        numWorkers = numThreads + 1;
+    }
+
+    /**
+     * Number of workers that run a task, including the GC thread.
+     */
+    public int numWorkers() {
+        return numWorkers;
+    }
+
+    /**
+     * Indicates whether tasks run in parallel, i.e., whether the gang has started worker threads.
+     */
+    public boolean isParallel() {
+        return numWorkers > 1;
+    }
+
+    /**
+     * Runs a task on all the workers of the gang and returns once they have all completed it.
+     * Must be called by the GC thread.
+     *
+     * @param t a boot image or immortal task
+     */
+    public void run(Task t) {
+        if (numWorkers == 1) {
+            t.run(0, 1);
+            return;
+        }
+        FatalError.check(VmThread.current().isVmOperationThread(), "GC worker gang must be run by the VM operation thread");
+        OSMonitor.nativeMutexLock(mutex);
+        task = t;
+        running = numWorkers - 1;
+        generation++;
+        OSMonitor.nativeConditionNotify(condition, true);
+        OSMonitor.nativeMutexUnlock(mutex);
+
+        t.run(0, numWorkers);
+
+        OSMonitor.nativeMutexLock(mutex);
+        while (running > 0) {
+            OSMonitor.nativeConditionWait(mutex, condition, 0);
+        }
+        task = null;
+        OSMonitor.nativeMutexUnlock(mutex);
+    }
+}
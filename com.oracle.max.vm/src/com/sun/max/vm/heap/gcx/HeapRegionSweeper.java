@@ -91,9 +91,10 @@ public abstract class HeapRegionSweeper extends Sweeper {
 
     /**
      * True if all dead spaces require their references to be erased. This is required if an imprecise remembered set (e.g., card table) is used for
-     * root tracing. Erasing dead references is equivalent to turning dead space into reference-less heap cell.
+     * root tracing, or if the heap is walked while marking concurrently. Erasing dead references is equivalent to turning dead
+     * space into reference-less heap cell.
      */
-    final boolean zapDeadReferences;
+    boolean zapDeadReferences;
 
     /**
      * Action to performed on a remembered set when dead space is identified.
@@ -107,6 +108,16 @@ public abstract class HeapRegionSweeper extends Sweeper {
         this.deadSpaceListener = deadSpaceListener;
     }
 
+    /**
+     * Creates a sweeper with the same configuration as another sweeper, e.g., to sweep some of its regions in parallel.
+     */
+    protected HeapRegionSweeper(HeapRegionSweeper sweeper) {
+        super(sweeper);
+        this.zapDeadReferences = sweeper.zapDeadReferences;
+        this.deadSpaceListener = sweeper.deadSpaceListener;
+        this.minReclaimableSpace = sweeper.minReclaimableSpace;
+    }
+
     final public int liveBytes() {
         return csrLiveBytes;
     }
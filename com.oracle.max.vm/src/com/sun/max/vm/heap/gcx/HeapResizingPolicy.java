@@ -36,6 +36,19 @@ public class HeapResizingPolicy {
      */
     final int maxFreeSpaceRatioForShrinking = 70;
 
+    /**
+     * Indicates whether the policy would expand the heap given the space left after GC.
+     *
+     * @param spaceLeftAfterGC
+     * @param heapSpace
+     * @return true if the heap should be expanded
+     */
+    public boolean shouldExpand(Size spaceLeftAfterGC, ResizableSpace heapSpace) {
+        Size totalSpace = heapSpace.totalSpace();
+        Size min = Size.fromLong((totalSpace.toLong() * minFreeSpaceRatioForExpansion) / 100);
+        return spaceLeftAfterGC.lessThan(min) && totalSpace.lessThan(heapSpace.capacity());
+    }
+
     /**
      * Resize the heap according to policy.
      *
@@ -45,10 +58,9 @@ public class HeapResizingPolicy {
      */
     public boolean resizeAfterCollection(Size spaceLeftAfterGC, ResizableSpace heapSpace) {
         Size totalSpace = heapSpace.totalSpace();
-        Size min = Size.fromLong((totalSpace.toLong() * minFreeSpaceRatioForExpansion) / 100);
         Size spaceUsedAfterGC = totalSpace.minus(spaceLeftAfterGC);
 
-        if (spaceLeftAfterGC.lessThan(min) && totalSpace.lessThan(heapSpace.capacity())) {
+        if (shouldExpand(spaceLeftAfterGC, heapSpace)) {
             // Use current occupancy to compute heap growth.
             Size minDesiredCapacity =  Size.fromLong((spaceUsedAfterGC.toLong() * 100) / (100 - minFreeSpaceRatioForExpansion));
             Size growth = minDesiredCapacity.minus(totalSpace);
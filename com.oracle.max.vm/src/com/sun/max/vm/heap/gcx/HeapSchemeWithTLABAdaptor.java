@@ -97,6 +97,7 @@ public abstract class HeapSchemeWithTLABAdaptor extends HeapSchemeWithTLAB {
     @Override
     public void initialize(MaxineVM.Phase phase) {
         super.initialize(phase);
+        GCWorkerGang.initialize(phase);
         if (phase == MaxineVM.Phase.PRISTINE) {
             heapStartupTime.start();
             allocateHeapAndGCStorage();
@@ -34,8 +34,20 @@ import com.sun.max.vm.runtime.*;
 public class NoAgingNurseryEvacuator extends EvacuatorToCardSpace {
     public static boolean TraceDirtyCardWalk = false;
     private static boolean traceDirtyCardWalk = false;
+    /**
+     * Enables evacuation by all the workers of the {@link GCWorkerGang} when it has more than one.
+     */
+    static boolean UseParallelEvacuation = true;
+    /**
+     * Number of locations of references to the nursery each worker of a parallel evacuation can queue.
+     */
+    static int ParallelEvacuationDequeLength = 16 * 1024;
     static {
         VMOptions.addFieldOption("-XX:", "TraceDirtyCardWalk", NoAgingNurseryEvacuator.class, "Trace Dirty Card Walk", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "UseParallelEvacuation", NoAgingNurseryEvacuator.class,
+            "Evacuate the nursery with all the parallel GC threads (see -XX:ParallelGCThreads)", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ParallelEvacuationDequeLength", NoAgingNurseryEvacuator.class,
+            "Number of reference locations each parallel GC thread can queue during nursery evacuation", Phase.PRISTINE);
     }
 
     @INLINE
@@ -113,12 +125,36 @@ public class NoAgingNurseryEvacuator extends EvacuatorToCardSpace {
     private final DirtyCardEvacuationClosure heapSpaceDirtyCardClosure;
     private final BootRegionDirtyCardEvacuationClosure bootRegionDirtyCardClosure;
 
+    /**
+     * State of parallel evacuation, or null if parallel evacuation is not used.
+     * @see #UseParallelEvacuation
+     */
+    private ParallelNurseryEvacuation parallelEvacuation;
+
+    /**
+     * Indicates whether the current evacuation is parallel.
+     */
+    private boolean evacuatingInParallel;
+
     public NoAgingNurseryEvacuator(EvacuatingSpace fromSpace, HeapSpace toSpace, EvacuationBufferProvider evacuationBufferProvider, CardTableRSet rset, String name) {
         super(fromSpace, toSpace, evacuationBufferProvider, rset, name);
         this.heapSpaceDirtyCardClosure = new DirtyCardEvacuationClosure();
         this.bootRegionDirtyCardClosure = new BootRegionDirtyCardEvacuationClosure();
     }
 
+    /**
+     * Set up evacuation by the workers of the {@link GCWorkerGang}, if enabled and if the gang may have more than one worker.
+     * Must be called once the evacuator is {@linkplain #initialize(int, boolean, Size, boolean) initialized}, from an
+     * allocation context where objects never move, as the state of parallel evacuation is used by GC worker threads.
+     *
+     * @param maxToSpaceRanges maximum number of discontinuous ranges of the space where cells are evacuated
+     */
+    public void initializeParallelEvacuation(int maxToSpaceRanges) {
+        if (!MaxineVM.isHosted() && UseParallelEvacuation && GCWorkerGang.ParallelGCThreads > 1) {
+            parallelEvacuation = new ParallelNurseryEvacuation(this, GCWorkerGang.ParallelGCThreads, ParallelEvacuationDequeLength, maxToSpaceRanges);
+        }
+    }
+
     @Override
     public void setGCOperation(GCOperation gcOperation) {
         super.setGCOperation(gcOperation);
@@ -126,6 +162,20 @@ public class NoAgingNurseryEvacuator extends EvacuatorToCardSpace {
             traceDirtyCardWalk = TraceDirtyCardWalk && TraceFromGCInvocation <= gcOperation.invocationCount();
         }
     }
+    @Override
+    protected void doBeforeEvacuation() {
+        super.doBeforeEvacuation();
+        evacuatingInParallel = parallelEvacuation != null && parallelEvacuation.isEnabled();
+        if (evacuatingInParallel) {
+            parallelEvacuation.begin();
+        }
+    }
+
+    @Override
+    boolean deferUpdate(Pointer refLocation) {
+        return parallelEvacuation.deferRootUpdate(refLocation);
+    }
+
     @Override
     protected void evacuateFromBootHeap() {
         // NOTE: if immortal region happens to grow very large, it may be sensible to also scan it using the
@@ -138,6 +188,14 @@ public class NoAgingNurseryEvacuator extends EvacuatorToCardSpace {
 
     @Override
     protected void evacuateFromRSets() {
+        if (evacuatingInParallel) {
+            // The workers scan the dirty cards and evacuate everything reachable from them and from the roots handed over to them.
+            parallelEvacuation.evacuate();
+            if (!parallelEvacuation.dirtyCardsOverflowed()) {
+                return;
+            }
+            // Rescan the cards dirtied again on overflow of the workers' deques.
+        }
         // Visit the dirty cards of the old gen (i.e., the toSpace).
         final boolean traceRSet = CardTableRSet.traceCardTableRSet();
         if (traceDirtyCardWalk()) {
@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.gcx.rset.ctbl.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Parallel evacuation of a nursery by the workers of the {@link GCWorkerGang}, on behalf of a {@link NoAgingNurseryEvacuator}.
+ * <p>
+ * Evacuation proceeds in three steps:
+ * <ol>
+ * <li>While the evacuator scans the roots, the boot heap, the code and the immortal heap, the locations of references to the
+ * nursery are distributed to the workers' {@link WorkStealingDeque}s instead of being updated.</li>
+ * <li>The workers claim card-aligned strides of the to-space and scan their dirty cards, pushing the locations of
+ * references to the nursery on their deque. No cell is evacuated during this step, so the to-space remains iterable
+ * (but for the evacuator's own promotion buffer, which is skipped as in serial evacuation).</li>
+ * <li>The workers update the locations on their deque. Each worker evacuates cells to its own promotion buffer, and scans
+ * the cells it evacuated as the serial evacuator does (see {@link EvacuatorToCardSpace#evacuateReachables()}), except that
+ * the references to the nursery it finds are pushed on its deque, where idle workers can steal them.</li>
+ * </ol>
+ * Workers race to evacuate a cell by copying it to their promotion buffer, then installing the forward reference with a
+ * compare-and-swap of the cell's header. The loser gives its copy back.
+ * <p>
+ * A deque may overflow. During root scanning, the evacuator then evacuates the cell itself, as in serial evacuation.
+ * During dirty card scanning, the card holding the location is dirtied again, and the evacuator rescans these cards
+ * serially after the workers are done. During copying, the worker evacuates the cell immediately.
+ */
+final class ParallelNurseryEvacuation implements GCWorkerGang.Task {
+    /**
+     * Log 2 of the number of cards in a stride of the to-space claimed by a worker during dirty card scanning.
+     * A stride covers 64 KB of heap.
+     */
+    static final int LOG2_STRIDE_CARDS = 7;
+
+    private static final int SCAN_DIRTY_CARDS = 0;
+    private static final int COPY = 1;
+
+    final NoAgingNurseryEvacuator evacuator;
+
+    final Worker[] workers;
+
+    /**
+     * Bounds of the ranges of the to-space, stored as pairs of start and end addresses.
+     */
+    private final long[] toSpaceRanges;
+
+    /**
+     * Number of ranges in {@link #toSpaceRanges}.
+     */
+    private int numToSpaceRanges;
+
+    /**
+     * Step run by the workers of the gang.
+     */
+    private int step;
+
+    /**
+     * Number of workers taking part in the current evacuation.
+     */
+    private int numWorkers;
+
+    /**
+     * Worker to hand over the next location of a root reference to.
+     */
+    private int nextRootWorker;
+
+    /**
+     * Next stride of the to-space to be claimed.
+     */
+    private volatile int nextStride;
+
+    /**
+     * Number of workers offering termination of the copying step.
+     */
+    private volatile int idleWorkers;
+
+    /**
+     * Spin lock serializing refills of the workers' promotion buffers and overflow allocations.
+     */
+    private volatile int allocationLock;
+
+    /**
+     * Spin lock serializing the discovery of special references, which updates a single global list.
+     */
+    private volatile int specialReferenceLock;
+
+    /**
+     * Set if some cards had to be dirtied again because a deque overflowed during dirty card scanning.
+     */
+    private boolean dirtyCardsOverflowed;
+
+    @FOLD
+    private static int nextStrideOffset() {
+        return ClassActor.fromJava(ParallelNurseryEvacuation.class).findLocalInstanceFieldActor("nextStride").offset();
+    }
+
+    @FOLD
+    private static int idleWorkersOffset() {
+        return ClassActor.fromJava(ParallelNurseryEvacuation.class).findLocalInstanceFieldActor("idleWorkers").offset();
+    }
+
+    @FOLD
+    private static int allocationLockOffset() {
+        return ClassActor.fromJava(ParallelNurseryEvacuation.class).findLocalInstanceFieldActor("allocationLock").offset();
+    }
+
+    @FOLD
+    private static int specialReferenceLockOffset() {
+        return ClassActor.fromJava(ParallelNurseryEvacuation.class).findLocalInstanceFieldActor("specialReferenceLock").offset();
+    }
+
+    private int atomicAdd(int offset, int delta) {
+        final Reference self = Reference.fromJava(this);
+        int oldValue;
+        do {
+            oldValue = self.readInt(offset);
+        } while (self.compareAndSwapInt(offset, oldValue, oldValue + delta) != oldValue);
+        return oldValue;
+    }
+
+    private void lock(int offset) {
+        final Reference self = Reference.fromJava(this);
+        while (self.compareAndSwapInt(offset, 0, 1) != 0) {
+            Thread.yield();
+        }
+    }
+
+    private void unlock(int offset) {
+        Reference.fromJava(this).writeInt(offset, 0);
+    }
+
+    /**
+     * Size of a cell, computed from a hub read before the cell was forwarded.
+     */
+    private static Size cellSize(Pointer origin, Hub hub) {
+        final SpecificLayout specificLayout = hub.specificLayout;
+        if (specificLayout.isTupleLayout()) {
+            return hub.tupleSize;
+        }
+        final int length = Layout.readArrayLength(origin);
+        if (specificLayout.isHybridLayout()) {
+            return Layout.hybridLayout().getArraySize(length);
+        }
+        return Layout.arrayLayout().getArraySize(hub.classActor.componentClassActor().kind, length);
+    }
+
+    /**
+     * State of an evacuation worker. Each worker has its own promotion buffer and survivor ranges.
+     */
+    final class Worker extends EvacuatorToCardSpace {
+        final int index;
+        final WorkStealingDeque deque = new WorkStealingDeque();
+
+        /**
+         * Closure scanning dirty cards of the to-space. Cells are only scanned for locations of references to the nursery.
+         */
+        final class DirtyCardScanningClosure implements OverlappingCellVisitor {
+            public Pointer visitCell(Pointer cell, Address start, Address end) {
+                if (cell.equals(evacuator.ptop)) {
+                    // Skip the evacuator's allocating area.
+                    return evacuator.pend;
+                }
+                return scanCellForEvacuatees(cell, start, end);
+            }
+        }
+
+        final DirtyCardScanningClosure dirtyCardScanningClosure = new DirtyCardScanningClosure();
+
+        Worker(int index) {
+            super(evacuator);
+            this.index = index;
+        }
+
+        @Override
+        boolean deferUpdate(Pointer refLocation) {
+            if (deque.push(refLocation)) {
+                return true;
+            }
+            if (step == SCAN_DIRTY_CARDS) {
+                // Cells cannot be evacuated while other workers iterate over the to-space. Leave the location to the serial rescan.
+                rset.record(Reference.fromOrigin(refLocation), Offset.zero());
+                dirtyCardsOverflowed = true;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected Reference getForwardRef(Pointer origin) {
+            // The hub must be read before checking for a forward reference, which may overwrite it.
+            final Reference hubRef = Layout.readHubReference(origin);
+            final Reference forwardRef = Layout.readForwardRef(origin);
+            if (!forwardRef.isZero()) {
+                return forwardRef;
+            }
+            final Size size = cellSize(origin, UnsafeCast.asHub(hubRef.toJava()));
+            final Pointer toCell = allocate(size);
+            Memory.copyBytes(Layout.originToCell(origin), toCell, size);
+            final Reference toRef = Reference.fromOrigin(Layout.cellToOrigin(toCell));
+            if (Layout.compareAndSwapForwardRef(origin, hubRef, toRef).equals(hubRef)) {
+                return toRef;
+            }
+            // Another worker evacuated the cell first.
+            cancelAllocation(toCell, size);
+            return Layout.readForwardRef(origin);
+        }
+
+        @Override
+        protected Pointer refillOrAllocate(Size size) {
+            lock(allocationLockOffset());
+            final Pointer cell = super.refillOrAllocate(size);
+            unlock(allocationLockOffset());
+            return cell;
+        }
+
+        @Override
+        void discoverSpecialReference(Pointer origin) {
+            lock(specialReferenceLockOffset());
+            SpecialReferenceManager.discoverSpecialReference(origin);
+            unlock(specialReferenceLockOffset());
+        }
+
+        /**
+         * Update a location holding a reference to the nursery, evacuating the referenced cell if not already done.
+         */
+        private void updateReference(Pointer refLocation) {
+            final Pointer origin = refLocation.getReference(0).toOrigin();
+            if (inEvacuatedArea(origin)) {
+                refLocation.setReference(0, getForwardRef(origin));
+            }
+        }
+
+        void drain() {
+            do {
+                Pointer refLocation = deque.pop();
+                while (!refLocation.isZero()) {
+                    updateReference(refLocation);
+                    refLocation = deque.pop();
+                }
+                // Scan the cells evacuated so far. This pushes more locations on the deque.
+                evacuateReachables();
+            } while (!deque.isEmpty());
+        }
+
+        /**
+         * Try to steal a location from another worker, and evacuate from it.
+         * @return true if a location was stolen
+         */
+        boolean stealAndDrain() {
+            for (int i = 1; i < numWorkers; i++) {
+                final Pointer refLocation = workers[(index + i) % numWorkers].deque.steal();
+                if (!refLocation.isZero()) {
+                    updateReference(refLocation);
+                    drain();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void scanDirtyCards() {
+            int stride = claimStride();
+            int strideIndex = 0;
+            final Size strideSize = Size.fromInt(1 << (CardTableRSet.LOG2_CARD_SIZE + LOG2_STRIDE_CARDS));
+            for (int i = 0; i < numToSpaceRanges; i++) {
+                Address strideStart = Address.fromLong(toSpaceRanges[2 * i]);
+                final Address end = Address.fromLong(toSpaceRanges[2 * i + 1]);
+                while (strideStart.lessThan(end)) {
+                    Address strideEnd = strideStart.plus(strideSize);
+                    if (strideEnd.greaterThan(end)) {
+                        strideEnd = end;
+                    }
+                    if (strideIndex == stride) {
+                        rset.cleanAndVisitCards(strideStart, strideEnd, dirtyCardScanningClosure);
+                        stride = claimStride();
+                    }
+                    strideIndex++;
+                    strideStart = strideEnd;
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the ranges of the to-space.
+     */
+    private final class ToSpaceRangesCollector implements CellRangeVisitor {
+        public void visitCells(Address start, Address end) {
+            FatalError.check(numToSpaceRanges < toSpaceRanges.length >> 1, "Too many to-space ranges for parallel evacuation");
+            toSpaceRanges[2 * numToSpaceRanges] = start.toLong();
+            toSpaceRanges[2 * numToSpaceRanges + 1] = end.toLong();
+            numToSpaceRanges++;
+        }
+    }
+
+    private final ToSpaceRangesCollector toSpaceRangesCollector = new ToSpaceRangesCollector();
+
+    /**
+     * Create the state of parallel evacuation for an evacuator. Must be called once the evacuator is initialized, and from
+     * an allocation context where objects never move, as the objects are used by GC worker threads.
+     *
+     * @param evacuator the evacuator on whose behalf the workers evacuate
+     * @param maxWorkers maximum number of workers
+     * @param dequeLength number of locations each worker's deque can hold
+     * @param maxToSpaceRanges maximum number of discontinuous ranges of the to-space
+     */
+    ParallelNurseryEvacuation(NoAgingNurseryEvacuator evacuator, int maxWorkers, int dequeLength, int maxToSpaceRanges) {
+        this.evacuator = evacuator;
+        toSpaceRanges = new long[maxToSpaceRanges * 2];
+        workers = new Worker[maxWorkers];
+        for (int i = 0; i < maxWorkers; i++) {
+            workers[i] = new Worker(i);
+            workers[i].deque.initialize(dequeLength);
+        }
+    }
+
+    /**
+     * Indicates whether the GC worker gang can run parallel evacuation, i.e., whether it has started its worker threads.
+     */
+    boolean isEnabled() {
+        final GCWorkerGang gang = GCWorkerGang.gang();
+        return gang.isParallel() && gang.numWorkers() <= workers.length;
+    }
+
+    boolean dirtyCardsOverflowed() {
+        return dirtyCardsOverflowed;
+    }
+
+    private int claimStride() {
+        return atomicAdd(nextStrideOffset(), 1);
+    }
+
+    /**
+     * Called by a worker that ran out of work to offer terminating the copying step.
+     *
+     * @return true if all the workers ran out of work, false if some work became available to steal
+     */
+    private boolean offerTermination() {
+        atomicAdd(idleWorkersOffset(), 1);
+        while (true) {
+            if (idleWorkers == numWorkers) {
+                return true;
+            }
+            for (int i = 0; i < numWorkers; i++) {
+                if (!workers[i].deque.isEmpty()) {
+                    atomicAdd(idleWorkersOffset(), -1);
+                    return false;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    public void run(int workerIndex, int numWorkers) {
+        final Worker worker = workers[workerIndex];
+        if (step == SCAN_DIRTY_CARDS) {
+            worker.scanDirtyCards();
+            return;
+        }
+        do {
+            worker.drain();
+            while (worker.stealAndDrain()) {
+                // keep stealing
+            }
+        } while (!offerTermination());
+    }
+
+    /**
+     * Prepare the workers for an evacuation. Must be called before the evacuator scans the roots.
+     */
+    void begin() {
+        numWorkers = GCWorkerGang.gang().numWorkers();
+        nextRootWorker = 0;
+        dirtyCardsOverflowed = false;
+        for (int i = 0; i < numWorkers; i++) {
+            final Worker worker = workers[i];
+            worker.setEvacuationSpace(evacuator.fromSpace, evacuator.toSpace);
+            worker.setDetailLogger(evacuator.detailLogger);
+            worker.deque.reset();
+            worker.prepareEvacuationBuffer();
+        }
+        evacuator.setDeferringUpdates(true);
+    }
+
+    /**
+     * Hand over the location of a root reference to the nursery to a worker. Called by the evacuator while it scans the roots.
+     *
+     * @return true if the location was handed over, false if all the deques are full
+     */
+    boolean deferRootUpdate(Pointer refLocation) {
+        for (int i = 0; i < numWorkers; i++) {
+            final Worker worker = workers[nextRootWorker];
+            nextRootWorker = nextRootWorker + 1 == numWorkers ? 0 : nextRootWorker + 1;
+            if (worker.deque.push(refLocation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Scan the dirty cards of the to-space and evacuate all the cells reachable from the locations handed over to the workers.
+     * Cells evacuated by the evacuator itself, as well as the cards dirtied again on overflow, are left to the evacuator.
+     */
+    void evacuate() {
+        evacuator.setDeferringUpdates(false);
+        final GCWorkerGang gang = GCWorkerGang.gang();
+        numToSpaceRanges = 0;
+        evacuator.toSpace.visit(toSpaceRangesCollector);
+
+        step = SCAN_DIRTY_CARDS;
+        nextStride = 0;
+        for (int i = 0; i < numWorkers; i++) {
+            workers[i].setDeferringUpdates(true);
+        }
+        gang.run(this);
+
+        step = COPY;
+        idleWorkers = 0;
+        gang.run(this);
+
+        // Release the promotion buffers in reverse order of refill, so that unused ones may be given back to the allocator.
+        for (int i = numWorkers - 1; i >= 0; i--) {
+            final Worker worker = workers[i];
+            worker.setDeferringUpdates(false);
+            worker.releaseEvacuationBuffer();
+            evacuator.addEvacuatedBytes(worker.evacuatedBytes());
+        }
+        if (MaxineVM.isDebug() && Heap.logAllGC()) {
+            Log.print("Parallel nursery evacuation by ");
+            Log.print(numWorkers);
+            Log.print(" workers, dirty cards overflowed: ");
+            Log.println(dirtyCardsOverflowed);
+        }
+    }
+}
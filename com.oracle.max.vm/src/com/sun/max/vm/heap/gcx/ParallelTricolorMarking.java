@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.annotate.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
+
+/**
+ * Parallel tracing of the grey objects of a {@link TricolorHeapMarker}'s color map by the workers of the {@link GCWorkerGang}.
+ * <p>
+ * Roots are marked grey sequentially, as for serial marking. Workers then claim fixed-size chunks of the color map, visit
+ * the grey objects they find there, and trace depth-first from them using a per-worker {@link WorkStealingDeque}.
+ * Workers that run out of work steal from the others until all deques are empty.
+ * <p>
+ * Marks are updated atomically. A worker pushes an object on its deque only if it is the one that painted it grey, and
+ * visits an object only if it is the one that painted it black. Hence, every object is visited once, which also
+ * guarantees a single discovery of special references. When a worker's deque is full, the object is left grey and the
+ * worker records it in its overflow range. Objects left grey are picked up by another pass over the smallest range
+ * of the color map covering all the overflow ranges, until a pass completes without overflow.
+ * <p>
+ * No grey marks are left when tracing completes, so the grey mark verifications of the serial marker apply unchanged.
+ */
+final class ParallelTricolorMarking implements GCWorkerGang.Task, SpecialReferenceManager.GC {
+
+    /**
+     * Log 2 of the number of color map words in a chunk claimed by a worker.
+     * With a bit per heap word, a chunk covers 128 KB of heap.
+     */
+    static final int LOG2_CHUNK_BITMAP_WORDS = 8;
+
+    final TricolorHeapMarker heapMarker;
+
+    final Worker[] workers;
+
+    /**
+     * Index of the first color map word of the range being scanned.
+     */
+    private int firstBitmapWordIndex;
+
+    /**
+     * Index of the last color map word of the range being scanned.
+     */
+    private int lastBitmapWordIndex;
+
+    /**
+     * Number of chunks in the range being scanned.
+     */
+    private int numChunks;
+
+    /**
+     * Next chunk to be claimed.
+     */
+    private volatile int nextChunk;
+
+    /**
+     * Number of workers offering termination of the current pass.
+     */
+    private volatile int idleWorkers;
+
+    /**
+     * Number of workers running the current pass.
+     */
+    private int numWorkers;
+
+    /**
+     * Spin lock serializing the discovery of special references, which updates a single global list.
+     */
+    private volatile int specialReferenceLock;
+
+    /**
+     * Number of passes run to recover from deque overflows since the last {@link #resetStatistics()}.
+     */
+    int overflowPasses;
+
+    @FOLD
+    private static int nextChunkOffset() {
+        return ClassActor.fromJava(ParallelTricolorMarking.class).findLocalInstanceFieldActor("nextChunk").offset();
+    }
+
+    @FOLD
+    private static int idleWorkersOffset() {
+        return ClassActor.fromJava(ParallelTricolorMarking.class).findLocalInstanceFieldActor("idleWorkers").offset();
+    }
+
+    @FOLD
+    private static int specialReferenceLockOffset() {
+        return ClassActor.fromJava(ParallelTricolorMarking.class).findLocalInstanceFieldActor("specialReferenceLock").offset();
+    }
+
+    private int atomicAdd(int offset, int delta) {
+        final Reference self = Reference.fromJava(this);
+        int oldValue;
+        do {
+            oldValue = self.readInt(offset);
+        } while (self.compareAndSwapInt(offset, oldValue, oldValue + delta) != oldValue);
+        return oldValue;
+    }
+
+    /**
+     * State of a marking worker.
+     */
+    final class Worker extends PointerIndexVisitor {
+        final int index;
+        final WorkStealingDeque deque = new WorkStealingDeque();
+
+        /**
+         * Rightmost cell marked by this worker.
+         */
+        Address rightmost;
+
+        /**
+         * Leftmost cell left grey by this worker because its deque was full.
+         */
+        Address leftmostOverflow;
+
+        /**
+         * Rightmost cell left grey by this worker because its deque was full, or zero if the deque didn't overflow.
+         */
+        Address rightmostOverflow;
+
+        Worker(int index) {
+            this.index = index;
+        }
+
+        void reset(Address rightmost) {
+            this.rightmost = rightmost;
+            deque.reset();
+            resetOverflow();
+        }
+
+        void resetOverflow() {
+            leftmostOverflow = Address.max();
+            rightmostOverflow = Address.zero();
+        }
+
+        private void markCellGrey(Pointer cell) {
+            if (heapMarker.isCovered(cell) && heapMarker.atomicMarkGreyIfWhite(cell)) {
+                if (cell.greaterThan(rightmost)) {
+                    rightmost = cell;
+                }
+                if (!deque.push(cell)) {
+                    // Leave the cell grey. It will be visited by the rescan of the overflow ranges.
+                    if (cell.lessThan(leftmostOverflow)) {
+                        leftmostOverflow = cell;
+                    }
+                    if (cell.greaterThan(rightmostOverflow)) {
+                        rightmostOverflow = cell;
+                    }
+                }
+            }
+        }
+
+        @INLINE
+        private void markRefGrey(Reference ref) {
+            markCellGrey(Layout.originToCell(ref.toOrigin()));
+        }
+
+        @Override
+        public void visit(Pointer pointer, int wordIndex) {
+            markRefGrey(pointer.getReference(wordIndex));
+        }
+
+        /**
+         * Visit a grey cell if this worker is the one painting it black.
+         */
+        void visitGreyCell(Pointer cell) {
+            final int bitIndex = heapMarker.bitIndexOf(cell);
+            if (!heapMarker.atomicMarkBlackFromGrey(bitIndex)) {
+                return;
+            }
+            heapMarker.traceBlackMark(cell, bitIndex);
+            if (MaxineVM.isDebug() && Heap.logAllGC()) {
+                TricolorHeapMarker.printVisitedCell(cell, "Visiting grey cell ");
+            }
+            final Pointer origin = Layout.cellToOrigin(cell);
+            final Reference hubRef = Layout.readHubReference(origin);
+            markRefGrey(hubRef);
+            final Hub hub = UnsafeCast.asHub(hubRef.toJava());
+            if (MaxineVM.isDebug()) {
+                heapMarker.checkGreyCellHub(origin, hub);
+            }
+            if (heapMarker.compactionSet != null) {
+                heapMarker.compactionSet.recordReferrer(origin, hub);
+            }
+            final SpecificLayout specificLayout = hub.specificLayout;
+            if (specificLayout.isTupleLayout()) {
+                TupleReferenceMap.visitReferences(hub, origin, this);
+                if (hub.isJLRReference) {
+                    discoverSpecialReference(cell);
+                }
+            } else if (specificLayout.isReferenceArrayLayout()) {
+                final int length = Layout.readArrayLength(origin);
+                for (int index = 0; index < length; index++) {
+                    markRefGrey(Layout.getReference(origin, index));
+                }
+            } else if (specificLayout.isHybridLayout()) {
+                TupleReferenceMap.visitReferences(hub, origin, this);
+            }
+        }
+
+        void drain() {
+            Pointer cell = deque.pop();
+            while (!cell.isZero()) {
+                visitGreyCell(cell);
+                cell = deque.pop();
+            }
+        }
+
+        /**
+         * Try to steal a cell from another worker, and trace from it.
+         * @return true if a cell was stolen
+         */
+        boolean stealAndDrain() {
+            for (int i = 1; i < numWorkers; i++) {
+                final Pointer cell = workers[(index + i) % numWorkers].deque.steal();
+                if (!cell.isZero()) {
+                    visitGreyCell(cell);
+                    drain();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Visit the grey objects whose mark is in the specified range of words of the color map.
+         * <p>
+         * Other workers mark objects concurrently, so a word of the color map is re-read after each visit. A bit
+         * pair can only be mistaken for a grey mark if it straddles the grey bit of a grey object and the first bit
+         * of the next marked object. Since grey marks of a word are processed from the lowest bit up, and visited
+         * objects are black, the only such case left is the first bit of a word holding the grey bit of an object
+         * whose mark starts at the last bit of the previous word, which is filtered out explicitly.
+         */
+        void visitGreyObjects(int firstWordIndex, int lastWordIndex) {
+            final Pointer colorMapBase = heapMarker.base.asPointer();
+            for (int bitmapWordIndex = firstWordIndex; bitmapWordIndex <= lastWordIndex; bitmapWordIndex++) {
+                long bitmapWord = colorMapBase.getLong(bitmapWordIndex);
+                if (bitmapWord == 0L) {
+                    continue;
+                }
+                // Bits of the word that may hold the first bit of a mark.
+                long markMask = -1L;
+                // Must be read after the word: an object whose mark spans two words gets its first bit set first.
+                if (bitmapWordIndex > 0 && (colorMapBase.getLong(bitmapWordIndex - 1) >>> TricolorHeapMarker.LAST_BIT_INDEX_IN_WORD) != 0L) {
+                    markMask = ~1L;
+                }
+                final int bitmapWordFirstBitIndex = bitmapWordIndex << Word.widthValue().log2numberOfBits;
+                do {
+                    final long greyMarksInWord = bitmapWord & (bitmapWord >>> 1) & markMask;
+                    if (greyMarksInWord != 0L) {
+                        final int bitIndexInWord = Pointer.fromLong(greyMarksInWord).leastSignificantBitSet();
+                        visitGreyCell(heapMarker.addressOf(bitmapWordFirstBitIndex + bitIndexInWord).asPointer());
+                        drain();
+                        // Skip the mark just visited.
+                        final int nextBitIndexInWord = bitIndexInWord + 2;
+                        markMask = nextBitIndexInWord < Word.widthValue().numberOfBits ? -1L << nextBitIndexInWord : 0L;
+                        bitmapWord = colorMapBase.getLong(bitmapWordIndex);
+                        continue;
+                    }
+                    if ((markMask >>> TricolorHeapMarker.LAST_BIT_INDEX_IN_WORD) != 0L && (bitmapWord >>> TricolorHeapMarker.LAST_BIT_INDEX_IN_WORD) != 0L &&
+                                    (colorMapBase.getLong(bitmapWordIndex + 1) & 1L) != 0L) {
+                        // Grey mark spanning two words.
+                        visitGreyCell(heapMarker.addressOf(bitmapWordFirstBitIndex + TricolorHeapMarker.LAST_BIT_INDEX_IN_WORD).asPointer());
+                        drain();
+                    }
+                    break;
+                } while (true);
+            }
+        }
+    }
+
+    ParallelTricolorMarking(TricolorHeapMarker heapMarker, int maxWorkers, int dequeLength) {
+        this.heapMarker = heapMarker;
+        workers = new Worker[maxWorkers];
+        for (int i = 0; i < maxWorkers; i++) {
+            workers[i] = new Worker(i);
+            workers[i].deque.initialize(dequeLength);
+        }
+    }
+
+    /**
+     * Indicates whether the GC worker gang can run parallel marking, i.e., whether it has started its worker threads.
+     */
+    boolean isEnabled() {
+        final GCWorkerGang gang = GCWorkerGang.gang();
+        return gang.isParallel() && gang.numWorkers() <= workers.length;
+    }
+
+    void resetStatistics() {
+        overflowPasses = 0;
+    }
+
+    private int claimChunk() {
+        return atomicAdd(nextChunkOffset(), 1);
+    }
+
+    /**
+     * Called by a worker that ran out of work to offer terminating the current pass.
+     *
+     * @return true if all the workers ran out of work, false if some work became available to steal
+     */
+    private boolean offerTermination() {
+        atomicAdd(idleWorkersOffset(), 1);
+        while (true) {
+            if (idleWorkers == numWorkers) {
+                return true;
+            }
+            for (int i = 0; i < numWorkers; i++) {
+                if (!workers[i].deque.isEmpty()) {
+                    atomicAdd(idleWorkersOffset(), -1);
+                    return false;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    private void discoverSpecialReference(Pointer cell) {
+        final Reference self = Reference.fromJava(this);
+        while (self.compareAndSwapInt(specialReferenceLockOffset(), 0, 1) != 0) {
+            Thread.yield();
+        }
+        SpecialReferenceManager.discoverSpecialReference(cell);
+        specialReferenceLock = 0;
+    }
+
+    public void run(int workerIndex, int numWorkers) {
+        final Worker worker = workers[workerIndex];
+        int chunk = claimChunk();
+        while (chunk < numChunks) {
+            final int first = firstBitmapWordIndex + (chunk << LOG2_CHUNK_BITMAP_WORDS);
+            final int last = first + (1 << LOG2_CHUNK_BITMAP_WORDS) - 1;
+            worker.visitGreyObjects(first, last < lastBitmapWordIndex ? last : lastBitmapWordIndex);
+            chunk = claimChunk();
+        }
+        do {
+            worker.drain();
+            while (worker.stealAndDrain()) {
+                // keep stealing
+            }
+        } while (!offerTermination());
+    }
+
+    private void setScanRange(Address leftmost, Address rightmost) {
+        if (leftmost.greaterThan(rightmost)) {
+            numChunks = 0;
+            return;
+        }
+        firstBitmapWordIndex = heapMarker.bitmapWordIndex(leftmost);
+        lastBitmapWordIndex = heapMarker.bitmapWordIndex(rightmost);
+        numChunks = ((lastBitmapWordIndex - firstBitmapWordIndex) >> LOG2_CHUNK_BITMAP_WORDS) + 1;
+    }
+
+    /**
+     * Trace from the grey objects whose marks are in the specified range of the covered area, and from the cells
+     * already on the workers' deques. Returns when no grey marks are left.
+     */
+    private void visitGreyObjects(Address leftmost, Address rightmost) {
+        final GCWorkerGang gang = GCWorkerGang.gang();
+        setScanRange(leftmost, rightmost);
+        while (true) {
+            numWorkers = gang.numWorkers();
+            nextChunk = 0;
+            idleWorkers = 0;
+            gang.run(this);
+
+            Address leftmostOverflow = Address.max();
+            Address rightmostOverflow = Address.zero();
+            for (int i = 0; i < numWorkers; i++) {
+                final Worker worker = workers[i];
+                if (worker.rightmostOverflow.isNotZero()) {
+                    if (worker.leftmostOverflow.lessThan(leftmostOverflow)) {
+                        leftmostOverflow = worker.leftmostOverflow;
+                    }
+                    if (worker.rightmostOverflow.greaterThan(rightmostOverflow)) {
+                        rightmostOverflow = worker.rightmostOverflow;
+                    }
+                    worker.resetOverflow();
+                }
+            }
+            if (rightmostOverflow.isZero()) {
+                break;
+            }
+            overflowPasses++;
+            if (MaxineVM.isDebug() && Heap.logAllGC()) {
+                Log.print("Parallel marking overflow rescan of [");
+                Log.print(leftmostOverflow);
+                Log.print(", ");
+                Log.print(rightmostOverflow);
+                Log.println("]");
+            }
+            setScanRange(leftmostOverflow, rightmostOverflow);
+        }
+        heapMarker.forwardScanState.rightmost = rightmost();
+        heapMarker.forwardScanState.finger = heapMarker.forwardScanState.rightmost;
+    }
+
+    /**
+     * Rightmost cell marked so far.
+     */
+    private Address rightmost() {
+        Address rightmost = heapMarker.forwardScanState.rightmost;
+        for (Worker worker : workers) {
+            if (worker.rightmost.greaterThan(rightmost)) {
+                rightmost = worker.rightmost;
+            }
+        }
+        return rightmost;
+    }
+
+    /**
+     * Trace from all the objects marked grey during root marking.
+     */
+    void visitGreyObjectsAfterRootMarking() {
+        final RootCellVisitor rootCellVisitor = heapMarker.rootCellVisitor();
+        final Address leftmost = rootCellVisitor.leftmost;
+        Address rightmost = rootCellVisitor.rightmost;
+        if (leftmost.lessThan(heapMarker.coveredAreaEnd) && leftmost.greaterThan(rightmost)) {
+            // A single root was marked.
+            rightmost = leftmost;
+        }
+        heapMarker.forwardScanState.rightmost = rightmost;
+        for (Worker worker : workers) {
+            worker.reset(rightmost);
+        }
+        visitGreyObjects(leftmost, rightmost);
+    }
+
+    /**
+     * Trace from the objects {@linkplain #preserve(Reference) preserved} while processing special references.
+     */
+    void visitPreservedObjects() {
+        visitGreyObjects(Address.max(), Address.zero());
+    }
+
+    public boolean isReachable(Reference ref) {
+        final Pointer origin = ref.toOrigin();
+        if (heapMarker.isCovered(origin)) {
+            return !heapMarker.isWhite(origin);
+        }
+        // See ForwardScanState.isReachable
+        return true;
+    }
+
+    public Reference preserve(Reference ref) {
+        // Only called by the GC thread when no workers are running. The preserved objects are traced by visitPreservedObjects.
+        workers[0].markRefGrey(ref);
+        return ref;
+    }
+
+    public boolean mayRelocateLiveObjects() {
+        return false;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.gcx.rset.ctbl.*;
+
+/**
+ * Evacuator of the regions of a {@link RegionCompactionSet} to the free space of the card-table covered space they belong to.
+ * Must run after the space was marked and swept. The cells of the set that are still live are reachable from the roots,
+ * the boot, code and immortal heaps, or the cells recorded in the remembered set of the compaction set while marking, so
+ * the rest of the space is never scanned.
+ * <p>
+ * The referents of special references are treated as strong references: the marking that precedes the evacuation already
+ * decided which referents are live, and cleared the others. The links of the special references it added to the pending
+ * list are updated by visiting the pending list, as they were set after the references were visited by the marking.
+ */
+public final class RegionCompactingEvacuator extends EvacuatorToCardSpace {
+    private final RegionCompactionSet compactionSet;
+
+    public RegionCompactingEvacuator(RegionCompactionSet compactionSet, HeapSpace toSpace, EvacuationBufferProvider evacuationBufferProvider, CardTableRSet rset) {
+        super(compactionSet, toSpace, evacuationBufferProvider, rset, "Compaction");
+        this.compactionSet = compactionSet;
+    }
+
+    @Override
+    protected void doBeforeEvacuation() {
+        super.doBeforeEvacuation();
+        disableSpecialRefDiscovery();
+    }
+
+    @Override
+    protected void evacuateFromRSets() {
+        compactionSet.visitReferrers(this);
+        SpecialReferenceManager.visitPendingReferences(this);
+    }
+}
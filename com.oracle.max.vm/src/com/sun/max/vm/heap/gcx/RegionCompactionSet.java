@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.sun.max.vm.heap.gcx.HeapRegionConstants.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Set of regions of a {@link FirstFitMarkSweepSpace} selected for evacuation by the next collection of the space,
+ * together with the remembered set of the selected regions.
+ * <p>
+ * Regions are selected at the end of a collection, after sweeping, when the exact amount of live data in each region is
+ * known (see {@link FirstFitMarkSweepSpace#selectCompactionCandidates(RegionCompactionSet, int, int)}). They are withdrawn
+ * from allocation until the next collection, which records, while marking, the location of every live cell outside of the
+ * set that refers to a cell in the set (see {@link #recordReferrer(Pointer, Hub)}). Once the space is swept, the live cells
+ * of the selected regions are evacuated by a {@link RegionCompactingEvacuator} that only needs to scan the recorded cells,
+ * in addition to the roots, to update all the references to them. The regions are then freed.
+ * <p>
+ * The remembered set is a bounded buffer allocated outside of the heap. If it overflows, the evacuation is abandoned for
+ * the collection and the regions returned to the space.
+ */
+public final class RegionCompactionSet implements EvacuatingSpace {
+    /**
+     * Table of one byte per region of the heap, set if the region is in the set. Allocated outside of the heap.
+     */
+    private Pointer candidateTable = Pointer.zero();
+
+    /**
+     * Buffer of the cells referring to the regions of the set, allocated outside of the heap.
+     */
+    private Pointer referrers = Pointer.zero();
+
+    /**
+     * Capacity of the {@link #referrers} buffer, in number of cells.
+     */
+    private int maxReferrers;
+
+    /**
+     * Number of cells recorded in the {@link #referrers} buffer. May exceed {@link #maxReferrers} if the buffer overflowed.
+     * Incremented atomically, as the buffer may be filled by the workers of a parallel marking.
+     */
+    private volatile int numReferrers;
+
+    private int numRegions;
+
+    private final SpaceBounds bounds;
+
+    public RegionCompactionSet() {
+        bounds = new SpaceBounds() {
+            @Override
+            boolean isIn(Address address) {
+                return contains(address);
+            }
+
+            @Override
+            boolean isContiguous() {
+                return false;
+            }
+
+            @Override
+            Address lowestAddress() {
+                FatalError.unexpected("must not be used for now");
+                return Address.zero();
+            }
+
+            @Override
+            Address highestAddress() {
+                FatalError.unexpected("must not be used for now");
+                return Address.zero();
+            }
+        };
+    }
+
+    @FOLD
+    private static int numReferrersOffset() {
+        return ClassActor.fromJava(RegionCompactionSet.class).findLocalInstanceFieldActor("numReferrers").offset();
+    }
+
+    /**
+     * Allocate the tables of the set. Must be called at VM startup, once the heap region manager is initialized.
+     *
+     * @param maxReferrers maximum number of cells the remembered set can record
+     */
+    public void initialize(int maxReferrers) {
+        final int numHeapRegions = numberOfRegions(HeapRegionManager.theHeapRegionManager().bounds().size());
+        final Size referrersSize = Size.fromInt(maxReferrers).shiftedLeft(Word.widthValue().log2numberOfBytes);
+        candidateTable = Memory.allocate(Size.fromInt(numHeapRegions));
+        referrers = Memory.allocate(referrersSize);
+        if (candidateTable.isZero() || referrers.isZero()) {
+            MaxineVM.reportPristineMemoryFailure("region compaction set", "allocate", referrersSize.plus(numHeapRegions));
+        }
+        Memory.clearBytes(candidateTable, numHeapRegions);
+        this.maxReferrers = maxReferrers;
+    }
+
+    public SpaceBounds bounds() {
+        return bounds;
+    }
+
+    /**
+     * Indicates whether an address points to a region of the set.
+     */
+    @INLINE
+    public boolean contains(Address address) {
+        final int regionID = RegionTable.theRegionTable().regionID(address);
+        return regionID != INVALID_REGION_ID && candidateTable.getByte(regionID) != 0;
+    }
+
+    public void doBeforeGC() {
+    }
+
+    public void doAfterGC() {
+    }
+
+    /**
+     * Number of regions in the set.
+     */
+    public int size() {
+        return numRegions;
+    }
+
+    public boolean isEmpty() {
+        return numRegions == 0;
+    }
+
+    void add(int regionID) {
+        FatalError.check(candidateTable.getByte(regionID) == 0, "region already in compaction set");
+        candidateTable.setByte(regionID, (byte) 1);
+        numRegions++;
+    }
+
+    void remove(int regionID) {
+        candidateTable.setByte(regionID, (byte) 0);
+        numRegions--;
+    }
+
+    boolean isCandidate(int regionID) {
+        return numRegions > 0 && candidateTable.getByte(regionID) != 0;
+    }
+
+    /**
+     * Indicates whether the remembered set lost some cells, in which case the regions of the set cannot be evacuated.
+     */
+    public boolean hasOverflowed() {
+        return numReferrers > maxReferrers;
+    }
+
+    /**
+     * Number of cells recorded in the remembered set.
+     */
+    public int numReferrers() {
+        return Math.min(numReferrers, maxReferrers);
+    }
+
+    /**
+     * Empty the remembered set. Must be called before marking.
+     */
+    public void clearReferrers() {
+        numReferrers = 0;
+    }
+
+    /**
+     * Record a live cell in the remembered set if it is outside of the set and holds a reference to a cell in the set.
+     * Called by the heap marker when it visits a cell. May be called concurrently by the workers of a parallel marking.
+     * Special references are recorded if their referent is in the set, so the evacuator can update the referent without
+     * discovering the special reference again.
+     *
+     * @param origin origin of a cell being visited by the heap marker
+     * @param hub the hub of the cell
+     */
+    public void recordReferrer(Pointer origin, Hub hub) {
+        if (contains(origin) || !refersToSet(origin, hub)) {
+            return;
+        }
+        final Pointer thisAddress = Reference.fromJava(this).toOrigin();
+        int index;
+        do {
+            index = numReferrers;
+            if (index > maxReferrers) {
+                // Already overflowed.
+                return;
+            }
+        } while (thisAddress.compareAndSwapInt(numReferrersOffset(), index, index + 1) != index);
+        if (index < maxReferrers) {
+            referrers.setWord(index, Layout.originToCell(origin));
+        }
+    }
+
+    private boolean refersToSet(Pointer origin, Hub hub) {
+        if (contains(origin.getReference(Layout.hubIndex()).toOrigin())) {
+            return true;
+        }
+        final SpecificLayout specificLayout = hub.specificLayout;
+        if (specificLayout.isTupleLayout() || specificLayout.isHybridLayout()) {
+            final int n = hub.referenceMapStartIndex + hub.referenceMapLength;
+            for (int i = hub.referenceMapStartIndex; i < n; i++) {
+                if (contains(origin.getReference(hub.getInt(i)).toOrigin())) {
+                    return true;
+                }
+            }
+            return hub.isJLRReference && contains(origin.getReference(SpecialReferenceManager.referentIndex()).toOrigin());
+        }
+        if (specificLayout.isReferenceArrayLayout()) {
+            final int length = Layout.readArrayLength(origin);
+            for (int index = 0; index < length; index++) {
+                if (contains(Layout.getReference(origin, index).toOrigin())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Visit the cells recorded in the remembered set.
+     */
+    void visitReferrers(CellVisitor visitor) {
+        final int n = numReferrers();
+        for (int i = 0; i < n; i++) {
+            visitor.visitCell(referrers.getWord(i).asPointer());
+        }
+    }
+}
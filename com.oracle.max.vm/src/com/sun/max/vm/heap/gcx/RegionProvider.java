@@ -39,6 +39,7 @@ public interface RegionProvider {
      * Obtain a region with free space from the region provider.
      * TODO: may need to refine this with argument specify constraint on the requested region, e.g., empty, with minimum number of fragment or free space,
      * suitable for TLAB allocation, etc..
+     * Providers that sweep lazily may sweep regions on demand until one with free space is found.
      * @return an region identifier, or {@link HeapRegionConstants#INVALID_REGION_ID} if free space is exhausted.
      */
     int getAllocatingRegion();
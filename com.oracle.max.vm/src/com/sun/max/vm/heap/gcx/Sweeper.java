@@ -54,7 +54,19 @@ public abstract class Sweeper {
                         "Below this size, the space is ignored (dark matter)"),
                         MaxineVM.Phase.PRISTINE);
 
-    protected SweepLogger logger = MaxineVM.isDebug() ? new SweepLogger(true) : new SweepLogger();
+    protected final SweepLogger logger;
+
+    protected Sweeper() {
+        logger = MaxineVM.isDebug() ? new SweepLogger(true) : new SweepLogger();
+    }
+
+    /**
+     * Creates a sweeper that logs to the logger of another sweeper. Loggers can only be created when building the boot image,
+     * so sweepers created at runtime must use this constructor.
+     */
+    protected Sweeper(Sweeper sweeper) {
+        logger = sweeper.logger;
+    }
 
     /**
      * Invoked when doing precise sweeping on the first black object following the pointer last returned by this method.
@@ -31,6 +31,7 @@ import com.sun.max.vm.MaxineVM.Phase;
 import com.sun.max.vm.actor.holder.*;
 import com.sun.max.vm.code.*;
 import com.sun.max.vm.heap.*;
+import com.sun.max.vm.jni.*;
 import com.sun.max.vm.layout.*;
 import com.sun.max.vm.reference.*;
 import com.sun.max.vm.runtime.*;
@@ -150,8 +151,9 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         static MarkingError rightmostNotAboveCurrentRegionRangeError = new MarkingError("rightmost must be above the current regions range.");
         static MarkingError markMustBeBlackError = new MarkingError("mark must be black");
         void report(MARK_PHASE markPhase) {
-            if (MaxineVM.isDebug() && markPhase.compareTo(MARK_PHASE.SPECIAL_REF) < 0) {
-                // Throw the error to initiate redoing of the faulty marking. Can only do this if marking has reached special references handling.
+            if (MaxineVM.isDebug() && markPhase.compareTo(MARK_PHASE.SPECIAL_REF) < 0 && !GCWorkerGang.gang().isParallel()) {
+                // Throw the error to initiate redoing of the faulty marking. Can only do this if marking has reached special references handling,
+                // and if there are no GC worker threads (they would be left running the faulty marking).
                 throw this;
             }
             FatalError.unexpected(getMessage());
@@ -176,6 +178,11 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
      */
     static boolean VerifyGreyLessAreas = false;
 
+    /**
+     * Enables tracing of grey objects by all the workers of the {@link GCWorkerGang} when it has more than one.
+     */
+    static boolean UseParallelMarking = true;
+
     /**
      * A ready-to-use option to try new code.
      */
@@ -186,6 +193,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         VMOptions.addFieldOption("-XX:", "UseDeepMarkStackFlush", TricolorHeapMarker.class, "Visit flushed cells and mark their reference grey when flushing the mark stack", Phase.PRISTINE);
         VMOptions.addFieldOption("-XX:", "VerifyAfterMarking", TricolorHeapMarker.class, "Verify absence of grey bits after marking is completed", Phase.PRISTINE);
         VMOptions.addFieldOption("-XX:", "VerifyGreyLessAreas", TricolorHeapMarker.class, "Verify absence of grey bits in areas that shouldn't have any grey objects", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "UseParallelMarking", TricolorHeapMarker.class, "Trace grey objects with all the parallel GC threads (see -XX:ParallelGCThreads)", Phase.PRISTINE);
 
         VMOptions.addFieldOption("-XX:", "UseNewCode", TricolorHeapMarker.class, "Use new refactored code)", Phase.PRISTINE);
     }
@@ -315,6 +323,12 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
      */
     final MarkingStack markingStack;
 
+    /**
+     * State of parallel marking, or null if parallel marking is not used.
+     * @see #UseParallelMarking
+     */
+    private ParallelTricolorMarking parallelMarking;
+
     private final TimerMetric rootScanTimer = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
     private final TimerMetric bootHeapScanTimer = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
     private final TimerMetric codeScanTimer = new TimerMetric(new SingleUseTimer(HeapScheme.GC_TIMING_CLOCK));
@@ -441,6 +455,11 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         Log.print(recoveryScanTimer.getCount());
         Log.print(") =");
         Log.print(recoveryScanTimer.getElapsedTime());
+        if (parallelMarking != null) {
+            Log.print(", parallel marking overflow passes=");
+            Log.print(parallelMarking.overflowPasses);
+            parallelMarking.resetStatistics();
+        }
         Log.print(", weak refs=");
         Log.print(weakRefTimer.getLastElapsedTime());
     }
@@ -522,6 +541,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         markingStack = null;
         rootCellVisitor = null;
         heapRootsScanner = null;
+        remarkRootsScanner = null;
         overflowLinearScanState = null;
         overflowScanWithRescanMapState = null;
         initialize(start, end, bitmapStorage, bitmapSize);
@@ -542,6 +562,7 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         this.rootCellVisitor = rootCellVisitor;
         rootCellVisitor.initialize(this);
         heapRootsScanner = new SequentialHeapRootsScanner(rootCellVisitor);
+        remarkRootsScanner = new SequentialHeapRootsScanner(new RemarkRootVisitor(this));
         overflowLinearScanState = new OverflowLinearScanState(this);
         overflowScanWithRescanMapState = new OverflowScanWithRescanMapState(this);
     }
@@ -583,9 +604,20 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
                 overflowScanState = overflowLinearScanState;
             }
             overflowScanState.initialize();
+            if (UseParallelMarking && GCWorkerGang.ParallelGCThreads > 1) {
+                // Each worker's deque is as large as the marking stack used for serial marking.
+                parallelMarking = new ParallelTricolorMarking(this, GCWorkerGang.ParallelGCThreads, markingStack.length().toInt());
+            }
         }
     }
 
+    /**
+     * Indicates whether grey objects are to be traced in parallel.
+     */
+    private boolean useParallelMarking() {
+        return parallelMarking != null && parallelMarking.isEnabled();
+    }
+
     // Address to bitmap word / bit index operations.
 
     @INLINE
@@ -744,6 +776,72 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         markBlackFromGrey(bitIndex);
     }
 
+    /**
+     * Atomically set a bit in a word of the color map.
+     */
+    private void atomicSetBit(int wordIndex, long bitmask) {
+        final Pointer basePointer = base.asPointer();
+        final int offset = wordIndex << Word.widthValue().log2numberOfBytes;
+        long bitmapWord;
+        do {
+            bitmapWord = basePointer.getLong(wordIndex);
+        } while (basePointer.compareAndSwapLong(offset, bitmapWord, bitmapWord | bitmask) != bitmapWord);
+    }
+
+    /**
+     * Atomically paint grey a white cell. Used by parallel marking, wherein several workers may race to mark the same cell.
+     * The race is won by the worker that sets the first bit of the cell's color; the grey bit is set afterwards if the color spans words.
+     *
+     * @param cell a cell in the covered area
+     * @return true if the calling thread changed the color of the cell from white to grey
+     */
+    final boolean atomicMarkGreyIfWhite(Pointer cell) {
+        final int bitIndex = bitIndexOf(cell);
+        if (!isWhite(bitIndex)) {
+            return false;
+        }
+        final Pointer basePointer = base.asPointer();
+        final int wordIndex = bitmapWordIndex(bitIndex);
+        final int offset = wordIndex << Word.widthValue().log2numberOfBytes;
+        final long blackBitmask = bitmaskFor(bitIndex);
+        final boolean colorSpanWords = colorSpanWords(bitIndex);
+        final long colorBits = colorSpanWords ? blackBitmask : GREY << bitIndexInWord(bitIndex);
+        long bitmapWord;
+        do {
+            bitmapWord = basePointer.getLong(wordIndex);
+            if ((bitmapWord & blackBitmask) != 0L) {
+                return false;
+            }
+        } while (basePointer.compareAndSwapLong(offset, bitmapWord, bitmapWord | colorBits) != bitmapWord);
+        if (colorSpanWords) {
+            atomicSetBit(wordIndex + 1, 1L);
+        }
+        traceGreyMark(cell, bitIndex);
+        return true;
+    }
+
+    /**
+     * Atomically paint black a grey cell. Parallel marking workers use this to claim the visit of a grey cell.
+     *
+     * @param bitIndex bit index of the cell's color
+     * @return true if the calling thread changed the color of the cell from grey to black
+     */
+    final boolean atomicMarkBlackFromGrey(int bitIndex) {
+        final Pointer basePointer = base.asPointer();
+        final int greyBitIndex = bitIndex + 1;
+        final int wordIndex = bitmapWordIndex(greyBitIndex);
+        final int offset = wordIndex << Word.widthValue().log2numberOfBytes;
+        final long greyBitmask = bitmaskFor(greyBitIndex);
+        long bitmapWord;
+        do {
+            bitmapWord = basePointer.getLong(wordIndex);
+            if ((bitmapWord & greyBitmask) == 0L) {
+                return false;
+            }
+        } while (basePointer.compareAndSwapLong(offset, bitmapWord, bitmapWord & ~greyBitmask) != bitmapWord);
+        return true;
+    }
+
     final boolean isGrey(int bitIndex) {
         int bitIndexInWord = bitIndexInWord(bitIndex);
         if (bitIndexInWord == LAST_BIT_INDEX_IN_WORD) {
@@ -983,12 +1081,19 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
             if (MaxineVM.isDebug()) {
                 heapMarker.checkGreyCellHub(origin, hub);
             }
+            if (heapMarker.compactionSet != null) {
+                heapMarker.compactionSet.recordReferrer(origin, hub);
+            }
             // Update the other references in the object
             final SpecificLayout specificLayout = hub.specificLayout;
             if (specificLayout.isTupleLayout()) {
                 TupleReferenceMap.visitReferences(hub, origin, this);
                 if (hub.isJLRReference) {
-                    SpecialReferenceManager.discoverSpecialReference(cell);
+                    if (heapMarker.referentsAreStrong) {
+                        markRefGrey(origin.getReference(SpecialReferenceManager.referentIndex()));
+                    } else {
+                        SpecialReferenceManager.discoverSpecialReference(cell);
+                    }
                 }
             } else if (specificLayout.isHybridLayout()) {
                 TupleReferenceMap.visitReferences(hub, origin, this);
@@ -1141,10 +1246,17 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
             if (MaxineVM.isDebug()) {
                 heapMarker.checkGreyCellHub(origin, hub);
             }
+            if (heapMarker.compactionSet != null) {
+                heapMarker.compactionSet.recordReferrer(origin, hub);
+            }
             final SpecificLayout specificLayout = hub.specificLayout;
             if (specificLayout.isTupleLayout()) {
                 TupleReferenceMap.visitReferences(hub, origin, this);
                 if (hub.isJLRReference) {
+                    if (heapMarker.referentsAreStrong) {
+                        markRefGrey(origin.getReference(SpecialReferenceManager.referentIndex()));
+                        return cell.plus(hub.tupleSize);
+                    }
                     // The marking stack might have overflow before reaching this point, and doing so, it
                     // might have already register this reference to the SpecialReferenceManager
                     // (e.g., if using deep mark stack flush).
@@ -1264,6 +1376,48 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
      */
     private final SequentialHeapRootsScanner heapRootsScanner;
 
+    /**
+     * Visitor of the thread and monitor roots rescanned at the end of a concurrent marking cycle.
+     * Unlike the {@link #rootCellVisitor}, it marks roots with the forward scan state, since tracing has already started.
+     */
+    static final class RemarkRootVisitor extends PointerIndexVisitor {
+        final TricolorHeapMarker heapMarker;
+
+        RemarkRootVisitor(TricolorHeapMarker heapMarker) {
+            this.heapMarker = heapMarker;
+        }
+
+        @Override
+        public void visit(Pointer pointer, int wordIndex) {
+            heapMarker.markSATBEntry(pointer.getReference(wordIndex).toOrigin());
+        }
+    }
+
+    /**
+     * Scanning of thread and monitor roots at the end of a concurrent marking cycle.
+     */
+    private final SequentialHeapRootsScanner remarkRootsScanner;
+
+    /**
+     * Set for the duration of a concurrent marking cycle. The referents of special references are then marked as strong references:
+     * the {@link SpecialReferenceManager} can only process references discovered during a pause.
+     */
+    boolean referentsAreStrong;
+
+    /**
+     * Set of regions whose referrers are recorded while marking, or null if none. See {@link RegionCompactionSet}.
+     */
+    RegionCompactionSet compactionSet;
+
+    /**
+     * Set the regions whose referrers must be recorded by the next marking, if any.
+     *
+     * @param compactionSet a set of regions, or null to stop recording referrers
+     */
+    public void setCompactionSet(RegionCompactionSet compactionSet) {
+        this.compactionSet = compactionSet;
+    }
+
     void markBootHeap() {
         Heap.bootHeapRegion.visitReferences(rootCellVisitor);
     }
@@ -1637,18 +1791,47 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
      * This can server region-based heap as well as contiguous heap, wherein a single region is passed in this case.
      */
     public void sweep(HeapRegionSweeper regionsSweeper, boolean doImprecise) {
-        final Address endOfRightmostLiveObject = endOfCell(forwardScanState.rightmost);
-        do {
-            assert regionsSweeper.hasNextSweepingRegion();
-            regionsSweeper.beginSweep();
-            if (doImprecise) {
-                impreciseRegionSweep(regionsSweeper);
-            } else {
-                preciseRegionSweep(regionsSweeper);
-            }
-            regionsSweeper.endSweep();
-        } while(regionsSweeper.endOfSweepingRegion().lessThan(endOfRightmostLiveObject));
+        while (sweepNextRegion(regionsSweeper, doImprecise)) {
+        }
+    }
+
+    /**
+     * Sweep the next region of a heap region sweeper. Allows a sweep to be carried out incrementally, one region at a time.
+     * The color map must be left untouched until the sweeper has reached the rightmost live region.
+     *
+     * @return false if the sweeper has reached the rightmost live region, i.e., the sweep is complete; true otherwise.
+     */
+    public boolean sweepNextRegion(HeapRegionSweeper regionsSweeper, boolean doImprecise) {
+        assert regionsSweeper.hasNextSweepingRegion();
+        regionsSweeper.beginSweep();
+        sweepRegion(regionsSweeper, doImprecise);
+        regionsSweeper.endSweep();
+        if (regionsSweeper.endOfSweepingRegion().lessThan(endOfCell(forwardScanState.rightmost))) {
+            return true;
+        }
         regionsSweeper.reachedRightmostLiveRegion();
+        return false;
+    }
+
+    /**
+     * Sweep the region a heap region sweeper is currently sweeping, i.e., between calls to its {@link HeapRegionSweeper#beginSweep()} and
+     * {@link HeapRegionSweeper#endSweep()} methods. Regions are independent of each other, except for multi-region objects, so
+     * different sweepers may sweep different regions concurrently, as long as the head of a multi-region object and the regions it
+     * spans are swept by the same sweeper.
+     */
+    public void sweepRegion(HeapRegionSweeper sweeper, boolean doImprecise) {
+        if (doImprecise) {
+            impreciseRegionSweep(sweeper);
+        } else {
+            preciseRegionSweep(sweeper);
+        }
+    }
+
+    /**
+     * Indicates whether the color map has a black mark for any cell in the specified range of addresses.
+     */
+    public boolean hasBlackMark(Address start, Address end) {
+        return firstBlackMark(bitIndexOf(start), bitIndexOf(end)) >= 0;
     }
 
     /**
@@ -1791,7 +1974,12 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         markPhase = MARK_PHASE.VISIT_GREY_FORWARD;
         markPhase.traceBegin(traceGCPhases);
         startTimer(heapMarkingTimer);
-        visitGreyObjectsAfterRootMarking();
+        final boolean parallel = useParallelMarking();
+        if (parallel) {
+            parallelMarking.visitGreyObjectsAfterRootMarking();
+        } else {
+            visitGreyObjectsAfterRootMarking();
+        }
         stopTimer(heapMarkingTimer);
         markPhase.traceEnd(traceGCPhases);
 
@@ -1807,8 +1995,14 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         markPhase = MARK_PHASE.SPECIAL_REF;
         markPhase.traceBegin(traceGCPhases);
         startTimer(weakRefTimer);
-        SpecialReferenceManager.processDiscoveredSpecialReferences(forwardScanState);
-        visitGreyObjects();
+        if (parallel) {
+            SpecialReferenceManager.processDiscoveredSpecialReferences(parallelMarking);
+            parallelMarking.visitPreservedObjects();
+        } else {
+            SpecialReferenceManager.processDiscoveredSpecialReferences(forwardScanState);
+            visitGreyObjects();
+        }
+        JniHandles.processWeakGlobalReferences(forwardScanState);
         stopTimer(weakRefTimer);
         markPhase.traceEnd(traceGCPhases);
 
@@ -1837,7 +2031,12 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         markPhase = MARK_PHASE.VISIT_GREY_FORWARD;
         markPhase.traceBegin(traceGCPhases);
         startTimer(heapMarkingTimer);
-        visitGreyObjectsAfterRootMarking(regionsRanges);
+        if (useParallelMarking()) {
+            // The parallel trace covers the whole color map, so it doesn't need to iterate over the region ranges.
+            parallelMarking.visitGreyObjectsAfterRootMarking();
+        } else {
+            visitGreyObjectsAfterRootMarking(regionsRanges);
+        }
         stopTimer(heapMarkingTimer);
         markPhase.traceEnd(traceGCPhases);
 
@@ -1899,18 +2098,123 @@ public class TricolorHeapMarker implements MarkingStack.OverflowHandler, HeapMan
         markPhase = MARK_PHASE.SPECIAL_REF;
         markPhase.traceBegin(traceGCPhases);
         startTimer(weakRefTimer);
-        SpecialReferenceManager.processDiscoveredSpecialReferences(forwardScanState);
-        // Note: the VISIT_GREY_FORWARD has already visited the whole heap, so any additional grey reference added by the special reference
-        // manager are on the marking stack. Draining that stack may nevertheless add new grey reference after the finger, so we still
-        // need to iterate over the region ranges past the finger, hence the reset.
-        regionsRanges.reset();
-        visitGreyObjects(regionsRanges);
+        if (useParallelMarking()) {
+            SpecialReferenceManager.processDiscoveredSpecialReferences(parallelMarking);
+            parallelMarking.visitPreservedObjects();
+        } else {
+            SpecialReferenceManager.processDiscoveredSpecialReferences(forwardScanState);
+            // Note: the VISIT_GREY_FORWARD has already visited the whole heap, so any additional grey reference added by the special reference
+            // manager are on the marking stack. Draining that stack may nevertheless add new grey reference after the finger, so we still
+            // need to iterate over the region ranges past the finger, hence the reset.
+            regionsRanges.reset();
+            visitGreyObjects(regionsRanges);
+        }
+        JniHandles.processWeakGlobalReferences(forwardScanState);
         stopTimer(weakRefTimer);
         markPhase.traceEnd(traceGCPhases);
         FatalError.check(markingStack.isEmpty(), "Marking Stack must be empty after special references are processed.");
         markPhase = MARK_PHASE.DONE;
     }
 
+    /**
+     * Starts a concurrent marking cycle: clears the color map and marks the roots grey. Must be called during a pause.
+     * Tracing continues concurrently with the mutators with {@link #markConcurrently(HeapRegionRangeIterable)}, which relies on
+     * a snapshot-at-the-beginning write barrier to record the references overwritten by the mutators
+     * (see {@link #markSATBEntry(Pointer)}). Objects allocated during the cycle aren't tracked by the write barrier, and must be marked with
+     * {@link #markAllocated(Address, Address)} before the cycle ends.
+     *
+     * @param regionsRanges enumerate ranges of heap regions holding objects to trace
+     */
+    public void beginConcurrentMarking(HeapRegionRangeIterable regionsRanges) {
+        traceGCTimes = Heap.logGCTime();
+        markingStack.reset();
+        clearColorMap();
+        overflowScanState.setHeapRegionsRanges(regionsRanges);
+        markRoots();
+        // Weak global handles aren't processed at the end of the cycle: their referents must survive it.
+        JniHandles.visitWeakGlobalReferences(rootCellVisitor);
+        initAfterRootMarking();
+        referentsAreStrong = true;
+        markPhase = MARK_PHASE.VISIT_GREY_FORWARD;
+    }
+
+    /**
+     * Visit all the grey objects of the heap regions enumerated by the iterable region range.
+     * Called concurrently with the mutators by a single marking thread, both to trace the heap from the roots
+     * and to trace from the references recorded by the write barrier.
+     *
+     * @param regionsRanges enumerate ranges of heap regions holding objects to trace
+     */
+    public void markConcurrently(HeapRegionRangeIterable regionsRanges) {
+        regionsRanges.reset();
+        visitGreyObjects(regionsRanges);
+    }
+
+    /**
+     * Mark grey a reference recorded by the write barrier during a concurrent marking cycle, or found in a root at the
+     * end of the cycle. Grey objects are visited by the next {@link #markConcurrently(HeapRegionRangeIterable)} or
+     * {@link #endConcurrentMarking(HeapRegionRangeIterable)}.
+     *
+     * @param origin origin of the referenced object. Ignored if not covered by the mark bitmap.
+     */
+    public void markSATBEntry(Pointer origin) {
+        if (isCovered(origin)) {
+            forwardScanState.visit(Reference.fromOrigin(origin));
+        }
+    }
+
+    /**
+     * Rescan thread and monitor roots at the end of a concurrent marking cycle. Must be called during a pause.
+     */
+    public void remarkRoots() {
+        remarkRootsScanner.run();
+    }
+
+    /**
+     * Completes the tracing of a concurrent marking cycle. Must be called during a pause, after all the references
+     * recorded by the write barrier were marked.
+     *
+     * @param regionsRanges enumerate ranges of heap regions holding objects to trace
+     */
+    public void endConcurrentMarking(HeapRegionRangeIterable regionsRanges) {
+        markConcurrently(regionsRanges);
+        FatalError.check(markingStack.isEmpty(), "Marking Stack must be empty after concurrent marking.");
+        referentsAreStrong = false;
+        markPhase = MARK_PHASE.DONE;
+    }
+
+    /**
+     * Abandon the current concurrent marking cycle, e.g., to run a full stop-the-world marking instead.
+     */
+    public void abortConcurrentMarking() {
+        markingStack.reset();
+        referentsAreStrong = false;
+    }
+
+    /**
+     * Mark grey all the objects of a parsable range of the heap, skipping free chunks and dark matter. Used at the end of a
+     * concurrent marking cycle to keep alive the objects allocated during the cycle, which the write barrier doesn't track.
+     * The range may hold objects that became unreachable before the cycle began: they are kept alive until the next
+     * cycle, which is safe as long as all dead space was formatted by the last sweep.
+     *
+     * @param start address of the first cell of the range
+     * @param end end of the range. The last cell may extend past it.
+     */
+    public void markAllocated(Address start, Address end) {
+        Pointer cell = start.asPointer();
+        while (cell.lessThan(end)) {
+            final Pointer origin = Layout.cellToOrigin(cell);
+            if (HeapFreeChunk.isHeapFreeChunkOrigin(origin)) {
+                cell = cell.plus(HeapFreeChunk.getFreechunkSize(cell));
+                continue;
+            }
+            if (!DarkMatter.isDarkMatterHub(origin.readWord(Layout.hubIndex()))) {
+                forwardScanState.visit(Reference.fromOrigin(origin));
+            }
+            cell = cell.plus(Layout.size(origin));
+        }
+    }
+
     /**
      * Contiguous region of memory used by the heap marker for the color map.
      * @return a non-null {@link MemoryRegion}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx;
+
+import static com.oracle.max.cri.intrinsics.MemoryBarriers.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.reference.*;
+
+/**
+ * Fixed-capacity work-stealing deque of cell pointers for parallel heap tracing (Chase and Lev, SPAA 2005, without
+ * the resizing). The owner of the deque pushes and pops cells at the bottom end; other workers steal cells from the
+ * top end. Only the owner may call {@link #push(Pointer)} and {@link #pop()}.
+ * <p>
+ * The deque doesn't grow: {@link #push(Pointer)} fails when the deque is full, and the caller is responsible for
+ * recovering from the overflow (e.g., by leaving the cell grey in a mark bitmap and rescanning it later).
+ */
+final class WorkStealingDeque {
+    /**
+     * Storage for the cells, allocated outside of the heap.
+     */
+    private Pointer slots;
+    private long mask;
+
+    /**
+     * Index of the next cell to steal.
+     */
+    private volatile long top;
+
+    /**
+     * Index of the next free slot at the owner's end.
+     */
+    private volatile long bottom;
+
+    @FOLD
+    private static int topOffset() {
+        return ClassActor.fromJava(WorkStealingDeque.class).findLocalInstanceFieldActor("top").offset();
+    }
+
+    WorkStealingDeque() {
+    }
+
+    /**
+     * Allocates the storage of the deque.
+     *
+     * @param length minimum number of cells the deque can hold. Rounded up to a power of two.
+     */
+    void initialize(int length) {
+        int capacity = Integer.highestOneBit(length);
+        if (capacity < length) {
+            capacity <<= 1;
+        }
+        final Size size = Size.fromInt(capacity).shiftedLeft(Word.widthValue().log2numberOfBytes);
+        slots = Memory.allocate(size);
+        if (slots.isZero()) {
+            MaxineVM.reportPristineMemoryFailure("work-stealing deque", "allocate", size);
+        }
+        mask = capacity - 1;
+    }
+
+    @INLINE
+    private boolean casTop(long expectedValue, long newValue) {
+        return Reference.fromJava(this).compareAndSwapLong(topOffset(), expectedValue, newValue) == expectedValue;
+    }
+
+    /**
+     * Push a cell at the owner's end of the deque.
+     *
+     * @return false if the deque is full, true otherwise
+     */
+    boolean push(Pointer cell) {
+        final long b = bottom;
+        if (b - top > mask) {
+            return false;
+        }
+        slots.setWord((int) (b & mask), cell);
+        // The cell must be visible to thieves before the new bottom.
+        barrier(STORE_STORE);
+        bottom = b + 1;
+        return true;
+    }
+
+    /**
+     * Pop a cell from the owner's end of the deque.
+     *
+     * @return a cell pointer, or zero if the deque is empty or its last cell was stolen concurrently
+     */
+    Pointer pop() {
+        final long b = bottom - 1;
+        bottom = b;
+        barrier(STORE_LOAD);
+        final long t = top;
+        if (t > b) {
+            // Empty.
+            bottom = t;
+            return Pointer.zero();
+        }
+        Pointer cell = slots.getWord((int) (b & mask)).asPointer();
+        if (t == b) {
+            // Last cell: race with thieves for it.
+            if (!casTop(t, t + 1)) {
+                cell = Pointer.zero();
+            }
+            bottom = t + 1;
+        }
+        return cell;
+    }
+
+    /**
+     * Steal a cell from the top of the deque. May be called by any worker.
+     *
+     * @return a cell pointer, or zero if the deque is empty or another worker won the race for the top cell
+     */
+    Pointer steal() {
+        final long t = top;
+        barrier(LOAD_LOAD);
+        final long b = bottom;
+        if (t >= b) {
+            return Pointer.zero();
+        }
+        final Pointer cell = slots.getWord((int) (t & mask)).asPointer();
+        if (!casTop(t, t + 1)) {
+            return Pointer.zero();
+        }
+        return cell;
+    }
+
+    /**
+     * Indicates whether the deque looks empty. Only exact when called by the owner or when no other worker operates
+     * on the deque.
+     */
+    boolean isEmpty() {
+        return bottom <= top;
+    }
+
+    /**
+     * Empty the deque. Must only be called when no worker operates on the deque.
+     */
+    void reset() {
+        top = 0L;
+        bottom = 0L;
+    }
+}
@@ -57,9 +57,24 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
      */
     static int YoungGenHeapPercent = 30;
     static Size ELABSize = Size.K.times(64);
+    static boolean ConcurrentRefinement = false;
+    static boolean CompactOldGen = false;
+    static int CompactionRegionsPerGC = 8;
+    static int CompactionLiveThreshold = 30;
+    static int CompactionRSetSize = 64 * 1024;
     static {
         VMOptions.addFieldOption("-XX:", "YoungGenHeapPercent", GenMSEHeapScheme.class, "Fixed percentage of heap size that must be used by young gen", Phase.PRISTINE);
         VMOptions.addFieldOption("-XX:", "ELABSize", GenMSEHeapScheme.class, "Size of evacuation buffers for young gen evacuation to old gen", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ConcurrentRefinement", GenMSEHeapScheme.class,
+            "Refine the dirty cards of the old generation concurrently with the mutators", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "CompactOldGen", GenMSEHeapScheme.class,
+            "Evacuate the sparsest regions of the old generation at every old generation collection", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "CompactionRegionsPerGC", GenMSEHeapScheme.class,
+            "Maximum number of old generation regions evacuated by an old generation collection", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "CompactionLiveThreshold", GenMSEHeapScheme.class,
+            "Maximum percentage of live data of an old generation region selected for evacuation", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "CompactionRSetSize", GenMSEHeapScheme.class,
+            "Number of objects referring to the old generation regions selected for evacuation that can be remembered", Phase.PRISTINE);
     }
 
     public enum GenMSEHeapRegionTag {
@@ -104,6 +119,22 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
      */
     private final NoAgingNurseryEvacuator youngSpaceEvacuator;
 
+    /**
+     * Thread refining the dirty cards of the old generation between collections.
+     * Null unless concurrent refinement is enabled and the VM is running.
+     */
+    private ConcurrentCardRefinement cardRefinement;
+
+    /**
+     * Regions of the old generation selected for evacuation by the next old generation collection.
+     */
+    private final RegionCompactionSet compactionSet;
+
+    /**
+     * Evacuator of the regions of the {@link #compactionSet}.
+     */
+    private final RegionCompactingEvacuator compactingEvacuator;
+
     /**
      * Operation to submit to the {@link VmOperationThread} to perform a generational collection.
      */
@@ -134,6 +165,9 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
 
         oldSpace = new FirstFitMarkSweepSpace<GenMSEHeapScheme>(heapAccount, tlabAllocator, overflowAllocator, true, cardTableRSet, OLD.tag());
         youngSpaceEvacuator = new NoAgingNurseryEvacuator(youngSpace, oldSpace, this, cardTableRSet, "Young");
+        compactionSet = new RegionCompactionSet();
+        compactingEvacuator = new RegionCompactingEvacuator(compactionSet, oldSpace, this, cardTableRSet);
+        compactingEvacuator.setTimers(new EvacuationTimers());
         noYoungReferencesVerifier = new NoEvacuatedSpaceReferenceVerifier(cardTableRSet, youngSpace);
         fotVerifier = new FOTVerifier(cardTableRSet);
         genCollection = new GenCollection();
@@ -143,6 +177,11 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
     public void initialize(MaxineVM.Phase phase) {
         super.initialize(phase);
         cardTableRSet.initialize(phase);
+        if (phase == MaxineVM.Phase.RUNNING && ConcurrentRefinement) {
+            cardRefinement = ConcurrentCardRefinement.start(cardTableRSet, oldSpace, youngSpace);
+        } else if (phase == MaxineVM.Phase.TERMINATING && cardRefinement != null && Heap.verbose()) {
+            cardRefinement.printStats();
+        }
     }
 
     /**
@@ -243,6 +282,12 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             // worst case evacuation and the number of fragments of old space available for allocation.
             // Same with the lab size. In non parallel evacuators, this should be all the space available for allocation in a region.
             youngSpaceEvacuator.initialize(1000, false, oldSpace.minReclaimableSpace(), false);
+            // Old space ranges are runs of contiguous regions.
+            youngSpaceEvacuator.initializeParallelEvacuation(numberOfRegions(applicationHeapMaxSize));
+            if (CompactOldGen) {
+                compactionSet.initialize(CompactionRSetSize);
+                compactingEvacuator.initialize(1000, false, oldSpace.minReclaimableSpace(), true);
+            }
 
             if (HeapRangeDumper.DumpOnError) {
                 MemoryRegion dumpingCoverage = new MemoryRegion();
@@ -303,15 +348,54 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             oldSpace.doBeforeGC();
             regionsRangeIterable.initialize(heapAccount.committedRegions());
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.ANALYZING);
+            if (!compactionSet.isEmpty()) {
+                compactionSet.clearReferrers();
+                heapMarker.setCompactionSet(compactionSet);
+            }
             heapMarker.markAll(regionsRangeIterable);
+            heapMarker.setCompactionSet(null);
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.RECLAIMING);
             oldSpace.sweep(heapMarker, false);
+            if (CompactOldGen) {
+                compactOldGen();
+            }
             oldSpace.doAfterGC();
             youngSpaceEvacuator.doAfterGC();
             fullCollectionCount++;
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.MUTATING);
         }
 
+        /**
+         * Evacuate the old generation regions selected by the previous old generation collection, then select the sparsest
+         * regions for the next one. Must be called once the old generation is swept.
+         */
+        private void compactOldGen() {
+            // Selected regions found without live objects by the sweep are already freed.
+            if (!compactionSet.isEmpty()) {
+                if (compactionSet.hasOverflowed() || oldSpace.freeSpace().lessThan(oldSpace.compactionCandidatesLiveBytes().times(2))) {
+                    if (Heap.verbose()) {
+                        Log.println("--Old generation compaction abandoned");
+                    }
+                    oldSpace.releaseCompactionCandidates();
+                } else {
+                    compactingEvacuator.setGCOperation(this);
+                    compactingEvacuator.evacuate(false);
+                    compactingEvacuator.setGCOperation(null);
+                    final int numRegions = oldSpace.freeCompactedRegions();
+                    if (Heap.verbose()) {
+                        Log.print("--Old generation compaction: ");
+                        Log.print(numRegions);
+                        Log.print(" regions freed, ");
+                        Log.print(compactingEvacuator.evacuatedBytes().toLong());
+                        Log.print(" bytes evacuated, ");
+                        Log.print(compactionSet.numReferrers());
+                        Log.println(" referrers scanned");
+                    }
+                }
+            }
+            oldSpace.selectCompactionCandidates(compactionSet, CompactionRegionsPerGC, CompactionLiveThreshold);
+        }
+
         @Override
         protected void collect(int invocationCount) {
             // Collector proceeds as follows:
@@ -324,6 +408,10 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             // This requires evacuating all of its objects somehow. Rather that doing a full GC covering both
             // the old and young gen and somehow reclaim enough regions for a fresh nursery, we just perform a nursery evacuation.
             // The full GC is thereafter just a old gen GC with an empty young gen.
+            if (cardRefinement != null) {
+                // Stop refinement and get the cards it remembered dirtied again.
+                cardRefinement.beginPause();
+            }
             VmThreadMap.ACTIVE.forAllThreadLocals(null, tlabFiller);
             vmConfig().monitorScheme().beforeGarbageCollection();
             if (Heap.verbose()) {
@@ -361,6 +449,9 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
                     FatalError.unimplemented();
                 }
             }
+            if (cardRefinement != null) {
+                cardRefinement.endPause();
+            }
             final GCRequest gcRequest = callingThread().gcRequest;
             gcRequest.lastInvocationCount = invocationCount;
         }
@@ -444,7 +535,7 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the TLAB allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            setInitialTLABRefillPolicy(etla, tlabSize);
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the TLAB.
             return tlabAllocate(size);
@@ -475,19 +566,26 @@ final public class GenMSEHeapScheme extends HeapSchemeWithTLABAdaptor  implement
         return heapAccount;
     }
 
+    /**
+     * Thread refining the dirty cards of the old generation, or null if concurrent refinement isn't enabled.
+     */
+    public ConcurrentCardRefinement cardRefinement() {
+        return cardRefinement;
+    }
+
     @HOSTED_ONLY
     public XirWriteBarrierGenerator barrierGenerator(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec) {
         if (writeBarrierSpec.equals(TUPLE_POST_BARRIER)) {
             return new XirWriteBarrierGenerator() {
                 @Override
-                public void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands) {
+                public void genWriteBarrier(CiXirAssembler asm, XirRuntimeCallGenerator runtime, XirOperand ... operands) {
                     cardTableRSet.genTuplePostWriteBarrier(asm, operands[0]);
                 }
             };
         } else if (writeBarrierSpec.equals(ARRAY_POST_BARRIER)) {
             return new XirWriteBarrierGenerator() {
                 @Override
-                public void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands) {
+                public void genWriteBarrier(CiXirAssembler asm, XirRuntimeCallGenerator runtime, XirOperand ... operands) {
                     cardTableRSet.genArrayPostWriteBarrier(asm, operands[0], operands[1]);
                 }
             };
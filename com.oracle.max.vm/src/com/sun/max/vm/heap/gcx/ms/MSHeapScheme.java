@@ -344,13 +344,14 @@ public final class MSHeapScheme extends HeapSchemeWithTLABAdaptor {
      * otherwise, refills the TLAB with the next TLAB chunk and allocated from it.
      *
      * @param etla Pointer to enabled VMThreadLocals
+     * @param refillPolicy refill policy of the current thread, notified of the change of TLAB chunk
      * @param tlabMark current mark of the TLAB
      * @param tlabHardLimit hard limit of the current TLAB
      * @param chunk next chunk of this TLAB
      * @param size requested amount of memory
      * @return a pointer to the allocated memory
      */
-    private Pointer changeTLABChunkOrAllocate(Pointer etla, Pointer tlabMark, Pointer tlabHardLimit, Pointer chunk, Size size) {
+    private Pointer changeTLABChunkOrAllocate(Pointer etla, TLABRefillPolicy refillPolicy, Pointer tlabMark, Pointer tlabHardLimit, Pointer chunk, Size size) {
         Size chunkSize =  HeapFreeChunk.getFreechunkSize(chunk);
         Size effectiveSize = chunkSize.minus(tlabHeadroom());
         if (size.greaterThan(effectiveSize))  {
@@ -363,6 +364,7 @@ public final class MSHeapScheme extends HeapSchemeWithTLABAdaptor {
         // Zap chunk data to leave allocation area clean.
         Memory.clearWords(chunk, effectiveSize.unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt());
         chunk.plus(effectiveSize).setWord(nextChunk);
+        notifyTLABChunkChange(refillPolicy, tlabMark, tlabHardLimit, chunk, effectiveSize);
         fastRefillTLAB(etla, chunk, effectiveSize);
         return tlabAllocate(size);
     }
@@ -400,7 +402,7 @@ public final class MSHeapScheme extends HeapSchemeWithTLABAdaptor {
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of dirty meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the tlab allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            setInitialTLABRefillPolicy(etla, tlabSize);
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the tlab.
             return tlabAllocate(size);
@@ -422,15 +424,17 @@ public final class MSHeapScheme extends HeapSchemeWithTLABAdaptor {
                 Memory.clearWords(tlabEnd, tlabHeadroomNumWords());
                 if (nextChunk.isZero()) {
                     // Zero-out TLAB top and mark.
+                    notifyTLABChunkChange(refillPolicy, hardLimit, tlabEnd, Pointer.zero(), Size.zero());
                     fastRefillTLAB(etla, Pointer.zero(), Size.zero());
                 } else {
                     // TLAB has another chunk of free space. Set it.
-                    setNextTLABChunk(etla, nextChunk);
+                    final Size nextChunkEffectiveSize = setNextTLABChunk(etla, nextChunk);
+                    notifyTLABChunkChange(refillPolicy, hardLimit, tlabEnd, nextChunk, nextChunkEffectiveSize);
                 }
                 return cell;
             } else if (!(cell.equals(hardLimit) || nextChunk.isZero())) {
                 // We have another chunk, and we're not to limit yet. So we may change of TLAB chunk to satisfy the request.
-                return changeTLABChunkOrAllocate(etla, tlabMark, hardLimit, nextChunk, size);
+                return changeTLABChunkOrAllocate(etla, refillPolicy, tlabMark, hardLimit, nextChunk, size);
             }
 
             if (!refillPolicy.shouldRefill(size, tlabMark)) {
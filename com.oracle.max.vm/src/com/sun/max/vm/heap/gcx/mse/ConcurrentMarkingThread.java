@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx.mse;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.gcx.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * Thread tracing the heap concurrently with the mutators during a concurrent marking cycle of the {@link MSEHeapScheme}.
+ * The thread traces from the roots marked at the initial pause, then from the references recorded by the write barrier
+ * (see {@link SATBQueue}), until it runs out of grey objects. The cycle is then ready for the remark pause.
+ * <p>
+ * The thread walks the committed region list of the heap account without synchronizing with the mutators. Rather than snapshotting
+ * the list, the heap is kept from growing while a cycle is active: the regions committed at the initial pause are the only
+ * ones holding objects to trace, since the objects allocated during the cycle are kept alive by the remark without being traced,
+ * and the collection that would resize the heap remarks, thus ends the cycle, first.
+ * <p>
+ * Like the threads of the {@link GCWorkerGang}, the marking thread is a {@linkplain VmThread#isGCWorkerThread() GC worker thread}:
+ * it is allocated in the immortal heap and never allocates once started, so VM operations needn't freeze it.
+ * Instead, the remark pause {@linkplain #waitUntilTraced() waits} for it to be done.
+ */
+final class ConcurrentMarkingThread extends Thread {
+    private static final int IDLE = 0;
+    private static final int MARKING = 1;
+    private static final int TRACED = 2;
+
+    private final TricolorHeapMarker heapMarker;
+
+    /**
+     * Regions traced by the marking thread.
+     */
+    private final HeapRegionRangeIterable regionsRanges;
+
+    private Word mutex;
+    private Word condition;
+
+    /**
+     * State of the current cycle. Only changed with the mutex held, but may be read without it.
+     */
+    private volatile int state = IDLE;
+
+    ConcurrentMarkingThread(TricolorHeapMarker heapMarker, HeapRegionRangeIterable regionsRanges) {
+        super(VmThread.systemThreadGroup, "Concurrent marking");
+        this.heapMarker = heapMarker;
+        this.regionsRanges = regionsRanges;
+        setDaemon(true);
+    }
+
+    /**
+     * Creates and starts the marking thread once the VM is running.
+     */
+    static ConcurrentMarkingThread start(TricolorHeapMarker heapMarker, HeapRegionRangeIterable regionsRanges) {
+        final ConcurrentMarkingThread thread;
+        try {
+            Heap.enableImmortalMemoryAllocation();
+            thread = new ConcurrentMarkingThread(heapMarker, regionsRanges);
+            thread.mutex = OSMonitor.newMutex();
+            thread.condition = OSMonitor.newCondition();
+        } finally {
+            Heap.disableImmortalMemoryAllocation();
+        }
+        final VmThread vmThread = VmThreadFactory.create(thread);
+        vmThread.setAsGCWorkerThread();
+        vmThread.startVmSystemThread();
+        return thread;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            OSMonitor.nativeMutexLock(mutex);
+            while (state != MARKING) {
+                OSMonitor.nativeConditionWait(mutex, condition, 0);
+            }
+            OSMonitor.nativeMutexUnlock(mutex);
+
+            heapMarker.markConcurrently(regionsRanges);
+            while (SATBQueue.processCompletedBuffers(heapMarker)) {
+                heapMarker.markConcurrently(regionsRanges);
+            }
+
+            OSMonitor.nativeMutexLock(mutex);
+            state = TRACED;
+            OSMonitor.nativeConditionNotify(condition, true);
+            OSMonitor.nativeMutexUnlock(mutex);
+        }
+    }
+
+    /**
+     * Starts tracing concurrently. Called at the end of the initial marking pause.
+     */
+    void startMarking() {
+        OSMonitor.nativeMutexLock(mutex);
+        FatalError.check(state == IDLE, "concurrent marking cycle already started");
+        state = MARKING;
+        OSMonitor.nativeConditionNotify(condition, true);
+        OSMonitor.nativeMutexUnlock(mutex);
+    }
+
+    /**
+     * Waits for the marking thread to run out of grey objects, and ends the current cycle. Called by the remark pause.
+     */
+    void waitUntilTraced() {
+        OSMonitor.nativeMutexLock(mutex);
+        while (state == MARKING) {
+            OSMonitor.nativeConditionWait(mutex, condition, 0);
+        }
+        state = IDLE;
+        OSMonitor.nativeMutexUnlock(mutex);
+    }
+
+    /**
+     * Indicates whether a concurrent marking cycle is in progress.
+     */
+    boolean isActive() {
+        return state != IDLE;
+    }
+
+    /**
+     * Indicates whether the current cycle is ready for the remark pause.
+     */
+    boolean isTraced() {
+        return state == TRACED;
+    }
+}
@@ -26,11 +26,17 @@ import static com.sun.max.vm.VMConfiguration.*;
 import static com.sun.max.vm.heap.gcx.HeapRegionManager.*;
 import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.*;
 
+import com.sun.cri.ci.*;
+import com.sun.cri.ci.CiAddress.Scale;
+import com.sun.cri.xir.*;
+import com.sun.cri.xir.CiXirAssembler.XirLabel;
+import com.sun.cri.xir.CiXirAssembler.XirOperand;
 import com.sun.max.annotate.*;
 import com.sun.max.memory.*;
 import com.sun.max.platform.*;
 import com.sun.max.program.*;
 import com.sun.max.unsafe.*;
+import com.sun.max.util.*;
 import com.sun.max.util.timer.*;
 import com.sun.max.vm.*;
 import com.sun.max.vm.MaxineVM.Phase;
@@ -47,15 +53,21 @@ import com.sun.max.vm.thread.*;
  * Region-based Mark Sweep + Evacuation-based defragmentation Heap Scheme.
  * Used for testing region-based support.
  */
-public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements HeapAccountOwner {
+public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements HeapAccountOwner, XirWriteBarrierSpecification {
     private static final int WORDS_COVERED_PER_BIT = 1;
     static boolean DumpFragStatsAfterGC = false;
     static boolean DumpFragStatsAtGCFailure = false;
     static boolean DoImpreciseSweep = false;
+    static boolean ConcurrentMark = false;
+    static int ConcurrentMarkInitiatingOccupancy = 70;
     static {
         VMOptions.addFieldOption("-XX:", "DumpFragStatsAfterGC", MSEHeapScheme.class, "Dump region fragmentation stats after GC", Phase.PRISTINE);
         VMOptions.addFieldOption("-XX:", "DumpFragStatsAtGCFailure", MSEHeapScheme.class, "Dump region fragmentation when GC failed to reclaim enough space", Phase.PRISTINE);
         VMOptions.addFieldOption("-XX:", "DoImpreciseSweep", MSEHeapScheme.class, "Control whether to do precise or imprecise sweep", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ConcurrentMark", MSEHeapScheme.class,
+            "Mark the heap concurrently with the mutators, starting a marking cycle when heap occupancy reaches ConcurrentMarkInitiatingOccupancy", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "ConcurrentMarkInitiatingOccupancy", MSEHeapScheme.class,
+            "Percentage of the heap in use that starts a concurrent marking cycle", Phase.PRISTINE);
     }
 
     /**
@@ -72,6 +84,28 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
 
     final MarkSweepCollection collect = new MarkSweepCollection();
 
+    final InitialMarking initialMarking = new InitialMarking();
+
+    /**
+     * Thread tracing the heap during concurrent marking cycles.
+     * Null unless concurrent marking is enabled and the VM is running.
+     */
+    private ConcurrentMarkingThread concurrentMarkingThread;
+
+    /**
+     * Heap regions traced by concurrent marking cycles, i.e., the committed regions of the heap account.
+     * The marking thread walks the committed region list while the mutators run, so the list must not change during a cycle:
+     * the mark sweep space doesn't grow while it tracks allocations for a cycle (see {@link FirstFitMarkSweepSpace#beginConcurrentMarking()}),
+     * and the only collection that can resize it remarks first.
+     */
+    private final HeapRegionRangeIterable concurrentMarkingRegions = new HeapRegionRangeIterable();
+
+    /**
+     * Number of committed regions at the initial marking pause of the current concurrent marking cycle.
+     * Checked at the remark pause, as a change means the marking thread walked a region list being modified.
+     */
+    private int concurrentMarkingCommittedRegions;
+
     /**
      * An instance of an after mark sweep verifier to use for heap verification after a mark sweep.
      * @see Sweeper
@@ -102,6 +136,9 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
     @Override
     public void initialize(MaxineVM.Phase phase) {
         super.initialize(phase);
+        if (phase == MaxineVM.Phase.RUNNING && ConcurrentMark) {
+            concurrentMarkingThread = ConcurrentMarkingThread.start(heapMarker, concurrentMarkingRegions);
+        }
     }
 
     /**
@@ -149,7 +186,14 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
                 FatalError.unexpected("Failed to create application heap");
             }
 
+            if (ConcurrentMark) {
+                // Objects allocated during a concurrent marking cycle are found by walking the regions they were allocated in,
+                // which requires all dead space to be formatted. Imprecise sweeping leaves unformatted dead space behind.
+                markSweepSpace.enableConcurrentMarking();
+                DoImpreciseSweep = false;
+            }
             markSweepSpace.initialize(initSize, applicationHeapMaxSize);
+            concurrentMarkingRegions.initialize(markSweepSpace.heapAccount().committedRegions());
             if (!VirtualMemory.commitMemory(heapMarkerDataStart, heapMarkerDatasize,  VirtualMemory.Type.DATA)) {
                 MaxineVM.reportPristineMemoryFailure("heapMarkerDataStart", "commit", heapMarkerDatasize);
             }
@@ -175,6 +219,8 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
 
     private void reportFragmentationStats(boolean reclaimedEnoughSpace) {
         if (DumpFragStatsAfterGC || (!reclaimedEnoughSpace && DumpFragStatsAtGCFailure)) {
+            // Statistics are computed from the state of the regions, which is only exact once they are swept.
+            markSweepSpace.completeSweep();
             fragmentationStats.reportStats(heapAccount());
         }
     }
@@ -186,10 +232,31 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
     private final long [] allocatedSinceLastGC = new long[16];
     private long usedSpaceAfterLastGC;
 
-    private static final class MSEGCRequest extends GCRequest {
+    static final class MSEGCRequest extends GCRequest {
+        /**
+         * Buffer of the thread for the references recorded by the concurrent marking write barrier (see {@link SATBQueue}).
+         */
+        Pointer satbBuffer = Pointer.zero();
+
+        /**
+         * Set once the thread handed over its buffer before terminating.
+         */
+        boolean satbDetached;
+
+        /**
+         * Indicates that the request is for one of the pauses of a concurrent marking cycle rather than for space.
+         */
+        boolean concurrentMarkingPause;
+
         protected MSEGCRequest(VmThread thread) {
             super(thread);
         }
+
+        @Override
+        public void clear() {
+            super.clear();
+            concurrentMarkingPause = false;
+        }
     }
 
     public GCRequest createThreadLocalGCRequest(VmThread vmThread) {
@@ -197,10 +264,20 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
     }
 
     @INTRINSIC(UNSAFE_CAST)
-    private static native MSEGCRequest asMSEGCRequest(GCRequest gcRequest);
+    static native MSEGCRequest asMSEGCRequest(GCRequest gcRequest);
 
     public boolean collectGarbage() {
         final MSEGCRequest gcRequest = asMSEGCRequest(VmThread.current().gcRequest);
+        if (gcRequest.concurrentMarkingPause) {
+            gcRequest.concurrentMarkingPause = false;
+            // Another thread may have run the pause while this one was waiting for the heap lock.
+            if (concurrentMarkingThread.isTraced()) {
+                collect.submit();
+            } else if (!concurrentMarkingThread.isActive()) {
+                initialMarking.submit();
+            }
+            return true;
+        }
         final Size usedSpaceBefore = markSweepSpace.usedSpace();
         if (MaxineVM.isDebug()) {
             final int logCursor = collectionCount % 16;
@@ -261,6 +338,141 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
     public void writeBarrier(Reference from, Reference to) {
     }
 
+    /**
+     * The pre-write barrier is compiled in unconditionally, as whether concurrent marking is enabled is only known at
+     * VM startup. It only records the overwritten reference while a concurrent marking cycle is in progress.
+     */
+    @INLINE
+    @Override
+    public boolean needsBarrier(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec) {
+        return writeBarrierSpec.isSet(WriteBarrierSpec.PRE_WRITE);
+    }
+
+    @INLINE
+    @Override
+    public void preWriteBarrier(Reference ref, Offset offset, Reference value) {
+        if (SATBQueue.isActive()) {
+            SATBQueue.theQueue.enqueue(ref.readReference(offset));
+        }
+    }
+
+    @INLINE
+    @Override
+    public void preWriteBarrier(Reference ref,  int displacement, int index, Reference value) {
+        if (SATBQueue.isActive()) {
+            SATBQueue.theQueue.enqueue(ref.getReference(displacement, index));
+        }
+    }
+
+    @HOSTED_ONLY
+    public XirWriteBarrierGenerator barrierGenerator(IntBitSet<WriteBarrierSpecification.WriteBarrierSpec> writeBarrierSpec) {
+        if (writeBarrierSpec.equals(TUPLE_PRE_BARRIER)) {
+            return new XirWriteBarrierGenerator() {
+                @Override
+                public void genWriteBarrier(CiXirAssembler asm, XirRuntimeCallGenerator runtime, XirOperand ... operands) {
+                    genSATBPreWriteBarrier(asm, runtime, operands[0], operands[1], false);
+                }
+            };
+        } else if (writeBarrierSpec.equals(ARRAY_PRE_BARRIER)) {
+            return new XirWriteBarrierGenerator() {
+                @Override
+                public void genWriteBarrier(CiXirAssembler asm, XirRuntimeCallGenerator runtime, XirOperand ... operands) {
+                    genSATBPreWriteBarrier(asm, runtime, operands[0], operands[1], true);
+                }
+            };
+        }
+        return XirWriteBarrierSpecification.NULL_WRITE_BARRIER_GEN;
+    }
+
+    /**
+     * Generates the XIR for the pre-write barrier. The fast path only tests whether a concurrent marking cycle is in progress;
+     * the overwritten reference is loaded and recorded out of line.
+     *
+     * @param cell the updated tuple or array
+     * @param offsetOrIndex offset of the updated field, or index of the updated array element
+     * @param isArray whether the updated cell is an array
+     */
+    @HOSTED_ONLY
+    private static void genSATBPreWriteBarrier(CiXirAssembler asm, XirRuntimeCallGenerator runtime, XirOperand cell, XirOperand offsetOrIndex, boolean isArray) {
+        final XirOperand queue = asm.createTemp("satbQueue", CiKind.Object);
+        final XirOperand active = asm.createTemp("satbActive", CiKind.Int);
+        final XirOperand previous = asm.createTemp("previous", CiKind.Object);
+        final XirLabel record = asm.createOutOfLineLabel("satbRecord");
+        final XirLabel done = asm.createInlineLabel("satbDone");
+        asm.mov(queue, asm.o(SATBQueue.theQueue));
+        asm.pload(CiKind.Int, active, queue, asm.i(SATBQueue.activeOffset()), false);
+        asm.jneq(record, active, asm.i(0));
+        asm.bindOutOfLine(record);
+        if (isArray) {
+            final int disp = Layout.referenceArrayLayout().getElementOffsetFromOrigin(0).toInt();
+            asm.pload(CiKind.Object, previous, cell, offsetOrIndex, disp, Scale.fromInt(Word.size()), false);
+        } else {
+            asm.pload(CiKind.Object, previous, cell, offsetOrIndex, false);
+        }
+        asm.jeq(done, previous, asm.o(null));
+        runtime.genRuntimeCall(asm, SATBQueue.class, "satbEnqueue", null, previous);
+        asm.jmp(done);
+        asm.bindInline(done);
+    }
+
+    @Override
+    public void notifyCurrentThreadDetach() {
+        super.notifyCurrentThreadDetach();
+        if (ConcurrentMark) {
+            // Serialize with the remark pause, which drains the buffers of the active threads.
+            synchronized (VmThreadMap.THREAD_LOCK) {
+                SATBQueue.detachCurrentThread();
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the current thread should request one of the pauses of a concurrent marking cycle: the initial
+     * marking pause once heap occupancy reaches the {@link #ConcurrentMarkInitiatingOccupancy}, or the remark pause once
+     * the {@link ConcurrentMarkingThread} is done tracing.
+     */
+    private boolean shouldPauseForConcurrentMarking() {
+        if (concurrentMarkingThread == null || Heap.gcDisabled() || VmThread.isAttaching() || VmThread.current().isVmOperationThread()) {
+            return false;
+        }
+        if (concurrentMarkingThread.isTraced()) {
+            return true;
+        }
+        return !concurrentMarkingThread.isActive() &&
+            markSweepSpace.usedSpace().greaterEqual(markSweepSpace.totalSpace().dividedBy(100).times(ConcurrentMarkInitiatingOccupancy));
+    }
+
+    /**
+     * Pause starting a concurrent marking cycle: marks the roots, turns the write barrier on and hands over tracing to
+     * the {@link ConcurrentMarkingThread}. The cycle ends with a {@link MarkSweepCollection}, which remarks and sweeps.
+     */
+    final class InitialMarking extends GCOperation {
+        public InitialMarking() {
+            super("InitialMarking");
+        }
+
+        @Override
+        protected void collect(int invocationCount) {
+            if (concurrentMarkingThread.isActive()) {
+                return;
+            }
+            VmThreadMap.ACTIVE.forAllThreadLocals(null, tlabFiller);
+            HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.ANALYZING);
+            vmConfig().monitorScheme().beforeGarbageCollection();
+
+            // Allocations are tracked from now on, so that objects allocated during the cycle are kept alive by the remark.
+            markSweepSpace.beginConcurrentMarking();
+            concurrentMarkingCommittedRegions = markSweepSpace.heapAccount().used();
+            heapMarker.beginConcurrentMarking(concurrentMarkingRegions);
+            SATBQueue.activate();
+
+            vmConfig().monitorScheme().afterGarbageCollection();
+            callingThread().gcRequest.lastInvocationCount = invocationCount;
+            HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.MUTATING);
+            concurrentMarkingThread.startMarking();
+        }
+    }
+
     /**
      * Class implementing the garbage collection routine.
      * This is the {@link VmOperationThread}'s entry point to garbage collection.
@@ -308,6 +520,27 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
 
         private HeapResizingPolicy heapResizingPolicy = new HeapResizingPolicy();
 
+        /**
+         * Completes the marking of the current concurrent marking cycle.
+         */
+        private void remark() {
+            concurrentMarkingThread.waitUntilTraced();
+            FatalError.check(markSweepSpace.heapAccount().used() == concurrentMarkingCommittedRegions, "heap resized during concurrent marking");
+            SATBQueue.deactivate();
+            if (SATBQueue.hasOverflowed()) {
+                // Some of the references recorded by the write barrier were lost. Mark the whole heap instead.
+                SATBQueue.discard();
+                heapMarker.abortConcurrentMarking();
+                markSweepSpace.endConcurrentMarking(null);
+                markSweepSpace.mark(heapMarker);
+                return;
+            }
+            SATBQueue.drainAll(heapMarker);
+            heapMarker.remarkRoots();
+            markSweepSpace.endConcurrentMarking(heapMarker);
+            heapMarker.endConcurrentMarking(concurrentMarkingRegions);
+        }
+
         @Override
         protected void collect(int invocationCount) {
             final boolean traceGCPhases = Heap.logGCPhases();
@@ -323,7 +556,11 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
 
             theHeapRegionManager().checkOutgoingReferences();
 
-            markSweepSpace.mark(heapMarker);
+            if (concurrentMarkingThread != null && concurrentMarkingThread.isActive()) {
+                remark();
+            } else {
+                markSweepSpace.mark(heapMarker);
+            }
 
             HeapScheme.Inspect.notifyHeapPhaseChange(HeapPhase.RECLAIMING);
 
@@ -333,6 +570,10 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
             startTimer(reclaimTimer);
             markSweepSpace.sweep(heapMarker, DoImpreciseSweep);
             Size freeSpaceAfterGC = markSweepSpace.freeSpace();
+            if (heapResizingPolicy.shouldExpand(freeSpaceAfterGC, markSweepSpace) && markSweepSpace.finishSweep()) {
+                // A lazy sweep only accounts for the free space of the regions without live objects. Don't expand on an underestimate.
+                freeSpaceAfterGC = markSweepSpace.freeSpace();
+            }
             stopTimer(reclaimTimer);
             if (traceGCPhases) {
                 Log.println("END: Sweeping");
@@ -383,13 +624,14 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
      * otherwise, refills the TLAB with the next TLAB chunk and allocated from it.
      *
      * @param etla Pointer to enabled VMThreadLocals
+     * @param refillPolicy refill policy of the current thread, notified of the change of TLAB chunk
      * @param tlabMark current mark of the TLAB
      * @param tlabHardLimit soft end of the current TLAB
      * @param chunk next chunk of this TLAB
      * @param size requested amount of memory
      * @return a pointer to the allocated memory
      */
-    private Pointer changeTLABChunkOrAllocate(Pointer etla, Pointer tlabMark, Pointer tlabHardLimit, Pointer chunk, Size size) {
+    private Pointer changeTLABChunkOrAllocate(Pointer etla, TLABRefillPolicy refillPolicy, Pointer tlabMark, Pointer tlabHardLimit, Pointer chunk, Size size) {
         Size chunkSize =  HeapFreeChunk.getFreechunkSize(chunk);
         if (size.greaterThan(chunkSize.minus(minObjectSize())))  {
             // Don't bother with searching another TLAB chunk that fits. Allocate directly in the heap.
@@ -404,6 +646,7 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
         // Zap chunk data to leave allocation area clean.
         Memory.clearWords(chunk, effectiveSize.unsignedShiftedRight(Word.widthValue().log2numberOfBytes).toInt());
         chunk.plus(effectiveSize).setWord(nextChunk);
+        notifyTLABChunkChange(refillPolicy, tlabMark, tlabHardLimit, chunk, effectiveSize);
         fastRefillTLAB(etla, chunk, effectiveSize);
         return tlabAllocate(size);
     }
@@ -449,11 +692,18 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of dirty meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the tlab allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            setInitialTLABRefillPolicy(etla, tlabSize);
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the tlab.
             return tlabAllocate(size);
         }
+        if (shouldPauseForConcurrentMarking()) {
+            GCRequest.clearedGCRequest();
+            asMSEGCRequest(VmThread.current().gcRequest).concurrentMarkingPause = true;
+            Heap.collectGarbage();
+            // The pause reset the TLAB of the current thread.
+            return markSweepSpace.allocate(size);
+        }
         // FIXME (ld) Want to first test against size of next chunk of this TLAB (if any).
         final Size nextTLABSize = refillPolicy.nextTlabSize();
         if (size.greaterThan(nextTLABSize)) {
@@ -472,15 +722,17 @@ public final class MSEHeapScheme extends HeapSchemeWithTLABAdaptor implements He
                 Memory.clearWords(tlabEnd, tlabHeadroomNumWords());
                 if (nextChunk.isZero()) {
                     // Zero-out TLAB top and mark.
+                    notifyTLABChunkChange(refillPolicy, hardLimit, tlabEnd, Pointer.zero(), Size.zero());
                     fastRefillTLAB(etla, Pointer.zero(), Size.zero());
                 } else {
                     // TLAB has another chunk of free space. Set it.
-                    setNextTLABChunk(etla, nextChunk);
+                    final Size nextChunkEffectiveSize = setNextTLABChunk(etla, nextChunk);
+                    notifyTLABChunkChange(refillPolicy, hardLimit, tlabEnd, nextChunk, nextChunkEffectiveSize);
                 }
                 return cell;
             } else if (!(cell.equals(hardLimit) || nextChunk.isZero())) {
                 // We have another chunk, and we're not to limit yet. So we may change of TLAB chunk to satisfy the request.
-                return changeTLABChunkOrAllocate(etla, tlabMark, hardLimit, nextChunk, size);
+                return changeTLABChunkOrAllocate(etla, refillPolicy, tlabMark, hardLimit, nextChunk, size);
             }
 
             if (!refillPolicy.shouldRefill(size, tlabMark)) {
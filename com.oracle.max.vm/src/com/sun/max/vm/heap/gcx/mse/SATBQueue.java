@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx.mse;
+
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.gcx.*;
+import com.sun.max.vm.heap.gcx.mse.MSEHeapScheme.MSEGCRequest;
+import com.sun.max.vm.reference.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * Queue of the references recorded by the snapshot-at-the-beginning (SATB) write barrier of the {@link MSEHeapScheme}
+ * during a concurrent marking cycle. The barrier records the value of a reference slot before it is overwritten, so that
+ * every object reachable when the cycle began is eventually marked, however the mutators change the object graph.
+ * <p>
+ * Each thread records references in a private buffer allocated outside of the heap. Full buffers are pushed on a
+ * lock-free list of completed buffers, which the {@link ConcurrentMarkingThread} processes while the mutators run.
+ * Buffers not yet full are drained at the remark pause that ends the cycle.
+ * <p>
+ * A buffer is a block of words: the link to the next completed buffer, the number of entries, then the entries, each the
+ * origin of a recorded object.
+ */
+public final class SATBQueue {
+    static int SATBBufferSize = 1024;
+    static {
+        VMOptions.addFieldOption("-XX:", "SATBBufferSize", SATBQueue.class,
+            "Number of entries of the per-thread buffers of the concurrent marking write barrier", Phase.PRISTINE);
+    }
+
+    private static final int NEXT_INDEX = 0;
+    private static final int COUNT_INDEX = 1;
+    private static final int FIRST_ENTRY_INDEX = 2;
+
+    static final SATBQueue theQueue = new SATBQueue();
+
+    /**
+     * Non-zero while a concurrent marking cycle is in progress. An int rather than a boolean so that the
+     * barrier emitted in compiled code can test it with a single load.
+     */
+    private int active;
+
+    /**
+     * Head of the list of completed buffers.
+     */
+    private volatile Address completedBuffers = Address.zero();
+
+    /**
+     * Set if a buffer couldn't be allocated, in which case some references were lost and the current concurrent marking
+     * cycle must be abandoned.
+     */
+    private boolean overflowed;
+
+    private SATBQueue() {
+    }
+
+    @FOLD
+    static int activeOffset() {
+        return ClassActor.fromJava(SATBQueue.class).findLocalInstanceFieldActor("active").offset();
+    }
+
+    @FOLD
+    private static int completedBuffersOffset() {
+        return ClassActor.fromJava(SATBQueue.class).findLocalInstanceFieldActor("completedBuffers").offset();
+    }
+
+    @INLINE
+    static boolean isActive() {
+        return theQueue.active != 0;
+    }
+
+    static boolean hasOverflowed() {
+        return theQueue.overflowed;
+    }
+
+    /**
+     * Entry point of the write barrier emitted in compiled code, called when a reference is overwritten during a concurrent
+     * marking cycle.
+     *
+     * @param object the overwritten reference
+     */
+    @NO_SAFEPOINT_POLLS("called from barriers that have no GC map, e.g. those of unsafe stores")
+    public static void satbEnqueue(Object object) {
+        theQueue.enqueue(Reference.fromJava(object));
+    }
+
+    /**
+     * Records a reference in the buffer of the current thread.
+     */
+    @NO_SAFEPOINT_POLLS("the remark pause must not see a buffer being updated")
+    void enqueue(Reference ref) {
+        if (active == 0 || ref.isZero()) {
+            return;
+        }
+        final MSEGCRequest request = MSEHeapScheme.asMSEGCRequest(VmThread.current().gcRequest);
+        if (request.satbDetached) {
+            // The thread is terminating and its buffer was already handed over.
+            return;
+        }
+        Pointer buffer = request.satbBuffer;
+        if (buffer.isZero()) {
+            buffer = allocateBuffer();
+            if (buffer.isZero()) {
+                overflowed = true;
+                return;
+            }
+            request.satbBuffer = buffer;
+        }
+        final int count = buffer.getWord(COUNT_INDEX).asAddress().toInt();
+        buffer.setWord(FIRST_ENTRY_INDEX + count, ref.toOrigin());
+        buffer.setWord(COUNT_INDEX, Address.fromInt(count + 1));
+        if (count + 1 == SATBBufferSize) {
+            pushCompleted(buffer);
+            request.satbBuffer = Pointer.zero();
+        }
+    }
+
+    private static Pointer allocateBuffer() {
+        final Pointer buffer = Memory.allocate(Size.fromInt((FIRST_ENTRY_INDEX + SATBBufferSize) * Word.size()));
+        if (!buffer.isZero()) {
+            buffer.setWord(NEXT_INDEX, Address.zero());
+            buffer.setWord(COUNT_INDEX, Address.zero());
+        }
+        return buffer;
+    }
+
+    @NO_SAFEPOINT_POLLS("called from barriers that have no GC map, e.g. those of unsafe stores")
+    private void pushCompleted(Pointer buffer) {
+        final Pointer thisAddress = Reference.fromJava(this).toOrigin();
+        Address head;
+        do {
+            head = completedBuffers;
+            buffer.setWord(NEXT_INDEX, head);
+        } while (!thisAddress.compareAndSwapWord(completedBuffersOffset(), head, buffer).equals(head));
+    }
+
+    private Address takeCompleted() {
+        final Pointer thisAddress = Reference.fromJava(this).toOrigin();
+        Address head;
+        do {
+            head = completedBuffers;
+        } while (!thisAddress.compareAndSwapWord(completedBuffersOffset(), head, Address.zero()).equals(head));
+        return head;
+    }
+
+    private static void markEntries(Pointer buffer, TricolorHeapMarker heapMarker) {
+        final int count = buffer.getWord(COUNT_INDEX).asAddress().toInt();
+        for (int i = 0; i < count; i++) {
+            heapMarker.markSATBEntry(buffer.getWord(FIRST_ENTRY_INDEX + i).asPointer());
+        }
+    }
+
+    /**
+     * Turns the write barrier on. Must be called at the pause that begins a concurrent marking cycle.
+     */
+    static void activate() {
+        theQueue.overflowed = false;
+        theQueue.active = 1;
+    }
+
+    /**
+     * Turns the write barrier off. Must be called at the pause that ends a concurrent marking cycle.
+     */
+    static void deactivate() {
+        theQueue.active = 0;
+    }
+
+    /**
+     * Marks the references of the completed buffers and frees them. Called by the concurrent marking thread.
+     *
+     * @return true if any buffer was processed
+     */
+    static boolean processCompletedBuffers(TricolorHeapMarker heapMarker) {
+        Address buffer = theQueue.takeCompleted();
+        if (buffer.isZero()) {
+            return false;
+        }
+        do {
+            final Address next = buffer.asPointer().getWord(NEXT_INDEX).asAddress();
+            markEntries(buffer.asPointer(), heapMarker);
+            Memory.deallocate(buffer);
+            buffer = next;
+        } while (!buffer.isZero());
+        return true;
+    }
+
+    private static final class ThreadBufferDrainer implements Pointer.Procedure {
+        TricolorHeapMarker heapMarker;
+
+        public void run(Pointer tla) {
+            final MSEGCRequest request = MSEHeapScheme.asMSEGCRequest(VmThread.fromTLA(tla).gcRequest);
+            final Pointer buffer = request.satbBuffer;
+            if (!buffer.isZero()) {
+                if (heapMarker != null) {
+                    markEntries(buffer, heapMarker);
+                }
+                buffer.setWord(COUNT_INDEX, Address.zero());
+            }
+        }
+    }
+
+    private static final ThreadBufferDrainer threadBufferDrainer = new ThreadBufferDrainer();
+
+    /**
+     * Marks all the recorded references, including those in the buffers of the threads. Must be called at the
+     * remark pause, once the write barrier is {@linkplain #deactivate() off}. Threads keep their buffer for the next cycle.
+     */
+    static void drainAll(TricolorHeapMarker heapMarker) {
+        threadBufferDrainer.heapMarker = heapMarker;
+        VmThreadMap.ACTIVE.forAllThreadLocals(null, threadBufferDrainer);
+        threadBufferDrainer.heapMarker = null;
+        processCompletedBuffers(heapMarker);
+    }
+
+    /**
+     * Drops all the recorded references, e.g., when a concurrent marking cycle is abandoned. Must be called at a pause, once the
+     * write barrier is {@linkplain #deactivate() off}.
+     */
+    static void discard() {
+        VmThreadMap.ACTIVE.forAllThreadLocals(null, threadBufferDrainer);
+        Address buffer = theQueue.takeCompleted();
+        while (!buffer.isZero()) {
+            final Address next = buffer.asPointer().getWord(NEXT_INDEX).asAddress();
+            Memory.deallocate(buffer);
+            buffer = next;
+        }
+    }
+
+    /**
+     * Hands over the buffer of the current thread before it terminates. Must be called with the
+     * {@link VmThreadMap#THREAD_LOCK} held, so as not to race with the remark pause.
+     */
+    static void detachCurrentThread() {
+        final MSEGCRequest request = MSEHeapScheme.asMSEGCRequest(VmThread.current().gcRequest);
+        final Pointer buffer = request.satbBuffer;
+        request.satbBuffer = Pointer.zero();
+        request.satbDetached = true;
+        if (!buffer.isZero()) {
+            if (isActive() && !buffer.getWord(COUNT_INDEX).isZero()) {
+                theQueue.pushCompleted(buffer);
+            } else {
+                Memory.deallocate(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx.rset.ctbl;
+
+import static com.sun.max.vm.heap.gcx.HeapFreeChunk.*;
+
+import com.oracle.max.cri.intrinsics.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.heap.gcx.*;
+import com.sun.max.vm.layout.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.thread.*;
+import com.sun.max.vm.type.*;
+
+/**
+ * Thread refining the dirty cards of an old generation concurrently with the mutators, so that young collections don't have
+ * to scan all the cards dirtied since the previous collection.
+ * <p>
+ * Between collections, the thread periodically walks the dirty cards of the old generation. Each card is cleaned, then the
+ * cells overlapping it are scanned for references to the young generation. Cards holding such references are recorded in a
+ * {@link RefinedCardSet}; the others are done with. A mutator storing a young reference in a card after it was cleaned dirties
+ * it again, so the card is either refined again later, or left to the collector.
+ * <p>
+ * The old generation must not change shape between collections (i.e., only collections allocate in it) for the thread to
+ * walk its cards safely, so the thread must be parked whenever a collection runs. A pass is done with the thread's mutex held,
+ * and the thread only releases it while waiting for the next pass. {@link #beginPause()} requests the thread to cut its current
+ * pass short, then takes the mutex, which parks the thread until {@link #endPause()} gives it back. A pause request is only
+ * checked between two cards, so the card being refined when the request comes in is added to the set before the thread lets go.
+ * <p>
+ * Once it owns the mutex, {@link #beginPause()} hands the {@link RefinedCardSet} over to the collector by
+ * {@linkplain RefinedCardSet#dirtyAllAndClear(CardTable) dirtying} its cards again and emptying it. The collector then finds the
+ * refined cards among the cards dirtied by the mutators since they were cleaned, and cleans them all as usual.
+ * Refinement restarts from an empty set after the pause, when only the cards dirtied since the collection remain to refine.
+ * <p>
+ * Since the mutex keeps the thread out of the heap during a pause, the thread is flagged as a {@linkplain VmThread#isGCWorkerThread() GC worker thread}
+ * so that the collection doesn't wait for it to reach a safepoint. It is allocated in the immortal heap and doesn't allocate, so it never triggers a collection.
+ */
+public final class ConcurrentCardRefinement extends Thread {
+    /**
+     * Number of milliseconds between two refinement passes.
+     */
+    static int CardRefinementInterval = 10;
+    static {
+        VMOptions.addFieldOption("-XX:", "CardRefinementInterval", ConcurrentCardRefinement.class,
+            "Number of milliseconds between two passes of concurrent card refinement", Phase.PRISTINE);
+    }
+
+    private final CardTableRSet cardTableRSet;
+
+    private final CardTable cardTable;
+
+    /**
+     * Space whose dirty cards are refined.
+     */
+    private final HeapSpace refinedSpace;
+
+    /**
+     * Space references to which are remembered.
+     */
+    private final EvacuatingSpace youngSpace;
+
+    private final RefinedCardSet refinedCards;
+
+    private final CardRangeRefiner cardRangeRefiner = new CardRangeRefiner();
+
+    private Word mutex;
+    private Word condition;
+
+    /**
+     * Set when a collection wants to stop the thread. The thread then cuts its current pass short.
+     */
+    private volatile boolean pauseRequested;
+
+    /**
+     * Number of cards refined so far.
+     */
+    private long refinedCardCount;
+
+    /**
+     * Number of refined cards found holding references to the young generation so far.
+     */
+    private long rememberedCardCount;
+
+    private ConcurrentCardRefinement(CardTableRSet cardTableRSet, HeapSpace refinedSpace, EvacuatingSpace youngSpace) {
+        super(VmThread.systemThreadGroup, "Card refinement");
+        this.cardTableRSet = cardTableRSet;
+        this.cardTable = cardTableRSet.cardTable;
+        this.refinedSpace = refinedSpace;
+        this.youngSpace = youngSpace;
+        this.refinedCards = new RefinedCardSet(HeapRegionConstants.log2RegionSizeInBytes);
+        setDaemon(true);
+    }
+
+    /**
+     * Creates and starts the refinement thread once the VM is running.
+     *
+     * @param cardTableRSet the remembered set whose dirty cards are refined
+     * @param refinedSpace the old generation
+     * @param youngSpace the young generation
+     */
+    public static ConcurrentCardRefinement start(CardTableRSet cardTableRSet, HeapSpace refinedSpace, EvacuatingSpace youngSpace) {
+        final ConcurrentCardRefinement thread;
+        try {
+            Heap.enableImmortalMemoryAllocation();
+            thread = new ConcurrentCardRefinement(cardTableRSet, refinedSpace, youngSpace);
+            thread.mutex = OSMonitor.newMutex();
+            thread.condition = OSMonitor.newCondition();
+        } finally {
+            Heap.disableImmortalMemoryAllocation();
+        }
+        final CardTable cardTable = cardTableRSet.cardTable;
+        thread.refinedCards.initialize(cardTable.tableEntryIndex(cardTable.coveredAreaEnd()));
+        final VmThread vmThread = VmThreadFactory.create(thread);
+        vmThread.setAsGCWorkerThread();
+        vmThread.startVmSystemThread();
+        return thread;
+    }
+
+    @Override
+    public void run() {
+        OSMonitor.nativeMutexLock(mutex);
+        while (true) {
+            // Releases the mutex while waiting, which lets collections in.
+            OSMonitor.nativeConditionWait(mutex, condition, CardRefinementInterval);
+            if (!pauseRequested) {
+                refinedSpace.visit(cardRangeRefiner);
+            }
+        }
+    }
+
+    /**
+     * Stops the refinement thread for the duration of a collection, and hands over the refined cards to the collector by
+     * dirtying them again. Must be called at the beginning of every collection, before any dirty card is visited.
+     */
+    public void beginPause() {
+        pauseRequested = true;
+        OSMonitor.nativeMutexLock(mutex);
+        refinedCards.dirtyAllAndClear(cardTable);
+    }
+
+    /**
+     * Lets the refinement thread resume once a collection is over.
+     */
+    public void endPause() {
+        pauseRequested = false;
+        OSMonitor.nativeMutexUnlock(mutex);
+    }
+
+    /**
+     * Number of refined cards found holding references to the young generation since the thread started.
+     */
+    public long rememberedCardCount() {
+        return rememberedCardCount;
+    }
+
+    public void printStats() {
+        Log.print("Card refinement: ");
+        Log.print(refinedCardCount);
+        Log.print(" cards refined, ");
+        Log.print(rememberedCardCount);
+        Log.println(" remembered");
+    }
+
+    /**
+     * Refines the dirty cards of the ranges of the old generation it is applied to, one card at a time.
+     */
+    private final class CardRangeRefiner extends PointerIndexVisitor implements CellRangeVisitor, OverlappingCellVisitor {
+        /**
+         * Set when a reference to the young generation was found in the card being refined.
+         */
+        private boolean foundYoungReference;
+
+        public void visitCells(Address start, Address end) {
+            final int endOfRange = cardTable.tableEntryIndex(end);
+            int cardIndex = cardTable.first(cardTable.tableEntryIndex(start), endOfRange, CardState.DIRTY_CARD);
+            while (cardIndex < endOfRange && !pauseRequested) {
+                cardTable.clean(cardIndex);
+                // The card must be seen clean before its references are read. Otherwise, a mutator could store
+                // a young reference after it was read, and find the card still dirty, before the card is cleaned.
+                MemoryBarriers.barrier(MemoryBarriers.STORE_LOAD);
+                foundYoungReference = false;
+                cardTableRSet.visitCard(cardIndex, this);
+                refinedCardCount++;
+                if (foundYoungReference) {
+                    refinedCards.add(cardIndex);
+                    rememberedCardCount++;
+                }
+                cardIndex = cardTable.first(cardIndex + 1, endOfRange, CardState.DIRTY_CARD);
+            }
+        }
+
+        /**
+         * Looks for young references in a cell overlapping the refined card.
+         * Follows the same rules as the dirty card walk of the young collection, which will visit the card if a young reference is found.
+         */
+        public Pointer visitCell(Pointer cell, Address start, Address end) {
+            final Pointer origin = Layout.cellToOrigin(cell);
+            if (origin.plus(Layout.hubIndex()).greaterEqual(start)) {
+                visit(origin, Layout.hubIndex());
+            }
+            final Hub hub = Layout.getHub(origin);
+            if (hub == heapFreeChunkHub()) {
+                return cell.plus(getFreechunkSize(cell));
+            }
+            final SpecificLayout specificLayout = hub.specificLayout;
+            if (specificLayout == Layout.tupleLayout()) {
+                // The write barrier dirties the card holding the header of a tuple. See Evacuator.scanCellForEvacuatees.
+                hub.visitMappedReferences(origin, this);
+                if (hub.isJLRReference) {
+                    // The collector must see special references to discover them.
+                    foundYoungReference = true;
+                }
+                return cell.plus(hub.tupleSize);
+            }
+            if (specificLayout == Layout.referenceArrayLayout()) {
+                final int endOfArrayIndex = Layout.readArrayLength(origin) + Layout.firstElementIndex();
+                final Address firstElementAddr = origin.plusWords(Layout.firstElementIndex());
+                final Address endOfArrayAddr = origin.plusWords(endOfArrayIndex);
+                final int firstIndex = start.greaterThan(firstElementAddr) ?
+                                start.minus(origin).unsignedShiftedRight(Kind.REFERENCE.width.log2numberOfBytes).toInt() : Layout.firstElementIndex();
+                final int endIndex = endOfArrayAddr.greaterThan(end) ?
+                                end.minus(origin).unsignedShiftedRight(Kind.REFERENCE.width.log2numberOfBytes).toInt() : endOfArrayIndex;
+                for (int index = firstIndex; index < endIndex && !foundYoungReference; index++) {
+                    visit(origin, index);
+                }
+            } else if (specificLayout == Layout.hybridLayout()) {
+                hub.visitMappedReferences(origin, this);
+            }
+            return cell.plus(Layout.size(origin));
+        }
+
+        @Override
+        public void visit(Pointer pointer, int wordIndex) {
+            if (youngSpace.contains(pointer.getReference(wordIndex).toOrigin())) {
+                foundYoungReference = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.heap.gcx.rset.ctbl;
+
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.runtime.*;
+
+/**
+ * Compact remembered set recording the cards that {@linkplain ConcurrentCardRefinement concurrent refinement} found to hold
+ * references to young objects. Refined cards are clean in the {@link CardTable}; the set is how a young collection finds
+ * them again.
+ * <p>
+ * The set is made of one bit per card, grouped in runs of a heap region worth of cards, and of one byte per run telling whether any bit of the
+ * run is set. A young collection therefore only looks at the bits of the runs holding refined cards.
+ * Both tables are allocated outside of the heap.
+ */
+public final class RefinedCardSet {
+    /**
+     * Log2 of the number of cards per region.
+     */
+    private final int log2CardsPerRegion;
+
+    /**
+     * One bit per card of the covered area.
+     */
+    private Pointer cardBits = Pointer.zero();
+
+    /**
+     * One byte per region of the covered area, non-zero if the region has refined cards.
+     */
+    private Pointer regionSummary = Pointer.zero();
+
+    private int numCards;
+
+    private int numRegions;
+
+    /**
+     * Number of cards in the set.
+     */
+    private int size;
+
+    RefinedCardSet(int log2RegionSize) {
+        log2CardsPerRegion = log2RegionSize - CardTableRSet.LOG2_CARD_SIZE;
+    }
+
+    /**
+     * Allocates the tables of the set to cover the cards of a card table.
+     * @param numCards number of cards of the card table
+     */
+    void initialize(int numCards) {
+        FatalError.check(log2CardsPerRegion >= 3, "regions must span at least 8 cards");
+        this.numCards = numCards;
+        numRegions = (numCards + (1 << log2CardsPerRegion) - 1) >> log2CardsPerRegion;
+        final int bitsSize = (numCards + 7) >> 3;
+        cardBits = Memory.mustAllocate(bitsSize);
+        regionSummary = Memory.mustAllocate(numRegions);
+        Memory.clearBytes(cardBits, bitsSize);
+        Memory.clearBytes(regionSummary, numRegions);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a card to the set.
+     * @param cardIndex index of the card in the card table
+     */
+    void add(int cardIndex) {
+        if (MaxineVM.isDebug()) {
+            FatalError.check(cardIndex >= 0 && cardIndex < numCards, "card index out of refined card set bounds");
+        }
+        final int byteIndex = cardIndex >> 3;
+        final byte bits = cardBits.getByte(byteIndex);
+        final byte bit = (byte) (1 << (cardIndex & 7));
+        if ((bits & bit) == 0) {
+            cardBits.setByte(byteIndex, (byte) (bits | bit));
+            regionSummary.setByte(cardIndex >> log2CardsPerRegion, (byte) 1);
+            size++;
+        }
+    }
+
+    /**
+     * Dirties all the cards of the set in the specified card table, and empties the set.
+     * This hands over the refined cards to the collector, which visits them along with the cards dirtied by the mutators.
+     *
+     * @param cardTable the card table the set was built from
+     */
+    void dirtyAllAndClear(CardTable cardTable) {
+        if (size == 0) {
+            return;
+        }
+        final int bytesPerRegion = Math.max(1, (1 << log2CardsPerRegion) >> 3);
+        final int bitsSize = (numCards + 7) >> 3;
+        for (int region = 0; region < numRegions; region++) {
+            if (regionSummary.getByte(region) == 0) {
+                continue;
+            }
+            regionSummary.setByte(region, (byte) 0);
+            final int firstByte = region * bytesPerRegion;
+            final int endByte = Math.min(bitsSize, firstByte + bytesPerRegion);
+            for (int byteIndex = firstByte; byteIndex < endByte; byteIndex++) {
+                final int bits = cardBits.getByte(byteIndex) & 0xff;
+                if (bits != 0) {
+                    cardBits.setByte(byteIndex, (byte) 0);
+                    for (int bit = 0; bit < 8; bit++) {
+                        if ((bits & (1 << bit)) != 0) {
+                            cardTable.dirty((byteIndex << 3) + bit);
+                        }
+                    }
+                }
+            }
+        }
+        size = 0;
+    }
+}
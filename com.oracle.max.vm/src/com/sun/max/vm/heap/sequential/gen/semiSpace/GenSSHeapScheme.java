@@ -1021,7 +1021,7 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
             allocateAndRefillTLAB(etla, tlabSize);
             // Let's do a bit of meta-circularity. The TLAB is refilled, and no-one except the current thread can use it.
             // So the TLAB allocation is going to succeed here
-            TLABRefillPolicy.setForCurrentThread(etla, new SimpleTLABRefillPolicy(tlabSize));
+            setInitialTLABRefillPolicy(etla, tlabSize);
             // Now, address the initial request. Note that we may recurse down to handleTLABOverflow again here if the
             // request is larger than the TLAB size. However, this second call will succeed and allocate outside of the TLAB.
             return tlabAllocate(size);
@@ -1078,14 +1078,14 @@ public final class GenSSHeapScheme extends HeapSchemeWithTLABAdaptor implements
         if (writeBarrierSpec.equals(TUPLE_POST_BARRIER)) {
             return new XirWriteBarrierGenerator() {
                 @Override
-                public void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands) {
+                public void genWriteBarrier(CiXirAssembler asm, XirRuntimeCallGenerator runtime, XirOperand ... operands) {
                     cardTableRSet.genTuplePostWriteBarrier(asm, operands[0]);
                 }
             };
         } else if (writeBarrierSpec.equals(ARRAY_POST_BARRIER)) {
             return new XirWriteBarrierGenerator() {
                 @Override
-                public void genWriteBarrier(CiXirAssembler asm, XirOperand ... operands) {
+                public void genWriteBarrier(CiXirAssembler asm, XirRuntimeCallGenerator runtime, XirOperand ... operands) {
                     cardTableRSet.genArrayPostWriteBarrier(asm, operands[0], operands[1]);
                 }
             };
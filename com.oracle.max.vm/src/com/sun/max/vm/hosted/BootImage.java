@@ -82,7 +82,49 @@ public class BootImage {
     /**
      * A version number of the boot image file layout, checked against IMAGE_FORMAT_VERSION in Native/substrate/image.c .
      */
-    public static final int BOOT_IMAGE_FORMAT_VERSION = 2;
+    public static final int BOOT_IMAGE_FORMAT_VERSION = 3;
+
+    /**
+     * Flag in {@link Header#bootImageFlags} denoting that the pointers in the heap and code sections have been
+     * relocated to {@link Header#preferredHeapAddressKB} instead of being canonicalized to address 0.
+     * If the loader succeeds in mapping the image at that address, no relocation is needed and the pages
+     * of the image file are shared by all processes mapping it until they are written to.
+     */
+    public static final int PRERELOCATED = 0x1;
+
+    /**
+     * Flag in {@link Header#bootImageFlags} requesting that, if the image cannot be mapped at its preferred address,
+     * pages are relocated when first accessed instead of all being relocated at load time.
+     */
+    public static final int LAZY_RELOCATION = 0x2;
+
+    /**
+     * Flag set by the loader in the in-memory copy of {@link Header#bootImageFlags} if the image was mapped at its
+     * preferred address and consequently not relocated.
+     */
+    public static final int MAPPED_AT_PREFERRED_ADDRESS = 0x100;
+
+    /**
+     * Flag set by the loader in the in-memory copy of {@link Header#bootImageFlags} if the image was relocated lazily.
+     */
+    public static final int RELOCATED_LAZILY = 0x200;
+
+    /**
+     * The address at which the next boot image written is preferably mapped. If zero, the pointers in the image
+     * are canonicalized to address 0 and always relocated by the loader. The header records it in KB as a
+     * signed 32-bit value, so it must be KB aligned and below {@link #MAX_PREFERRED_HEAP_ADDRESS}.
+     */
+    public static long preferredHeapAddress;
+
+    /**
+     * The exclusive upper bound of {@link #preferredHeapAddress} (2TB).
+     */
+    public static final long MAX_PREFERRED_HEAP_ADDRESS = ((long) Integer.MAX_VALUE + 1) * Longs.K;
+
+    /**
+     * Specifies if the next boot image written requests {@linkplain #LAZY_RELOCATION lazy relocation}.
+     */
+    public static boolean lazyRelocation;
 
     /**
      * A field section in a boot image is described by the {@code public final} and {@code final}
@@ -234,6 +276,17 @@ public class BootImage {
          */
         public final int bootRegionMappingConstraint;
 
+        /**
+         * Combination of {@link BootImage#PRERELOCATED} and {@link BootImage#LAZY_RELOCATION}. The loader adds
+         * {@link BootImage#MAPPED_AT_PREFERRED_ADDRESS} or {@link BootImage#RELOCATED_LAZILY} to its in-memory copy.
+         */
+        public final int bootImageFlags;
+
+        /**
+         * The address (in KB) to which the pointers in the image are relocated if {@link BootImage#PRERELOCATED} is set.
+         */
+        public final int preferredHeapAddressKB;
+
         /**
          * @see VmThreadMap#ACTIVE
          */
@@ -305,6 +358,8 @@ public class BootImage {
             reservedVirtualSpaceSize = endian.readInt(dataInputStream);
             reservedVirtualSpaceFieldOffset = endian.readInt(dataInputStream);
             bootRegionMappingConstraint = endian.readInt(dataInputStream);
+            bootImageFlags = endian.readInt(dataInputStream);
+            preferredHeapAddressKB = endian.readInt(dataInputStream);
             tlaListHeadOffset = endian.readInt(dataInputStream);
             exitCodeOffset = endian.readInt(dataInputStream);
 
@@ -362,6 +417,8 @@ public class BootImage {
             reservedVirtualSpaceSize = vmConfiguration.heapScheme().reservedVirtualSpaceKB();
             reservedVirtualSpaceFieldOffset = staticFieldPointerOffset(dataPrototype, Heap.class, "reservedVirtualSpace");
             bootRegionMappingConstraint = vmConfiguration.heapScheme().bootRegionMappingConstraint().ordinal();
+            preferredHeapAddressKB = (int) (preferredHeapAddress / Longs.K);
+            bootImageFlags = (preferredHeapAddress != 0 ? PRERELOCATED : 0) | (lazyRelocation ? LAZY_RELOCATION : 0);
             tlaListHeadOffset = dataPrototype.objectToOrigin(VmThreadMap.ACTIVE).toInt() + ClassActor.fromJava(VmThreadMap.class).findLocalInstanceFieldActor("tlaListHead").offset();
             exitCodeOffset = staticFieldPointerOffset(dataPrototype, MaxineVM.class, "exitCode");
 
@@ -392,6 +449,16 @@ public class BootImage {
             BootImageException.check(cacheAlignment > 4 && Ints.isPowerOfTwoOrZero(cacheAlignment), "implausible alignment size: " + cacheAlignment);
             BootImageException.check(pageSize >= Longs.K && pageSize % Longs.K == 0, "implausible page size: " + pageSize);
             BootImageException.check(!(bootRegionMappingConstraint > 0 && reservedVirtualSpaceSize == 0), "invalid boot region mapping constraint");
+            BootImageException.check(((long) preferredHeapAddressKB * Longs.K) % pageSize == 0, "preferred heap address is not page aligned");
+            BootImageException.check(preferredHeapAddressKB >= 0, "preferred heap address is out of range: " + preferredHeapAddressKB + "KB");
+            BootImageException.check((bootImageFlags & PRERELOCATED) == 0 || preferredHeapAddressKB > 0, "pre-relocated image without preferred heap address");
+        }
+
+        /**
+         * Gets the address to which the pointers in the image have been relocated.
+         */
+        public long preferredHeapAddress() {
+            return (bootImageFlags & PRERELOCATED) != 0 ? (long) preferredHeapAddressKB * Longs.K : 0L;
         }
 
         @Override
@@ -699,6 +766,10 @@ public class BootImage {
      * Used when constructing a boot image to be written to a file.
      */
     public BootImage(DataPrototype dataPrototype) throws BootImageException {
+        // Checked here as the header only records the truncated value in KB
+        BootImageException.check(preferredHeapAddress >= 0 && preferredHeapAddress < MAX_PREFERRED_HEAP_ADDRESS,
+            "preferred heap address must be below " + Long.toHexString(MAX_PREFERRED_HEAP_ADDRESS) + ": " + Long.toHexString(preferredHeapAddress));
+        BootImageException.check(preferredHeapAddress % Longs.K == 0, "preferred heap address is not KB aligned: " + Long.toHexString(preferredHeapAddress));
         this.vmConfiguration = vmConfig();
         this.stringInfo = new StringInfo(vmConfiguration, new Header(dataPrototype, 0).size());
         this.stringInfo.check();
@@ -706,8 +777,17 @@ public class BootImage {
         this.header.check();
         this.relocationData = dataPrototype.relocationData();
         this.padding = new byte[deltaToPageAlign(header.size() + stringInfo.size() + relocationData.length)];
-        this.heap = ByteBuffer.wrap(dataPrototype.heapData());
-        this.code = ByteBuffer.wrap(dataPrototype.codeData());
+        if (header.preferredHeapAddress() != 0) {
+            // relocate copies so that the data prototype keeps its canonicalized pointers
+            final byte[] heapData = dataPrototype.heapData().clone();
+            final byte[] codeData = dataPrototype.codeData().clone();
+            preRelocate(heapData, codeData, header.preferredHeapAddress());
+            this.heap = ByteBuffer.wrap(heapData);
+            this.code = ByteBuffer.wrap(codeData);
+        } else {
+            this.heap = ByteBuffer.wrap(dataPrototype.heapData());
+            this.code = ByteBuffer.wrap(dataPrototype.codeData());
+        }
         int trailerOffset = codeOffset() + header.codeSize;
         this.trailer = new Trailer(header, trailerOffset);
         this.imageFile = null;
@@ -823,13 +903,52 @@ public class BootImage {
     private static native void nativeRelocate(long heap, long relocatedHeap, byte[] relocationDataPointer, int relocationDataSize, int isBigEndian, int wordSize);
 
     /**
-     * Relocates the pointers in the heap and code. All the pointers are assumed to be
-     * canonicalized; their current values assume that the heap and code start address 0.
+     * Relocates the pointers in the heap and code. The current values of the pointers assume that the
+     * heap and code start at the {@linkplain Header#preferredHeapAddress() preferred heap address}, which is 0
+     * unless the image was written with {@link #PRERELOCATED} set.
      *
      * @param heap the physical address at which the (contiguous) heap and code reside
      * @param relocatedHeap the logical address to which the heap and code is being relocated
      */
     public void relocate(long heap, Address relocatedHeap) {
-        nativeRelocate(heap, relocatedHeap.toLong(), relocationData, relocationData.length, header.isBigEndian, header.wordSize);
+        final long delta = relocatedHeap.toLong() - header.preferredHeapAddress();
+        nativeRelocate(heap, delta, relocationData, relocationData.length, header.isBigEndian, header.wordSize);
+    }
+
+    /**
+     * Relocates the canonicalized pointers in the heap and code data of an image being written to {@code address}.
+     * This is the same transformation as performed by {@code relocation_apply()} in the native loader.
+     */
+    private void preRelocate(byte[] heapData, byte[] codeData, long address) {
+        final ByteBuffer heapBuffer = ByteBuffer.wrap(heapData).order(header.endianness().asByteOrder());
+        final ByteBuffer codeBuffer = ByteBuffer.wrap(codeData).order(header.endianness().asByteOrder());
+        final int wordSize = header.wordSize;
+        for (int i = 0; i < relocationData.length; i++) {
+            final int bits = relocationData[i] & 0xff;
+            if (bits == 0) {
+                continue;
+            }
+            for (int bit = 0; bit < 8; bit++) {
+                if ((bits & (1 << bit)) != 0) {
+                    int offset = ((i * 8) + bit) * wordSize;
+                    ByteBuffer buffer = heapBuffer;
+                    if (offset >= heapData.length) {
+                        buffer = codeBuffer;
+                        offset -= heapData.length;
+                    }
+                    if (wordSize == 8) {
+                        final long value = buffer.getLong(offset);
+                        if (value != 0) {
+                            buffer.putLong(offset, value + address);
+                        }
+                    } else {
+                        final int value = buffer.getInt(offset);
+                        if (value != 0) {
+                            buffer.putInt(offset, (int) (value + address));
+                        }
+                    }
+                }
+            }
+        }
     }
 }
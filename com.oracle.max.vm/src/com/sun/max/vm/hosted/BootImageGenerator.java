@@ -94,6 +94,14 @@ public final class BootImageGenerator {
     private static final Option<Boolean> useOutOfLineStubs = options.newBooleanOption("out-stubs", true,
             "Uses out of line runtime stubs when generating inlined TLAB allocations with XIR");
 
+    private static final Option<Long> preferredAddressOption = options.newLongOption("preferred-address", 0L,
+            "Relocate the pointers in the image to this address. If the loader can map the image there, it skips relocation " +
+            "and the image pages are shared between VM processes. The address must be KB aligned and below 2TB. " +
+            "A value of 0 canonicalizes pointers to address 0.");
+
+    private static final Option<Boolean> lazyRelocationOption = options.newBooleanOption("lazy-relocation", false,
+            "If the image cannot be mapped at its preferred address, relocate each page when it is first accessed.");
+
     // Options shared with the Inspector
     public static final OptionSet inspectorSharedOptions = new OptionSet();
 
@@ -243,6 +251,8 @@ public final class BootImageGenerator {
 
             Heap.genInlinedTLAB = inlinedTLABOption.getValue(); // TODO: cleanup. Just for evaluating impact on performance of inlined tlab alloc.
             Heap.useOutOfLineStubs = useOutOfLineStubs.getValue(); // TODO: cleanup.
+            BootImage.preferredHeapAddress = preferredAddressOption.getValue();
+            BootImage.lazyRelocation = lazyRelocationOption.getValue();
             DataPrototype dataPrototype = prototypeGenerator.createDataPrototype(treeOption.getValue());
 
             final GraphPrototype graphPrototype = dataPrototype.graphPrototype();
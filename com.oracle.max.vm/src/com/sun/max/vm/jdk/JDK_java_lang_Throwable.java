@@ -22,6 +22,7 @@
  */
 package com.sun.max.vm.jdk;
 
+import static com.sun.max.vm.compiler.target.Stub.Type.*;
 import static com.sun.max.vm.intrinsics.Infopoints.*;
 import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.*;
 
@@ -32,6 +33,7 @@ import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
 import com.sun.max.vm.actor.holder.*;
 import com.sun.max.vm.actor.member.*;
+import com.sun.max.vm.compiler.target.*;
 import com.sun.max.vm.runtime.*;
 import com.sun.max.vm.stack.*;
 import com.sun.max.vm.thread.*;
@@ -44,8 +46,14 @@ import com.sun.max.vm.thread.*;
 public final class JDK_java_lang_Throwable {
 
     public static boolean StackTraceInThrowable = true;
+    public static int HotThrowSiteThreshold;
+    public static int HotThrowSiteBacktraceDepth = 8;
     static {
         VMOptions.addFieldOption("-XX:", "StackTraceInThrowable", JDK_java_lang_Throwable.class, "Collect backtrace in throwable when exception happens.");
+        VMOptions.addFieldOption("-XX:", "HotThrowSiteThreshold", JDK_java_lang_Throwable.class,
+            "Number of backtraces a throw site fills in before its backtraces are capped at HotThrowSiteBacktraceDepth frames (0 = never).");
+        VMOptions.addFieldOption("-XX:", "HotThrowSiteBacktraceDepth", JDK_java_lang_Throwable.class,
+            "Maximum number of frames below a hot throw site that are recorded in a backtrace.");
     }
 
     private static final ObjectThreadLocal<Throwable> TRACE_UNDER_CONSTRUCTION = new ObjectThreadLocal<Throwable>("TRACE_UNDER_CONSTRUCTION",
@@ -73,8 +81,8 @@ public final class JDK_java_lang_Throwable {
     private static StackTraceElement[] UNASSIGNED_STACK;
 
     /**
-     * Fills in the stack trace for this exception. This implementation eagerly creates a
-     * stack trace and fills in all the {@link java.lang.StackTraceElement stack trace elements}.
+     * Fills in the stack trace for this exception. This implementation only captures a {@link Backtrace};
+     * the {@link java.lang.StackTraceElement stack trace elements} are created on first access.
      *
      * @see java.lang.Throwable#fillInStackTrace()
      * @return the throwable with a filled-in stack trace (typically this object)
@@ -112,47 +120,158 @@ public final class JDK_java_lang_Throwable {
 
     /**
      * A back trace is a lighter weight representation of a stack trace than
-     * an array of {@link StackTraceElement}s.
+     * an array of {@link StackTraceElement}s. Only the target method and code position
+     * of each frame are captured when the trace is taken. The source methods (including
+     * those inlined into a frame) and their line numbers are {@linkplain #resolve() resolved}
+     * on first access, which most exceptions never see.
      */
-    public static class Backtrace extends StackTraceVisitor {
-
-        static final int INITIAL_LENGTH = 200;
-
-        public int count;
-        public int[] lineNos;
-        public ClassMethodActor[] methods;
+    public static class Backtrace extends RawStackFrameVisitor {
+
+        static final int INITIAL_LENGTH = 32;
+
+        /**
+         * Bit set in a {@linkplain #frames frame} that was stopped at a trap.
+         */
+        private static final long TRAPPED = 1L << 32;
+
+        private static final ClassActor THROWABLE = ClassActor.fromJava(Throwable.class);
+
+        private final ClassActor exceptionClass;
+        private final int maxDepth;
+
+        /**
+         * The number of captured frames.
+         */
+        private int frameCount;
+
+        /**
+         * The target methods of the captured frames.
+         */
+        private TargetMethod[] targetMethods;
+
+        /**
+         * The captured frames, each packed as a code position in {@link #targetMethods} (low 32 bits)
+         * plus the {@link #TRAPPED} bit.
+         */
+        private long[] frames;
+
+        /**
+         * The index of the first captured frame that is not executing a method of {@link Throwable} or a subclass.
+         * Only valid if {@link #throwSiteFound} is {@code true}.
+         */
+        private int throwSiteIndex;
+        private boolean throwSiteFound;
+
+        /**
+         * The maximum number of frames to capture, lowered if the throw site is {@linkplain #HotThrowSiteThreshold hot}.
+         */
+        private int frameLimit = Integer.MAX_VALUE;
+
+        /**
+         * The resolved source frames, {@code null} until {@link #resolve()} is called.
+         */
+        private ClassMethodActor[] methods;
+        private int[] lineNos;
+        private int count;
 
         public Backtrace(ClassActor exceptionClass, int maxDepth) {
-            super(exceptionClass);
-
+            this.exceptionClass = exceptionClass;
+            this.maxDepth = maxDepth;
             int len = Math.min(maxDepth, INITIAL_LENGTH);
-            lineNos = new int[len];
-            methods = new ClassMethodActor[len];
+            targetMethods = new TargetMethod[len];
+            frames = new long[len];
         }
 
-        @Override
-        public void clear() {
-            for (int i = count - 1; i >= 0; i--) {
-                methods[i] = null;
-            }
-            count = 0;
+        /**
+         * Captures the frames of a given stack.
+         */
+        public void walk(StackFrameWalker walker, Pointer ip, Pointer sp, Pointer fp) {
+            walker.inspect(ip, sp, fp, this);
         }
 
         @Override
-        public boolean add(ClassMethodActor methodActor, int sourceLineNumber) {
-            if (count == lineNos.length) {
+        public boolean visitFrame(StackFrameCursor current, StackFrameCursor callee) {
+            final TargetMethod targetMethod = current.targetMethod();
+            if (targetMethod == null || targetMethod.classMethodActor == null) {
+                // native frames, stubs, trampolines, adapters etc do not appear in a stack trace
+                return true;
+            }
+            long frame = targetMethod.posFor(current.vmIP()) & 0xFFFFFFFFL;
+            if (callee.targetMethod() != null && callee.targetMethod().is(TrapStub)) {
+                // the trace starts at the trapped frame
+                frame |= TRAPPED;
+                clear();
+            }
+            if (frameCount == frames.length) {
                 expand();
             }
-            lineNos[count] = sourceLineNumber;
-            methods[count] = methodActor;
-            count++;
-            return true;
+            targetMethods[frameCount] = targetMethod;
+            frames[frameCount] = frame;
+            frameCount++;
+
+            if (!throwSiteFound && exceptionClass != null && !THROWABLE.isAssignableFrom(targetMethod.classMethodActor.original().holder())) {
+                throwSiteFound = true;
+                throwSiteIndex = frameCount - 1;
+                if (HotThrowSiteThreshold > 0 && isHotThrowSite(current.ipAsPointer())) {
+                    frameLimit = throwSiteIndex + HotThrowSiteBacktraceDepth;
+                }
+            }
+            return frameCount < frameLimit;
+        }
+
+        private void clear() {
+            for (int i = frameCount - 1; i >= 0; i--) {
+                targetMethods[i] = null;
+            }
+            frameCount = 0;
+            throwSiteFound = false;
+            frameLimit = Integer.MAX_VALUE;
         }
 
         private void expand() {
-            int newLength = lineNos.length * 2;
-            lineNos = Arrays.copyOf(lineNos, newLength);
-            methods = Arrays.copyOf(methods, newLength);
+            int newLength = frames.length * 2;
+            targetMethods = Arrays.copyOf(targetMethods, newLength);
+            frames = Arrays.copyOf(frames, newLength);
+        }
+
+        /**
+         * Resolves the captured frames to source methods and line numbers if this has not already been done.
+         */
+        private void resolve() {
+            if (methods != null) {
+                return;
+            }
+            Resolver resolver = new Resolver(exceptionClass, Math.min(maxDepth, frameCount));
+            for (int i = 0; i < frameCount && resolver.count < maxDepth; i++) {
+                TargetMethod targetMethod = targetMethods[i];
+                long frame = frames[i];
+                // resolved from the position as the code may have been wiped by code eviction since
+                if (!resolver.visitFrame(targetMethod, (int) frame, (frame & TRAPPED) != 0, ((long) i) << 16)) {
+                    break;
+                }
+            }
+            lineNos = resolver.lineNos;
+            methods = resolver.methods;
+            count = Math.min(resolver.count, maxDepth);
+            // the raw frames are no longer needed
+            targetMethods = null;
+            frames = null;
+        }
+
+        /**
+         * Gets the number of source frames in this trace.
+         */
+        public int count() {
+            resolve();
+            return count;
+        }
+
+        /**
+         * Gets the source method of the {@code index}th frame in this trace.
+         */
+        public ClassMethodActor method(int index) {
+            resolve();
+            return methods[index];
         }
 
         StackTraceElement stackTraceElement(int index) {
@@ -162,8 +281,8 @@ public final class JDK_java_lang_Throwable {
             return new StackTraceElement(holder.name.toString(), method.name.toString(), holder.sourceFileName, sourceLineNumber);
         }
 
-        @Override
         public StackTraceElement[] getTrace() {
+            resolve();
             StackTraceElement[] trace = new StackTraceElement[count];
             for (int i = 0; i != count; i++) {
                 trace[i] = stackTraceElement(i);
@@ -172,6 +291,63 @@ public final class JDK_java_lang_Throwable {
         }
     }
 
+    /**
+     * Builds the source frames of a {@link Backtrace}, eliding the exception's constructor chain.
+     */
+    static class Resolver extends StackTraceVisitor {
+        int count;
+        int[] lineNos;
+        ClassMethodActor[] methods;
+
+        Resolver(ClassActor exceptionClass, int length) {
+            super(exceptionClass);
+            lineNos = new int[Math.max(length, 1)];
+            methods = new ClassMethodActor[lineNos.length];
+        }
+
+        @Override
+        public void clear() {
+            for (int i = count - 1; i >= 0; i--) {
+                methods[i] = null;
+            }
+            count = 0;
+        }
+
+        @Override
+        public boolean add(ClassMethodActor methodActor, int sourceLineNumber) {
+            if (count == lineNos.length) {
+                // inlined methods make for more source frames than captured frames
+                int newLength = lineNos.length * 2;
+                lineNos = Arrays.copyOf(lineNos, newLength);
+                methods = Arrays.copyOf(methods, newLength);
+            }
+            lineNos[count] = sourceLineNumber;
+            methods[count] = methodActor;
+            count++;
+            return true;
+        }
+    }
+
+    /**
+     * The number of backtraces filled in by each throw site, indexed by a hash of the throw site's address.
+     * Collisions merely make a throw site hot sooner. Updates are racy as the counts only guide a heuristic.
+     */
+    private static final int[] throwSiteCounts = new int[1024];
+
+    /**
+     * Counts a backtrace filled in for the throw site at {@code ip} and determines if the site is now hot.
+     */
+    private static boolean isHotThrowSite(Pointer ip) {
+        long address = ip.toLong();
+        int index = (int) (address ^ (address >>> 10) ^ (address >>> 20)) & (throwSiteCounts.length - 1);
+        int count = throwSiteCounts[index];
+        if (count >= HotThrowSiteThreshold) {
+            return true;
+        }
+        throwSiteCounts[index] = count + 1;
+        return false;
+    }
+
     /**
      * Gets a back trace for a given stack.
      *
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.jni;
+
+import com.sun.max.annotate.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.reference.*;
+
+/**
+ * A table of JNI global or weak global handles. The table is made of blocks of slots allocated outside of the heap, each
+ * slot holding the reference to a handlized object. A handle is the address of its slot tagged with the
+ * {@linkplain JniHandles.Tag tag} of the table, so that dereferencing it only takes a subtraction and a load.
+ * <p>
+ * Handles are allocated from and freed to a {@linkplain FreeList free list} private to the current thread, so that
+ * threads allocating and freeing handles don't contend. A thread refills its list by taking all the slots of a shared
+ * pool of free slots, or by allocating a new block if the pool is empty. A thread whose list grows too long gives a batch
+ * of its slots back to the pool. Both the pool and the list of blocks are lock-free stacks; the pool is only ever emptied
+ * as a whole, which leaves no room for ABA problems.
+ * <p>
+ * A free slot holds the address of the next free slot of the same list with its low bit set, so that it can never be
+ * mistaken for a reference. The GC {@linkplain #visitReferences(PointerIndexVisitor) visits} the slots holding references
+ * as roots of a table of global handles. The slots of a table of weak global handles are instead
+ * {@linkplain #processWeakReferences(SpecialReferenceManager.GC) processed} once all reachable objects are known: the
+ * slots referencing unreachable objects are cleared in place, and stay allocated until the native code deletes them.
+ */
+public final class JniHandleTable {
+
+    /**
+     * Number of slots per block of the table.
+     */
+    private static final int SLOTS_PER_BLOCK = 256;
+
+    /**
+     * Number of free slots a thread gives back to the shared pool at once.
+     */
+    private static final int FREE_LIST_BATCH = 64;
+
+    private static final int NEXT_BLOCK_INDEX = 0;
+    private static final int FIRST_SLOT_INDEX = 1;
+    private static final int BLOCK_WORDS = FIRST_SLOT_INDEX + SLOTS_PER_BLOCK;
+
+    /**
+     * Bit set in a free slot.
+     */
+    private static final int FREE_BIT = 1;
+
+    /**
+     * The slots of a table cached by a thread. Only ever accessed by the thread owning it.
+     */
+    static final class FreeList {
+        Pointer head = Pointer.zero();
+        int length;
+    }
+
+    private final int tag;
+
+    /**
+     * Head of the list of blocks of the table.
+     */
+    private volatile Address blocks = Address.zero();
+
+    /**
+     * Head of the shared pool of free slots.
+     */
+    private volatile Address freeSlots = Address.zero();
+
+    JniHandleTable(int tag) {
+        this.tag = tag;
+    }
+
+    @FOLD
+    private static int blocksOffset() {
+        return ClassActor.fromJava(JniHandleTable.class).findLocalInstanceFieldActor("blocks").offset();
+    }
+
+    @FOLD
+    private static int freeSlotsOffset() {
+        return ClassActor.fromJava(JniHandleTable.class).findLocalInstanceFieldActor("freeSlots").offset();
+    }
+
+    @INLINE
+    private static boolean isFree(Word slotValue) {
+        return slotValue.asAddress().isBitSet(0);
+    }
+
+    @INLINE
+    private static Pointer nextFree(Pointer slot) {
+        return slot.getWord().asPointer().and(~((long) FREE_BIT));
+    }
+
+    @INLINE
+    private static void setNextFree(Pointer slot, Pointer next) {
+        slot.setWord(next.or(FREE_BIT));
+    }
+
+    /**
+     * Gets the slot a handle of this table refers to.
+     */
+    @INLINE
+    Pointer slot(JniHandle jniHandle) {
+        return jniHandle.asPointer().minus(tag);
+    }
+
+    /**
+     * Allocates a handle for a given object.
+     *
+     * @param freeList the free list of the current thread
+     * @param object a non-null object
+     */
+    JniHandle allocate(FreeList freeList, Object object) {
+        if (freeList.head.isZero()) {
+            refill(freeList);
+        }
+        final Pointer slot = freeList.head;
+        freeList.head = nextFree(slot);
+        freeList.length--;
+        slot.setReference(Reference.fromJava(object));
+        return slot.or(tag).asJniHandle();
+    }
+
+    /**
+     * Frees a handle of this table.
+     *
+     * @param freeList the free list of the current thread
+     * @param jniHandle a handle allocated from this table and not yet freed
+     */
+    void free(FreeList freeList, JniHandle jniHandle) {
+        final Pointer slot = slot(jniHandle);
+        assert !isFree(slot.getWord()) : "JNI handle freed twice";
+        setNextFree(slot, freeList.head);
+        freeList.head = slot;
+        if (++freeList.length > 2 * FREE_LIST_BATCH) {
+            Pointer last = slot;
+            for (int i = 1; i < FREE_LIST_BATCH; i++) {
+                last = nextFree(last);
+            }
+            freeList.head = nextFree(last);
+            freeList.length -= FREE_LIST_BATCH;
+            pushFreeSlots(slot, last);
+        }
+    }
+
+    /**
+     * Gives all the slots of a free list back to the shared pool, e.g., when the thread owning the list terminates.
+     */
+    void release(FreeList freeList) {
+        final Pointer first = freeList.head;
+        if (first.isZero()) {
+            return;
+        }
+        Pointer last = first;
+        for (Pointer next = nextFree(last); !next.isZero(); next = nextFree(last)) {
+            last = next;
+        }
+        freeList.head = Pointer.zero();
+        freeList.length = 0;
+        pushFreeSlots(first, last);
+    }
+
+    private void refill(FreeList freeList) {
+        Pointer first = takeFreeSlots();
+        if (first.isZero()) {
+            first = allocateBlock();
+        }
+        int length = 0;
+        for (Pointer slot = first; !slot.isZero(); slot = nextFree(slot)) {
+            length++;
+        }
+        freeList.head = first;
+        freeList.length = length;
+    }
+
+    /**
+     * Allocates a new block and returns its slots chained together.
+     */
+    private Pointer allocateBlock() {
+        final Pointer block = Memory.mustAllocate(Size.fromInt(BLOCK_WORDS * Word.size()));
+        final Pointer first = block.plusWords(FIRST_SLOT_INDEX);
+        Pointer slot = first;
+        for (int i = FIRST_SLOT_INDEX + 1; i < BLOCK_WORDS; i++) {
+            final Pointer next = block.plusWords(i);
+            setNextFree(slot, next);
+            slot = next;
+        }
+        setNextFree(slot, Pointer.zero());
+
+        final Pointer thisAddress = Reference.fromJava(this).toOrigin();
+        Address head;
+        do {
+            head = blocks;
+            block.setWord(NEXT_BLOCK_INDEX, head);
+        } while (!thisAddress.compareAndSwapWord(blocksOffset(), head, block).equals(head));
+        return first;
+    }
+
+    /**
+     * Pushes a chain of free slots on the shared pool.
+     */
+    private void pushFreeSlots(Pointer first, Pointer last) {
+        final Pointer thisAddress = Reference.fromJava(this).toOrigin();
+        Address head;
+        do {
+            head = freeSlots;
+            setNextFree(last, head.asPointer());
+        } while (!thisAddress.compareAndSwapWord(freeSlotsOffset(), head, first).equals(head));
+    }
+
+    /**
+     * Takes all the slots of the shared pool.
+     */
+    private Pointer takeFreeSlots() {
+        final Pointer thisAddress = Reference.fromJava(this).toOrigin();
+        Address head;
+        do {
+            head = freeSlots;
+        } while (!thisAddress.compareAndSwapWord(freeSlotsOffset(), head, Address.zero()).equals(head));
+        return head.asPointer();
+    }
+
+    /**
+     * Visits the slots of this table holding a reference. Must be called during GC.
+     */
+    void visitReferences(PointerIndexVisitor pointerIndexVisitor) {
+        for (Pointer block = blocks.asPointer(); !block.isZero(); block = block.getWord(NEXT_BLOCK_INDEX).asPointer()) {
+            for (int i = FIRST_SLOT_INDEX; i < BLOCK_WORDS; i++) {
+                final Word slotValue = block.getWord(i);
+                if (!slotValue.isZero() && !isFree(slotValue)) {
+                    pointerIndexVisitor.visit(block, i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Clears the slots of this table referencing objects that don't survive the current GC, and updates those referencing
+     * objects that were moved. Must be called during GC, once the GC knows all the objects that survive.
+     */
+    void processWeakReferences(SpecialReferenceManager.GC gc) {
+        final boolean updateReachable = gc.mayRelocateLiveObjects();
+        for (Pointer block = blocks.asPointer(); !block.isZero(); block = block.getWord(NEXT_BLOCK_INDEX).asPointer()) {
+            for (int i = FIRST_SLOT_INDEX; i < BLOCK_WORDS; i++) {
+                final Word slotValue = block.getWord(i);
+                if (!slotValue.isZero() && !isFree(slotValue)) {
+                    final Reference ref = block.getReference(i);
+                    if (!gc.isReachable(ref)) {
+                        block.setWord(i, Address.zero());
+                    } else if (updateReachable) {
+                        block.setReference(i, gc.preserve(ref));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -22,12 +22,11 @@
  */
 package com.sun.max.vm.jni;
 
-import java.lang.ref.*;
-
 import com.sun.cri.ci.*;
 import com.sun.max.annotate.*;
 import com.sun.max.unsafe.*;
 import com.sun.max.vm.*;
+import com.sun.max.vm.heap.*;
 import com.sun.max.vm.runtime.*;
 import com.sun.max.vm.thread.*;
 import com.sun.max.vm.type.*;
@@ -40,11 +39,11 @@ import com.sun.max.vm.type.*;
  *
  * The first type of handle is implemented as the address of an object on the thread's stack.
  * The second type of handle is allocated from a pool of JNI handles. There is one pool of
- * JNI handles per thread that is used to allocate local JNI references, a
- * global pool per VM (or isolate?) for global references and
- * another global pool for weak global references.
+ * JNI handles per thread that is used to allocate local JNI references. Global and weak global
+ * references are allocated from two {@linkplain JniHandleTable tables} per VM held outside
+ * of the heap, through free lists cached in the pool of the current thread.
  *
- * This class implements a pool of JNI handles.
+ * This class implements a pool of local JNI handles.
  *
  * In the Maxine VM, we need to take into account that objects may be allocated
  * in a hardware object memory where one cannot take the address of an element or field within
@@ -76,6 +75,8 @@ import com.sun.max.vm.type.*;
  *
  * Given the above trade offs between 1 and 2 (and the current non-existence of 3!), we
  * have decided to go with choice 2 until it proves too complex and/or inefficient.
+ * Global references, which are long lived and may be created and deleted concurrently by
+ * many threads, use choice 1 instead.
  */
 public final class JniHandles {
 
@@ -100,8 +101,18 @@ public final class JniHandles {
 
     public static final int INITIAL_NUMBER_OF_HANDLES = 32;
 
-    private static final JniHandles globalHandles = new JniHandles();
-    private static final JniHandles weakGlobalHandles = new JniHandles();
+    private static final JniHandleTable globalHandles = new JniHandleTable(Tag.GLOBAL);
+    private static final JniHandleTable weakGlobalHandles = new JniHandleTable(Tag.WEAK_GLOBAL);
+
+    /**
+     * The slots of {@link #globalHandles} cached by the thread owning this pool.
+     */
+    private final JniHandleTable.FreeList globalFreeList = new JniHandleTable.FreeList();
+
+    /**
+     * The slots of {@link #weakGlobalHandles} cached by the thread owning this pool.
+     */
+    private final JniHandleTable.FreeList weakGlobalFreeList = new JniHandleTable.FreeList();
 
     /**
      * The objects exposed to native code via handles.
@@ -295,13 +306,9 @@ public final class JniHandles {
             JniHandles jniHandles = VmThread.current().jniHandles();
             return jniHandles.get(jniHandleToIndex(jniHandle));
         }
-        if (tag == Tag.GLOBAL) {
-            return globalHandles.get(jniHandleToIndex(jniHandle));
-        }
-        assert tag == Tag.WEAK_GLOBAL;
-
-        final WeakReference weakReference = (WeakReference) weakGlobalHandles.get(jniHandleToIndex(jniHandle));
-        return weakReference == null ? null : weakReference.get();
+        // A global or weak global handle is the tagged address of its slot.
+        // The slot of a weak global handle whose object was reclaimed holds null.
+        return jniHandle.asPointer().minus(tag).getReference().toJava();
     }
 
     public static Address getAddress(JniHandle jniHandle) {
@@ -341,18 +348,14 @@ public final class JniHandles {
         if (object == null) {
             return JniHandle.zero();
         }
-        synchronized (globalHandles) {
-            return globalHandles.allocateHandle(object, Tag.GLOBAL);
-        }
+        return globalHandles.allocate(VmThread.current().makeJniHandles().globalFreeList, object);
     }
 
     public static JniHandle createWeakGlobalHandle(Object object) {
         if (object == null) {
             return JniHandle.zero();
         }
-        synchronized (weakGlobalHandles) {
-            return weakGlobalHandles.allocateHandle(new WeakReference<Object>(object), Tag.WEAK_GLOBAL);
-        }
+        return weakGlobalHandles.allocate(VmThread.current().makeJniHandles().weakGlobalFreeList, object);
     }
 
     public static void destroyLocalHandle(JniHandle jniHandle) {
@@ -375,21 +378,53 @@ public final class JniHandles {
     public static void destroyGlobalHandle(JniHandle jniHandle) {
         if (!jniHandle.isZero()) {
             assert tag(jniHandle) == Tag.GLOBAL;
-            synchronized (globalHandles) {
-                globalHandles.freeHandle(jniHandleToIndex(jniHandle));
-            }
+            globalHandles.free(VmThread.current().makeJniHandles().globalFreeList, jniHandle);
         }
     }
 
     public static void destroyWeakGlobalHandle(JniHandle jniHandle) {
         if (!jniHandle.isZero()) {
             assert tag(jniHandle) == Tag.WEAK_GLOBAL;
-            synchronized (weakGlobalHandles) {
-                weakGlobalHandles.freeHandle(jniHandleToIndex(jniHandle));
-            }
+            weakGlobalHandles.free(VmThread.current().makeJniHandles().weakGlobalFreeList, jniHandle);
         }
     }
 
+    /**
+     * Gives the global and weak global handle slots cached by a terminating thread back to the tables.
+     *
+     * @param jniHandles the local handles of the terminating thread, or {@code null} if it has none
+     */
+    public static void releaseCachedGlobalHandles(JniHandles jniHandles) {
+        if (jniHandles != null) {
+            globalHandles.release(jniHandles.globalFreeList);
+            weakGlobalHandles.release(jniHandles.weakGlobalFreeList);
+        }
+    }
+
+    /**
+     * Visits the references held by global handles, which are GC roots.
+     */
+    public static void visitGlobalReferences(PointerIndexVisitor pointerIndexVisitor) {
+        globalHandles.visitReferences(pointerIndexVisitor);
+    }
+
+    /**
+     * Visits the references held by weak global handles as if they were strong, e.g., by a GC that
+     * cannot {@linkplain #processWeakGlobalReferences(SpecialReferenceManager.GC) process} them.
+     */
+    public static void visitWeakGlobalReferences(PointerIndexVisitor pointerIndexVisitor) {
+        weakGlobalHandles.visitReferences(pointerIndexVisitor);
+    }
+
+    /**
+     * Clears the weak global handles to objects that don't survive the current GC and updates those to objects
+     * that were moved. Must be called once the GC has determined all the objects that survive, including those
+     * kept alive by special references.
+     */
+    public static void processWeakGlobalReferences(SpecialReferenceManager.GC gc) {
+        weakGlobalHandles.processWeakReferences(gc);
+    }
+
     public static void ensureLocalHandleCapacity(int capacity) {
         VmThread.current().makeJniHandles().ensureCapacity(capacity);
     }
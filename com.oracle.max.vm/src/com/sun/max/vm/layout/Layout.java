@@ -482,6 +482,20 @@ public final class Layout {
         generalLayout().writeForwardRef(origin, forwardRef);
     }
 
+    /**
+     * Atomically installs a forward reference in an object, provided that the word holding it still has the specified value.
+     *
+     * @param origin location of an object
+     * @param suspectedRef the expected value of the word holding the forward reference
+     * @param forwardRef the forward reference to install
+     * @return the value of the word before the operation: {@code suspectedRef} if the forward reference was installed
+     */
+    @ACCESSOR(Pointer.class)
+    @INLINE
+    public static Reference compareAndSwapForwardRef(Pointer origin, Reference suspectedRef, Reference forwardRef) {
+        return generalLayout().compareAndSwapForwardRef(origin, suspectedRef, forwardRef);
+    }
+
     /**
      * Access to <strong>byte array object</strong> layout information in the
      * context of the current {@linkplain VMConfiguration VM configuration}.
@@ -345,7 +345,7 @@ public abstract class VMLog implements Heap.GCCallback {
 
     /**
      * Phase specific initialization.
-     * Only called for BOOTSTRAPPING, PRIMORDIAL, TERMINATING.
+     * Only called for BOOTSTRAPPING, PRIMORDIAL, STARTING (once the log options have been parsed), TERMINATING.
      * @param phase the phase
      */
     public void initialize(MaxineVM.Phase phase) {
@@ -419,12 +419,27 @@ public abstract class VMLog implements Heap.GCCallback {
         return loggers[id - 1];
     }
 
+    /**
+     * Gets the registered loggers; the logger with id {@code n} is at index {@code n - 1}.
+     */
+    protected VMLogger[] loggers() {
+        return loggers;
+    }
+
     /**
      * Called when a new thread is started so any thread-specific log state can be setup.
      */
     public void threadStart() {
     }
 
+    /**
+     * Called when a thread is about to terminate so any thread-specific log state can be released.
+     * Records logged by the thread after this call may be dropped.
+     * Not called for the main thread, which logs until the VM exits.
+     */
+    public void threadTerminate() {
+    }
+
     /**
      * Returns the singleton default instance uses for general logging.
      */
@@ -459,6 +474,7 @@ public abstract class VMLog implements Heap.GCCallback {
                 vmLog.loggers[i].checkOptions();
             }
         }
+        vmLog.initialize(MaxineVM.Phase.STARTING);
     }
 
     /**
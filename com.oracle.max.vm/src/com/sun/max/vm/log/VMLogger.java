@@ -200,6 +200,13 @@ public class VMLogger {
         this.vmLog = vmLog;
     }
 
+    /**
+     * Gets the number of distinct operations that can be logged.
+     */
+    public int numOperations() {
+        return numOps;
+    }
+
     /**
      * Provides a mnemonic name for the given operation.
      * Default is {@code OpN}.
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.log.hosted;
+
+import static com.sun.max.vm.log.nat.thread.mapped.VMLogNativeThreadMapped.*;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.regex.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.vm.log.VMLog.Record;
+import com.sun.max.vm.log.nat.thread.mapped.*;
+
+/**
+ * Offline decoder for the segment files written by {@link VMLogNativeThreadMapped}.
+ * The records of all threads are merged in the order in which they were logged, by their 64-bit timestamps,
+ * and printed in the style of {@link com.sun.max.vm.log.VMLogger#trace}, using the logger and operation names that
+ * the VM wrote to the index file. Each record is prefixed by its timestamp and id. Arguments are printed in hex,
+ * with reference valued ones prefixed by {@code @}.
+ * <p>
+ * Usage: {@code VMLogMappedDecoder <directory> [<pid>]}, where the process id can be omitted if the directory
+ * holds the log of a single VM run.
+ */
+@HOSTED_ONLY
+public final class VMLogMappedDecoder {
+
+    private static final Pattern INDEX_FILE = Pattern.compile("vmlog-(\\d+)\\.idx");
+    private static final Pattern SEGMENT_FILE = Pattern.compile("vmlog-(\\d+)-(\\d+)-(\\d+)\\.seg");
+
+    private static final class Logger {
+        final String name;
+        final Map<Integer, String> operationNames = new HashMap<Integer, String>();
+        final Map<Integer, Integer> operationRefMaps = new HashMap<Integer, Integer>();
+
+        Logger(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class DecodedRecord {
+        final long timestamp;
+        final int uuid;
+        final int header;
+        final long[] args;
+
+        DecodedRecord(long timestamp, int uuid, int header, long[] args) {
+            this.timestamp = timestamp;
+            this.uuid = uuid;
+            this.header = header;
+            this.args = args;
+        }
+    }
+
+    private final Map<Integer, Logger> loggers = new HashMap<Integer, Logger>();
+    private final ArrayList<DecodedRecord> records = new ArrayList<DecodedRecord>();
+
+    private VMLogMappedDecoder() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: VMLogMappedDecoder <directory> [<pid>]");
+            System.exit(1);
+        }
+        File dir = new File(args[0]);
+        decode(dir, args.length > 1 ? args[1] : findPid(dir), System.out);
+    }
+
+    /**
+     * Decodes the log of a VM run.
+     *
+     * @param dir the directory holding the index and segment files
+     * @param pid the process id of the VM run
+     * @param out where the records are printed
+     */
+    public static void decode(File dir, String pid, PrintStream out) throws IOException {
+        VMLogMappedDecoder decoder = new VMLogMappedDecoder();
+        decoder.readIndex(new File(dir, "vmlog-" + pid + ".idx"));
+        for (File file : dir.listFiles()) {
+            Matcher matcher = SEGMENT_FILE.matcher(file.getName());
+            if (matcher.matches() && matcher.group(1).equals(pid)) {
+                decoder.readSegment(file);
+            }
+        }
+        decoder.print(out);
+    }
+
+    private static String findPid(File dir) {
+        String pid = null;
+        for (String name : dir.list()) {
+            Matcher matcher = INDEX_FILE.matcher(name);
+            if (matcher.matches()) {
+                if (pid != null) {
+                    System.err.println("logs of several VM runs in " + dir + ", specify the process id");
+                    System.exit(1);
+                }
+                pid = matcher.group(1);
+            }
+        }
+        if (pid == null) {
+            System.err.println("no VM log index file in " + dir);
+            System.exit(1);
+        }
+        return pid;
+    }
+
+    private void readIndex(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ", 5);
+                if (parts[0].equals("vmlog")) {
+                    if (Integer.parseInt(parts[1]) != SEGMENT_VERSION) {
+                        throw new IOException(file + ": unsupported version " + parts[1]);
+                    }
+                } else if (parts[0].equals("logger")) {
+                    loggers.put(Integer.parseInt(parts[1]), new Logger(line.split(" ", 3)[2]));
+                } else if (parts[0].equals("op")) {
+                    Logger logger = loggers.get(Integer.parseInt(parts[1]));
+                    int op = Integer.parseInt(parts[2]);
+                    logger.operationRefMaps.put(op, Integer.parseInt(parts[3]));
+                    logger.operationNames.put(op, parts[4]);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void readSegment(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(SEGMENT_MAGIC_OFFSET) != SEGMENT_MAGIC) {
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            if (buffer.getInt(SEGMENT_MAGIC_OFFSET) != SEGMENT_MAGIC) {
+                throw new IOException(file + ": not a VM log segment");
+            }
+        }
+        if (buffer.getInt(SEGMENT_VERSION_OFFSET) != SEGMENT_VERSION) {
+            throw new IOException(file + ": unsupported version " + buffer.getInt(SEGMENT_VERSION_OFFSET));
+        }
+        int headerSize = buffer.getInt(SEGMENT_HEADER_SIZE_OFFSET);
+        int recordSize = buffer.getInt(SEGMENT_RECORD_SIZE_OFFSET);
+        int argsOffset = buffer.getInt(SEGMENT_ARGS_OFFSET_OFFSET);
+        int wordSize = buffer.getInt(SEGMENT_WORD_SIZE_OFFSET);
+        for (int offset = headerSize; offset + recordSize <= bytes.length; offset += recordSize) {
+            int header = buffer.getInt(offset);
+            if (header == 0) {
+                // end of the records written to this segment
+                break;
+            }
+            long[] args = new long[Record.getArgCount(header)];
+            for (int i = 0; i < args.length; i++) {
+                int argOffset = offset + argsOffset + i * wordSize;
+                args[i] = wordSize == 8 ? buffer.getLong(argOffset) : buffer.getInt(argOffset) & 0xFFFFFFFFL;
+            }
+            records.add(new DecodedRecord(buffer.getLong(offset + TIMESTAMP_OFFSET), buffer.getInt(offset + ID_OFFSET), header, args));
+        }
+    }
+
+    private void print(PrintStream out) {
+        Collections.sort(records, new Comparator<DecodedRecord>() {
+            public int compare(DecodedRecord r1, DecodedRecord r2) {
+                if (r1.timestamp != r2.timestamp) {
+                    return r1.timestamp < r2.timestamp ? -1 : 1;
+                }
+                // ids wrap around, but records logged at the same time have close ids
+                int d = r1.uuid - r2.uuid;
+                return d < 0 ? -1 : (d == 0 ? 0 : 1);
+            }
+        });
+        for (DecodedRecord r : records) {
+            int loggerId = Record.getLoggerId(r.header);
+            int op = Record.getOperation(r.header);
+            Logger logger = loggers.get(loggerId);
+            String opName = logger == null ? null : logger.operationNames.get(op);
+            Integer refMap = logger == null ? null : logger.operationRefMaps.get(op);
+            StringBuilder sb = new StringBuilder();
+            sb.append(r.timestamp).append(' ').append(r.uuid).append(" Thread ").append(Record.getThreadId(r.header)).append(' ');
+            sb.append(logger == null ? "Logger " + loggerId : logger.name).append('.');
+            sb.append(opName == null ? "Op " + op : opName);
+            for (int i = 0; i < r.args.length; i++) {
+                sb.append(' ');
+                if (refMap != null && (refMap & (1 << i)) != 0) {
+                    sb.append('@');
+                }
+                sb.append("0x").append(Long.toHexString(r.args[i]));
+            }
+            out.println(sb);
+        }
+    }
+}
@@ -0,0 +1,682 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.log.nat.thread.mapped;
+
+import java.util.*;
+
+import com.sun.max.annotate.*;
+import com.sun.max.lang.*;
+import com.sun.max.memory.*;
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.heap.*;
+import com.sun.max.vm.log.*;
+import com.sun.max.vm.log.nat.thread.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * Per-thread log that streams fixed size binary records into memory-mapped segment files,
+ * for logging that is left on in production runs and decoded offline.
+ *
+ * Until the VM is running, or if {@code -XX:VMLogDirectory} is not given, each thread logs into an
+ * in-memory circular buffer, as in the other per-thread logs. Once the VM is running, a daemon
+ * {@linkplain SegmentMapper segment mapper} thread creates and maps a segment file
+ * {@code vmlog-<pid>-<serial>-<segment>.seg} ahead of time for each thread that logs, and hands it to the thread
+ * in a {@link VmThreadLocal}. The thread switches to that segment when its current buffer is full (carrying the
+ * records of an in-memory buffer over into it) and appends to it by bumping an offset in a {@link VmThreadLocal}.
+ * Since the segment belongs to the thread, appending takes no lock, and the kernel writes the records back to the
+ * file without any system call on the logging path. Like all logs, a record is given a {@linkplain VMLog#getUniqueId()
+ * unique id} by a compare and swap on a global counter, which the Inspector uses to order the records of all threads.
+ * <p>
+ * Creating, mapping, unmapping and deleting segment files are blocking system calls, so they are never made while
+ * logging, which must not reach a safepoint. The segment mapper makes them through ordinary native calls,
+ * during which the VM can freeze it. It unmaps the segments threads have switched away from and deletes the oldest
+ * segment of a thread if more than {@code -XX:VMLogSegments} would remain. If a thread fills its segment before the
+ * mapper has provided the next one, it starts overwriting the oldest records of its segment.
+ * <p>
+ * Thread ids are reused once a thread has terminated, so the files are named by a serial number that the VM gives
+ * each thread when it maps its first segment and never gives out again. Segment files are created exclusively;
+ * a file that already exists is never overwritten.
+ * <p>
+ * A segment file starts with a {@value #SEGMENT_HEADER_SIZE} byte header, followed by records, each
+ * {@link #defaultNativeRecordSize} bytes long. A record is laid out as in {@link VMLogNativeThread}, except that the
+ * header and id are followed by the {@link System#nanoTime()} at which it was logged (at {@link #TIMESTAMP_OFFSET}),
+ * by which the offline decoder orders the records of all threads. The unused tail of a segment is zero, which is
+ * never a valid record header. The names of the loggers and their operations are written once, to
+ * {@code vmlog-<pid>.idx}, so that {@link com.sun.max.vm.log.hosted.VMLogMappedDecoder} can render the records
+ * without the boot image.
+ * <p>
+ * Reference valued arguments are recorded as addresses. The GC updates them while they are in the current
+ * segment of a thread, but not after the thread has switched to another segment.
+ * <p>
+ * If a segment cannot be created, a message is printed and the log stops opening new segments; threads then cycle
+ * through their current buffer, as if no directory had been given.
+ */
+public class VMLogNativeThreadMapped extends VMLogNativeThread {
+    public static final String VMLOG_RECORD_NAME = "VMLOG_RECORD";
+    public static final String VMLOG_BUFFER_NAME = "VMLOG_BUFFER";
+    public static final String VMLOG_BUFFER_OFFSETS_NAME = "VMLOG_BUFFER_OFFSETS";
+    public static final String VMLOG_SEGMENT_NAME = "VMLOG_SEGMENT";
+    public static final String VMLOG_NEXT_SEGMENT_NAME = "VMLOG_NEXT_SEGMENT";
+    public static final String VMLOG_RETIRED_SEGMENT_NAME = "VMLOG_RETIRED_SEGMENT";
+    public static final String VMLOG_THREAD_SERIAL_NAME = "VMLOG_THREAD_SERIAL";
+    public static final VmThreadLocal VMLOG_RECORD = new VmThreadLocal(VMLOG_RECORD_NAME, true, "VMLog.Record");
+    public static final VmThreadLocal VMLOG_BUFFER = new VmThreadLocal(VMLOG_BUFFER_NAME, false, "VMLog buffer");
+    public static final VmThreadLocal VMLOG_BUFFER_OFFSETS = new VmThreadLocal(VMLOG_BUFFER_OFFSETS_NAME, false, "VMLog buffer first/next offsets");
+    public static final VmThreadLocal VMLOG_SEGMENT = new VmThreadLocal(VMLOG_SEGMENT_NAME, false, "VMLog segment number, 0 for an in-memory buffer");
+    public static final VmThreadLocal VMLOG_NEXT_SEGMENT = new VmThreadLocal(VMLOG_NEXT_SEGMENT_NAME, false, "VMLog segment mapped ahead of time, 0 if none");
+    public static final VmThreadLocal VMLOG_RETIRED_SEGMENT = new VmThreadLocal(VMLOG_RETIRED_SEGMENT_NAME, false, "VMLog segment to be unmapped, 0 if none");
+    public static final VmThreadLocal VMLOG_THREAD_SERIAL = new VmThreadLocal(VMLOG_THREAD_SERIAL_NAME, false, "VMLog thread serial number, 0 until the first segment");
+
+    public static final int SEGMENT_MAGIC = 0x4D4C4F47;
+    public static final int SEGMENT_VERSION = 3;
+
+    /**
+     * Size of the segment file header, which keeps the records word aligned.
+     */
+    public static final int SEGMENT_HEADER_SIZE = 64;
+
+    // Offsets of the int valued fields of the segment file header
+    public static final int SEGMENT_MAGIC_OFFSET = 0;
+    public static final int SEGMENT_VERSION_OFFSET = 4;
+    public static final int SEGMENT_HEADER_SIZE_OFFSET = 8;
+    public static final int SEGMENT_RECORD_SIZE_OFFSET = 12;
+    public static final int SEGMENT_ARGS_OFFSET_OFFSET = 16;
+    public static final int SEGMENT_WORD_SIZE_OFFSET = 20;
+    public static final int SEGMENT_THREAD_ID_OFFSET = 24;
+    public static final int SEGMENT_NUMBER_OFFSET = 28;
+    public static final int SEGMENT_THREAD_SERIAL_OFFSET = 32;
+
+    /**
+     * Offset of the 64-bit timestamp in a record.
+     */
+    public static final int TIMESTAMP_OFFSET = VMLogNativeThread.ARGS_OFFSET;
+
+    /**
+     * Offset of the arguments in a record.
+     */
+    public static final int MAPPED_ARGS_OFFSET = TIMESTAMP_OFFSET + Longs.SIZE;
+
+    /**
+     * Largest segment size, bounded by the width of the first offset in {@link #vmLogBufferOffsetsTL}.
+     */
+    private static final int MAX_SEGMENT_SIZE = 64 * Ints.M;
+
+    /**
+     * Milliseconds between two passes of the segment mapper over the threads.
+     */
+    private static final int SEGMENT_MAPPER_INTERVAL = 10;
+
+    private static String VMLogDirectory;
+    private static Size VMLogSegmentSize = Size.M.times(4);
+    private static int VMLogSegments;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "VMLogDirectory", VMLogNativeThreadMapped.class,
+            "Directory to which the VM log is streamed as per-thread memory-mapped segment files.");
+        VMOptions.addFieldOption("-XX:", "VMLogSegmentSize", VMLogNativeThreadMapped.class,
+            "Size of a VM log segment file (at most 64MB).");
+        VMOptions.addFieldOption("-XX:", "VMLogSegments", VMLogNativeThreadMapped.class,
+            "Number of VM log segment files kept per thread, older ones are deleted (0 keeps all).");
+    }
+
+    /**
+     * The log directory as a C string, or zero if records are not streamed to segment files.
+     */
+    private Pointer directory = Pointer.zero();
+
+    /**
+     * Set once a segment could not be created, after which no more segments are mapped.
+     */
+    private volatile boolean segmentsFailed;
+
+    /**
+     * The size of a segment file.
+     */
+    private Size segmentSize = Size.zero();
+
+    /**
+     * The number of bytes available for records in a segment, a multiple of {@link #defaultNativeRecordSize}.
+     */
+    private int segmentDataSize;
+
+    /**
+     * The serial number given to the next thread that is given a segment. Only used by the segment mapper.
+     */
+    private int nextThreadSerial = 1;
+
+    @Override
+    public void initialize(MaxineVM.Phase phase) {
+        super.initialize(phase);
+        if (MaxineVM.isHosted() && phase == MaxineVM.Phase.BOOTSTRAPPING) {
+            setNativeRecordThreadLocal(VMLOG_RECORD);
+            setBufferThreadLocals(VMLOG_BUFFER, VMLOG_BUFFER_OFFSETS);
+        } else if (phase == MaxineVM.Phase.RUNNING) {
+            if (VMLogDirectory != null) {
+                openSegments();
+            }
+        }
+    }
+
+    /**
+     * Space for the header, the id and the timestamp.
+     */
+    @Override
+    protected int getArgsOffset() {
+        return MAPPED_ARGS_OFFSET;
+    }
+
+    private void openSegments() {
+        long size = VMLogSegmentSize.toLong();
+        // a segment must be able to take over a full in-memory buffer
+        size = Math.max(size, SEGMENT_HEADER_SIZE + logSize);
+        size = Math.min(size, MAX_SEGMENT_SIZE);
+        segmentDataSize = (int) ((size - SEGMENT_HEADER_SIZE) / defaultNativeRecordSize) * defaultNativeRecordSize;
+        segmentSize = Size.fromInt(SEGMENT_HEADER_SIZE + segmentDataSize);
+
+        Pointer dir = CString.utf8FromJava(VMLogDirectory);
+        if (!writeIndex(dir)) {
+            Memory.deallocate(dir);
+            return;
+        }
+        directory = dir;
+        new SegmentMapper().start();
+    }
+
+    /**
+     * Writes the names of the loggers and of their operations to the index file, one per line:
+     * <pre>
+     * vmlog &lt;version&gt;
+     * logger &lt;logger id&gt; &lt;name&gt;
+     * op &lt;logger id&gt; &lt;operation&gt; &lt;reference map&gt; &lt;name&gt;
+     * </pre>
+     */
+    private boolean writeIndex(Pointer dir) {
+        IndexWriter counter = new IndexWriter(Pointer.zero());
+        writeIndex(counter);
+        Pointer base = nativeVMLogMapIndex(dir, counter.position);
+        if (base.isZero()) {
+            return false;
+        }
+        writeIndex(new IndexWriter(base));
+        nativeVMLogUnmap(base, counter.position);
+        return true;
+    }
+
+    private void writeIndex(IndexWriter w) {
+        w.print("vmlog ");
+        w.print(SEGMENT_VERSION);
+        w.println();
+        for (VMLogger logger : loggers()) {
+            if (logger == null) {
+                continue;
+            }
+            w.print("logger ");
+            w.print(logger.loggerId);
+            w.print(" ");
+            w.print(logger.name);
+            w.println();
+            int[] refMaps = operationRefMaps[logger.loggerId];
+            for (int op = 0; op < logger.numOperations(); op++) {
+                w.print("op ");
+                w.print(logger.loggerId);
+                w.print(" ");
+                w.print(op);
+                w.print(" ");
+                w.print(refMaps == null ? 0 : refMaps[op]);
+                w.print(" ");
+                w.print(logger.operationName(op));
+                w.println();
+            }
+        }
+    }
+
+    /**
+     * Writes ASCII text to native memory, or just counts its length if the base address is zero.
+     */
+    private static final class IndexWriter {
+        final Pointer base;
+        int position;
+
+        IndexWriter(Pointer base) {
+            this.base = base;
+        }
+
+        void print(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                if (base.isNotZero()) {
+                    base.writeByte(position, (byte) s.charAt(i));
+                }
+                position++;
+            }
+        }
+
+        void print(int i) {
+            print(Integer.toString(i));
+        }
+
+        void println() {
+            print("\n");
+        }
+    }
+
+    @Override
+    public void threadStart() {
+        // we want to allocate the NativeRecord early;
+        // crucial for the VMOperation thread, otherwise GC logging will fail
+        if (!MaxineVM.isPrimordialOrPristine()) {
+            getNativeRecord(VmThread.currentTLA());
+        }
+    }
+
+    @Override
+    public void threadTerminate() {
+        Pointer tla = VmThread.currentTLA();
+        // any records logged from now on are dropped
+        vmLogBufferOffsetsTL.store3(tla, Address.fromInt(DISABLED));
+        Pointer buffer;
+        Pointer next;
+        Pointer retired;
+        boolean inMemory;
+        synchronized (VmThreadMap.THREAD_LOCK) {
+            // clearing the buffer under the lock tells the segment mapper that this thread is gone
+            buffer = vmLogBufferTL.load(tla);
+            next = VMLOG_NEXT_SEGMENT.load(tla);
+            retired = VMLOG_RETIRED_SEGMENT.load(tla);
+            // the segment number is kept, so that a thread re-enabling its log does not overwrite a segment
+            inMemory = VMLOG_SEGMENT.load(tla).isZero();
+            vmLogBufferTL.store3(tla, Address.zero());
+            VMLOG_NEXT_SEGMENT.store3(tla, Address.zero());
+            VMLOG_RETIRED_SEGMENT.store3(tla, Address.zero());
+        }
+        if (buffer.isNotZero()) {
+            if (!inMemory) {
+                nativeVMLogUnmap(buffer.minus(SEGMENT_HEADER_SIZE), segmentSize.toLong());
+            } else if (!buffer.equals(logBuffer)) {
+                Memory.deallocate(buffer);
+            }
+        }
+        if (next.isNotZero()) {
+            // the segment mapped ahead of time holds no records
+            int serial = next.readInt(SEGMENT_THREAD_SERIAL_OFFSET);
+            int segment = next.readInt(SEGMENT_NUMBER_OFFSET);
+            nativeVMLogUnmap(next, segmentSize.toLong());
+            nativeVMLogRemoveSegment(directory, serial, segment);
+        }
+        if (retired.isNotZero()) {
+            nativeVMLogUnmap(retired, segmentSize.toLong());
+        }
+    }
+
+    /**
+     * Gets the number of bytes available for records in the current buffer of a thread.
+     */
+    @INLINE
+    private int capacity(Pointer tla) {
+        return VMLOG_SEGMENT.load(tla).isZero() ? logSize : segmentDataSize;
+    }
+
+    @Override
+    @NO_SAFEPOINT_POLLS("atomic")
+    protected Record getRecord(int argCount) {
+        int uuid = getUniqueId();
+        Pointer tla = VmThread.currentTLA();
+        Pointer buffer = vmLogBufferTL.load(tla);
+        long offsets = vmLogBufferOffsetsTL.load(tla).toLong();
+        int nextOffset = nextOffset(offsets);
+        boolean inMemory = VMLOG_SEGMENT.load(tla).isZero();
+        int capacity = inMemory ? logSize : segmentDataSize;
+
+        if (buffer.isZero() || nextOffset + defaultNativeRecordSize > capacity ||
+            ((inMemory || isWrapped(offsets)) && VMLOG_NEXT_SEGMENT.load(tla).isNotZero())) {
+            offsets = nextBuffer(tla);
+            buffer = vmLogBufferTL.load(tla);
+            nextOffset = nextOffset(offsets);
+            capacity = capacity(tla);
+        }
+
+        Pointer recordAddress = buffer.plus(nextOffset);
+        int newNextOffset = nextOffset + defaultNativeRecordSize;
+        long firstOffsetAndWrap = offsets & FIRST_OFFSET_WRAP_MASK;
+        if (isWrapped(offsets)) {
+            // the buffer is full, so the oldest record is the one after this
+            int firstOffset = newNextOffset == capacity ? 0 : newNextOffset;
+            firstOffsetAndWrap = ((long) firstOffset) << FIRST_OFFSET_SHIFT | WRAPPED;
+        }
+        vmLogBufferOffsetsTL.store3(Address.fromLong(firstOffsetAndWrap | newNextOffset));
+
+        recordAddress.writeInt(ID_OFFSET, uuid);
+        recordAddress.writeLong(TIMESTAMP_OFFSET, MaxineVM.native_nanoTime());
+        NativeRecord record = getNativeRecord(tla);
+        record.address = recordAddress;
+
+        return record;
+    }
+
+    /**
+     * Makes room for the next record of a thread, by switching to the segment mapped ahead of time for it,
+     * or else by allocating or cycling its current buffer. No system call is made.
+     *
+     * @return the new value of {@link #vmLogBufferOffsetsTL}
+     */
+    @NEVER_INLINE
+    private long nextBuffer(Pointer tla) {
+        Pointer next = VMLOG_NEXT_SEGMENT.load(tla);
+        if (next.isNotZero()) {
+            if (VMLOG_SEGMENT.load(tla).isNotZero()) {
+                // the segment is about to be handed to the segment mapper for unmapping
+                flush(FLUSHMODE_FULL, VmThread.fromTLA(tla));
+            }
+            switchSegment(tla, next);
+            return vmLogBufferOffsetsTL.load(tla).toLong();
+        }
+        if (vmLogBufferTL.load(tla).isZero()) {
+            vmLogBufferTL.store3(tla, Memory.allocate(Size.fromInt(logSize)));
+            VMLOG_SEGMENT.store3(tla, Address.zero());
+            vmLogBufferOffsetsTL.store3(tla, Address.zero());
+            return 0;
+        }
+        long offsets = vmLogBufferOffsetsTL.load(tla).toLong();
+        if (nextOffset(offsets) + defaultNativeRecordSize <= capacity(tla)) {
+            // no segment is available yet, but there is room left in the current buffer
+            return offsets;
+        }
+        if (flusher != null) {
+            flush(FLUSHMODE_FULL, VmThread.fromTLA(tla));
+            offsets = 0;
+        } else {
+            // start overwriting the oldest records
+            offsets = WRAPPED;
+        }
+        vmLogBufferOffsetsTL.store3(tla, Address.fromLong(offsets));
+        return offsets;
+    }
+
+    /**
+     * Makes a segment mapped by the segment mapper the current buffer of a thread.
+     * The records in an in-memory buffer are carried over into the segment, while
+     * a previous segment is left to the segment mapper to unmap.
+     */
+    private void switchSegment(Pointer tla, Pointer base) {
+        Pointer buffer = base.plus(SEGMENT_HEADER_SIZE);
+        Pointer oldBuffer = vmLogBufferTL.load(tla);
+        int nextOffset = 0;
+        if (oldBuffer.isNotZero()) {
+            if (VMLOG_SEGMENT.load(tla).isZero()) {
+                nextOffset = copyRecords(tla, oldBuffer, buffer);
+                if (!oldBuffer.equals(logBuffer)) {
+                    Memory.deallocate(oldBuffer);
+                }
+            } else {
+                // the mapper only maps a new segment once it has taken the retired one
+                VMLOG_RETIRED_SEGMENT.store3(tla, oldBuffer.minus(SEGMENT_HEADER_SIZE));
+            }
+        }
+        vmLogBufferTL.store3(tla, buffer);
+        VMLOG_SEGMENT.store3(tla, Address.fromInt(base.readInt(SEGMENT_NUMBER_OFFSET)));
+        vmLogBufferOffsetsTL.store3(tla, Address.fromInt(nextOffset));
+        VMLOG_NEXT_SEGMENT.store3(tla, Address.zero());
+    }
+
+    /**
+     * Copies the records of the in-memory buffer of a thread, oldest first.
+     *
+     * @return the number of bytes copied
+     */
+    private int copyRecords(Pointer tla, Pointer from, Pointer to) {
+        long offsets = vmLogBufferOffsetsTL.load(tla).toLong();
+        int offset = firstOffset(offsets);
+        int end = nextOffset(offsets);
+        if (offset == end && !isWrapped(offsets)) {
+            return 0;
+        }
+        if (end == logSize) {
+            end = 0;
+        }
+        int copied = 0;
+        do {
+            Memory.copyBytes(from.plus(offset), to.plus(copied), Size.fromInt(defaultNativeRecordSize));
+            copied += defaultNativeRecordSize;
+            offset += defaultNativeRecordSize;
+            if (offset == logSize) {
+                offset = 0;
+            }
+        } while (offset != end);
+        return copied;
+    }
+
+    /**
+     * A segment that the segment mapper maps for, or unmaps on behalf of, a thread.
+     */
+    private static final class SegmentRequest {
+        final VmThread thread;
+        final Pointer tla;
+        final int serial;
+        final int segment;
+        Pointer base;
+
+        SegmentRequest(VmThread thread, Pointer tla, int serial, int segment, Pointer base) {
+            this.thread = thread;
+            this.tla = tla;
+            this.serial = serial;
+            this.segment = segment;
+            this.base = base;
+        }
+    }
+
+    /**
+     * The daemon thread that makes all the system calls of the log once the VM is running: it maps the next segment
+     * of each thread that logs ahead of time, and unmaps and deletes the segments threads no longer log into. It only
+     * holds {@link VmThreadMap#THREAD_LOCK} to find the threads to serve and to hand segments to them, never while
+     * making a system call.
+     */
+    private final class SegmentMapper extends Thread {
+        private final ArrayList<SegmentRequest> retired = new ArrayList<SegmentRequest>();
+        private final ArrayList<SegmentRequest> requests = new ArrayList<SegmentRequest>();
+
+        SegmentMapper() {
+            super(VmThread.systemThreadGroup, "VMLog segment mapper");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!segmentsFailed) {
+                collect();
+                for (SegmentRequest r : retired) {
+                    nativeVMLogUnmap(r.base, segmentSize.toLong());
+                    if (VMLogSegments > 0 && r.segment + 1 - VMLogSegments >= 1) {
+                        nativeVMLogRemoveSegment(directory, r.serial, r.segment + 1 - VMLogSegments);
+                    }
+                }
+                for (SegmentRequest r : requests) {
+                    r.base = mapSegment(r.thread.id(), r.serial, r.segment);
+                    if (r.base.isZero()) {
+                        segmentsFailed = true;
+                        break;
+                    }
+                }
+                install();
+                try {
+                    Thread.sleep(SEGMENT_MAPPER_INTERVAL);
+                } catch (InterruptedException e) {
+                }
+            }
+        }
+
+        /**
+         * Takes the retired segments of all threads and records which of them need a segment mapped ahead of time.
+         */
+        private void collect() {
+            retired.clear();
+            requests.clear();
+            synchronized (VmThreadMap.THREAD_LOCK) {
+                VmThreadMap.ACTIVE.forAllThreadLocals(null, collector);
+            }
+        }
+
+        private final Pointer.Procedure collector = new Pointer.Procedure() {
+            public void run(Pointer tla) {
+                if (vmLogBufferTL.load(tla).isZero() || VMLOG_NEXT_SEGMENT.load(tla).isNotZero()) {
+                    // the thread has not logged yet or has terminated, or it still has a segment to switch to
+                    return;
+                }
+                int serial = VMLOG_THREAD_SERIAL.load(tla).toInt();
+                if (serial == 0) {
+                    serial = nextThreadSerial++;
+                    VMLOG_THREAD_SERIAL.store3(tla, Address.fromInt(serial));
+                }
+                Pointer oldSegment = VMLOG_RETIRED_SEGMENT.load(tla);
+                if (oldSegment.isNotZero()) {
+                    retired.add(new SegmentRequest(null, tla, serial, oldSegment.readInt(SEGMENT_NUMBER_OFFSET), oldSegment));
+                    VMLOG_RETIRED_SEGMENT.store3(tla, Address.zero());
+                }
+                requests.add(new SegmentRequest(VmThread.fromTLA(tla), tla, serial, VMLOG_SEGMENT.load(tla).toInt() + 1, Pointer.zero()));
+            }
+        };
+
+        /**
+         * Hands the mapped segments to the threads that are still alive, and discards the others.
+         */
+        private void install() {
+            for (SegmentRequest r : requests) {
+                if (r.base.isZero()) {
+                    continue;
+                }
+                installing = r;
+                installed = false;
+                synchronized (VmThreadMap.THREAD_LOCK) {
+                    VmThreadMap.ACTIVE.forAllThreadLocals(null, installer);
+                }
+                if (!installed) {
+                    nativeVMLogUnmap(r.base, segmentSize.toLong());
+                    nativeVMLogRemoveSegment(directory, r.serial, r.segment);
+                }
+            }
+        }
+
+        private SegmentRequest installing;
+        private boolean installed;
+
+        private final Pointer.Procedure installer = new Pointer.Procedure() {
+            public void run(Pointer tla) {
+                SegmentRequest r = installing;
+                if (tla.equals(r.tla) && VmThread.fromTLA(tla) == r.thread && vmLogBufferTL.load(tla).isNotZero() && VMLOG_NEXT_SEGMENT.load(tla).isZero()) {
+                    VMLOG_NEXT_SEGMENT.store3(tla, r.base);
+                    installed = true;
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates and maps a segment file and writes its header.
+     *
+     * @return the base of the segment, zero if it could not be created
+     */
+    private Pointer mapSegment(int threadId, int serial, int segment) {
+        Pointer base = nativeVMLogMapSegment(directory, serial, segment, segmentSize.toLong());
+        if (base.isZero()) {
+            return base;
+        }
+        base.writeInt(SEGMENT_MAGIC_OFFSET, SEGMENT_MAGIC);
+        base.writeInt(SEGMENT_VERSION_OFFSET, SEGMENT_VERSION);
+        base.writeInt(SEGMENT_HEADER_SIZE_OFFSET, SEGMENT_HEADER_SIZE);
+        base.writeInt(SEGMENT_RECORD_SIZE_OFFSET, defaultNativeRecordSize);
+        base.writeInt(SEGMENT_ARGS_OFFSET_OFFSET, MAPPED_ARGS_OFFSET);
+        base.writeInt(SEGMENT_WORD_SIZE_OFFSET, Word.size());
+        base.writeInt(SEGMENT_THREAD_ID_OFFSET, threadId);
+        base.writeInt(SEGMENT_NUMBER_OFFSET, segment);
+        base.writeInt(SEGMENT_THREAD_SERIAL_OFFSET, serial);
+        return base;
+    }
+
+    @Override
+    public void scanLog(Pointer tla, PointerIndexVisitor visitor) {
+        scanOrFlushLog(tla, visitor, true);
+    }
+
+    private void scanOrFlushLog(Pointer tla, PointerIndexVisitor visitor, boolean scanning) {
+        long offsets = vmLogBufferOffsetsTL.load(tla).toLong();
+        int offset = firstOffset(offsets);
+        int end = nextOffset(offsets);
+        if (offset == end && !isWrapped(offsets)) {
+            // nothing to scan (and possibly no buffer or NativeRecord yet)
+            return;
+        }
+        int capacity = capacity(tla);
+        if (end == capacity) {
+            end = 0;
+        }
+        Pointer buffer = vmLogBufferTL.load(tla);
+        NativeRecord r = getNativeRecord(tla);
+        VmThread vmThread = VmThread.fromTLA(tla);
+        // N.B. It is possible that a GC scan was provoked by log flushing,
+        // in which case it is important to save/restore the "address" field of the
+        // associated NativeRecord, to avoid corruption when the flush iteration resumes.
+        Pointer saveAddress = r.address;
+
+        do {
+            r.address = buffer.plus(offset);
+            if (scanning) {
+                scanArgs(r, r.address.plus(MAPPED_ARGS_OFFSET), visitor);
+            } else {
+                flusher.flushRecord(vmThread, r, r.address.readInt(ID_OFFSET));
+            }
+            offset += defaultNativeRecordSize;
+            if (offset == capacity) {
+                offset = 0;
+            }
+        } while (offset != end);
+
+        if (scanning) {
+            r.address = saveAddress;
+        }
+    }
+
+    @Override
+    protected void flushRecords(VmThread vmThread) {
+        Pointer tla = vmThread.tla();
+        scanOrFlushLog(tla, null, false);
+        long offsets = vmLogBufferOffsetsTL.load(tla).toLong();
+        long disabled = offsets & DISABLED;
+        if (VMLOG_SEGMENT.load(tla).isZero()) {
+            // reset the log
+            vmLogBufferOffsetsTL.store3(tla, Address.fromLong(disabled));
+        } else {
+            // the flushed records stay in the segment file, so just skip them from now on
+            long nextOffset = nextOffset(offsets);
+            vmLogBufferOffsetsTL.store3(tla, Address.fromLong(nextOffset << FIRST_OFFSET_SHIFT | nextOffset | disabled));
+        }
+    }
+
+    // These make blocking system calls, so they are ordinary native methods, during which the VM can freeze the caller.
+
+    private static native Pointer nativeVMLogMapSegment(Pointer dir, int serial, int segment, long size);
+
+    private static native Pointer nativeVMLogMapIndex(Pointer dir, long size);
+
+    private static native void nativeVMLogUnmap(Pointer base, long size);
+
+    private static native void nativeVMLogRemoveSegment(Pointer dir, int serial, int segment);
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.management;
+
+/**
+ * Management interface for the time-to-safepoint and VM operation latency statistics.
+ * Times are in nanoseconds, except for histogram bucket limits, which are in microseconds.
+ *
+ * @see com.sun.max.vm.runtime.SafepointStatistics
+ */
+public interface SafepointMXBean {
+
+    /**
+     * Gets the number of safepoints at which VM operations froze threads.
+     */
+    long getOperationCount();
+
+    /**
+     * Gets the number of queued VM operations that shared a safepoint with other operations.
+     */
+    long getBatchedOperationCount();
+
+    /**
+     * Gets the number of safepoints that ran more than one queued VM operation.
+     */
+    long getBatchCount();
+
+    /**
+     * Gets the total time threads were held frozen by VM operations, from the start of freezing to the end of thawing.
+     */
+    long getTotalPauseTime();
+
+    /**
+     * Gets the longest time a thread took to reach a safepoint.
+     */
+    long getMaxTimeToSafepoint();
+
+    /**
+     * Gets the name of the thread that took longest to reach a safepoint.
+     */
+    String getSlowestThread();
+
+    /**
+     * Gets the name of the VM operation during which a thread took longest to reach a safepoint.
+     */
+    String getSlowestOperation();
+
+    /**
+     * Gets the method and code offset at which the slowest thread reached its safepoint.
+     */
+    String getSlowestThreadLocation();
+
+    /**
+     * Gets the exclusive upper bound of each histogram bucket, in microseconds.
+     */
+    long[] getHistogramBucketLimits();
+
+    /**
+     * Gets the histogram of the time each targeted thread took to reach a safepoint.
+     */
+    long[] getTimeToSafepointHistogram();
+
+    /**
+     * Gets the histogram of the time until all targeted threads of an operation reached a safepoint.
+     */
+    long[] getSynchronizationHistogram();
+
+    /**
+     * Gets the histogram of the time VM operations ran while threads were frozen.
+     */
+    long[] getOperationHistogram();
+
+    /**
+     * Gets the histogram of the time taken to thaw the threads frozen by VM operations.
+     */
+    long[] getThawHistogram();
+
+    /**
+     * Clears all statistics.
+     */
+    void reset();
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.management;
+
+import java.lang.management.*;
+
+import javax.management.*;
+
+import com.sun.max.vm.*;
+import com.sun.max.vm.runtime.*;
+import com.sun.max.vm.runtime.SafepointStatistics.Histogram;
+
+/**
+ * This class provides the entry point to the safepoint management functions in Maxine.
+ * With {@code -XX:+RegisterSafepointMXBean}, the {@link SafepointMXBean} is registered with the platform
+ * MBean server under the name {@value #OBJECT_NAME} once the VM is running.
+ */
+public class SafepointManagement {
+
+    public static final String OBJECT_NAME = "com.sun.max.vm:type=Safepoint";
+
+    static boolean RegisterSafepointMXBean;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "RegisterSafepointMXBean", SafepointManagement.class,
+            "Register an MXBean for time-to-safepoint and VM operation latency statistics");
+    }
+
+    private static final SafepointMXBean mxBean = new SafepointMXBeanImpl();
+
+    public static SafepointMXBean getSafepointMXBean() {
+        return mxBean;
+    }
+
+    /**
+     * Registers the {@link SafepointMXBean} with the platform MBean server if requested.
+     *
+     * @param phase the current VM phase
+     */
+    public static void initialize(MaxineVM.Phase phase) {
+        if (phase == MaxineVM.Phase.RUNNING && RegisterSafepointMXBean) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(mxBean, new ObjectName(OBJECT_NAME));
+            } catch (JMException e) {
+                Log.println("Could not register " + OBJECT_NAME + ": " + e);
+            }
+        }
+    }
+
+    private static class SafepointMXBeanImpl implements SafepointMXBean {
+
+        public long getOperationCount() {
+            return SafepointStatistics.SYNCHRONIZATION.count();
+        }
+
+        public long getBatchedOperationCount() {
+            return SafepointStatistics.batchedOperations();
+        }
+
+        public long getBatchCount() {
+            return SafepointStatistics.batches();
+        }
+
+        public long getTotalPauseTime() {
+            return SafepointStatistics.SYNCHRONIZATION.totalNanos() + SafepointStatistics.OPERATION.totalNanos() + SafepointStatistics.THAW.totalNanos();
+        }
+
+        public long getMaxTimeToSafepoint() {
+            return SafepointStatistics.maxTimeToSafepoint();
+        }
+
+        public String getSlowestThread() {
+            return SafepointStatistics.slowestThread();
+        }
+
+        public String getSlowestOperation() {
+            return SafepointStatistics.slowestOperation();
+        }
+
+        public String getSlowestThreadLocation() {
+            return SafepointStatistics.slowestLocation();
+        }
+
+        public long[] getHistogramBucketLimits() {
+            final long[] limits = new long[Histogram.BUCKETS];
+            for (int i = 0; i < limits.length; i++) {
+                limits[i] = Histogram.bucketLimitMicros(i);
+            }
+            return limits;
+        }
+
+        public long[] getTimeToSafepointHistogram() {
+            return SafepointStatistics.TIME_TO_SAFEPOINT.counts();
+        }
+
+        public long[] getSynchronizationHistogram() {
+            return SafepointStatistics.SYNCHRONIZATION.counts();
+        }
+
+        public long[] getOperationHistogram() {
+            return SafepointStatistics.OPERATION.counts();
+        }
+
+        public long[] getThawHistogram() {
+            return SafepointStatistics.THAW.counts();
+        }
+
+        public void reset() {
+            SafepointStatistics.reset();
+        }
+    }
+}
@@ -104,6 +104,10 @@ public abstract class BiasedLockModeHandler extends AbstractModeHandler implemen
             this.object = object;
         }
         @Override
+        protected boolean allowsBatching() {
+            return true;
+        }
+        @Override
         protected void doIt() {
             newLockword = revokeBias(object);
         }
@@ -535,6 +539,10 @@ public abstract class BiasedLockModeHandler extends AbstractModeHandler implemen
                 this.object = object;
             }
             @Override
+            protected boolean allowsBatching() {
+                return true;
+            }
+            @Override
             protected void doIt() {
                 final Hub hub = ObjectAccess.readHub(object);
                 hub.biasedLockEpoch = BiasedLockEpoch64.bulkRevocation();
@@ -550,6 +558,10 @@ public abstract class BiasedLockModeHandler extends AbstractModeHandler implemen
                 this.object = object;
             }
             @Override
+            protected boolean allowsBatching() {
+                return true;
+            }
+            @Override
             protected void doIt() {
                 final Hub hub = ObjectAccess.readHub(object);
                 final BiasedLockEpoch64 epoch = hub.biasedLockEpoch;
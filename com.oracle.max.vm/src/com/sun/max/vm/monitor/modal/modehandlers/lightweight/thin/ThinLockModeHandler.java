@@ -29,6 +29,7 @@ import com.sun.max.vm.monitor.modal.modehandlers.*;
 import com.sun.max.vm.monitor.modal.modehandlers.AbstractModeHandler.ModeDelegate.*;
 import com.sun.max.vm.monitor.modal.modehandlers.inflated.*;
 import com.sun.max.vm.monitor.modal.modehandlers.lightweight.biased.*;
+import com.sun.max.vm.monitor.modal.sync.*;
 import com.sun.max.vm.object.*;
 import com.sun.max.vm.thread.*;
 
@@ -113,7 +114,11 @@ public abstract class ThinLockModeHandler extends AbstractModeHandler {
     @SNIPPET_SLOWPATH
     protected void slowPathMonitorEnter(Object object, ModalLockword64 lockword, int lockwordThreadID) {
         ModalLockword64 newLockword = lockword;
-        int retries = THIN_LOCK_RETRIES;
+        // The number of pause instructions to spin for before inflating a thin lock held by another thread.
+        final int spinBudget = MonitorSpinning.isEnabled() ? MonitorSpinning.thinLockBudget() : 0;
+        int spins = 0;
+        int backoff = 1;
+        int retries = spinBudget > 0 ? 1 : THIN_LOCK_RETRIES;
         while (true) {
             if (ThinLockword64.isThinLockword(newLockword)) {
                 final ThinLockword64 thinLockword = ThinLockword64.from(newLockword);
@@ -135,15 +140,41 @@ public abstract class ThinLockModeHandler extends AbstractModeHandler {
                     final ModalLockword64 answer = ModalLockword64.from(ObjectAccess.compareAndSwapMisc(object, asUnlocked, asLocked));
                     if (answer.equals(asUnlocked)) {
                         // The current thread got the lock
+                        if (spins > 0) {
+                            MonitorSpinning.setThinLockBudget(MonitorSpinning.grow(spinBudget));
+                            MonitorSpinning.won();
+                        }
                         return;
                     }
                     // This could be a hashcode, inflation or another thread got the lock.
                     // Lets try again.
                     newLockword = answer;
+                    if (spins < spinBudget) {
+                        if (ThinLockword64.isThinLockword(answer)) {
+                            final ThinLockword64 contended = ThinLockword64.from(answer);
+                            if (!contended.equals(contended.asUnlocked())) {
+                                // Another thread holds the lock: back off, unless that thread is blocked.
+                                final VmThread owner = VmThreadMap.ACTIVE.getVmThreadForID(decodeLockwordThreadID(contended.getLockOwnerID()));
+                                if (MonitorSpinning.isOwnerBlocked(owner)) {
+                                    spins = spinBudget;
+                                } else {
+                                    spins += backoff;
+                                    backoff = MonitorSpinning.pause(backoff);
+                                    newLockword = ModalLockword64.from(ObjectAccess.readMisc(object));
+                                }
+                            }
+                        }
+                        continue;
+                    }
                     if (--retries > 0) {
                         continue;
                     }
                 }
+                if (spins > 0) {
+                    MonitorSpinning.setThinLockBudget(MonitorSpinning.shrink(spinBudget));
+                    MonitorSpinning.lost();
+                    spins = 0;
+                }
                 // Count overflow or too much contention - inflate
                 newLockword = inflate(object, thinLockword);
             }
@@ -154,7 +185,7 @@ public abstract class ThinLockModeHandler extends AbstractModeHandler {
             }
             // Try again. Monitor was deflated.
             newLockword = ModalLockword64.from(ObjectAccess.readMisc(object));
-            retries = THIN_LOCK_RETRIES;
+            retries = spinBudget > 0 ? 1 : THIN_LOCK_RETRIES;
         }
     }
 
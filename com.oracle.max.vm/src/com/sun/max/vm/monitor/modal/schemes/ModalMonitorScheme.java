@@ -68,6 +68,7 @@ public abstract class ModalMonitorScheme extends AbstractMonitorScheme {
             handler = handler.delegate();
         }
         JavaMonitorManager.initialize(phase);
+        MonitorSpinning.initialize(phase);
     }
 
     /**
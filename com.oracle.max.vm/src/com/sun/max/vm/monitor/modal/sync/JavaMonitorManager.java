@@ -41,11 +41,13 @@ import com.sun.max.vm.thread.*;
  * <p>
  * Binding can be performed at bootstrapping or runtime. If binding is performed while bootstrapping then either a default
  * or specialized monitor can be used. If binding is performed at runtime then an unbound monitor is taken from
- * a free list.
+ * a small per-thread cache, which is refilled in bulk from a global free list.
  * <p>
  * Unbinding is performed at global safepoints. All unowned, unbindable, bound monitors are unbound. Writing of unbound
  * lockwords is delegated to an {@link UnboundMiscWordWriter} object (most likely the inflated mode handler of the ModalMonitorScheme).
- * This allows unbinding to be a transition to any other locking mode.
+ * This allows unbinding to be a transition to any other locking mode. Besides every GC, a safepoint that only
+ * {@linkplain DeflateIdleMonitors deflates idle monitors} is requested when the free list runs low. Surplus
+ * unbound monitors left over from a burst of inflation are disposed of at these safepoints.
  * <p>
  * GC considerations:
  * <p>
@@ -81,20 +83,37 @@ public class JavaMonitorManager {
      */
     private static int unboundListGrowQty = 50;
 
+    /**
+     * The number of unbound monitors moved from the free list to a thread's monitor cache when it is empty.
+     */
+    private static final int MONITOR_CACHE_REFILL_QTY = 8;
+
+    /**
+     * The maximum number of unbound monitors a thread caches. Half of them are returned to the
+     * free list when this is exceeded.
+     */
+    private static final int MONITOR_CACHE_MAX_QTY = 16;
+
+    /**
+     * Marks the unbound monitors that are being removed from the pool by {@link #trimUnboundList()}.
+     */
+    private static final Object RETIRED = new Object();
+
     /**
      * The current number of unbound monitors available.
      */
     private static int numberOfUnboundMonitors = 0;
 
     /**
-     * The unbound monitors high water mark.
+     * The unbound monitors high water mark. This grows with each {@linkplain #expandUnboundList() expansion}
+     * and falls back when surplus monitors are {@linkplain #trimUnboundList() trimmed}.
      *
-     * @see #bindMonitor(Object)
+     * @see #refillMonitorCache(VmThread)
      */
     private static int unboundMonitorsHwm;
 
     /**
-     * The head of the list of unbound monitors.
+     * The head of the global list of unbound monitors. Monitors in a thread's cache are not on this list.
      */
     private static ManagedMonitor unboundList;
 
@@ -341,17 +360,11 @@ public class JavaMonitorManager {
         if (inGlobalSafepoint) {
             monitor = takeFromUnboundList();
         } else {
-            synchronized (LOCK) {
-                if (numberOfUnboundMonitors < UNBOUNDLIST_MIN_QTY) {
-                    System.gc();
-                }
-
-                // If we didn't free up enough such that we are at least midway between min and hwm, expand
-                if (numberOfUnboundMonitors < (unboundMonitorsHwm + UNBOUNDLIST_MIN_QTY) >> 1) {
-                    expandUnboundList();
-                }
-                monitor = takeFromUnboundList();
+            final VmThread current = VmThread.current();
+            if (current.numberOfCachedMonitors == 0) {
+                refillMonitorCache(current);
             }
+            monitor = takeFromMonitorCache(current);
         }
         monitor.setBoundObject(object);
         if (Monitor.TraceMonitors) {
@@ -379,12 +392,76 @@ public class JavaMonitorManager {
         if (inGlobalSafepoint) {
             addToUnboundList(bindableMonitor);
         } else {
-            synchronized (LOCK) {
-                addToUnboundList(bindableMonitor);
+            final VmThread current = VmThread.current();
+            addToMonitorCache(current, bindableMonitor);
+            if (current.numberOfCachedMonitors > MONITOR_CACHE_MAX_QTY) {
+                synchronized (LOCK) {
+                    while (current.numberOfCachedMonitors > MONITOR_CACHE_MAX_QTY >> 1) {
+                        addToUnboundList(takeFromMonitorCache(current));
+                    }
+                }
             }
         }
     }
 
+    /**
+     * Moves a batch of monitors from the global free list to the monitor cache of a given thread.
+     * If the free list is running low, idle monitors are first {@linkplain DeflateIdleMonitors deflated}
+     * and, failing that, the pool is {@linkplain #expandUnboundList() expanded}.
+     *
+     * @param thread the current thread, whose monitor cache is empty
+     */
+    private static void refillMonitorCache(VmThread thread) {
+        synchronized (LOCK) {
+            if (numberOfUnboundMonitors < UNBOUNDLIST_MIN_QTY + MONITOR_CACHE_REFILL_QTY) {
+                deflateIdleMonitors.submit();
+            }
+
+            // If we didn't free up enough such that we are at least midway between min and hwm, expand
+            if (numberOfUnboundMonitors < (unboundMonitorsHwm + UNBOUNDLIST_MIN_QTY) >> 1) {
+                expandUnboundList();
+            }
+            // Leave the minimum quantity on the free list for use at safepoints, but always take at least one
+            final int n = Math.max(1, Math.min(MONITOR_CACHE_REFILL_QTY, numberOfUnboundMonitors - UNBOUNDLIST_MIN_QTY));
+            for (int i = 0; i < n; i++) {
+                addToMonitorCache(thread, takeFromUnboundList());
+            }
+        }
+    }
+
+    /**
+     * Returns the monitors cached by a given thread to the global free list. This is called when the thread
+     * is terminating, after its last {@code synchronized} operation on a non-sticky object.
+     *
+     * @param thread the current thread
+     */
+    public static void releaseCachedMonitors(VmThread thread) {
+        if (thread.numberOfCachedMonitors == 0) {
+            return;
+        }
+        synchronized (LOCK) {
+            while (thread.numberOfCachedMonitors != 0) {
+                addToUnboundList(takeFromMonitorCache(thread));
+            }
+        }
+    }
+
+    private static ManagedMonitor takeFromMonitorCache(VmThread thread) {
+        // Only the owning thread touches its cache, so no synchronization is needed.
+        final ManagedMonitor monitor = (ManagedMonitor) thread.cachedMonitors;
+        thread.cachedMonitors = monitor.next();
+        monitor.setNext(null);
+        thread.numberOfCachedMonitors--;
+        return monitor;
+    }
+
+    private static void addToMonitorCache(VmThread thread, ManagedMonitor monitor) {
+        // Only the owning thread touches its cache, so no synchronization is needed.
+        monitor.setNext((ManagedMonitor) thread.cachedMonitors);
+        thread.cachedMonitors = monitor;
+        thread.numberOfCachedMonitors++;
+    }
+
     @NO_SAFEPOINT_POLLS("verification requires mutual exclusion with GC")
     private static int verifyBindableMonitors() {
         int errors = 0;
@@ -404,11 +481,14 @@ public class JavaMonitorManager {
 
     /**
      * Expands the list of unbound monitors by allocating and adding {@link #unboundListGrowQty} new
-     * monitors to the list.
+     * monitors to the list. The pool array is only reallocated if it has no room left from a previous
+     * {@linkplain #trimUnboundList() trim}.
      */
     private static void expandUnboundList() {
         ManagedMonitor newUnboundList = null;
-        final ManagedMonitor[] newAllBindable = new ManagedMonitor[bindableMonitors.length + unboundListGrowQty];
+        // A GC while allocating may trim the pool, but never grow it, so this array remains large enough
+        final ManagedMonitor[] newAllBindable = bindableMonitors.length < numberOfBindableMonitors + unboundListGrowQty ?
+                        new ManagedMonitor[numberOfBindableMonitors + unboundListGrowQty] : null;
 
         // Create the new monitors
         for (int i = 0; i < unboundListGrowQty; i++) {
@@ -420,11 +500,12 @@ public class JavaMonitorManager {
         // This is the only place where we need to synchronize monitor list access
         // between a mutator thread and a GC thread which is performing unbinding.
         SafepointPoll.disable();
-        for (int i = 0; i < bindableMonitors.length; i++) {
-            newAllBindable[i] = bindableMonitors[i];
+        if (bindableMonitors.length < numberOfBindableMonitors + unboundListGrowQty) {
+            for (int i = 0; i < numberOfBindableMonitors; i++) {
+                newAllBindable[i] = bindableMonitors[i];
+            }
+            bindableMonitors = newAllBindable;
         }
-        bindableMonitors = newAllBindable;
-        unboundMonitorsHwm = newAllBindable.length;
         ManagedMonitor monitor = newUnboundList;
         while (monitor != null) {
             newUnboundList = monitor.next();
@@ -432,6 +513,7 @@ public class JavaMonitorManager {
             addToAllBindable(monitor);
             monitor = newUnboundList;
         }
+        unboundMonitorsHwm = numberOfBindableMonitors;
         FatalError.check(bindableMonitors.length >= numberOfBindableMonitors, "corrupted bindableMonitors array");
         SafepointPoll.enable();
         FatalError.check(verifyBindableMonitors() == 0, "corrupted bindableMonitors array");
@@ -475,9 +557,34 @@ public class JavaMonitorManager {
      */
     public static void afterGarbageCollection() {
         refreshAllBindings();
+        trimUnboundList();
         inGlobalSafepoint = false;
     }
 
+    /**
+     * A VM operation that unbinds idle monitors at a safepoint without performing a garbage collection.
+     * Unbinding needs no GC; it only needs all mutators stopped outside of the window between reading
+     * an object's lockword and {@linkplain JavaMonitorManager#protectBinding(JavaMonitor) protecting} its monitor.
+     */
+    private static final class DeflateIdleMonitors extends VmOperation {
+        DeflateIdleMonitors() {
+            super("DeflateIdleMonitors", null, Mode.Safepoint);
+        }
+
+        @Override
+        protected boolean allowsBatching() {
+            return true;
+        }
+
+        @Override
+        protected void doIt() {
+            beforeGarbageCollection();
+            afterGarbageCollection();
+        }
+    }
+
+    private static final DeflateIdleMonitors deflateIdleMonitors = new DeflateIdleMonitors();
+
     private static class ProtectedMonitorGatherer implements Pointer.Procedure {
         public void run(Pointer tla) {
             VmThread thread = VmThread.fromTLA(tla);
@@ -529,6 +636,46 @@ public class JavaMonitorManager {
         }
     }
 
+    /**
+     * Disposes of some of the unbound monitors on the free list if it holds more than is needed,
+     * which brings the high water mark back down after a burst of inflation. Half of the surplus
+     * is removed each time, so the pool decays gradually rather than oscillating.
+     * <p>
+     * Must only be called on a global safepoint.
+     */
+    private static void trimUnboundList() {
+        final int inUse = numberOfBindableMonitors - numberOfUnboundMonitors;
+        final int surplus = (numberOfUnboundMonitors - Math.max(UNBOUNDLIST_MIN_QTY + unboundListGrowQty, inUse)) >> 1;
+        if (surplus <= 0) {
+            return;
+        }
+        for (int i = 0; i < surplus; i++) {
+            takeFromUnboundList().setBoundObject(RETIRED);
+        }
+        int n = 0;
+        for (int i = 0; i < numberOfBindableMonitors; i++) {
+            final ManagedMonitor monitor = bindableMonitors[i];
+            if (monitor.boundObject() == RETIRED) {
+                monitor.dispose();
+            } else {
+                bindableMonitors[n++] = monitor;
+            }
+        }
+        for (int i = n; i < numberOfBindableMonitors; i++) {
+            bindableMonitors[i] = null;
+        }
+        numberOfBindableMonitors = n;
+        unboundMonitorsHwm = n;
+        if (Monitor.TraceMonitors) {
+            final boolean lockDisabledSafepoints = Log.lock();
+            Log.print("Disposed of ");
+            Log.print(surplus);
+            Log.print(" unbound monitors, pool size now ");
+            Log.println(n);
+            Log.unlock(lockDisabledSafepoints);
+        }
+    }
+
     /**
      * Must only be called on a global safepoint.
      */
@@ -582,6 +729,12 @@ public class JavaMonitorManager {
          */
         void allocate();
 
+        /**
+         * Releases the native allocations made by {@link #allocate()}. The monitor must be unbound
+         * and is not used again.
+         */
+        void dispose();
+
         /**
          * Returns this monitor's bound object.
          *
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.monitor.modal.sync;
+
+import com.sun.max.annotate.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.MaxineVM.Phase;
+import com.sun.max.vm.thread.*;
+
+/**
+ * Adaptive spinning for contended monitors. Before blocking on a contended monitor, a thread spins for a number of
+ * {@linkplain Intrinsics#pause() pause} instructions, its spin budget, re-trying to acquire the monitor with an
+ * exponential back-off between attempts. Spinning stops early if the owner of the monitor isn't running, since it is
+ * then unlikely to release the monitor soon.
+ * <p>
+ * The budget is learned from recent spins: it {@linkplain #grow(int) grows} each time spinning acquires the monitor and
+ * {@linkplain #shrink(int) shrinks} each time it doesn't, but never below {@link #MIN_SPINS} so that a monitor whose
+ * critical sections became short again can win its budget back, nor above {@code -XX:MonitorSpinLimit}. Inflated
+ * monitors keep their own budget; thin locks, which have no room for one, share {@linkplain #thinLockBudget() a single
+ * budget}. As the limit is a runtime option, the shared budget is only set once the options have been parsed, and
+ * budgets of monitors created while building the boot image are brought within the limit by their first spin.
+ */
+public final class MonitorSpinning {
+
+    private MonitorSpinning() {
+    }
+
+    static boolean UseMonitorSpinning = true;
+    static int MonitorSpinLimit = 4096;
+    static boolean PrintMonitorSpinStats;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "UseMonitorSpinning", MonitorSpinning.class,
+            "Spin adaptively before blocking on a contended monitor", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "MonitorSpinLimit", MonitorSpinning.class,
+            "Maximum number of pause instructions a thread spins for before blocking on a contended monitor", Phase.PRISTINE);
+        VMOptions.addFieldOption("-XX:", "PrintMonitorSpinStats", MonitorSpinning.class,
+            "Print the number of spins on contended monitors that acquired the monitor (won) or not (lost) at end of program", Phase.PRISTINE);
+    }
+
+    /**
+     * Smallest spin budget.
+     */
+    public static final int MIN_SPINS = 16;
+
+    /**
+     * Largest number of pause instructions between two attempts at acquiring a monitor.
+     */
+    private static final int MAX_BACKOFF = 256;
+
+    /**
+     * Number of spins that acquired the monitor. Updated without synchronization, hence approximate.
+     */
+    private static long spinsWon;
+
+    /**
+     * Number of spins that ended with the thread blocking. Updated without synchronization, hence approximate.
+     */
+    private static long spinsLost;
+
+    /**
+     * The spin budget shared by all thin locks.
+     */
+    private static int thinLockBudget;
+
+    public static void initialize(MaxineVM.Phase phase) {
+        if (phase == Phase.PRISTINE) {
+            if (MonitorSpinLimit < MIN_SPINS) {
+                UseMonitorSpinning = false;
+            }
+            thinLockBudget = initialBudget();
+        } else if (phase == Phase.TERMINATING) {
+            if (PrintMonitorSpinStats) {
+                printStats();
+            }
+        }
+    }
+
+    @INLINE
+    public static boolean isEnabled() {
+        return UseMonitorSpinning;
+    }
+
+    /**
+     * Gets the spin budget a monitor starts with.
+     */
+    public static int initialBudget() {
+        return MonitorSpinLimit >> 2;
+    }
+
+    /**
+     * Gets the spin budget shared by all thin locks.
+     */
+    @INLINE
+    public static int thinLockBudget() {
+        return thinLockBudget;
+    }
+
+    /**
+     * Sets the spin budget shared by all thin locks to a value obtained from {@link #grow(int)} or {@link #shrink(int)}.
+     */
+    @INLINE
+    public static void setThinLockBudget(int budget) {
+        thinLockBudget = budget;
+    }
+
+    /**
+     * Gets the budget following a spin that acquired the monitor.
+     */
+    @INLINE
+    public static int grow(int budget) {
+        if (budget >= (MonitorSpinLimit - MIN_SPINS) >> 1) {
+            return MonitorSpinLimit;
+        }
+        return (budget << 1) + MIN_SPINS;
+    }
+
+    /**
+     * Gets the budget following a spin that didn't acquire the monitor.
+     */
+    @INLINE
+    public static int shrink(int budget) {
+        final int newBudget = budget >> 1;
+        if (newBudget > MonitorSpinLimit) {
+            return MonitorSpinLimit;
+        }
+        return newBudget < MIN_SPINS ? MIN_SPINS : newBudget;
+    }
+
+    /**
+     * Executes a number of pause instructions.
+     *
+     * @param backoff the number of pause instructions to execute
+     * @return the number of pause instructions to execute before the next attempt at acquiring the monitor
+     */
+    public static int pause(int backoff) {
+        for (int i = 0; i < backoff; i++) {
+            Intrinsics.pause();
+        }
+        return backoff < MAX_BACKOFF ? backoff << 1 : MAX_BACKOFF;
+    }
+
+    /**
+     * Determines if the owner of a monitor is blocked or waiting, in which case spinning for the monitor is pointless.
+     *
+     * @param owner the owner of the monitor, or {@code null} if it isn't known
+     */
+    @INLINE
+    public static boolean isOwnerBlocked(VmThread owner) {
+        return owner != null && owner.state() != Thread.State.RUNNABLE;
+    }
+
+    @INLINE
+    public static void won() {
+        if (PrintMonitorSpinStats) {
+            spinsWon++;
+        }
+    }
+
+    @INLINE
+    public static void lost() {
+        if (PrintMonitorSpinStats) {
+            spinsLost++;
+        }
+    }
+
+    private static void printStats() {
+        final boolean lockDisabledSafepoints = Log.lock();
+        Log.println("Monitor spinning statistics");
+        Log.print("   spins won : ");
+        Log.println(spinsWon);
+        Log.print("   spins lost: ");
+        Log.println(spinsLost);
+        Log.unlock(lockDisabledSafepoints);
+    }
+}
@@ -30,7 +30,8 @@ import com.sun.max.vm.thread.*;
  * Provides Java monitor services on behalf of a {@linkplain #boundObject() bound} object.
  *
  * The {@link Bytecodes#MONITORENTER} and {@link Bytecodes#MONITOREXIT} instructions are implemented via a per-monitor
- * mutex. {@linkplain Object#wait() Wait} and {@linkplain Object#notify() notify} are implemented via a per-monitor
+ * mutex. A thread entering a contended monitor {@linkplain MonitorSpinning spins} for the monitor's adaptive budget
+ * before blocking on the mutex. {@linkplain Object#wait() Wait} and {@linkplain Object#notify() notify} are implemented via a per-monitor
  * waiting list and a per-thread {@linkplain VmThread#waitingCondition() condition variable} on which a thread suspends
  * itself. A per-thread condition variable is necessary in order to implement single thread notification. <br>
  * <br>
@@ -72,8 +73,15 @@ public class StandardJavaMonitor extends AbstractJavaMonitor {
 
     private int notifiedThreads;
 
+    /**
+     * The number of pause instructions a thread entering this monitor spins for before blocking on the mutex.
+     * See {@link MonitorSpinning}.
+     */
+    private int spinBudget;
+
     public StandardJavaMonitor() {
         mutex = MutexFactory.create();
+        spinBudget = MonitorSpinning.initialBudget();
     }
 
     private static void raiseIllegalMonitorStateException(VmThread owner) {
@@ -95,15 +103,43 @@ public class StandardJavaMonitor extends AbstractJavaMonitor {
             traceEndMonitorEnter(currentThread);
             return;
         }
-        currentThread.setState(Thread.State.BLOCKED);
-        mutex.lock();
-        currentThread.setState(Thread.State.RUNNABLE);
+        if (!mutex.tryLock() && !spinEnter()) {
+            currentThread.setState(Thread.State.BLOCKED);
+            mutex.lock();
+            currentThread.setState(Thread.State.RUNNABLE);
+        }
         ownerThread = currentThread;
         setBindingProtection(BindingProtection.PROTECTED);
         recursionCount = 1;
         traceEndMonitorEnter(currentThread);
     }
 
+    /**
+     * Spins for the mutex of this monitor, and adapts the spin budget of this monitor to the outcome.
+     *
+     * @return true if the current thread acquired the mutex
+     */
+    private boolean spinEnter() {
+        if (!MonitorSpinning.isEnabled()) {
+            return false;
+        }
+        final int budget = spinBudget;
+        int spins = 0;
+        int backoff = 1;
+        while (spins < budget && !MonitorSpinning.isOwnerBlocked(ownerThread)) {
+            spins += backoff;
+            backoff = MonitorSpinning.pause(backoff);
+            if (ownerThread == null && mutex.tryLock()) {
+                spinBudget = MonitorSpinning.grow(budget);
+                MonitorSpinning.won();
+                return true;
+            }
+        }
+        spinBudget = MonitorSpinning.shrink(budget);
+        MonitorSpinning.lost();
+        return false;
+    }
+
     @Override
     public void monitorExit() {
         final VmThread currentThread = VmThread.current();
@@ -256,6 +292,17 @@ public class StandardJavaMonitor extends AbstractJavaMonitor {
         mutex.init();
     }
 
+    @Override
+    public void dispose() {
+        mutex.cleanup();
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        spinBudget = MonitorSpinning.initialBudget();
+    }
+
     @Override
     public void log() {
         super.log();
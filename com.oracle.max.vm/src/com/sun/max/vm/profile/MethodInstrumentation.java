@@ -26,6 +26,7 @@ import com.sun.max.vm.actor.holder.*;
 import com.sun.max.vm.actor.member.*;
 import com.sun.max.vm.code.*;
 import com.sun.max.vm.compiler.*;
+import com.sun.max.vm.compiler.deopt.*;
 import com.sun.max.vm.object.ArrayAccess;
 import com.sun.max.vm.object.ObjectAccess;
 
@@ -88,8 +89,10 @@ public class MethodInstrumentation {
     }
 
     @INLINE
-    public static void recordBackwardBranch(MethodProfile mpo) {
-        mpo.entryBackedgeCount--;
+    public static void recordBackwardBranch(MethodProfile mpo, int targetBCI) {
+        if (--mpo.entryBackedgeCount <= 0 && OnStackReplacement.UseOSR) {
+            CompilationBroker.instrumentationCounterOverflow(mpo, null, targetBCI);
+        }
     }
 
     @INLINE
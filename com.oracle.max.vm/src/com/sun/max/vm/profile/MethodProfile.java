@@ -112,6 +112,13 @@ public class MethodProfile {
      */
     public boolean compilationDisabled;
 
+    /**
+     * The methods compiled for {@linkplain com.sun.max.vm.compiler.deopt.OnStackReplacement on-stack replacement}
+     * into the loops of {@link #method}, keyed by the bytecode index of the loop header. A {@code null} value
+     * records that the compilation for that loop failed. Accesses are synchronized on this profile.
+     */
+    public Map<Integer, TargetMethod> osrMethods;
+
     protected MethodProfile() {
     }
 
@@ -572,6 +579,18 @@ public class MethodProfile {
         return entryBackedgeCount <= MethodInstrumentation.protectionThreshold;
     }
 
+    /**
+     * Gets a measure of how hot the profiled method is. This is the recorded method entry count if
+     * available, otherwise the number of entries and backward branches counted so far.
+     */
+    public int hotness() {
+        Integer entryCount = getEntryCount();
+        if (entryCount != null && entryCount > 0) {
+            return entryCount;
+        }
+        return Math.max(0, MethodInstrumentation.initialEntryBackedgeCount - entryBackedgeCount);
+    }
+
     /**
      * This class implements a builder that collects the instrumentation created for a particular
      * method and then packs the information into a dense, sorted representation in the form of
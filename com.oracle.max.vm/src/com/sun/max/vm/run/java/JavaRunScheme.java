@@ -30,17 +30,20 @@ import com.sun.max.vm.MaxineVM.Phase;
 import com.sun.max.vm.actor.holder.ClassActor;
 import com.sun.max.vm.actor.member.MethodActor;
 import com.sun.max.vm.actor.member.StaticMethodActor;
+import com.sun.max.vm.classfile.ClassArchive;
 import com.sun.max.vm.compiler.deopt.Deoptimization;
 import com.sun.max.vm.heap.Heap;
 import com.sun.max.vm.hosted.CompiledPrototype;
 import com.sun.max.vm.instrument.InstrumentationManager;
 import com.sun.max.vm.jni.JniFunctions;
 import com.sun.max.vm.log.VMLog;
+import com.sun.max.vm.management.SafepointManagement;
 import com.sun.max.vm.profilers.sampling.*;
 import com.sun.max.vm.run.RunScheme;
 import com.sun.max.vm.runtime.CriticalMethod;
 import com.sun.max.vm.runtime.FatalError;
 import com.sun.max.vm.runtime.PrintThreads;
+import com.sun.max.vm.runtime.SafepointStatistics;
 import com.sun.max.vm.thread.VmThread;
 import com.sun.max.vm.ti.VMTI;
 import com.sun.max.vm.type.Kind;
@@ -244,11 +247,15 @@ public class JavaRunScheme extends AbstractVMScheme implements RunScheme {
                     final String heapProfOptionPrefix = hprofOption.toString();
                     heapSamplingProfiler = new HeapSamplingProfiler(heapProfOptionPrefix, heapProfOptionValue);
                 }
+                SafepointManagement.initialize(phase);
+                ClassArchive.initialize(phase);
+                VMLog.vmLog().initialize(phase);
                 break;
             }
 
             case TERMINATING: {
                 JniFunctions.printJniFunctionTimers();
+                SafepointStatistics.printStatistics();
                 terminateProfilers();
                 break;
             }
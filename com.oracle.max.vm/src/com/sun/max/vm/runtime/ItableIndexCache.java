@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.runtime;
+
+import com.sun.max.vm.*;
+import com.sun.max.vm.actor.holder.*;
+import com.sun.max.vm.actor.member.*;
+import com.sun.max.vm.code.*;
+import com.sun.max.vm.compiler.deopt.*;
+import com.sun.max.vm.object.*;
+
+/**
+ * A cache of itable indexes for a single {@code invokeinterface} call site in optimized code.
+ * <p>
+ * This is not an inline cache: the call site is never patched and always calls indirectly through the entry point
+ * loaded from the receiver's hub. The cache only replaces the hashed mtable lookup that finds the itable entry.
+ * <p>
+ * The cache has {@link #SIZE} slots. Each slot pairs a receiver {@link Hub} with the index of the word in that hub
+ * that holds the entry point of the selected method. Compiled code compares the hub of the receiver against the
+ * first slot inline and against the others out of line. On a hit it loads the entry point straight from the hub,
+ * skipping the hashed lookup of {@link Snippets#selectInterfaceMethod(Object, InterfaceMethodActor)}. A receiver that
+ * matches no slot calls {@link #miss(Object)}, which fills the next free slot or, once all slots are taken, makes the
+ * site megamorphic. Megamorphic sites do the table lookup inline and no longer call back into the runtime.
+ * <p>
+ * Slots hold hub indexes rather than code addresses, so they never go stale. The entry point is always read from the
+ * receiver's hub, which compilation, {@linkplain CodeEviction code eviction}, {@linkplain CodeSweeper code sweeping}
+ * and {@linkplain Deoptimization deoptimization} keep up to date. A slot is written once, index before hub, so compiled
+ * code that sees the hub of a slot also sees its index.
+ */
+public final class ItableIndexCache {
+
+    /**
+     * Number of receiver types a call site can cache before it becomes megamorphic.
+     */
+    public static final int SIZE = 4;
+
+    public static boolean UseItableIndexCaches = true;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "UseItableIndexCaches", ItableIndexCache.class,
+            "Cache the itable indexes of the receiver types seen by invokeinterface call sites in optimized code.", MaxineVM.Phase.STARTING);
+    }
+
+    /**
+     * The interface method invoked at the call site.
+     */
+    public final InterfaceMethodActor method;
+
+    // The slots are individual fields so that compiled code can test them without an array bounds check.
+    private volatile Hub hub0;
+    private int index0;
+    private volatile Hub hub1;
+    private int index1;
+    private volatile Hub hub2;
+    private int index2;
+    private volatile Hub hub3;
+    private int index3;
+
+    /**
+     * Non-zero once the call site has seen more than {@link #SIZE} receiver types.
+     */
+    private int megamorphic;
+
+    /**
+     * Number of slots in use, guarded by this cache.
+     */
+    private int size;
+
+    public ItableIndexCache(InterfaceMethodActor method) {
+        this.method = method;
+    }
+
+    /**
+     * Selects the method for a receiver that missed in the cache and records its hub in a free slot.
+     *
+     * @return the index of the word in the receiver's hub that holds the entry point of the selected method
+     */
+    public int miss(Object receiver) {
+        final Hub hub = ObjectAccess.readHub(receiver);
+        final int index = hub.getITableIndex(method.holder().id) + method.iIndexInInterface();
+        synchronized (this) {
+            if (megamorphic == 0 && !contains(hub)) {
+                switch (size) {
+                    case 0:
+                        index0 = index;
+                        hub0 = hub;
+                        break;
+                    case 1:
+                        index1 = index;
+                        hub1 = hub;
+                        break;
+                    case 2:
+                        index2 = index;
+                        hub2 = hub;
+                        break;
+                    case 3:
+                        index3 = index;
+                        hub3 = hub;
+                        break;
+                    default:
+                        megamorphic = 1;
+                        return index;
+                }
+                size++;
+            }
+        }
+        return index;
+    }
+
+    private boolean contains(Hub hub) {
+        return hub == hub0 || hub == hub1 || hub == hub2 || hub == hub3;
+    }
+
+    /**
+     * Gets the number of receiver types cached so far.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isMegamorphic() {
+        return megamorphic != 0;
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2012, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+package com.sun.max.vm.runtime;
+
+import com.sun.max.unsafe.*;
+import com.sun.max.vm.*;
+import com.sun.max.vm.code.*;
+import com.sun.max.vm.compiler.target.*;
+import com.sun.max.vm.thread.*;
+
+/**
+ * Latency statistics for the {@linkplain VmOperation VM operations} that freeze threads at a safepoint.
+ * For each such operation, the {@linkplain VmOperationThread VM operation thread} records how long each
+ * targeted thread took to freeze (its time-to-safepoint), how long it took until all of them were frozen,
+ * how long the operation ran and how long thawing the threads took. A thread's time-to-safepoint is taken
+ * from the {@link VmThreadLocal#SAFEPOINT_ARRIVAL_TIME} it stamps itself when it traps or enters native code,
+ * so it does not include the time the VM operation thread spent waiting for the threads before it. Each of these goes into a fixed-size
+ * {@link Histogram}, so recording never allocates. The single slowest thread to reach a safepoint is
+ * remembered along with the method it was polling in, which is usually a long-running loop.
+ * <p>
+ * All recording happens on the VM operation thread while it holds {@link VmThreadMap#THREAD_LOCK}.
+ * Readers take the same lock to get a consistent snapshot. The statistics are printed at exit
+ * with {@code -XX:+PrintSafepointStatistics} and can be queried through
+ * {@link com.sun.max.vm.management.SafepointManagement}.
+ */
+public final class SafepointStatistics {
+
+    private SafepointStatistics() {
+    }
+
+    static boolean PrintSafepointStatistics;
+
+    static {
+        VMOptions.addFieldOption("-XX:", "PrintSafepointStatistics", SafepointStatistics.class,
+            "Print time-to-safepoint and VM operation latency histograms at end of program");
+    }
+
+    /**
+     * A histogram of latencies with power of two buckets. Bucket 0 counts latencies below one microsecond
+     * and bucket {@code i > 0} counts latencies of at least 2<sup>i-1</sup> and below 2<sup>i</sup> microseconds.
+     * The last bucket also counts all longer latencies.
+     */
+    public static final class Histogram {
+
+        /**
+         * Number of buckets. The last one starts at about 18 minutes.
+         */
+        public static final int BUCKETS = 32;
+
+        public final String name;
+        private final long[] counts = new long[BUCKETS];
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        Histogram(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos) {
+            final long micros = nanos / 1000;
+            final int bucket = micros <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            counts[bucket]++;
+            count++;
+            totalNanos += nanos;
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = 0;
+            }
+            count = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+        }
+
+        /**
+         * Gets the exclusive upper bound of a bucket, in microseconds.
+         */
+        public static long bucketLimitMicros(int bucket) {
+            return 1L << bucket;
+        }
+
+        /**
+         * Gets a copy of the bucket counts.
+         */
+        public long[] counts() {
+            synchronized (VmThreadMap.THREAD_LOCK) {
+                return counts.clone();
+            }
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long totalNanos() {
+            return totalNanos;
+        }
+
+        public long maxNanos() {
+            return maxNanos;
+        }
+
+        void print() {
+            Log.print(name);
+            Log.print(": count=");
+            Log.print(count);
+            Log.print(" total=");
+            Log.print(totalNanos / 1000);
+            Log.print("us max=");
+            Log.print(maxNanos / 1000);
+            Log.println("us");
+            for (int i = 0; i < BUCKETS; i++) {
+                if (counts[i] != 0) {
+                    Log.print("    < ");
+                    Log.print(bucketLimitMicros(i));
+                    Log.print("us: ");
+                    Log.println(counts[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Time from the start of freezing until each targeted thread was frozen, recorded once per thread.
+     */
+    public static final Histogram TIME_TO_SAFEPOINT = new Histogram("Time to safepoint (per thread)");
+
+    /**
+     * Time from the start of freezing until all targeted threads were frozen, recorded once per operation.
+     */
+    public static final Histogram SYNCHRONIZATION = new Histogram("Synchronization (per operation)");
+
+    /**
+     * Time spent running operations while the targeted threads were frozen.
+     */
+    public static final Histogram OPERATION = new Histogram("Operation");
+
+    /**
+     * Time spent thawing the targeted threads.
+     */
+    public static final Histogram THAW = new Histogram("Thaw");
+
+    private static final Histogram[] HISTOGRAMS = {TIME_TO_SAFEPOINT, SYNCHRONIZATION, OPERATION, THAW};
+
+    private static long maxTimeToSafepoint;
+    private static String slowestThread;
+    private static String slowestOperation;
+    private static TargetMethod slowestMethod;
+    private static Address slowestInstructionPointer = Address.zero();
+
+    private static long batches;
+    private static long batchedOperations;
+
+    /**
+     * Records that a thread targeted by a VM operation is now frozen.
+     *
+     * @param operation the operation freezing the thread
+     * @param thread the frozen thread
+     * @param nanos the time from the start of freezing until the thread reached its safepoint
+     * @param ip the address of the safepoint poll at which the thread trapped, or zero if it was frozen in native code
+     */
+    static void recordThreadFrozen(VmOperation operation, VmThread thread, long nanos, Pointer ip) {
+        TIME_TO_SAFEPOINT.record(nanos);
+        if (nanos > maxTimeToSafepoint) {
+            maxTimeToSafepoint = nanos;
+            slowestThread = thread.getName();
+            slowestOperation = operation.name;
+            slowestInstructionPointer = ip;
+            // All threads are stopped, so the method cannot be evicted while it is looked up
+            slowestMethod = ip.isZero() ? null : Code.codePointerToTargetMethod(ip);
+        }
+    }
+
+    /**
+     * Records the phases of a VM operation that froze threads. The arguments are {@link System#nanoTime()} values.
+     *
+     * @param start when freezing started
+     * @param frozen when all targeted threads were frozen
+     * @param done when the operation finished running
+     * @param thawed when all targeted threads were thawed
+     */
+    static void recordOperation(long start, long frozen, long done, long thawed) {
+        SYNCHRONIZATION.record(frozen - start);
+        OPERATION.record(done - frozen);
+        THAW.record(thawed - done);
+    }
+
+    /**
+     * Records that several queued operations were {@linkplain VmOperationThread.Batch batched} into a single safepoint.
+     *
+     * @param operations the number of operations in the batch
+     */
+    static void recordBatch(int operations) {
+        batches++;
+        batchedOperations += operations;
+    }
+
+    /**
+     * Gets the number of safepoints that ran more than one queued operation.
+     */
+    public static long batches() {
+        return batches;
+    }
+
+    /**
+     * Gets the number of queued operations that shared a safepoint with other operations.
+     */
+    public static long batchedOperations() {
+        return batchedOperations;
+    }
+
+    /**
+     * Gets the longest time any thread took to reach a safepoint, in nanoseconds.
+     */
+    public static long maxTimeToSafepoint() {
+        return maxTimeToSafepoint;
+    }
+
+    /**
+     * Gets the name of the thread that took {@linkplain #maxTimeToSafepoint() longest} to reach a safepoint.
+     */
+    public static String slowestThread() {
+        return slowestThread;
+    }
+
+    /**
+     * Gets the name of the operation during which a thread took {@linkplain #maxTimeToSafepoint() longest} to reach a safepoint.
+     */
+    public static String slowestOperation() {
+        return slowestOperation;
+    }
+
+    /**
+     * Describes where the thread that took {@linkplain #maxTimeToSafepoint() longest} to reach a safepoint was polling.
+     */
+    public static String slowestLocation() {
+        synchronized (VmThreadMap.THREAD_LOCK) {
+            if (slowestThread == null) {
+                return null;
+            }
+            if (slowestInstructionPointer.isZero()) {
+                return "native code";
+            }
+            if (slowestMethod == null) {
+                return slowestInstructionPointer.to0xHexString();
+            }
+            return slowestMethod + " @ " + slowestInstructionPointer.minus(slowestMethod.codeStart().toAddress()).toInt();
+        }
+    }
+
+    /**
+     * Clears all statistics.
+     */
+    public static void reset() {
+        synchronized (VmThreadMap.THREAD_LOCK) {
+            for (Histogram histogram : HISTOGRAMS) {
+                histogram.reset();
+            }
+            maxTimeToSafepoint = 0;
+            batches = 0;
+            batchedOperations = 0;
+            slowestThread = null;
+            slowestOperation = null;
+            slowestMethod = null;
+            slowestInstructionPointer = Address.zero();
+        }
+    }
+
+    /**
+     * Prints the statistics to the {@linkplain Log log} if {@code -XX:+PrintSafepointStatistics} was specified.
+     */
+    public static void printStatistics() {
+        if (!PrintSafepointStatistics) {
+            return;
+        }
+        final String location = slowestLocation();
+        final boolean lockDisabledSafepoints = Log.lock();
+        Log.println("Safepoint statistics:");
+        for (Histogram histogram : HISTOGRAMS) {
+            Log.print("  ");
+            histogram.print();
+        }
+        if (batches != 0) {
+            Log.print("  Batched ");
+            Log.print(batchedOperations);
+            Log.print(" operations into ");
+            Log.print(batches);
+            Log.println(" safepoints");
+        }
+        if (slowestThread != null) {
+            Log.print("  Slowest thread to reach a safepoint: ");
+            Log.print(slowestThread);
+            Log.print(" took ");
+            Log.print(maxTimeToSafepoint / 1000);
+            Log.print("us for ");
+            Log.print(slowestOperation);
+            Log.print(" in ");
+            Log.println(location);
+        }
+        Log.unlock(lockDisabledSafepoints);
+    }
+}
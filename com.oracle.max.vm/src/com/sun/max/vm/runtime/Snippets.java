@@ -513,6 +513,11 @@ public class Snippets {
         // Update the last Java frame anchor for the current thread:
         LAST_JAVA_FRAME_ANCHOR.store(etla, anchor);
 
+        if (!VM_OPERATION.loadRef(etla).isZero() && SAFEPOINT_ARRIVAL_TIME.load(etla).isZero()) {
+            // A VM operation is freezing this thread: this transition is when the thread reaches its safepoint
+            SAFEPOINT_ARRIVAL_TIME.store(etla, Address.fromLong(System.nanoTime()));
+        }
+
         if (UseCASBasedThreadFreezing) {
             MUTATOR_STATE.store(etla, THREAD_IN_NATIVE);
         } else {
@@ -136,8 +136,8 @@ public final class Throw {
         if (FatalVMAssertions && StackTraceInThrowable && throwable instanceof AssertionError) {
             Backtrace bt = JDK_java_lang_Throwable.getBacktrace(throwable);
             if (bt != null) {
-                for (int i = 0; i < bt.count; i++) {
-                    ClassMethodActor cma = bt.methods[i];
+                for (int i = 0; i < bt.count(); i++) {
+                    ClassMethodActor cma = bt.method(i);
                     if (cma.isInitializer() && AssertionError.class.isAssignableFrom(cma.holder().toJava())) {
                         // still in exception constructor chain
                     } else {
@@ -353,6 +353,7 @@ public abstract class Trap {
             tfa.setTrapNumber(trapFrame, Number.SAFEPOINT);
             if (vmOperation != null) {
                 TRAP_INSTRUCTION_POINTER.store3(instructionPointer.toAddress());
+                SAFEPOINT_ARRIVAL_TIME.store(etla, Address.fromLong(System.nanoTime()));
                 vmOperation.doAtSafepoint(trapFrame);
                 while (VmOperation.isSuspendRequest(etla)) {
                     VmThread.fromTLA(etla).suspendMonitor.suspend();
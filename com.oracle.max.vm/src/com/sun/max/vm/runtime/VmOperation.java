@@ -161,6 +161,12 @@ public class VmOperation {
      */
     VmOperation enclosing;
 
+    /**
+     * The {@linkplain VmOperationThread.Batch batch} (if any) that froze the threads of this operation
+     * together with those of other queued operations.
+     */
+    VmOperation batch;
+
     /**
      * The {@link Mode} of this operation.
      */
@@ -171,6 +177,12 @@ public class VmOperation {
      */
     private VmThread callingThread;
 
+    /**
+     * The {@link System#nanoTime()} at which this operation started freezing threads, used to compute each
+     * thread's {@linkplain SafepointStatistics#TIME_TO_SAFEPOINT time to safepoint}.
+     */
+    private long freezeStartTime;
+
     /**
      * Determines if this operation allows a nested operation to be performed.
      * The default is to allow nested operations as very many operations want to allocate
@@ -253,6 +265,17 @@ public class VmOperation {
         return false;
     }
 
+    /**
+     * Determines if this operation, once queued, may share a safepoint with other queued operations
+     * targeting overlapping threads. Such an operation is run with its threads already frozen by the
+     * {@linkplain VmOperationThread.Batch batch}, so it must not rely on being the operation the threads
+     * trapped for, i.e. it must not override {@link #doAtSafepointBeforeBlocking(Pointer)} or
+     * {@link #doAtSafepointAfterBlocking(Pointer)}, and it must not {@linkplain #disablesHeapAllocation() disable heap allocation}.
+     */
+    protected boolean allowsBatching() {
+        return false;
+    }
+
     /**
      * Called by the {@linkplain Trap trap} handler on a thread that hit a safepoint.
      * This is always called with safepoints {@linkplain SafepointPoll#disable() disabled}
@@ -385,14 +408,14 @@ public class VmOperation {
 
     /**
      * Predicate used with {@linkplain VmThreadMap#forAllThreadLocals(Predicate, com.sun.max.unsafe.Pointer.Procedure)}
-     * to filter out the VM operation thread and all threads for which {@link #operateOnThread(VmThread)} returns
+     * to filter out the VM operation thread, the GC worker threads and all threads for which {@link #operateOnThread(VmThread)} returns
      * {@code false}.
      */
     private final Pointer.Predicate threadPredicate = new Pointer.Predicate() {
         @Override
         public boolean evaluate(Pointer tla) {
             VmThread vmThread = VmThread.fromTLA(tla);
-            return !vmThread.isVmOperationThread() && operateOnThread(vmThread);
+            return !vmThread.isVmOperationThread() && !vmThread.isGCWorkerThread() && operateOnThread(vmThread);
         }
     };
 
@@ -528,6 +551,14 @@ public class VmOperation {
         return singleThread == null && mode.requiresSafepoint();
     }
 
+    /**
+     * Gets the single thread operated on by this operation, or {@code null} if it operates on all threads
+     * for which {@link #operateOnThread(VmThread)} returns {@code true}.
+     */
+    final VmThread singleThread() {
+        return singleThread;
+    }
+
     /**
      * Called on the VM operation thread to perform this operation. This method does all the necessary
      * thread freezing and thawing around a call to {@link #doIt()}.
@@ -549,6 +580,9 @@ public class VmOperation {
 
                 tracePhase("-- Begin --");
 
+                final long startTime = System.nanoTime();
+                freezeStartTime = startTime;
+
                 freeze();
 
                 // Ensures updates to safepoint-related control variables are visible to all threads
@@ -557,9 +591,11 @@ public class VmOperation {
 
                 waitUntilFrozen();
 
+                final long frozenTime = System.nanoTime();
+
                 boolean oldAtSafepoint = atSafepoint;
                 try {
-                    if (singleThread == null) {
+                    if (requiresGlobalSafepoint()) {
                         atSafepoint = true;
                     }
                     run0();
@@ -578,8 +614,15 @@ public class VmOperation {
                 }
                 atSafepoint = oldAtSafepoint;
 
+                final long doneTime = System.nanoTime();
+
                 thaw();
 
+                if (enclosing == null && batch == null) {
+                    // Operations run within another one only add to its pause
+                    SafepointStatistics.recordOperation(startTime, frozenTime, doneTime, System.nanoTime());
+                }
+
                 tracePhase("-- End --");
             }
 
@@ -636,6 +679,8 @@ public class VmOperation {
         // spin until the VM_OPERATION variable is null
         while (true) {
             if (VM_OPERATION.loadRef(etla).isZero()) {
+                // Cleared before VM_OPERATION is set so that the thread only stamps its arrival for this operation
+                SAFEPOINT_ARRIVAL_TIME.store(etla, Address.zero());
                 if (etla.compareAndSwapReference(VM_OPERATION.offset, null, Reference.fromJava(this)).isZero()) {
                     /*
                      * Set the value of the safepoint latch in the safepoints-enabled VM
@@ -711,11 +756,12 @@ public class VmOperation {
     }
 
     /**
-     * Determines if this is a nested operation whose enclosing operation already froze a given thread.
+     * Determines if this is a nested or {@linkplain #batch batched} operation whose enclosing operation already froze a given thread.
      *
      * @param thread a thread to test
      */
     private boolean frozenByEnclosing(VmThread thread) {
+        final VmOperation enclosing = this.enclosing != null ? this.enclosing : batch;
         if (enclosing != null && enclosing.operateOnThread(thread)) {
             Pointer etla = ETLA.load(thread.tla());
             // This is a nested operation that operates on 'thread' -> the enclosing operation must have 'thread'
@@ -788,6 +834,10 @@ public class VmOperation {
                     steps++;
                 }
             }
+            // Measured from the thread's own arrival time, not from when this thread got round to observing it
+            final long arrivalTime = SAFEPOINT_ARRIVAL_TIME.load(etla).asAddress().toLong();
+            final long timeToSafepoint = arrivalTime == 0L ? 0L : Math.max(0L, arrivalTime - freezeStartTime);
+            SafepointStatistics.recordThreadFrozen(this, thread, timeToSafepoint, TRAP_INSTRUCTION_POINTER.load(tla));
         }
 
         doAfterFrozen(thread);
@@ -85,6 +85,17 @@ public class VmOperationQueue {
         addLast(node);
     }
 
+    /**
+     * Retrieves, but does not remove, the head of this queue,
+     * or returns {@code null} if it's empty.
+     */
+    public VmOperation peek() {
+        if (isEmpty()) {
+            return null;
+        }
+        return head.next;
+    }
+
     /**
      * Retrieves and removes the head of this queue,
      * or returns {@code null} if it's empty.
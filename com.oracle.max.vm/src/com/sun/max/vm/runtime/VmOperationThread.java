@@ -57,6 +57,7 @@ public class VmOperationThread extends Thread implements UncaughtExceptionHandle
 
     static boolean TraceVmOperations;
     static boolean TraceRequestLock;
+    static boolean CoalesceVmOperations = true;
 
     public static VmOperationThread instance() {
         return (VmOperationThread) VmThread.vmOperationThread.javaThread();
@@ -65,6 +66,132 @@ public class VmOperationThread extends Thread implements UncaughtExceptionHandle
     static {
         VMOptions.addFieldOption("-XX:", "TraceVmOperations", VmOperationThread.class, "Trace VM operations.");
         VMOptions.addFieldOption("-XX:", "TraceRequestLock", VmOperationThread.class, "Trace VM_OPERATION_REQUEST_LOCK.");
+        VMOptions.addFieldOption("-XX:", "CoalesceVmOperations", VmOperationThread.class,
+            "Run consecutive queued VM operations that allow batching and target overlapping threads at a single safepoint.");
+    }
+
+    /**
+     * A VM operation that freezes the union of the threads targeted by a sequence of queued operations
+     * {@linkplain VmOperation#allowsBatching() allowing batching}, and then runs these operations in submission order.
+     * Each operation sees its threads as frozen by an enclosing operation, just like a nested operation does.
+     * Only operations that target overlapping sets of threads are batched: a global operation overlaps any
+     * other, whereas single thread operations overlap only if they target the same thread. This avoids
+     * extending the pause of a thread for operations that do not concern it.
+     * <p>
+     * There is a single instance, only used by the VM operation thread, so that batching does not allocate.
+     */
+    static final class Batch extends VmOperation {
+
+        /**
+         * The maximum number of operations in a batch, which bounds the pause of the batch.
+         */
+        static final int MAX_OPERATIONS = 32;
+
+        private final VmOperation[] operations = new VmOperation[MAX_OPERATIONS];
+
+        private int count;
+
+        /**
+         * Denotes if any operation in this batch is a global operation.
+         */
+        private boolean global;
+
+        Batch() {
+            super("Batch", null, Mode.Safepoint);
+        }
+
+        /**
+         * Removes the operations from the head of a queue that can run at the same safepoint as a given operation.
+         *
+         * @param first an operation just removed from the head of {@code queue}
+         * @return this batch if at least one operation from {@code queue} was added to {@code first}, otherwise {@code first}
+         */
+        VmOperation collect(VmOperation first, VmOperationQueue queue) {
+            if (!canBatch(first)) {
+                return first;
+            }
+            count = 0;
+            global = first.singleThread() == null;
+            operations[count++] = first;
+            VmOperation next = queue.peek();
+            while (next != null && count < MAX_OPERATIONS && canBatch(next) && overlaps(next)) {
+                queue.poll();
+                global |= next.singleThread() == null;
+                operations[count++] = next;
+                next = queue.peek();
+            }
+            if (count == 1) {
+                operations[0] = null;
+                return first;
+            }
+            return this;
+        }
+
+        private static boolean canBatch(VmOperation operation) {
+            return operation.allowsBatching() && operation.mode.requiresSafepoint() && !operation.disablesHeapAllocation();
+        }
+
+        private boolean overlaps(VmOperation operation) {
+            return global || operation.singleThread() == null || operation.singleThread() == operations[0].singleThread();
+        }
+
+        @Override
+        public VmThread callingThread() {
+            return operations[0].callingThread();
+        }
+
+        @Override
+        public boolean requiresGlobalSafepoint() {
+            return global;
+        }
+
+        @Override
+        protected boolean operateOnThread(VmThread thread) {
+            for (int i = 0; i < count; i++) {
+                final VmOperation operation = operations[i];
+                final VmThread singleThread = operation.singleThread();
+                if (singleThread == null ? operation.operateOnThread(thread) : singleThread == thread) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        protected void doIt() {
+            SafepointStatistics.recordBatch(count);
+            final VmOperationThread vmOperationThread = instance();
+            for (int i = 0; i < count; i++) {
+                final VmOperation operation = operations[i];
+                if (TraceVmOperations) {
+                    boolean lockDisabledSafepoints = Log.lock();
+                    Log.print("VM operation thread running batched operation ");
+                    Log.print(operation.name);
+                    Log.print(" submitted by ");
+                    Log.printThread(operation.callingThread(), true);
+                    Log.unlock(lockDisabledSafepoints);
+                }
+                operation.batch = this;
+                vmOperationThread.currentOperation = operation;
+                try {
+                    operation.run();
+                } finally {
+                    vmOperationThread.currentOperation = this;
+                    operation.batch = null;
+                }
+            }
+        }
+
+        /**
+         * Notifies the threads that submitted the operations of this batch that they have completed, and empties this batch.
+         */
+        void completed() {
+            for (int i = 0; i < count; i++) {
+                notifyCompleted(operations[i]);
+                operations[i] = null;
+            }
+            count = 0;
+        }
     }
 
     @HOSTED_ONLY
@@ -105,6 +232,8 @@ public class VmOperationThread extends Thread implements UncaughtExceptionHandle
 
     private VmOperation currentOperation;
 
+    private final Batch batch = new Batch();
+
     public void promoteToGlobalSafepoint() {
         if (VmThread.current().isVmOperationThread()) {
             if (currentOperation != null && currentOperation.requiresGlobalSafepoint()) {
@@ -151,6 +280,10 @@ public class VmOperationThread extends Thread implements UncaughtExceptionHandle
                 if (shouldTerminate) {
                     break;
                 }
+
+                if (CoalesceVmOperations) {
+                    currentOperation = batch.collect(currentOperation, queue);
+                }
             }
 
             if (TraceVmOperations) {
@@ -173,20 +306,10 @@ public class VmOperationThread extends Thread implements UncaughtExceptionHandle
                     Heap.enableAllocationForCurrentThread();
                 }
 
-                if (currentOperation.mode.isBlocking()) {
-                    synchronized (REQUEST_LOCK) {
-                        currentOperation.callingThread().decrementPendingOperations();
-                        if (TraceVmOperations || TraceRequestLock) {
-                            boolean lockDisabledSafepoints = Log.lock();
-                            Log.print("VM operation thread finished operation ");
-                            Log.print(currentOperation.name);
-                            Log.print(" submitted by ");
-                            Log.printThread(currentOperation.callingThread(), false);
-                            Log.println(" and is notifying REQUEST_LOCK waiters");
-                            Log.unlock(lockDisabledSafepoints);
-                        }
-                        REQUEST_LOCK.notifyAll();
-                    }
+                if (currentOperation == batch) {
+                    batch.completed();
+                } else {
+                    notifyCompleted(currentOperation);
                 }
                 currentOperation = null;
             }
@@ -203,6 +326,28 @@ public class VmOperationThread extends Thread implements UncaughtExceptionHandle
         }
     }
 
+    /**
+     * Notifies the thread that submitted an operation taken from the queue that the operation has completed,
+     * if that thread is blocked until then.
+     */
+    private static void notifyCompleted(VmOperation operation) {
+        if (operation.mode.isBlocking()) {
+            synchronized (REQUEST_LOCK) {
+                operation.callingThread().decrementPendingOperations();
+                if (TraceVmOperations || TraceRequestLock) {
+                    boolean lockDisabledSafepoints = Log.lock();
+                    Log.print("VM operation thread finished operation ");
+                    Log.print(operation.name);
+                    Log.print(" submitted by ");
+                    Log.printThread(operation.callingThread(), false);
+                    Log.println(" and is notifying REQUEST_LOCK waiters");
+                    Log.unlock(lockDisabledSafepoints);
+                }
+                REQUEST_LOCK.notifyAll();
+            }
+        }
+    }
+
     /**
      * Schedules an operation for execution on the VM operation thread. The caller is
      * blocked until the operation is completed or the scheduling is canceled by
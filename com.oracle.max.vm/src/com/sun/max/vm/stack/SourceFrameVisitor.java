@@ -82,11 +82,28 @@ public class SourceFrameVisitor extends RawStackFrameVisitor implements TargetMe
         }
 
         // TODO this value is not stable in the face of deoptimzation as frames can move.
-        frameId = current.sp().toLong() << 16;
+        long frameId = current.sp().toLong() << 16;
 
-        trapped = callee.targetMethod() != null && callee.targetMethod().is(TrapStub);
+        boolean trapped = callee.targetMethod() != null && callee.targetMethod().is(TrapStub);
+        return visitFrame(targetMethod, targetMethod.posFor(current.vmIP()), trapped, frameId);
+    }
+
+    /**
+     * Iterates over the source methods of a single frame, calling {@link #visitSourceFrame(ClassMethodActor, int, boolean, long)}
+     * for each of them. The frame need not be on the stack any more, which allows a frame captured by an
+     * earlier stack walk to be visited lazily, even after the code of its method has been {@linkplain TargetMethod#wipe() wiped}.
+     *
+     * @param targetMethod the method executing in the frame
+     * @param pos the position of the execution point in the code of {@code targetMethod}, or -1 if it is not in that code
+     * @param trapped specifies if execution is stopped in the frame at a trap
+     * @param frameId a unique identifier for the frame
+     * @return {@code true} if the stack walk should continue
+     */
+    public boolean visitFrame(TargetMethod targetMethod, int pos, boolean trapped, long frameId) {
+        this.frameId = frameId;
+        this.trapped = trapped;
         stopped = false;
-        int count = targetMethod.forEachCodePos(this, current.vmIP());
+        int count = pos < 0 ? 0 : targetMethod.forEachCodePos(this, pos);
         if (count == 0 && !stopped) {
             return visitSourceFrame(targetMethod.classMethodActor, -1, trapped, frameId);
         }
@@ -281,6 +281,13 @@ public class VmThread {
 
     public JavaMonitor protectedMonitor;
 
+    /**
+     * The head of this thread's cache of unbound monitors, managed by {@link JavaMonitorManager}.
+     */
+    public JavaMonitor cachedMonitors;
+
+    public int numberOfCachedMonitors;
+
     private ConditionVariable waitingCondition = ConditionVariableFactory.create();
 
     public final HeapScheme.GCRequest gcRequest = VMConfiguration.vmConfig().heapScheme().createThreadLocalGCRequest(this);
@@ -295,6 +302,12 @@ public class VmThread {
      */
     private boolean jvmtiAgent;
 
+    /**
+     * Marks this as a GC worker thread. These threads only execute on behalf of the {@link VmOperationThread}
+     * while it runs a GC and are therefore never frozen by a {@link VmOperation}.
+     */
+    private boolean gcWorker;
+
     /**
      * Holds the exception object for the exception currently being raised. This value will only be
      * non-null during the unwinding process between calls to {@link #storeExceptionForHandler(Throwable, TargetMethod, int)}
@@ -423,6 +436,38 @@ public class VmThread {
      */
     private JniHandles jniHandles;
 
+    /**
+     * Native buffer through which the locals of a baseline frame are passed to the optimized code
+     * it is migrated to by {@linkplain com.sun.max.vm.compiler.deopt.OnStackReplacement on-stack replacement}. Allocated on first use
+     * and released when this thread {@linkplain #detach(Pointer) detaches}.
+     */
+    private Pointer osrBuffer = Pointer.zero();
+
+    /**
+     * The size of {@link #osrBuffer} in bytes.
+     */
+    private int osrBufferSize;
+
+    /**
+     * Gets this thread's {@linkplain com.sun.max.vm.compiler.deopt.OnStackReplacement OSR} buffer, growing it if necessary.
+     *
+     * @param size the minimum size of the buffer in bytes
+     * @return the address of a buffer of at least {@code size} bytes
+     * @throws OutOfMemoryError if the buffer could not be allocated
+     */
+    public final Pointer osrBuffer(int size) {
+        if (size > osrBufferSize) {
+            if (!osrBuffer.isZero()) {
+                Memory.deallocate(osrBuffer);
+                osrBuffer = Pointer.zero();
+                osrBufferSize = 0;
+            }
+            osrBuffer = Memory.mustAllocate(size);
+            osrBufferSize = size;
+        }
+        return osrBuffer;
+    }
+
     /**
      * Next thread waiting on the same monitor this thread is {@linkplain Object#wait() waiting} on.
      * Any thread can only be waiting on at most one monitor.
@@ -697,6 +742,10 @@ public class VmThread {
         VMTI.handler().threadEnd(thread);
         // possibly flush the log
         VMLog.vmLog().flush(VMLog.FLUSHMODE_EXIT, thread);
+        if (thread != mainThread) {
+            // the main thread keeps logging until the VM exits
+            VMLog.vmLog().threadTerminate();
+        }
 
         // If this is the main thread terminating, initiate shutdown hooks after waiting for other non-daemons to terminate
         if (thread == mainThread) {
@@ -801,6 +850,14 @@ public class VmThread {
 
         thread.terminationPending();
 
+        // Return the JNI global handle slots cached by this thread
+        JniHandles.releaseCachedGlobalHandles(thread.jniHandles);
+
+        if (!thread.osrBuffer.isZero()) {
+            Memory.deallocate(thread.osrBuffer);
+            thread.osrBuffer = Pointer.zero();
+        }
+
         synchronized (thread.javaThread) {
             // Must set TERMINATED before the notify in case a joiner is already waiting
             thread.state = Thread.State.TERMINATED;
@@ -809,6 +866,9 @@ public class VmThread {
 
         thread.traceThreadAfterTermination();
 
+        // Return the unbound monitors cached by this thread
+        JavaMonitorManager.releaseCachedMonitors(thread);
+
         // GC may now reclaim or prepare any of its resources before the thread vanishes forever.
         vmConfig().heapScheme().notifyCurrentThreadDetach();
 
@@ -1134,6 +1194,17 @@ public class VmThread {
         jvmtiAgent = true;
     }
 
+    /**
+     * Determines if this is a GC worker thread.
+     */
+    public final boolean isGCWorkerThread() {
+        return gcWorker;
+    }
+
+    public final void setAsGCWorkerThread() {
+        gcWorker = true;
+    }
+
     /**
      * Bind the given {@code Thread} to this VmThread.
      * @param javaThread thread to be bound
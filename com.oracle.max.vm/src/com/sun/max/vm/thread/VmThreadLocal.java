@@ -304,6 +304,14 @@ public class VmThreadLocal implements FormatWithToString {
     public static final VmThreadLocal SUSPEND
         = new VmThreadLocal("SUSPEND", false, "Bitset for thread suspension", Nature.Single);
 
+    /**
+     * The {@link System#nanoTime()} at which this thread reached a safepoint for the {@linkplain VmOperation operation}
+     * currently freezing it, either by trapping at a safepoint poll or by entering native code. Zero if the thread
+     * was already in native code when the operation started freezing it.
+     */
+    public static final VmThreadLocal SAFEPOINT_ARRIVAL_TIME
+        = new VmThreadLocal("SAFEPOINT_ARRIVAL_TIME", false, "Time this thread reached a safepoint for a freezing VM operation", Nature.Single);
+
     private static VmThreadLocal[] valuesNeedingInitialization;
 
     /**
@@ -535,7 +543,13 @@ public class VmThreadLocal implements FormatWithToString {
         VMLog.scanLogs(tla, wordPointerIndexVisitor);
 
         Pointer anchor = JavaFrameAnchor.from(tla);
-        if (!anchor.isZero()) {
+        if (thread.isGCWorkerThread()) {
+            // GC worker threads are never frozen, so their stack has no prepared reference map.
+            // Their frames only ever refer to boot image or immortal objects, so there is nothing to scan.
+            if (tracing) {
+                StackReferenceMapPreparer.stackRootScanLogger.logThreadSlotRange(Pointer.zero(), Pointer.zero(), Pointer.zero());
+            }
+        } else if (!anchor.isZero()) {
             final Pointer lastJavaCallerStackPointer = JavaFrameAnchor.SP.get(anchor);
             final Pointer lowestActiveSlot = LOWEST_ACTIVE_STACK_SLOT_ADDRESS.load(tla);
             final Pointer highestSlot = HIGHEST_STACK_SLOT_ADDRESS.load(tla);
@@ -29,6 +29,7 @@ import static com.sun.max.vm.intrinsics.MaxineIntrinsicIDs.*;
 import java.io.*;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import com.sun.max.annotate.*;
 import com.sun.max.platform.*;
@@ -51,27 +52,62 @@ import com.sun.max.vm.ti.*;
  */
 public final class BootClassLoader extends ClassLoader {
 
+    static {
+        // Must precede the creation of the singleton so that it gets a per-class-name lock map.
+        registerAsParallelCapable();
+    }
+
     /**
      * The singleton instance of this class.
      */
     public static final BootClassLoader BOOT_CLASS_LOADER = new BootClassLoader();
 
-    private Classpath classpath;
+    private volatile Classpath classpath;
 
     /**
      * Map from a package name (in "/" separated format) to the file system path from it was loaded.
      */
-    private final HashMap<String, String> packages = new HashMap<String, String>();
+    private final ConcurrentHashMap<String, String> packages = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Map from a class name to the lock serializing attempts to load that class. Loading distinct
+     * classes therefore proceeds in parallel, while two threads racing to load the same class wait
+     * for each other instead of both parsing the class file.
+     */
+    private final ConcurrentHashMap<String, Object> classLoadingLocks = new ConcurrentHashMap<String, Object>();
 
     public Classpath classpath() {
-        if (classpath == null) {
-            String extraPath = null;
-            if (!MaxineVM.isHosted()) {
-                extraPath = VMTI.handler().bootclassPathExtension();
+        Classpath result = classpath;
+        if (result == null) {
+            synchronized (this) {
+                result = classpath;
+                if (result == null) {
+                    String extraPath = null;
+                    if (!MaxineVM.isHosted()) {
+                        extraPath = VMTI.handler().bootclassPathExtension();
+                    }
+                    result = Classpath.bootClassPath(extraPath);
+                    classpath = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the lock that serializes loading of the class named {@code className} by this loader.
+     */
+    @Override
+    protected Object getClassLoadingLock(String className) {
+        Object lock = classLoadingLocks.get(className);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = classLoadingLocks.putIfAbsent(className, newLock);
+            if (lock == null) {
+                lock = newLock;
             }
-            classpath = Classpath.bootClassPath(extraPath);
         }
-        return classpath;
+        return lock;
     }
 
     /**
@@ -79,18 +115,14 @@ public final class BootClassLoader extends ClassLoader {
      * including a trailing "/".
      */
     public String[] packageNames() {
-        synchronized (packages) {
-            return packages.keySet().toArray(new String[packages.size()]);
-        }
+        return packages.keySet().toArray(new String[0]);
     }
 
     /**
      * Gets the path of the class path entry from which a class in the named package was last loaded.
      */
     public String packageSource(String packageName) {
-        synchronized (packages) {
-            return packages.get(packageName);
-        }
+        return packages.get(packageName);
     }
 
     private Class resolveClassOrNull(Classpath classpath, String name) {
@@ -109,19 +141,33 @@ public final class BootClassLoader extends ClassLoader {
         int cp = name.lastIndexOf('.');
         if (cp != -1) {
             String packageName = name.substring(0, cp + 1).replace('.', '/');
-            synchronized (packages) {
-                packages.put(packageName, classpathFile.classpathEntry.path());
-            }
+            packages.put(packageName, classpathFile.classpathEntry.path());
         }
         return classActor.toJava();
     }
 
-    public synchronized Class<?> findBootstrapClass(String name) {
-        final Class c = findLoadedClass(name);
+    /**
+     * Finds or loads the boot class named {@code name}. Only threads loading the same class are serialized;
+     * a class that is already loaded is returned without taking any lock.
+     */
+    public Class<?> findBootstrapClass(String name) {
+        Class c = findLoadedClass(name);
         if (c != null) {
             return c;
         }
-        return resolveClassOrNull(classpath(), name);
+        final Object lock = getClassLoadingLock(name);
+        synchronized (lock) {
+            c = findLoadedClass(name);
+            if (c == null) {
+                c = resolveClassOrNull(classpath(), name);
+                if (c == null) {
+                    // Most misses are application classes probed through parent delegation
+                    // so don't let their locks accumulate.
+                    classLoadingLocks.remove(name, lock);
+                }
+            }
+            return c;
+        }
     }
 
     private static class VMResolveState extends ThreadLocal<Boolean> {